@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.utils.Config;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+
+/*
+ * Loads one of the bundled benchmark configurations (anticsrf-session.xml,
+ * anticsrf-hmac.xml or anticsrf-doublesubmit.xml) into ConfigUtil. The HMAC configuration references a Keyczar
+ * keyset which is copied out of the classpath into a temporary directory first,
+ * since the library only reads keysets from the filesystem.
+ */
+public class BenchmarkConfig
+{
+	public static final String MODE_SESSION = "session";
+	public static final String MODE_HMAC = "hmac";
+	public static final String MODE_DOUBLESUBMIT = "doublesubmit";
+
+	public static final String EXEMPT_URL = "/bench/exempt";
+	public static final String SITEWIDE_URL = "/bench/sitewide";
+	public static final String URLSPECIFIC_URL = "/bench/urlspecific";
+	public static final String ONETIMEUSE_URL = "/bench/onetimeuse";
+
+	public static final String TOKEN_PARAM = "tok";
+	public static final String TOKEN_ATTR = "anticsrf-tokenattr";
+	public static final String USERSEED_ATTR = "userseed";
+
+	private static final String KEYSET_RESOURCE = "/keyczar_anticsrf_signkey/";
+	private static final String[] KEYSET_FILES = { "meta", "1" };
+
+	public static void load(String mode) throws CSRFConfigException, IOException
+	{
+		load(mode, null);
+	}
+
+	/*
+	 * Loads the configuration of mode with every setting of overrides applied on top
+	 */
+	public static void load(String mode, Config overrides) throws CSRFConfigException, IOException
+	{
+		String config = readResource("/anticsrf-" + mode + ".xml");
+
+		if(MODE_HMAC.equals(mode) || MODE_DOUBLESUBMIT.equals(mode))
+		{
+			config = config.replace("@KEYFILE@", extractKeyset().getAbsolutePath());
+		}
+
+		ConfigUtil.loadConfig(new ByteArrayInputStream(config.getBytes("UTF-8")), overrides);
+	}
+
+	private static File extractKeyset() throws IOException
+	{
+		File keysetDir = Files.createTempDirectory("anticsrf-bench-keyset").toFile();
+		keysetDir.deleteOnExit();
+
+		for(String name : KEYSET_FILES)
+		{
+			InputStream is = openResource(KEYSET_RESOURCE + name);
+			try
+			{
+				File target = new File(keysetDir, name);
+				Files.copy(is, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				target.deleteOnExit();
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+
+		return keysetDir;
+	}
+
+	private static String readResource(String name) throws IOException
+	{
+		InputStream is = openResource(name);
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int read;
+			while((read = is.read(buf)) != -1)
+			{
+				out.write(buf, 0, read);
+			}
+			return out.toString("UTF-8");
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static InputStream openResource(String name) throws IOException
+	{
+		InputStream is = BenchmarkConfig.class.getResourceAsStream(name);
+		if(is == null)
+		{
+			throw new IOException("Benchmark resource not found on the classpath: " + name);
+		}
+		return is;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the benchmark suite once per thread count, doubling from 1 up to the
+ * requested maximum (0 or no argument means the number of available processors).
+ * Each run reports ops/us (Throughput), the latency percentiles including p99
+ * (SampleTime) and gc.alloc.rate.norm, the number of bytes allocated per operation.
+ *
+ * Usage: BenchmarkRunner [maxThreads] [benchmarkRegex]
+ * JSON results are written to jmh-result-t<threads>.json in the working directory.
+ */
+public class BenchmarkRunner
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		int maxThreads = (args.length > 0 ? Integer.parseInt(args[0]) : 0);
+		if(maxThreads <= 0)
+		{
+			maxThreads = Runtime.getRuntime().availableProcessors();
+		}
+
+		String include = (args.length > 1 ? args[1] : CSRFFilterBenchmark.class.getSimpleName());
+
+		for(int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads))
+		{
+			Options opts = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON)
+					.result("jmh-result-t" + threads + ".json")
+					.build();
+
+			new Runner(opts).run();
+		}
+	}
+
+	private static int nextThreadCount(int threads, int maxThreads)
+	{
+		if(threads < maxThreads && threads * 2 > maxThreads)
+		{
+			return maxThreads;
+		}
+
+		return threads * 2;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gdssecurity.anticsrf.CSRFFilter;
+import com.gdssecurity.anticsrf.benchmark.mock.MockFilterChain;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpServletRequest;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpServletResponse;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpSession;
+import com.gdssecurity.anticsrf.j2ee.J2EECSRFProtection;
+import com.gdssecurity.anticsrf.metrics.CSRFMetrics;
+import com.gdssecurity.anticsrf.protections.CSRFProtectionFactory;
+
+/*
+ * Measures the per-request cost of CSRFFilter.doFilter in session, hmac and doublesubmit mode
+ * for each of the protection scopes: exempt URLs, site-wide tokens, URL specific
+ * tokens and one-time-use tokens. Every benchmarked request carries a valid token
+ * so the numbers reflect the accepted path, not the error handling.
+ *
+ * Each benchmark thread acts as its own user with its own session (or user seed).
+ * Run through BenchmarkRunner to sweep thread counts and collect the p99 latency
+ * (SampleTime mode) and allocation rate (GC profiler) alongside the throughput.
+ *
+ * One-time-use URLs only exist in session mode. In hmac mode the onetimeuse URL is
+ * not configured and is therefore protected by the site-wide token. Doublesubmit
+ * mode has neither, every URL is protected by the token in the cookie.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSRFFilterBenchmark
+{
+	@State(Scope.Benchmark)
+	public static class FilterState
+	{
+		@Param({ BenchmarkConfig.MODE_SESSION, BenchmarkConfig.MODE_HMAC, BenchmarkConfig.MODE_DOUBLESUBMIT })
+		public String mode;
+
+		/*
+		 * Run with -p metrics=no,yes to measure the cost of the instrumentation
+		 */
+		@Param({ "no" })
+		public String metrics;
+
+		CSRFFilter filter;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception
+		{
+			BenchmarkConfig.load(mode);
+			CSRFMetrics.configure("yes".equals(metrics));
+			filter = new CSRFFilter();
+		}
+
+		boolean isHmacMode()
+		{
+			return BenchmarkConfig.MODE_HMAC.equals(mode);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class RequestState
+	{
+		private static final AtomicInteger userCounter = new AtomicInteger();
+
+		final MockHttpServletRequest req = new MockHttpServletRequest("POST", BenchmarkConfig.EXEMPT_URL);
+		final MockHttpServletResponse res = new MockHttpServletResponse();
+		final MockFilterChain chain = new MockFilterChain();
+		final MockHttpSession session = new MockHttpSession();
+
+		String userSeed;
+		String siteWideToken;
+		String urlSpecificToken;
+
+		@Setup(Level.Trial)
+		public void setup(FilterState filterState) throws Exception
+		{
+			userSeed = "benchuser" + userCounter.incrementAndGet();
+
+			req.setSession(session);
+
+			// Let the filter issue the site-wide token the same way a first page view would
+			prepare(filterState, BenchmarkConfig.EXEMPT_URL, null);
+			filterState.filter.doFilter(req, res, chain);
+
+			// Send back any cookie the filter issued, as the browser would
+			for(Cookie cookie : res.getCookies())
+			{
+				req.addCookie(cookie);
+			}
+
+			J2EECSRFProtection pageProtection = CSRFProtectionFactory.getCSRFProtection();
+			pageProtection.setRequestObject(req);
+			siteWideToken = pageProtection.getCSRFToken();
+
+			urlSpecificToken = newUrlSpecificToken(filterState, BenchmarkConfig.URLSPECIFIC_URL);
+
+			// Sanity check every scenario once so a misconfiguration cannot
+			// silently turn the benchmark into a measurement of the error path
+			checkAccepted(filterState, BenchmarkConfig.SITEWIDE_URL, siteWideToken);
+			checkAccepted(filterState, BenchmarkConfig.URLSPECIFIC_URL, urlSpecificToken);
+			checkAccepted(filterState, BenchmarkConfig.ONETIMEUSE_URL,
+					newUrlSpecificToken(filterState, BenchmarkConfig.ONETIMEUSE_URL));
+		}
+
+		void prepare(FilterState filterState, String url, String token)
+		{
+			req.reset();
+			res.reset();
+			req.setRequestURI(url);
+			req.setParameter(BenchmarkConfig.TOKEN_PARAM, token);
+
+			if(filterState.isHmacMode())
+			{
+				req.setAttribute(BenchmarkConfig.USERSEED_ATTR, userSeed);
+			}
+		}
+
+		String newUrlSpecificToken(FilterState filterState, String url) throws Exception
+		{
+			if(filterState.isHmacMode() && BenchmarkConfig.ONETIMEUSE_URL.equals(url))
+			{
+				return siteWideToken;
+			}
+
+			prepare(filterState, url, null);
+			J2EECSRFProtection csrfProtection = CSRFProtectionFactory.getCSRFProtection();
+			csrfProtection.setRequestObject(req);
+			return csrfProtection.generateUrlSpecificCSRFToken(url);
+		}
+
+		private void checkAccepted(FilterState filterState, String url, String token) throws Exception
+		{
+			prepare(filterState, url, token);
+			filterState.filter.doFilter(req, res, chain);
+
+			if(res.getStatus() != HttpServletResponse.SC_OK)
+			{
+				throw new IllegalStateException("Benchmark request was rejected by the CSRFFilter. mode="
+						+ filterState.mode + ", url=" + url + ", status=" + res.getStatus());
+			}
+		}
+	}
+
+	@Benchmark
+	public int exemptUrl(FilterState filterState, RequestState state) throws Exception
+	{
+		state.prepare(filterState, BenchmarkConfig.EXEMPT_URL, null);
+		filterState.filter.doFilter(state.req, state.res, state.chain);
+		return state.res.getStatus();
+	}
+
+	@Benchmark
+	public int siteWide(FilterState filterState, RequestState state) throws Exception
+	{
+		state.prepare(filterState, BenchmarkConfig.SITEWIDE_URL, state.siteWideToken);
+		filterState.filter.doFilter(state.req, state.res, state.chain);
+		return state.res.getStatus();
+	}
+
+	@Benchmark
+	public int urlSpecific(FilterState filterState, RequestState state) throws Exception
+	{
+		state.prepare(filterState, BenchmarkConfig.URLSPECIFIC_URL, state.urlSpecificToken);
+		filterState.filter.doFilter(state.req, state.res, state.chain);
+		return state.res.getStatus();
+	}
+
+	/*
+	 * A one-time-use token is consumed by the request that submits it, so each
+	 * operation includes issuing the next token (the page render) before submitting it.
+	 */
+	@Benchmark
+	public int oneTimeUse(FilterState filterState, RequestState state) throws Exception
+	{
+		String token = state.newUrlSpecificToken(filterState, BenchmarkConfig.ONETIMEUSE_URL);
+		state.prepare(filterState, BenchmarkConfig.ONETIMEUSE_URL, token);
+		filterState.filter.doFilter(state.req, state.res, state.chain);
+		return state.res.getStatus();
+	}
+}
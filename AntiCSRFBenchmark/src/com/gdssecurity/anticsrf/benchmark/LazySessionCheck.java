@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.gdssecurity.anticsrf.CSRFFilter;
+import com.gdssecurity.anticsrf.benchmark.mock.MockFilterChain;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpServletRequest;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpServletResponse;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpSession;
+import com.gdssecurity.anticsrf.j2ee.LazyCSRFToken;
+import com.gdssecurity.anticsrf.utils.ConfigBuilder;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Checks that session mode with lazy token generation only creates an HttpSession
+ * once a token is actually asked for. Requests without a session that are exempt
+ * or rejected must leave the request without one, resolving the deferred token
+ * must create it, and the token must then be accepted on the next request.
+ * 
+ * Exits with status 1 if any check fails.
+ * 
+ * Usage: LazySessionCheck
+ */
+public class LazySessionCheck
+{
+	public static void main(String[] args) throws Exception
+	{
+		List<String> failures = new ArrayList<String>();
+
+		BenchmarkConfig.load(BenchmarkConfig.MODE_SESSION, new ConfigBuilder()
+				.setTokenGeneration(Constants.TOKEN_GENERATION_MODES.lazy.toString())
+				.getConfig());
+		CSRFFilter filter = new CSRFFilter();
+
+		// Exempt request that never renders a token
+		MockHttpServletRequest req = new MockHttpServletRequest("POST", BenchmarkConfig.EXEMPT_URL);
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(req, new MockHttpServletResponse(), chain);
+		expect(failures, chain.getInvocations() == 1, "exempt request was not passed on");
+		expect(failures, req.getSession(false) == null, "exempt request created a session");
+
+		// Protected requests without a session, with and without a token
+		String[] queries = { null, BenchmarkConfig.TOKEN_PARAM + "=forged" };
+		for(String query : queries)
+		{
+			req = new MockHttpServletRequest("POST", BenchmarkConfig.SITEWIDE_URL);
+			MockHttpServletResponse res = new MockHttpServletResponse();
+			chain = new MockFilterChain();
+			req.setQueryString(query);
+			filter.doFilter(req, res, chain);
+			expect(failures, chain.getInvocations() == 0 && res.getStatus() == HttpServletResponse.SC_FORBIDDEN, 
+					"request without a session was not rejected, query=" + query);
+			expect(failures, req.getSession(false) == null, "rejected request created a session, query=" + query);
+		}
+
+		// A page that renders the token creates the session
+		req = new MockHttpServletRequest("GET", BenchmarkConfig.EXEMPT_URL);
+		filter.doFilter(req, new MockHttpServletResponse(), new MockFilterChain());
+		expect(failures, req.getSession(false) == null, "deferred token created a session before it was used");
+		
+		LazyCSRFToken lazyToken = LazyCSRFToken.fromRequest(req);
+		String token = (lazyToken != null ? lazyToken.get() : null);
+		expect(failures, token != null, "no deferred token was installed");
+		expect(failures, req.getSession(false) != null, "resolving the token did not create a session");
+
+		// And the token is accepted with that session
+		if(token != null && req.getSession(false) != null)
+		{
+			MockHttpSession session = (MockHttpSession) req.getSession(false);
+			req = new MockHttpServletRequest("POST", BenchmarkConfig.SITEWIDE_URL);
+			MockHttpServletResponse res = new MockHttpServletResponse();
+			chain = new MockFilterChain();
+			req.setSession(session);
+			req.setParameter(BenchmarkConfig.TOKEN_PARAM, token);
+			filter.doFilter(req, res, chain);
+			expect(failures, chain.getInvocations() == 1, "stored token was rejected, status=" + res.getStatus());
+		}
+
+		if(!failures.isEmpty())
+		{
+			for(String failure : failures)
+			{
+				System.err.println("FAILED " + failure);
+			}
+			System.exit(1);
+		}
+
+		System.out.println("OK lazy token generation creates the session only when the token is used");
+	}
+
+	private static void expect(List<String> failures, boolean condition, String failure)
+	{
+		if(!condition)
+		{
+			failures.add(failure);
+		}
+	}
+}
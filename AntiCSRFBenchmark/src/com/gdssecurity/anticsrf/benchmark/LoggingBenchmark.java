@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.utils.StringUtil;
+
+/*
+ * Cost of a disabled FINE message, as logged on every request by the filter.
+ * eagerConcatenation is the previous style, the message is built and its
+ * newlines stripped before the logger finds FINE is off. The facade benchmarks
+ * pass the arguments through and should show no allocation at all, run with
+ * "-prof gc" and compare gc.alloc.rate.norm.
+ * 
+ * stripNewlines measures the sanitizer on a clean value, the common case, where
+ * it returns its input without allocating.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark
+{
+	private static final String LOGGER_NAME = LoggingBenchmark.class.getName();
+
+	Logger julLogger;
+	CSRFLogger facade;
+	String url = BenchmarkConfig.URLSPECIFIC_URL + "/42";
+	String token = "q0Vg8yUHbsB8VW3nqVv2mE5gSx0yqkHn7vNSOgqIXnM";
+
+	@Setup
+	public void setup()
+	{
+		julLogger = Logger.getLogger(LOGGER_NAME);
+		julLogger.setLevel(Level.INFO);
+		facade = CSRFLoggerFactory.getLogger(LOGGER_NAME);
+	}
+
+	@Benchmark
+	public void eagerConcatenation()
+	{
+		julLogger.fine("Setting a new url specific token. url=" + StringUtil.stripNewlines(url)
+				+ ", newToken=" + token);
+	}
+
+	@Benchmark
+	public void facadeOneArgument()
+	{
+		facade.fine("The CSRFFilter is running on URL: {}", url);
+	}
+
+	@Benchmark
+	public void facadeTwoArguments()
+	{
+		facade.fine("Setting a new url specific token. url={}, newToken={}", url, token);
+	}
+
+	@Benchmark
+	public String stripNewlines()
+	{
+		return StringUtil.stripNewlines(url);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpSession;
+import com.gdssecurity.anticsrf.j2ee.J2EESession;
+import com.gdssecurity.anticsrf.protections.SessionProtection;
+import com.gdssecurity.anticsrf.store.KeyValueTokenStore;
+import com.gdssecurity.anticsrf.store.LocalKeyValueClient;
+import com.gdssecurity.anticsrf.store.StripedMemoryTokenStore;
+import com.gdssecurity.anticsrf.store.TokenStore;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+
+/*
+ * Concurrency stress test for one-time-use tokens. Each round issues a single
+ * one-time-use token and then has a number of threads submit it at the same
+ * moment, the way a double clicked form or a replayed request would. A round
+ * passes when exactly one submission was accepted and the token is gone
+ * afterwards.
+ * 
+ * The rounds run against the session attribute store, the striped in-memory
+ * store and the key-value store. Exits with status 1 on the first failure.
+ * 
+ * Usage: OneTimeUseStress [threads] [rounds]
+ */
+public class OneTimeUseStress
+{
+	public static void main(String[] args) throws Exception
+	{
+		int threads = (args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2);
+		int rounds = (args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+
+		BenchmarkConfig.load(BenchmarkConfig.MODE_SESSION);
+		ConfigSnapshot config = ConfigUtil.getSnapshot();
+
+		TokenStore[] stores = {
+				null,
+				new StripedMemoryTokenStore(config.getUrlSpecificCapacity(), 0),
+				new KeyValueTokenStore(new LocalKeyValueClient(), "anticsrf:", 0) };
+		for(TokenStore store : stores)
+		{
+			String name = (store != null ? store.getClass().getSimpleName() : "HttpSession");
+			long start = System.nanoTime();
+
+			for(int round = 1; round <= rounds; round++)
+			{
+				String failure = runRound(config, store, threads, round);
+				if(failure != null)
+				{
+					System.err.println("FAILED " + name + " round " + round + ": " + failure);
+					System.exit(1);
+				}
+			}
+
+			System.out.println(name + ": " + rounds + " rounds in " 
+					+ ((System.nanoTime() - start) / 1000000) + " ms");
+		}
+
+		System.out.println("OK " + rounds + " rounds, " + threads + " threads, every token accepted exactly once");
+	}
+
+	private static String runRound(final ConfigSnapshot config, final TokenStore store, int threads, 
+			long round) throws Exception
+	{
+		final MockHttpSession session = new MockHttpSession();
+		final String sessionId = "stress-" + round;
+		final String url = BenchmarkConfig.ONETIMEUSE_URL;
+		final String token = protection(config, store, session, sessionId).generateUrlSpecificCSRFToken(url);
+
+		final CyclicBarrier start = new CyclicBarrier(threads);
+		final AtomicInteger accepted = new AtomicInteger();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++)
+		{
+			workers[t] = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						// A new wrapper per submission, the way each request gets its own
+						SessionProtection protection = protection(config, store, session, sessionId);
+
+						start.await();
+
+						if(protection.verifyCSRFToken(url, token))
+						{
+							accepted.incrementAndGet();
+						}
+					}
+					catch(Throwable ex)
+					{
+						error.compareAndSet(null, ex);
+					}
+				}
+			});
+			workers[t].start();
+		}
+
+		for(Thread worker : workers)
+		{
+			worker.join();
+		}
+
+		if(error.get() != null)
+		{
+			return "worker failed: " + error.get();
+		}
+
+		if(accepted.get() != 1)
+		{
+			return accepted.get() + " of " + threads + " submissions of the same token were accepted";
+		}
+
+		if(protection(config, store, session, sessionId).getUrlSpecificTokenCount() != 0)
+		{
+			return "token is still stored after it was used";
+		}
+
+		if(store != null)
+		{
+			store.expireSession(sessionId);
+		}
+		return null;
+	}
+
+	private static SessionProtection protection(ConfigSnapshot config, TokenStore store, 
+			MockHttpSession session, String sessionId)
+	{
+		return (store != null 
+				? new SessionProtection(store, sessionId, config)
+				: new SessionProtection(new J2EESession(session), config));
+	}
+}
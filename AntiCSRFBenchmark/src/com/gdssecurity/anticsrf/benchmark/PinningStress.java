@@ -0,0 +1,339 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.gdssecurity.anticsrf.benchmark.CSRFFilterBenchmark.FilterState;
+import com.gdssecurity.anticsrf.benchmark.CSRFFilterBenchmark.RequestState;
+
+/*
+ * Checks that the CSRFFilter request path never pins a virtual thread to its
+ * carrier. Every task is a user that goes through the same requests as the
+ * CSRFFilterBenchmark (first page view, then sitewide, URL specific and one
+ * time use submissions) in session, hmac and doublesubmit mode, with many more
+ * users running at once than there are cores.
+ * 
+ * On JDK 21 to 23 the tasks run on a virtual thread per task executor with
+ * -Djdk.tracePinnedThreads (set to "short" when not given), and the harness fails
+ * on any pinned thread trace the JDK prints. JDK 24 and later no longer pin on
+ * monitors and drop the property, there the run only checks the requests.
+ * 
+ * Older JDKs have no virtual threads. The tasks then run on a pool of platform
+ * threads with thread contention monitoring on, and the harness fails if any
+ * worker ever had to block entering a monitor: a contended synchronized block on
+ * the request path, which is exactly where a virtual thread would have pinned.
+ * 
+ * Each mode is warmed up on platform threads first, so that class loading and
+ * call site linking, which take JDK internal locks once, are not reported.
+ * 
+ * Exits with status 1 on a pinning event, a contended monitor or a rejected
+ * request.
+ * 
+ * Usage: PinningStress [users] [requests per user] [platform threads]
+ */
+public class PinningStress
+{
+	private static final String TRACE_PINNED_PROPERTY = "jdk.tracePinnedThreads";
+	private static final String PINNED_FRAME_MARKER = "<== monitors";
+	private static final String[] MODES = { BenchmarkConfig.MODE_SESSION, BenchmarkConfig.MODE_HMAC, 
+			BenchmarkConfig.MODE_DOUBLESUBMIT };
+
+	public static void main(String[] args) throws Exception
+	{
+		int users = (args.length > 0 ? Integer.parseInt(args[0]) : 2000);
+		int requests = (args.length > 1 ? Integer.parseInt(args[1]) : 20);
+		int platformThreads = (args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 4);
+
+		int jdkVersion = getJdkVersion();
+		boolean tracePinning = (jdkVersion >= 21 && jdkVersion < 24);
+		PinnedTraceScanner scanner = null;
+		if(tracePinning)
+		{
+			// Read when the first virtual thread is created, so this still takes effect here
+			if(System.getProperty(TRACE_PINNED_PROPERTY) == null)
+			{
+				System.setProperty(TRACE_PINNED_PROPERTY, "short");
+			}
+			
+			scanner = new PinnedTraceScanner(System.out);
+			System.setOut(new PrintStream(scanner, true));
+		}
+
+		for(String mode : MODES)
+		{
+			FilterState filterState = new FilterState();
+			filterState.mode = mode;
+			filterState.metrics = "no";
+			filterState.setup();
+
+			ExecutorService warmup = Executors.newFixedThreadPool(platformThreads);
+			String failure = runUsers(warmup, filterState, platformThreads * 4, 1);
+			warmup.shutdown();
+			if(failure != null)
+			{
+				System.err.println("FAILED " + mode + " warmup: " + failure);
+				System.exit(1);
+			}
+
+			ExecutorService virtualExecutor = newVirtualThreadExecutor();
+			long start = System.nanoTime();
+
+			if(virtualExecutor != null)
+			{
+				failure = runUsers(virtualExecutor, filterState, users, requests);
+				virtualExecutor.shutdown();
+				virtualExecutor.awaitTermination(1, TimeUnit.MINUTES);
+				if(failure == null && scanner != null && scanner.getPinnedCount() > 0)
+				{
+					failure = scanner.getPinnedCount() + " pinned thread traces, first at " + scanner.getFirstPinnedFrame();
+				}
+			}
+			else
+			{
+				failure = runPlatformUsers(filterState, users, requests, platformThreads);
+			}
+
+			if(failure != null)
+			{
+				System.err.println("FAILED " + mode + ": " + failure);
+				System.exit(1);
+			}
+
+			System.out.println(mode + ": " + users + " users on " 
+					+ (virtualExecutor != null ? "virtual threads" : platformThreads + " platform threads") + " in " 
+					+ ((System.nanoTime() - start) / 1000000) + " ms");
+		}
+
+		System.out.println("OK " + users + " users, " + requests + " requests each, no pinning"
+				+ (tracePinning || jdkVersion < 21 ? "" : " (JDK " + jdkVersion + " does not pin on monitors)"));
+	}
+
+	private static String runPlatformUsers(FilterState filterState, int users, int requests, 
+			int threads) throws Exception
+	{
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if(threadBean.isThreadContentionMonitoringSupported())
+		{
+			threadBean.setThreadContentionMonitoringEnabled(true);
+		}
+
+		final List<Thread> workers = new CopyOnWriteArrayList<Thread>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "pinning-stress-" + workers.size());
+				workers.add(thread);
+				return thread;
+			}
+		});
+
+		// Every worker has to exist before the counts are taken
+		executor.prestartAllCoreThreads();
+		long[] blockedBefore = getBlockedCounts(threadBean, workers);
+
+		String failure = runUsers(executor, filterState, users, requests);
+		long[] blockedAfter = getBlockedCounts(threadBean, workers);
+		executor.shutdown();
+
+		if(failure != null)
+		{
+			return failure;
+		}
+
+		long blocked = 0;
+		for(int i = 0; i < blockedAfter.length; i++)
+		{
+			blocked += blockedAfter[i] - blockedBefore[i];
+		}
+
+		return (blocked > 0 ? "request threads blocked " + blocked + " times entering a contended monitor" : null);
+	}
+
+	private static long[] getBlockedCounts(ThreadMXBean threadBean, List<Thread> workers)
+	{
+		long[] counts = new long[workers.size()];
+		for(int i = 0; i < counts.length; i++)
+		{
+			ThreadInfo info = threadBean.getThreadInfo(workers.get(i).getId());
+			counts[i] = (info != null ? info.getBlockedCount() : 0);
+		}
+
+		return counts;
+	}
+
+	private static String runUsers(ExecutorService executor, final FilterState filterState, int users, 
+			final int requests) throws Exception
+	{
+		final CSRFFilterBenchmark benchmark = new CSRFFilterBenchmark();
+		List<Future<String>> results = new ArrayList<Future<String>>(users);
+
+		for(int u = 0; u < users; u++)
+		{
+			results.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception
+				{
+					// The setup issues the user's tokens and checks each scenario is accepted once
+					RequestState state = new RequestState();
+					state.setup(filterState);
+
+					for(int i = 0; i < requests; i++)
+					{
+						if(benchmark.siteWide(filterState, state) != HttpServletResponse.SC_OK
+								|| benchmark.urlSpecific(filterState, state) != HttpServletResponse.SC_OK
+								|| benchmark.oneTimeUse(filterState, state) != HttpServletResponse.SC_OK)
+						{
+							return "request with a valid token was rejected, user=" + state.userSeed;
+						}
+					}
+
+					return null;
+				}
+			}));
+		}
+
+		String failure = null;
+		for(Future<String> result : results)
+		{
+			String userFailure = result.get();
+			if(failure == null)
+			{
+				failure = userFailure;
+			}
+		}
+
+		return failure;
+	}
+
+	/*
+	 * Executors.newVirtualThreadPerTaskExecutor() when the running JDK has it,
+	 * looked up reflectively so the harness still builds for Java 8
+	 */
+	private static ExecutorService newVirtualThreadExecutor()
+	{
+		try
+		{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch(NoSuchMethodException ex)
+		{
+			return null;
+		}
+		catch(InvocationTargetException ex)
+		{
+			// JDK 19 and 20 without --enable-preview
+			return null;
+		}
+		catch(IllegalAccessException ex)
+		{
+			return null;
+		}
+	}
+
+	private static int getJdkVersion()
+	{
+		String version = System.getProperty("java.specification.version");
+		if(version.startsWith("1."))
+		{
+			version = version.substring(2);
+		}
+
+		return Integer.parseInt(version);
+	}
+
+	/*
+	 * Passes everything through to the real System.out and counts the frames the
+	 * JDK marks as holding a monitor in its pinned thread traces
+	 */
+	private static class PinnedTraceScanner extends OutputStream
+	{
+		private final PrintStream out;
+		private final StringBuilder line = new StringBuilder();
+		private final AtomicInteger pinned = new AtomicInteger();
+		private volatile String firstPinnedFrame;
+
+		PinnedTraceScanner(PrintStream out)
+		{
+			this.out = out;
+		}
+
+		int getPinnedCount()
+		{
+			return pinned.get();
+		}
+
+		String getFirstPinnedFrame()
+		{
+			return firstPinnedFrame;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+
+			if(b != '\n')
+			{
+				line.append((char) b);
+				return;
+			}
+
+			String text = line.toString();
+			line.setLength(0);
+
+			if(text.contains(PINNED_FRAME_MARKER))
+			{
+				if(pinned.getAndIncrement() == 0)
+				{
+					firstPinnedFrame = text.trim();
+				}
+			}
+		}
+
+		@Override
+		public void flush()
+		{
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpSession;
+import com.gdssecurity.anticsrf.j2ee.J2EESession;
+import com.gdssecurity.anticsrf.protections.SessionProtection;
+import com.gdssecurity.anticsrf.store.KeyValueTokenStore;
+import com.gdssecurity.anticsrf.store.LocalKeyValueClient;
+import com.gdssecurity.anticsrf.store.StripedMemoryTokenStore;
+import com.gdssecurity.anticsrf.store.TokenStore;
+import com.gdssecurity.anticsrf.store.UrlTokenTable;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+
+/*
+ * Concurrency stress test for the per-session URL specific token table. Each
+ * round starts a number of threads at once against a single fresh session, each
+ * thread acting as a parallel request that asks for the URL specific token of
+ * every URL in a shared set, in its own random order.
+ * 
+ * A round passes when no update was lost: the session holds exactly one table,
+ * the table holds one token per URL, and every thread was handed that same token
+ * for every URL. The URL set is kept within urlspecific_capacity so nothing is
+ * evicted during these rounds.
+ * 
+ * A final round has every thread add its own distinct URLs, several times the
+ * capacity in total, and checks that eviction kept the table bounded. Exits with
+ * status 1 on the first failure.
+ * 
+ * The same rounds are then repeated against the external token stores, where
+ * every thread also asks for the sitewide token and all of them must end up
+ * with the one token the store kept.
+ * 
+ * Usage: SessionTokenStress [threads] [rounds] [urls]
+ */
+public class SessionTokenStress
+{
+	public static void main(String[] args) throws Exception
+	{
+		int threads = (args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2);
+		int rounds = (args.length > 1 ? Integer.parseInt(args[1]) : 500);
+		int urls = (args.length > 2 ? Integer.parseInt(args[2]) : 64);
+
+		BenchmarkConfig.load(BenchmarkConfig.MODE_SESSION);
+		ConfigSnapshot config = ConfigUtil.getSnapshot();
+		urls = Math.min(urls, config.getUrlSpecificCapacity());
+
+		List<String> urlSet = new ArrayList<String>();
+		for(int i = 0; i < urls; i++)
+		{
+			urlSet.add(BenchmarkConfig.URLSPECIFIC_URL + "/" + i);
+		}
+
+		for(int round = 1; round <= rounds; round++)
+		{
+			String failure = runRound(config, urlSet, threads, round);
+			if(failure != null)
+			{
+				System.err.println("FAILED round " + round + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		String failure = runCapacityRound(config, threads);
+		if(failure != null)
+		{
+			System.err.println("FAILED capacity round: " + failure);
+			System.exit(1);
+		}
+
+		TokenStore[] stores = {
+				new StripedMemoryTokenStore(config.getUrlSpecificCapacity(), 0),
+				new KeyValueTokenStore(new LocalKeyValueClient(), "anticsrf:", 0) };
+		for(TokenStore store : stores)
+		{
+			for(int round = 1; round <= rounds; round++)
+			{
+				failure = runStoreRound(config, store, urlSet, threads, round);
+				if(failure != null)
+				{
+					System.err.println("FAILED " + store.getClass().getSimpleName() + " round " + round + ": " + failure);
+					System.exit(1);
+				}
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds, " + threads + " threads, " + urls + " urls, no lost updates");
+	}
+
+	private static String runRound(final ConfigSnapshot config, final List<String> urlSet, int threads, 
+			final long seed) throws Exception
+	{
+		final MockHttpSession session = new MockHttpSession();
+		final CyclicBarrier start = new CyclicBarrier(threads);
+		final String[][] seen = new String[threads][urlSet.size()];
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++)
+		{
+			final int id = t;
+			workers[t] = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						List<Integer> order = new ArrayList<Integer>();
+						for(int i = 0; i < urlSet.size(); i++)
+						{
+							order.add(Integer.valueOf(i));
+						}
+						Collections.shuffle(order, new Random(seed * 31 + id));
+
+						start.await();
+
+						for(Integer i : order)
+						{
+							// A new wrapper per call, the way each request gets its own
+							SessionProtection protection = new SessionProtection(new J2EESession(session), config);
+							seen[id][i.intValue()] = protection.generateUrlSpecificCSRFToken(urlSet.get(i.intValue()));
+						}
+					}
+					catch(Throwable ex)
+					{
+						error.compareAndSet(null, ex);
+					}
+				}
+			});
+			workers[t].start();
+		}
+
+		for(Thread worker : workers)
+		{
+			worker.join();
+		}
+
+		if(error.get() != null)
+		{
+			return "worker failed: " + error.get();
+		}
+
+		UrlTokenTable table = UrlTokenTable.fromSession(new J2EESession(session), config.getUrlSpecificTokenAttribute());
+		if(table == null)
+		{
+			return "no token table in session";
+		}
+
+		if(table.size() != urlSet.size())
+		{
+			return "expected " + urlSet.size() + " tokens, table holds " + table.size();
+		}
+
+		for(int i = 0; i < urlSet.size(); i++)
+		{
+			String stored = table.get(urlSet.get(i), System.currentTimeMillis());
+			for(int t = 0; t < threads; t++)
+			{
+				if(stored == null || !stored.equals(seen[t][i]))
+				{
+					return "thread " + t + " was handed a token that is not stored for " + urlSet.get(i);
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private static String runStoreRound(final ConfigSnapshot config, final TokenStore store, 
+			final List<String> urlSet, int threads, final long seed) throws Exception
+	{
+		final String sessionId = "stress-" + seed;
+		final CyclicBarrier start = new CyclicBarrier(threads);
+		final String[][] seen = new String[threads][urlSet.size() + 1];
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++)
+		{
+			final int id = t;
+			workers[t] = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						List<Integer> order = new ArrayList<Integer>();
+						for(int i = 0; i < urlSet.size(); i++)
+						{
+							order.add(Integer.valueOf(i));
+						}
+						Collections.shuffle(order, new Random(seed * 31 + id));
+
+						start.await();
+
+						seen[id][urlSet.size()] = new SessionProtection(store, sessionId, config).getOrCreateCSRFToken();
+						for(Integer i : order)
+						{
+							SessionProtection protection = new SessionProtection(store, sessionId, config);
+							seen[id][i.intValue()] = protection.generateUrlSpecificCSRFToken(urlSet.get(i.intValue()));
+						}
+					}
+					catch(Throwable ex)
+					{
+						error.compareAndSet(null, ex);
+					}
+				}
+			});
+			workers[t].start();
+		}
+
+		for(Thread worker : workers)
+		{
+			worker.join();
+		}
+
+		if(error.get() != null)
+		{
+			return "worker failed: " + error.get();
+		}
+
+		if(store.size(sessionId) != urlSet.size() + 1)
+		{
+			return "expected " + (urlSet.size() + 1) + " tokens, store holds " + store.size(sessionId);
+		}
+
+		for(int i = 0; i <= urlSet.size(); i++)
+		{
+			String key = (i < urlSet.size() ? urlSet.get(i) : TokenStore.SITEWIDE_KEY);
+			String stored = store.get(sessionId, key);
+			for(int t = 0; t < threads; t++)
+			{
+				if(stored == null || !stored.equals(seen[t][i]))
+				{
+					return "thread " + t + " was handed a token that is not stored for '" + key + "'";
+				}
+			}
+		}
+
+		store.expireSession(sessionId);
+		return null;
+	}
+
+	private static String runCapacityRound(final ConfigSnapshot config, int threads) throws Exception
+	{
+		final MockHttpSession session = new MockHttpSession();
+		final CyclicBarrier start = new CyclicBarrier(threads);
+		final int perThread = config.getUrlSpecificCapacity() * 4;
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++)
+		{
+			final int id = t;
+			workers[t] = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						start.await();
+
+						for(int i = 0; i < perThread; i++)
+						{
+							SessionProtection protection = new SessionProtection(new J2EESession(session), config);
+							protection.generateUrlSpecificCSRFToken(BenchmarkConfig.URLSPECIFIC_URL + "/" + id + "/" + i);
+						}
+					}
+					catch(Throwable ex)
+					{
+						error.compareAndSet(null, ex);
+					}
+				}
+			});
+			workers[t].start();
+		}
+
+		for(Thread worker : workers)
+		{
+			worker.join();
+		}
+
+		if(error.get() != null)
+		{
+			return "worker failed: " + error.get();
+		}
+
+		// A request that finds another one trimming skips its own trim, so the
+		// table may end up at most one entry per thread over capacity
+		int size = new SessionProtection(new J2EESession(session), config).getUrlSpecificTokenCount();
+		if(size > config.getUrlSpecificCapacity() + threads)
+		{
+			return "table holds " + size + " tokens, capacity is " + config.getUrlSpecificCapacity();
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gdssecurity.anticsrf.utils.TokenEntropyEngine;
+
+/*
+ * Raw cost of drawing the 32 random bytes behind a session-mode token from the
+ * TokenEntropyEngine for each supported algorithm. Run at increasing thread counts
+ * (BenchmarkRunner with "TokenEntropyBenchmark") to check that throughput scales
+ * with cores rather than flattening on a shared PRNG lock.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenEntropyBenchmark
+{
+	@Param({ "SHA1PRNG", "DRBG", "NativePRNGNonBlocking" })
+	public String algorithm;
+
+	TokenEntropyEngine engine;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		engine = new TokenEntropyEngine(algorithm, 100000);
+	}
+
+	@Benchmark
+	public byte[] nextToken()
+	{
+		byte[] randomBytes = new byte[32];
+		engine.nextBytes(randomBytes);
+		return randomBytes;
+	}
+}
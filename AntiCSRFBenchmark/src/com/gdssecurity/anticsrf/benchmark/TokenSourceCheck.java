@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.gdssecurity.anticsrf.CSRFFilter;
+import com.gdssecurity.anticsrf.benchmark.mock.MockFilterChain;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpServletRequest;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpServletResponse;
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpSession;
+
+/*
+ * Checks that a token the token sources cannot decode is handled as a missing
+ * token: the CSRFFilter rejects the request with the configured error instead
+ * of throwing out of doFilter. Runs in every mode.
+ * 
+ * Exits with status 1 if any check fails.
+ * 
+ * Usage: TokenSourceCheck
+ */
+public class TokenSourceCheck
+{
+	private static final String[] MODES = { BenchmarkConfig.MODE_SESSION, BenchmarkConfig.MODE_HMAC, 
+			BenchmarkConfig.MODE_DOUBLESUBMIT };
+	private static final String[] MALFORMED_QUERIES = { "tok=%zz", "tok=%", "tok=%e", "a=1&tok=abc%g1&b=2" };
+
+	public static void main(String[] args) throws Exception
+	{
+		List<String> failures = new ArrayList<String>();
+
+		for(String mode : MODES)
+		{
+			BenchmarkConfig.load(mode);
+			CSRFFilter filter = new CSRFFilter();
+
+			for(String query : MALFORMED_QUERIES)
+			{
+				MockHttpServletRequest req = new MockHttpServletRequest("POST", BenchmarkConfig.SITEWIDE_URL);
+				MockHttpServletResponse res = new MockHttpServletResponse();
+				MockFilterChain chain = new MockFilterChain();
+				req.setSession(new MockHttpSession());
+				req.setQueryString(query);
+				req.setAttribute(BenchmarkConfig.USERSEED_ATTR, "checkuser");
+
+				try
+				{
+					filter.doFilter(req, res, chain);
+				}
+				catch(Exception ex)
+				{
+					failures.add(mode + " ?" + query + ": doFilter threw " + ex);
+					continue;
+				}
+
+				if(chain.getInvocations() != 0 || res.getStatus() != HttpServletResponse.SC_FORBIDDEN)
+				{
+					failures.add(mode + " ?" + query + ": expected a 403 rejection, status=" + res.getStatus() 
+							+ ", chain invocations=" + chain.getInvocations());
+				}
+			}
+		}
+
+		if(!failures.isEmpty())
+		{
+			for(String failure : failures)
+			{
+				System.err.println("FAILED " + failure);
+			}
+			System.exit(1);
+		}
+
+		System.out.println("OK malformed tokens rejected in every mode");
+	}
+}
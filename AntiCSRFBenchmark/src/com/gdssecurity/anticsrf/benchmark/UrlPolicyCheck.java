@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.gdssecurity.anticsrf.benchmark.mock.MockHttpSession;
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.j2ee.J2EESession;
+import com.gdssecurity.anticsrf.protections.SessionProtection;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+import com.gdssecurity.anticsrf.utils.UrlPolicy;
+import com.gdssecurity.anticsrf.utils.UrlPolicyIndex;
+
+/*
+ * Checks that request URIs are normalized before they are matched against the
+ * URL rules: dot segments, path parameters, escapes and trailing slashes must
+ * neither widen an exempt rule nor drop a one-time-use or URL specific rule, and
+ * a URI that cannot be normalized must not match any rule. Rule patterns are
+ * normalized the same way, and a pattern that cannot be normalized is rejected.
+ * Also checks that a URL specific token verifies when the URI carries a path
+ * parameter.
+ * 
+ * Exits with status 1 if any check fails.
+ * 
+ * Usage: UrlPolicyCheck
+ */
+public class UrlPolicyCheck
+{
+	private static final List<String> failures = new ArrayList<String>();
+
+	public static void main(String[] args) throws Exception
+	{
+		UrlPolicyIndex index = new UrlPolicyIndex.Builder()
+				.addExempt("/public/*")
+				.addOneTimeUse("/pay")
+				.addUrlSpecific("/transfer", 0)
+				.addExempt("/foo/")
+				.addOneTimeUse("/a//b")
+				.addUrlSpecific("/c;v=1", 0)
+				.addExempt("/d/./*")
+				.build();
+
+		expect(index, "/public/page", true, false, false);
+		expect(index, "/public/./page", true, false, false);
+		expect(index, "/public/../admin/delete", false, false, false);
+		expect(index, "/public/..;/admin", false, false, false);
+		expect(index, "/public/%2e%2e/admin", false, false, false);
+		expect(index, "/public/%2E%2E;x=1/admin", false, false, false);
+		expect(index, "/public//../admin", false, false, false);
+
+		// Cannot be normalized, must not match the exempt prefix
+		expect(index, "/../public/page", false, false, false);
+		expect(index, "/public/a%2fb", false, false, false);
+		expect(index, "/public/a\\..\\..\\admin", false, false, false);
+		expect(index, "/public/%zz", false, false, false);
+		expect(index, "/public/%2", false, false, false);
+
+		expect(index, "/pay", false, false, true);
+		expect(index, "/pay;jsessionid=1", false, false, true);
+		expect(index, "/pay/", false, false, true);
+		expect(index, "//pay", false, false, true);
+		expect(index, "/x/../pay", false, false, true);
+		expect(index, "/transfer;jsessionid=1", false, true, false);
+		expect(index, "/transfer/", false, true, false);
+
+		// Patterns are normalized like request URIs
+		expect(index, "/foo", true, false, false);
+		expect(index, "/foo/", true, false, false);
+		expect(index, "/a/b", false, false, true);
+		expect(index, "/a//b", false, false, true);
+		expect(index, "/c", false, true, false);
+		expect(index, "/d/e", true, false, false);
+		expect(index, "/d", false, false, false);
+
+		String[] invalidPatterns = { "/../x", "/a%2fb", "relative", "/x/%zz/*" };
+		for(String pattern : invalidPatterns)
+		{
+			try
+			{
+				new UrlPolicyIndex.Builder().addExempt(pattern).build();
+				failures.add(pattern + ": pattern that cannot be normalized was accepted");
+			}
+			catch(CSRFConfigException ex)
+			{
+				// Expected
+			}
+		}
+
+		BenchmarkConfig.load(BenchmarkConfig.MODE_SESSION);
+		MockHttpSession session = new MockHttpSession();
+		String url = BenchmarkConfig.URLSPECIFIC_URL;
+		String token = new SessionProtection(new J2EESession(session), ConfigUtil.getSnapshot())
+				.generateUrlSpecificCSRFToken(url);
+		String rewritten = url + ";jsessionid=ABC123";
+		if(!new SessionProtection(new J2EESession(session), ConfigUtil.getSnapshot())
+				.verifyCSRFToken(rewritten, token))
+		{
+			failures.add(rewritten + ": URL specific token of " + url + " was rejected");
+		}
+
+		if(!failures.isEmpty())
+		{
+			for(String failure : failures)
+			{
+				System.err.println("FAILED " + failure);
+			}
+			System.exit(1);
+		}
+
+		System.out.println("OK URL policy normalization");
+	}
+
+	private static void expect(UrlPolicyIndex index, String uri, boolean exempt, boolean urlSpecific, 
+			boolean oneTimeUse)
+	{
+		UrlPolicy policy = index.resolve(uri);
+		if(policy.isExempt() != exempt || policy.isUrlSpecific() != urlSpecific 
+				|| policy.isOneTimeUse() != oneTimeUse)
+		{
+			failures.add(uri + ": exempt=" + policy.isExempt() + ", urlspecific=" + policy.isUrlSpecific() 
+					+ ", onetimeuse=" + policy.isOneTimeUse() + ", expected exempt=" + exempt 
+					+ ", urlspecific=" + urlSpecific + ", onetimeuse=" + oneTimeUse);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark.mock;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/*
+ * Terminal FilterChain that only counts how many requests were let through.
+ */
+public class MockFilterChain implements FilterChain
+{
+	private long invocations = 0;
+
+	public long getInvocations()
+	{
+		return invocations;
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+	{
+		invocations++;
+	}
+}
@@ -0,0 +1,633 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark.mock;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
+
+/*
+ * Minimal in-process HttpServletRequest used to drive the CSRFFilter without a
+ * container. Only the parts the library touches are backed by real state, the
+ * rest return neutral values. Instances are reused across benchmark invocations,
+ * call reset() to drop per-request attributes between calls.
+ */
+public class MockHttpServletRequest implements HttpServletRequest
+{
+	private final Map<String,Object> attributes = new HashMap<String,Object>();
+	private final Map<String,String[]> parameters = new HashMap<String,String[]>();
+	private final Map<String,String> headers = new HashMap<String,String>();
+	private final ArrayList<Cookie> cookies = new ArrayList<Cookie>();
+
+	private String method = "GET";
+	private String requestURI = "/";
+	private String queryString;
+	private String contentType;
+	private String characterEncoding = "UTF-8";
+	private byte[] body = new byte[0];
+	private ByteArrayServletInputStream inputStream;
+	private MockHttpSession session;
+
+	public MockHttpServletRequest()
+	{
+	}
+
+	public MockHttpServletRequest(String method, String requestURI)
+	{
+		this.method = method;
+		this.requestURI = requestURI;
+	}
+
+	public void reset()
+	{
+		attributes.clear();
+		inputStream = null;
+	}
+
+	public void setMethod(String method)
+	{
+		this.method = method;
+	}
+
+	public void setRequestURI(String requestURI)
+	{
+		this.requestURI = requestURI;
+	}
+
+	public void setQueryString(String queryString)
+	{
+		this.queryString = queryString;
+	}
+
+	public void setContentType(String contentType)
+	{
+		this.contentType = contentType;
+	}
+
+	public void setBody(byte[] body)
+	{
+		this.body = body;
+		this.inputStream = null;
+	}
+
+	public void setParameter(String name, String value)
+	{
+		if(value == null)
+		{
+			parameters.remove(name);
+			return;
+		}
+
+		parameters.put(name, new String[] { value });
+	}
+
+	public void setHeader(String name, String value)
+	{
+		if(value == null)
+		{
+			headers.remove(name.toLowerCase(Locale.ENGLISH));
+			return;
+		}
+
+		headers.put(name.toLowerCase(Locale.ENGLISH), value);
+	}
+
+	public void addCookie(Cookie cookie)
+	{
+		cookies.add(cookie);
+	}
+
+	public void setSession(MockHttpSession session)
+	{
+		this.session = session;
+	}
+
+	@Override
+	public Object getAttribute(String name)
+	{
+		return attributes.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames()
+	{
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	@Override
+	public String getCharacterEncoding()
+	{
+		return characterEncoding;
+	}
+
+	@Override
+	public void setCharacterEncoding(String env) throws UnsupportedEncodingException
+	{
+		this.characterEncoding = env;
+	}
+
+	@Override
+	public int getContentLength()
+	{
+		return body.length;
+	}
+
+	@Override
+	public long getContentLengthLong()
+	{
+		return body.length;
+	}
+
+	@Override
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	@Override
+	public ServletInputStream getInputStream() throws IOException
+	{
+		// Like a container, hand out the same stream for the life of the request
+		if(inputStream == null)
+		{
+			inputStream = new ByteArrayServletInputStream(body);
+		}
+
+		return inputStream;
+	}
+
+	@Override
+	public String getParameter(String name)
+	{
+		String[] values = parameters.get(name);
+		return (values == null ? null : values[0]);
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames()
+	{
+		return Collections.enumeration(parameters.keySet());
+	}
+
+	@Override
+	public String[] getParameterValues(String name)
+	{
+		return parameters.get(name);
+	}
+
+	@Override
+	public Map<String,String[]> getParameterMap()
+	{
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	@Override
+	public String getProtocol()
+	{
+		return "HTTP/1.1";
+	}
+
+	@Override
+	public String getScheme()
+	{
+		return "http";
+	}
+
+	@Override
+	public String getServerName()
+	{
+		return "localhost";
+	}
+
+	@Override
+	public int getServerPort()
+	{
+		return 8080;
+	}
+
+	@Override
+	public BufferedReader getReader() throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(getInputStream(), characterEncoding));
+	}
+
+	@Override
+	public String getRemoteAddr()
+	{
+		return "127.0.0.1";
+	}
+
+	@Override
+	public String getRemoteHost()
+	{
+		return "localhost";
+	}
+
+	@Override
+	public void setAttribute(String name, Object o)
+	{
+		if(o == null)
+		{
+			attributes.remove(name);
+			return;
+		}
+
+		attributes.put(name, o);
+	}
+
+	@Override
+	public void removeAttribute(String name)
+	{
+		attributes.remove(name);
+	}
+
+	@Override
+	public Locale getLocale()
+	{
+		return Locale.ENGLISH;
+	}
+
+	@Override
+	public Enumeration<Locale> getLocales()
+	{
+		return Collections.enumeration(Collections.singletonList(Locale.ENGLISH));
+	}
+
+	@Override
+	public boolean isSecure()
+	{
+		return false;
+	}
+
+	@Override
+	public RequestDispatcher getRequestDispatcher(String path)
+	{
+		return null;
+	}
+
+	@Override
+	@Deprecated
+	public String getRealPath(String path)
+	{
+		return null;
+	}
+
+	@Override
+	public int getRemotePort()
+	{
+		return 0;
+	}
+
+	@Override
+	public String getLocalName()
+	{
+		return "localhost";
+	}
+
+	@Override
+	public String getLocalAddr()
+	{
+		return "127.0.0.1";
+	}
+
+	@Override
+	public int getLocalPort()
+	{
+		return 8080;
+	}
+
+	@Override
+	public ServletContext getServletContext()
+	{
+		return null;
+	}
+
+	@Override
+	public AsyncContext startAsync() throws IllegalStateException
+	{
+		throw new IllegalStateException("Async is not supported by the mock request");
+	}
+
+	@Override
+	public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse)
+			throws IllegalStateException
+	{
+		throw new IllegalStateException("Async is not supported by the mock request");
+	}
+
+	@Override
+	public boolean isAsyncStarted()
+	{
+		return false;
+	}
+
+	@Override
+	public boolean isAsyncSupported()
+	{
+		return false;
+	}
+
+	@Override
+	public AsyncContext getAsyncContext()
+	{
+		return null;
+	}
+
+	@Override
+	public DispatcherType getDispatcherType()
+	{
+		return DispatcherType.REQUEST;
+	}
+
+	@Override
+	public String getAuthType()
+	{
+		return null;
+	}
+
+	@Override
+	public Cookie[] getCookies()
+	{
+		return (cookies.isEmpty() ? null : cookies.toArray(new Cookie[cookies.size()]));
+	}
+
+	@Override
+	public long getDateHeader(String name)
+	{
+		return -1;
+	}
+
+	@Override
+	public String getHeader(String name)
+	{
+		return headers.get(name.toLowerCase(Locale.ENGLISH));
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(String name)
+	{
+		String value = getHeader(name);
+		return Collections.enumeration(value == null
+				? Collections.<String>emptyList() : Collections.singletonList(value));
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames()
+	{
+		return Collections.enumeration(headers.keySet());
+	}
+
+	@Override
+	public int getIntHeader(String name)
+	{
+		String value = getHeader(name);
+		return (value == null ? -1 : Integer.parseInt(value));
+	}
+
+	@Override
+	public String getMethod()
+	{
+		return method;
+	}
+
+	@Override
+	public String getPathInfo()
+	{
+		return null;
+	}
+
+	@Override
+	public String getPathTranslated()
+	{
+		return null;
+	}
+
+	@Override
+	public String getContextPath()
+	{
+		return "";
+	}
+
+	@Override
+	public String getQueryString()
+	{
+		return queryString;
+	}
+
+	@Override
+	public String getRemoteUser()
+	{
+		return null;
+	}
+
+	@Override
+	public boolean isUserInRole(String role)
+	{
+		return false;
+	}
+
+	@Override
+	public Principal getUserPrincipal()
+	{
+		return null;
+	}
+
+	@Override
+	public String getRequestedSessionId()
+	{
+		return (session == null ? null : session.getId());
+	}
+
+	@Override
+	public String getRequestURI()
+	{
+		return requestURI;
+	}
+
+	@Override
+	public StringBuffer getRequestURL()
+	{
+		return new StringBuffer("http://localhost:8080").append(requestURI);
+	}
+
+	@Override
+	public String getServletPath()
+	{
+		return requestURI;
+	}
+
+	@Override
+	public HttpSession getSession(boolean create)
+	{
+		if(session == null && create)
+		{
+			session = new MockHttpSession();
+		}
+
+		return session;
+	}
+
+	@Override
+	public HttpSession getSession()
+	{
+		return getSession(true);
+	}
+
+	@Override
+	public String changeSessionId()
+	{
+		return getRequestedSessionId();
+	}
+
+	@Override
+	public boolean isRequestedSessionIdValid()
+	{
+		return session != null;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromCookie()
+	{
+		return session != null;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromURL()
+	{
+		return false;
+	}
+
+	@Override
+	@Deprecated
+	public boolean isRequestedSessionIdFromUrl()
+	{
+		return false;
+	}
+
+	@Override
+	public boolean authenticate(HttpServletResponse response) throws IOException, ServletException
+	{
+		return false;
+	}
+
+	@Override
+	public void login(String username, String password) throws ServletException
+	{
+		throw new ServletException("Login is not supported by the mock request");
+	}
+
+	@Override
+	public void logout() throws ServletException
+	{
+	}
+
+	@Override
+	public Collection<Part> getParts() throws IOException, ServletException
+	{
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Part getPart(String name) throws IOException, ServletException
+	{
+		return null;
+	}
+
+	@Override
+	public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws IOException, ServletException
+	{
+		throw new ServletException("Upgrade is not supported by the mock request");
+	}
+
+	/*
+	 * ServletInputStream over a fixed byte array
+	 */
+	static class ByteArrayServletInputStream extends ServletInputStream
+	{
+		private final byte[] data;
+		private int pos = 0;
+
+		ByteArrayServletInputStream(byte[] data)
+		{
+			this.data = data;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			return (pos < data.length ? (data[pos++] & 0xFF) : -1);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if(pos >= data.length)
+			{
+				return -1;
+			}
+
+			int count = Math.min(len, data.length - pos);
+			System.arraycopy(data, pos, b, off, count);
+			pos += count;
+			return count;
+		}
+
+		@Override
+		public boolean isFinished()
+		{
+			return pos >= data.length;
+		}
+
+		@Override
+		public boolean isReady()
+		{
+			return true;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener)
+		{
+			throw new IllegalStateException("Async IO is not supported by the mock request");
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark.mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * In-process HttpServletResponse that discards everything written to it and only
+ * remembers the status code and cookies, so the benchmarks can tell a rejected
+ * request from a request that made it through the filter chain.
+ */
+public class MockHttpServletResponse implements HttpServletResponse
+{
+	private int status = SC_OK;
+	private String contentType;
+	private String redirectLocation;
+	private final PrintWriter writer = new PrintWriter(new NullOutputStream());
+	private final ArrayList<Cookie> cookies = new ArrayList<Cookie>();
+
+	public void reset()
+	{
+		status = SC_OK;
+		redirectLocation = null;
+		cookies.clear();
+	}
+
+	public List<Cookie> getCookies()
+	{
+		return cookies;
+	}
+
+	public String getRedirectLocation()
+	{
+		return redirectLocation;
+	}
+
+	@Override
+	public String getCharacterEncoding()
+	{
+		return "UTF-8";
+	}
+
+	@Override
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException
+	{
+		return new NullServletOutputStream();
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException
+	{
+		return writer;
+	}
+
+	@Override
+	public void setCharacterEncoding(String charset)
+	{
+	}
+
+	@Override
+	public void setContentLength(int len)
+	{
+	}
+
+	@Override
+	public void setContentLengthLong(long len)
+	{
+	}
+
+	@Override
+	public void setContentType(String type)
+	{
+		this.contentType = type;
+	}
+
+	@Override
+	public void setBufferSize(int size)
+	{
+	}
+
+	@Override
+	public int getBufferSize()
+	{
+		return 0;
+	}
+
+	@Override
+	public void flushBuffer() throws IOException
+	{
+	}
+
+	@Override
+	public void resetBuffer()
+	{
+	}
+
+	@Override
+	public boolean isCommitted()
+	{
+		return false;
+	}
+
+	@Override
+	public void setLocale(Locale loc)
+	{
+	}
+
+	@Override
+	public Locale getLocale()
+	{
+		return Locale.ENGLISH;
+	}
+
+	@Override
+	public void addCookie(Cookie cookie)
+	{
+		cookies.add(cookie);
+	}
+
+	@Override
+	public boolean containsHeader(String name)
+	{
+		return false;
+	}
+
+	@Override
+	public String encodeURL(String url)
+	{
+		return url;
+	}
+
+	@Override
+	public String encodeRedirectURL(String url)
+	{
+		return url;
+	}
+
+	@Override
+	@Deprecated
+	public String encodeUrl(String url)
+	{
+		return url;
+	}
+
+	@Override
+	@Deprecated
+	public String encodeRedirectUrl(String url)
+	{
+		return url;
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException
+	{
+		this.status = sc;
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException
+	{
+		this.status = sc;
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException
+	{
+		this.status = SC_FOUND;
+		this.redirectLocation = location;
+	}
+
+	@Override
+	public void setDateHeader(String name, long date)
+	{
+	}
+
+	@Override
+	public void addDateHeader(String name, long date)
+	{
+	}
+
+	@Override
+	public void setHeader(String name, String value)
+	{
+	}
+
+	@Override
+	public void addHeader(String name, String value)
+	{
+	}
+
+	@Override
+	public void setIntHeader(String name, int value)
+	{
+	}
+
+	@Override
+	public void addIntHeader(String name, int value)
+	{
+	}
+
+	@Override
+	public void setStatus(int sc)
+	{
+		this.status = sc;
+	}
+
+	@Override
+	@Deprecated
+	public void setStatus(int sc, String sm)
+	{
+		this.status = sc;
+	}
+
+	@Override
+	public int getStatus()
+	{
+		return status;
+	}
+
+	@Override
+	public String getHeader(String name)
+	{
+		return null;
+	}
+
+	@Override
+	public Collection<String> getHeaders(String name)
+	{
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Collection<String> getHeaderNames()
+	{
+		return Collections.emptyList();
+	}
+
+	static class NullOutputStream extends OutputStream
+	{
+		@Override
+		public void write(int b) throws IOException
+		{
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+		}
+	}
+
+	static class NullServletOutputStream extends ServletOutputStream
+	{
+		@Override
+		public void write(int b) throws IOException
+		{
+		}
+
+		@Override
+		public boolean isReady()
+		{
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener)
+		{
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.benchmark.mock;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionContext;
+
+/*
+ * In-process HttpSession used by the benchmarks. Attributes are held in a
+ * ConcurrentHashMap so a single session can be shared between benchmark threads
+ * the same way a container shares one between parallel requests.
+ */
+@SuppressWarnings("deprecation")
+public class MockHttpSession implements HttpSession
+{
+	private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+
+	private final Map<String,Object> attributes = new ConcurrentHashMap<String,Object>();
+	private final String id = "mock-session-" + ID_SEQUENCE.incrementAndGet();
+	private final long creationTime = System.currentTimeMillis();
+	private int maxInactiveInterval = 1800;
+	private long setAttributeCount = 0;
+
+	/*
+	 * Number of setAttribute calls made against this session. Useful for observing
+	 * how many attribute writes (and therefore replication events) a request causes.
+	 */
+	public long getSetAttributeCount()
+	{
+		return setAttributeCount;
+	}
+
+	public void clear()
+	{
+		attributes.clear();
+	}
+
+	@Override
+	public long getCreationTime()
+	{
+		return creationTime;
+	}
+
+	@Override
+	public String getId()
+	{
+		return id;
+	}
+
+	@Override
+	public long getLastAccessedTime()
+	{
+		return creationTime;
+	}
+
+	@Override
+	public ServletContext getServletContext()
+	{
+		return null;
+	}
+
+	@Override
+	public void setMaxInactiveInterval(int interval)
+	{
+		this.maxInactiveInterval = interval;
+	}
+
+	@Override
+	public int getMaxInactiveInterval()
+	{
+		return maxInactiveInterval;
+	}
+
+	@Override
+	public HttpSessionContext getSessionContext()
+	{
+		return null;
+	}
+
+	@Override
+	public Object getAttribute(String name)
+	{
+		return attributes.get(name);
+	}
+
+	@Override
+	public Object getValue(String name)
+	{
+		return getAttribute(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames()
+	{
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	@Override
+	public String[] getValueNames()
+	{
+		return attributes.keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public void setAttribute(String name, Object value)
+	{
+		setAttributeCount++;
+
+		if(value == null)
+		{
+			attributes.remove(name);
+			return;
+		}
+
+		attributes.put(name, value);
+	}
+
+	@Override
+	public void putValue(String name, Object value)
+	{
+		setAttribute(name, value);
+	}
+
+	@Override
+	public void removeAttribute(String name)
+	{
+		attributes.remove(name);
+	}
+
+	@Override
+	public void removeValue(String name)
+	{
+		removeAttribute(name);
+	}
+
+	@Override
+	public void invalidate()
+	{
+		attributes.clear();
+	}
+
+	@Override
+	public boolean isNew()
+	{
+		return false;
+	}
+}
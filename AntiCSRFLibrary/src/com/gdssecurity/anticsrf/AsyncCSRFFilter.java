@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf;
+
+import java.io.IOException;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.j2ee.AsyncBodyReader;
+import com.gdssecurity.anticsrf.j2ee.BufferedBodyRequestWrapper;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * CSRFFilter variant for Servlet 3.1 containers that does not hold a container
+ * thread while a client sends the body carrying the token. When the token has
+ * to come from the body, the body is read with non-blocking I/O by an
+ * AsyncBodyReader and the request is dispatched again once it is complete. That
+ * second, ASYNC dispatch is verified exactly like CSRFFilter does, from the
+ * buffered body, and the application reads the same body from the wrapper.
+ * 
+ * Only bodies with a Content-Length of at most body_scan_limit are read this
+ * way, so memory per waiting request stays bounded. Larger or chunked bodies,
+ * requests whose token is in the header and containers or requests without
+ * async support go through the blocking CSRFFilter path unchanged.
+ * 
+ * The filter must be declared with <async-supported>true</async-supported> and
+ * mapped for both the REQUEST and ASYNC dispatcher types. The anticsrf_async_timeout
+ * init-param sets the seconds a client has to send its body, 30 by default.
+ */
+public class AsyncCSRFFilter extends CSRFFilter
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(AsyncCSRFFilter.class);
+	
+	private long timeoutMillis;
+	
+	@Override
+	public void init(final FilterConfig filterConfig) throws ServletException
+	{
+		super.init(filterConfig);
+		
+		String timeout = filterConfig.getInitParameter(Constants.CONF_ASYNC_TIMEOUT_INITPARAMNAME);
+		if(timeout == null || timeout.equals(""))
+		{
+			timeout = Constants.CONF_DEFAULT_ASYNC_TIMEOUT;
+		}
+		
+		long timeoutSeconds;
+		try
+		{
+			timeoutSeconds = Long.parseLong(timeout.trim());
+		}
+		catch(NumberFormatException ex)
+		{
+			timeoutSeconds = -1;
+		}
+		
+		if(timeoutSeconds <= 0)
+		{
+			throw new CSRFConfigException("Invalid " + Constants.CONF_ASYNC_TIMEOUT_INITPARAMNAME + 
+					" init-param. We are expecting a positive number of seconds. EnteredValue=" + timeout);
+		}
+		
+		timeoutMillis = timeoutSeconds * 1000;
+		LOG.info("AntiCSRF filter reads request bodies asynchronously, timeout={}s", timeoutSeconds);
+	}
+	
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) 
+			throws ServletException, IOException
+	{
+		HttpServletRequest req = (HttpServletRequest) request;
+		
+		if(req.getDispatcherType() == DispatcherType.ASYNC)
+		{
+			Object body = req.getAttribute(Constants.ASYNC_BODY_ATTR);
+			if(!(body instanceof byte[]))
+			{
+				// An async dispatch by the application, the request was verified when it came in
+				chain.doFilter(request, response);
+				return;
+			}
+			
+			req.removeAttribute(Constants.ASYNC_BODY_ATTR);
+			super.doFilter(new BufferedBodyRequestWrapper(req, (byte[]) body), response, chain);
+			return;
+		}
+		
+		if(readBodyAsync(req))
+		{
+			AsyncBodyReader.start(req, req.getContentLength(), timeoutMillis);
+			return;
+		}
+		
+		super.doFilter(request, response, chain);
+	}
+	
+	private static boolean readBodyAsync(HttpServletRequest req) throws IOException
+	{
+		if(!req.isAsyncSupported())
+		{
+			return false;
+		}
+		
+		ConfigSnapshot config = ConfigUtil.getSnapshot();
+		int contentLength = req.getContentLength();
+		
+		if(contentLength <= 0 || contentLength > config.getBodyScanLimit())
+		{
+			return false;
+		}
+		
+		if(config.getUrlPolicy(req.getRequestURI()).isExempt())
+		{
+			return false;
+		}
+		
+		return config.getTokenSourceChain().needsBody(req, config.getTokenParameterName());
+	}
+}
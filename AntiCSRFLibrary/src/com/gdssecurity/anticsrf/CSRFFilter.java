@@ -19,8 +19,8 @@ package com.gdssecurity.anticsrf;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.logging.Logger;
 
+import javax.management.ObjectName;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -30,27 +30,55 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
 import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.j2ee.AbstractJ2EECSRFProtection;
 import com.gdssecurity.anticsrf.j2ee.J2EECSRFProtection;
+import com.gdssecurity.anticsrf.j2ee.J2EEDoubleSubmitCSRFProtection;
 import com.gdssecurity.anticsrf.j2ee.J2EEHmacCSRFProtection;
+import com.gdssecurity.anticsrf.j2ee.LazyCSRFToken;
+import com.gdssecurity.anticsrf.j2ee.ReplicationAwareSession;
+import com.gdssecurity.anticsrf.j2ee.TokenLookup;
+import com.gdssecurity.anticsrf.jmx.CSRFMonitor;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
 import com.gdssecurity.anticsrf.protections.CSRFProtection;
 import com.gdssecurity.anticsrf.protections.CSRFProtectionFactory;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
 import com.gdssecurity.anticsrf.utils.ConfigUtil;
+import com.gdssecurity.anticsrf.utils.ConfigWatcher;
 import com.gdssecurity.anticsrf.utils.Constants;
-import com.gdssecurity.anticsrf.utils.StringUtil;
 
 public class CSRFFilter implements Filter 
 {
-	private static final Logger LOG = Logger.getLogger(CSRFFilter.class.getName());
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(CSRFFilter.class);
 	FilterConfig filterConfig;
+	private ConfigWatcher configWatcher;
+	private String configFile;
+	private ObjectName monitorName;
 
 	/*
 	 * (non-Javadoc)
 	 * @see javax.servlet.Filter#destroy()
 	 */
-	public void destroy(){}
+	public void destroy()
+	{
+		if(configWatcher != null)
+		{
+			configWatcher.stop();
+			configWatcher = null;
+		}
+		
+		if(monitorName != null)
+		{
+			CSRFMonitor.unregister(monitorName);
+			monitorName = null;
+		}
+		
+		SecurityEvents.shutdown();
+	}
 
 	public void init(final FilterConfig filterConfig) throws ServletException 
 	{
@@ -62,16 +90,112 @@ public class CSRFFilter implements Filter
         if(configFile == null)
         {
         	configFile = "/WEB-INF/" + Constants.CONFIGNAME;
-        	LOG.info("No Filter init-param set, defaulting to loading AntiCSRF Configuration from "+configFile);
+        	LOG.info("No Filter init-param set, defaulting to loading AntiCSRF Configuration from {}", configFile);
         }
         else
         {
-        	LOG.info("AntiCSRF Configuration init-param specified. Configuration file set to "+configFile);
+        	LOG.info("AntiCSRF Configuration init-param specified. Configuration file set to {}", configFile);
         }
         
         InputStream inputStream = filterConfig.getServletContext().getResourceAsStream(configFile);
         ConfigUtil.loadConfig(inputStream);
         this.filterConfig = filterConfig;
+        this.configFile = configFile;
+        
+        startConfigWatcher(filterConfig, configFile);
+        registerMonitor(filterConfig);
+	}
+	
+	/*
+	 * Registers the JMX monitor for this filter, unless the anticsrf_jmx init-param
+	 * is set to "no"
+	 */
+	private void registerMonitor(FilterConfig filterConfig)
+	{
+		String jmx = filterConfig.getInitParameter(Constants.CONF_JMX_INITPARAMNAME);
+		if(jmx != null && jmx.trim().equals("no"))
+		{
+			return;
+		}
+		
+		monitorName = CSRFMonitor.register(this, filterConfig.getServletContext().getContextPath(), 
+				filterConfig.getFilterName());
+	}
+	
+	/*
+	 * Reloads the configuration file the filter was initialised with, for the JMX
+	 * reloadConfiguration operation. Returns false if the file could not be
+	 * loaded, in which case the current configuration stays active.
+	 */
+	public boolean reloadConfiguration()
+	{
+		if(configWatcher != null)
+		{
+			return configWatcher.reloadNow();
+		}
+		
+		InputStream inputStream = (filterConfig != null 
+				? filterConfig.getServletContext().getResourceAsStream(configFile) : null);
+		if(inputStream == null)
+		{
+			LOG.severe("Failed to reload AntiCSRF configuration, the configuration file was not found. file={}", 
+					configFile);
+			return false;
+		}
+		
+		try
+		{
+			ConfigUtil.loadConfig(inputStream);
+			return true;
+		}
+		catch(CSRFConfigException ex)
+		{
+			LOG.severe("Failed to reload AntiCSRF configuration, keeping the current configuration. exception={}",
+					ex.getMessage());
+			return false;
+		}
+	}
+	
+	/*
+	 * Hot reload is enabled by setting the anticsrf_config_reload init-param to the
+	 * number of seconds between checks of the configuration file.
+	 */
+	private void startConfigWatcher(FilterConfig filterConfig, String configFile) throws ServletException
+	{
+		String reloadInterval = filterConfig.getInitParameter(Constants.CONF_RELOAD_INITPARAMNAME);
+		
+		if(reloadInterval == null || reloadInterval.equals(""))
+		{
+			return;
+		}
+		
+		long intervalSeconds;
+		try
+		{
+			intervalSeconds = Long.parseLong(reloadInterval.trim());
+		}
+		catch(NumberFormatException ex)
+		{
+			intervalSeconds = -1;
+		}
+		
+		if(intervalSeconds <= 0)
+		{
+			throw new CSRFConfigException("Invalid " + Constants.CONF_RELOAD_INITPARAMNAME + 
+					" init-param. We are expecting a positive number of seconds. EnteredValue=" + reloadInterval);
+		}
+		
+		String configPath = filterConfig.getServletContext().getRealPath(configFile);
+		
+		if(configPath == null)
+		{
+			LOG.warning("AntiCSRF configuration reload requested but the configuration file is not " +
+					"available on the filesystem, reload is disabled. file={}", configFile);
+			return;
+		}
+		
+		configWatcher = new ConfigWatcher(configPath, intervalSeconds);
+		configWatcher.start();
 	}
 
 	public void doFilter(ServletRequest request, ServletResponse response,
@@ -80,7 +204,7 @@ public class CSRFFilter implements Filter
 		HttpServletRequest req = (HttpServletRequest) request;
 		HttpServletResponse res = (HttpServletResponse) response;
 		
-		LOG.fine("The CSRFFilter is running on URL: " + StringUtil.stripNewlines(req.getRequestURI()) );
+		LOG.fine("The CSRFFilter is running on URL: {}", req.getRequestURI());
 		
 		// If Hmac mode, lets add a new token to the request attribute first
 		// This will allow for a rolling timestamp on the CSRFToken
@@ -89,60 +213,62 @@ public class CSRFFilter implements Filter
 		// session token. Therefore, we will only generate a new one if a Token
 		// is not currently set within session.
 		
-		J2EECSRFProtection csrfProtection = (J2EECSRFProtection)CSRFProtectionFactory.getCSRFProtection();
+		// If DoubleSubmit, the token lives in a cookie and a new cookie is only
+		// issued when the request did not carry one. No session is created.
+		
+		// Read the active configuration once so the whole request sees the same snapshot
+		ConfigSnapshot config = ConfigUtil.getSnapshot();
+		// The protection binds the CSRFEngine to this request, see AbstractJ2EECSRFProtection
+		AbstractJ2EECSRFProtection csrfProtection = 
+				(AbstractJ2EECSRFProtection) CSRFProtectionFactory.getCSRFProtection(config);
 		csrfProtection.setRequestObject(req);
 		
-		if(ConfigUtil.isHmacMode())
-		{
-			csrfProtection.generateCSRFToken();
-		}
-		else
+		try
 		{
-			HttpSession session = req.getSession(true);
-			String storedCSRFToken = (String) session.getAttribute(
-					ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR));
-			
-			if(storedCSRFToken == null || storedCSRFToken.equals(""))	
+			if(config.isDoubleSubmitMode())
 			{
-				csrfProtection.generateCSRFToken();
+				// Never deferred, the cookie has to be set before the response is committed
+				((J2EEDoubleSubmitCSRFProtection) csrfProtection).issueCookie(res);
+			}
+		
+			if(config.isLazyTokenGeneration())
+			{
+				// Defer creating the token until a tag or getCSRFToken() asks for it
+				req.setAttribute(Constants.TOKEN_SUPPLIER_ATTR, new LazyCSRFToken(csrfProtection));
 			}
 			else
 			{
-				req.setAttribute(
-					ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR), storedCSRFToken);
+				csrfProtection.loadCSRFToken();
 			}
-		}
 		
-		try
-		{
-			if( !csrfProtection.verifyCSRFToken() )
+			// The engine publishes the rejection, and lets the request through in monitor mode
+			if( !csrfProtection.getEngine().verify(csrfProtection.getCSRFRequest()) )
 			{
-				String err = "User submitted an invalid CSRFToken.";
-				LOG.warning(err+", submittedToken=" + StringUtil.stripNewlines(req.getParameter(
-								ConfigUtil.getProp(Constants.CONF_TOKEN_PARAM))) );
-				throw new CSRFTokenVerificationException(err);
+				handleError(config, req, res);
+				return;
 			}
-		}
-		catch( CSRFTokenVerificationException ex )
-		{
-			// If MonitorMode is disabled, we handle the invalid CSRF Token validation error
-			// If not, we continue normal execution.
-			if(ConfigUtil.getProp(Constants.CONF_MONITORMODE).equals("no"))
+		
+			// A token source that had to read the body hands back a request that replays it
+			TokenLookup lookup = (TokenLookup) req.getAttribute(Constants.TOKEN_LOOKUP_ATTR);
+			if(lookup != null && lookup.getRequest() != req)
 			{
-				handleError(req, res);
-				return;
+				request = lookup.getRequest();
 			}
-			
-		}
 		
-		chain.doFilter(request, response);
+			chain.doFilter(request, response);
+		}
+		finally
+		{
+			// Session mode defers re-writing changed session attributes until here
+			ReplicationAwareSession.flush(req);
+		}
 	}
 	
-	private void handleError(HttpServletRequest req, HttpServletResponse res) 
+	private void handleError(ConfigSnapshot config, HttpServletRequest req, HttpServletResponse res) 
 			throws IOException, ServletException
 	{
 		// Check if the request is an XMLHTTPRequest/AJAX request
-		if(ConfigUtil.getProp(Constants.CONF_ERROR_AJAX) != null)
+		if(config.getProperty(Constants.CONF_ERROR_AJAX) != null)
 		{
 			if(req.getHeader("X-Requested-With") != null && 
 					req.getHeader("X-Requested-With").equals("XMLHttpRequest") )
@@ -154,20 +280,19 @@ public class CSRFFilter implements Filter
 		}
 		
 		// Token validation failed. Lets handle the error based on the config file
-		if( ConfigUtil.getProp(Constants.CONF_ERROR).equals("redirect") )
+		if( config.getErrorMode() == Constants.ERROR_MODES.redirect )
 		{
-			res.sendRedirect(ConfigUtil.getProp(Constants.CONF_ERRORVAL));
+			res.sendRedirect(config.getErrorValue());
 		}
-		else if( ConfigUtil.getProp(Constants.CONF_ERROR).equals("forward") )
+		else if( config.getErrorMode() == Constants.ERROR_MODES.forward )
 		{
-			String forwardUrl = ConfigUtil.getProp(Constants.CONF_ERRORVAL);
+			String forwardUrl = config.getErrorValue();
 			RequestDispatcher dispatcher = req.getRequestDispatcher(forwardUrl);
 			dispatcher.forward(req, res);
 		}
-		else if( ConfigUtil.getProp(Constants.CONF_ERROR).equals("status_code"))
+		else if( config.getErrorMode() == Constants.ERROR_MODES.status_code )
 		{
-			int statusCode = Integer.parseInt(ConfigUtil.getProp(Constants.CONF_ERRORVAL));
-			res.sendError(statusCode, "CSRF Token validation failed");
+			res.sendError(config.getErrorStatusCode(), "CSRF Token validation failed");
 		}
 		else
 		{
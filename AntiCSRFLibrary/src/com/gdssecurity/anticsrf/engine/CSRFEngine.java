@@ -0,0 +1,317 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.engine;
+
+import com.gdssecurity.anticsrf.events.SecurityEvent;
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenGenerationException;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.metrics.CSRFMetrics;
+import com.gdssecurity.anticsrf.protections.CSRFProtection;
+import com.gdssecurity.anticsrf.protections.DoubleSubmitCSRFProtection;
+import com.gdssecurity.anticsrf.protections.HMACCSRFProtection;
+import com.gdssecurity.anticsrf.protections.SessionProtection;
+import com.gdssecurity.anticsrf.protections.SesssionInterface;
+import com.gdssecurity.anticsrf.store.TokenStore;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+
+/*
+ * Token generation and verification over a CSRFRequest. The CSRFFilter and the
+ * J2EE protections run on it through ServletCSRFRequest, and a server that is
+ * not a servlet container, such as a Netty or Undertow based gateway in front of
+ * the application, embeds the same checks with its own CSRFRequest.
+ * 
+ * An engine holds no per request state and can be shared by every thread. Each
+ * call binds a short lived protection to the request it is given. Created
+ * without a snapshot the engine follows the active configuration, including
+ * reloads; created with one (see ConfigUtil.compileConfig) it uses only that.
+ * 
+ * Session mode needs somewhere to keep tokens: a token_store shared with the
+ * application (local_kv or a key-value store client), or a session supplied by
+ * the request.
+ */
+public class CSRFEngine
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(CSRFEngine.class);
+	
+	private final ConfigSnapshot snapshot;
+	
+	public CSRFEngine()
+	{
+		this(null);
+	}
+	
+	public CSRFEngine(ConfigSnapshot snapshot)
+	{
+		this.snapshot = snapshot;
+	}
+	
+	public ConfigSnapshot getConfig()
+	{
+		return (snapshot != null ? snapshot : ConfigUtil.getSnapshot());
+	}
+	
+	/*
+	 * Returns true if the request may proceed: its URL is exempt, its token is
+	 * valid, or monitor mode is on. Every rejection is published as a security
+	 * event exactly as the CSRFFilter does, and an error while verifying counts
+	 * as an invalid token.
+	 */
+	public boolean verify(CSRFRequest req)
+	{
+		ConfigSnapshot config = getConfig();
+		String url = req.getPath();
+		
+		if( isExempt(config, url) )
+		{
+			return true;
+		}
+		
+		String token = null;
+		boolean valid = false;
+		try
+		{
+			token = req.getSubmittedToken(config.getTokenParameterName(), config.getTokenHeaderName());
+			valid = verifyToken(config, req, url, token);
+		}
+		catch(CSRFTokenVerificationException ex)
+		{
+			LOG.fine("CSRF token verification failed with an error, exception={}", ex.getMessage());
+		}
+		
+		if(!valid)
+		{
+			SecurityEvents.publish(config.isMonitorMode() ? SecurityEvent.Type.REQUEST_MONITORED 
+					: SecurityEvent.Type.REQUEST_REJECTED, url, req.getRemoteAddress(), 
+					null, token, "method=" + req.getMethod());
+		}
+		
+		return valid || config.isMonitorMode();
+	}
+	
+	/*
+	 * Whether the request's token is valid, without publishing the rejection or
+	 * applying monitor mode, for callers that handle an invalid token themselves.
+	 * Exempt URLs are valid.
+	 */
+	public boolean verifyCSRFToken(CSRFRequest req) throws CSRFTokenVerificationException
+	{
+		ConfigSnapshot config = getConfig();
+		String url = req.getPath();
+		
+		if( isExempt(config, url) )
+		{
+			return true;
+		}
+		
+		return verifyToken(config, req, url, 
+				req.getSubmittedToken(config.getTokenParameterName(), config.getTokenHeaderName()));
+	}
+	
+	/*
+	 * Exempt URLs never need the submitted token, so callers check this before
+	 * going looking for it
+	 */
+	private static boolean isExempt(ConfigSnapshot config, String url)
+	{
+		if( !config.getUrlPolicy(url).isExempt() )
+		{
+			return false;
+		}
+		
+		CSRFMetrics.get().verificationExempt(config.getMode());
+		return true;
+	}
+	
+	/*
+	 * Compares the submitted token, null if the request carried none, with the
+	 * stored or expected one. A request without a session has no stored token in
+	 * session mode, and verifying it does not create a session.
+	 */
+	private static boolean verifyToken(ConfigSnapshot config, CSRFRequest req, String url, String token) 
+			throws CSRFTokenVerificationException
+	{
+		CSRFMetrics metrics = CSRFMetrics.get();
+		long startTime = metrics.startTimer();
+		boolean valid = false;
+		try
+		{
+			CSRFProtection protection = getProtection(config, req, false);
+			if(protection != null)
+			{
+				valid = protection.verifyCSRFToken(url, token);
+			}
+			else
+			{
+				SecurityEvents.publish(token == null ? SecurityEvent.Type.TOKEN_MISSING 
+						: SecurityEvent.Type.NO_STORED_TOKEN, url, null, token);
+			}
+			
+			return valid;
+		}
+		finally
+		{
+			metrics.verificationCompleted(config.getMode(), startTime, valid);
+		}
+	}
+	
+	/*
+	 * The sitewide token to embed in pages for this request. In session mode the
+	 * stored token is reused, in doublesubmit mode it is the cookie's token, or a
+	 * new one that has to be set as the cookie, see getNewCookieToken().
+	 */
+	public String getCSRFToken(CSRFRequest req) throws CSRFTokenGenerationException
+	{
+		ConfigSnapshot config = getConfig();
+		CSRFProtection protection = requireProtection(config, req);
+		
+		CSRFMetrics metrics = CSRFMetrics.get();
+		long startTime = metrics.startTimer();
+		String token = (protection instanceof SessionProtection 
+				? ((SessionProtection) protection).getOrCreateCSRFToken()
+				: protection.generateCSRFToken());
+		metrics.tokenIssued(config.getMode(), startTime);
+		
+		return token;
+	}
+	
+	/*
+	 * A new sitewide token. In session mode it replaces the session's stored
+	 * token, in doublesubmit mode it is the same as getCSRFToken().
+	 */
+	public String generateCSRFToken(CSRFRequest req) throws CSRFTokenGenerationException
+	{
+		ConfigSnapshot config = getConfig();
+		CSRFProtection protection = requireProtection(config, req);
+		
+		CSRFMetrics metrics = CSRFMetrics.get();
+		long startTime = metrics.startTimer();
+		String token = protection.generateCSRFToken();
+		metrics.tokenIssued(config.getMode(), startTime);
+		
+		return token;
+	}
+	
+	public String generateUrlSpecificCSRFToken(CSRFRequest req, String url) throws CSRFTokenGenerationException
+	{
+		ConfigSnapshot config = getConfig();
+		CSRFProtection protection = requireProtection(config, req);
+		
+		CSRFMetrics metrics = CSRFMetrics.get();
+		long startTime = metrics.startTimer();
+		String token = protection.generateUrlSpecificCSRFToken(url);
+		metrics.urlSpecificTokenIssued(config.getMode(), startTime);
+		
+		return token;
+	}
+	
+	/*
+	 * Doublesubmit mode: a new token the response has to set as the
+	 * doublesubmit cookie, or null if the request already carries a valid one
+	 * and in the other modes
+	 */
+	public String getNewCookieToken(CSRFRequest req) throws CSRFTokenGenerationException
+	{
+		ConfigSnapshot config = getConfig();
+		if(!config.isDoubleSubmitMode())
+		{
+			return null;
+		}
+		
+		DoubleSubmitCSRFProtection protection = new DoubleSubmitCSRFProtection(
+				req.getCookie(config.getDoubleSubmitCookieName()), config);
+		if(protection.hasCookieToken())
+		{
+			return null;
+		}
+		
+		CSRFMetrics metrics = CSRFMetrics.get();
+		long startTime = metrics.startTimer();
+		String token = protection.generateCSRFToken();
+		metrics.tokenIssued(config.getMode(), startTime);
+		
+		return token;
+	}
+	
+	/*
+	 * Session mode: number of URL specific tokens held for the request's session,
+	 * for sizing urlspecific_capacity against the heap. 0 in the other modes and
+	 * for a request without a session.
+	 */
+	public int getUrlSpecificTokenCount(CSRFRequest req)
+	{
+		ConfigSnapshot config = getConfig();
+		if(!config.isSessionMode())
+		{
+			return 0;
+		}
+		
+		CSRFProtection protection = getProtection(config, req, false);
+		return (protection != null ? ((SessionProtection) protection).getUrlSpecificTokenCount() : 0);
+	}
+	
+	private static CSRFProtection requireProtection(ConfigSnapshot config, CSRFRequest req) 
+			throws CSRFTokenGenerationException
+	{
+		CSRFProtection protection = getProtection(config, req, true);
+		if(protection == null)
+		{
+			throw new CSRFTokenGenerationException("Failed to generate CSRFToken, the request has no session to store it in");
+		}
+		
+		return protection;
+	}
+	
+	/*
+	 * Protection bound to the request, or null in session mode when the request
+	 * has no session to hold its tokens. Only token generation passes create.
+	 */
+	private static CSRFProtection getProtection(ConfigSnapshot config, CSRFRequest req, boolean create)
+	{
+		if(config.isHmacMode())
+		{
+			String userSeed = req.getUserSeed();
+			if(userSeed == null)
+			{
+				LOG.warning("No user seed for the request, defaulting to the generic anonymous seed " 
+						+ "since the token cannot be tied to a user identity");
+				userSeed = "anonymous";
+			}
+			
+			return new HMACCSRFProtection(userSeed, config);
+		}
+		
+		if(config.isDoubleSubmitMode())
+		{
+			return new DoubleSubmitCSRFProtection(req.getCookie(config.getDoubleSubmitCookieName()), config);
+		}
+		
+		TokenStore store = config.getTokenStore();
+		if(store != null)
+		{
+			String sessionId = req.getSessionId(create);
+			return (sessionId != null ? new SessionProtection(store, sessionId, config) : null);
+		}
+		
+		SesssionInterface session = req.getSession(create);
+		return (session != null ? new SessionProtection(session, config) : null);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.engine;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.protections.SesssionInterface;
+
+/*
+ * The parts of an HTTP request the CSRFEngine needs, independent of the
+ * server it runs in. A Netty, Undertow or servlet integration implements this
+ * over its own request type, see ServletCSRFRequest for the servlet one.
+ * 
+ * Implementations are used by one thread for the duration of one request.
+ */
+public interface CSRFRequest
+{
+	public String getMethod();
+	
+	/*
+	 * Request path without the query string, matched against the URL rules
+	 */
+	public String getPath();
+	
+	public String getHeader(String name);
+	
+	/*
+	 * Value of the named cookie, or null. A cookie sent more than once yields the
+	 * empty string: the values cannot be told apart, and one of them may have been
+	 * set by another host.
+	 */
+	public String getCookie(String name);
+	
+	public String getRemoteAddress();
+	
+	/*
+	 * The submitted token, from wherever this transport carries it: typically
+	 * the headerName header, then the parameterName query or form parameter.
+	 * The servlet implementation asks the configured token sources instead.
+	 * Returns null if the request has none, and throws if the token could not
+	 * be read, which fails verification.
+	 */
+	public String getSubmittedToken(String parameterName, String headerName) 
+			throws CSRFTokenVerificationException;
+	
+	/*
+	 * Identity hmac mode tokens are bound to, or null for an anonymous user
+	 */
+	public String getUserSeed();
+	
+	/*
+	 * Session mode with an external token_store: the id of the client's session.
+	 * Only token generation passes create, verification must not start a session.
+	 * Returns null if the client has none and create is false.
+	 */
+	public String getSessionId(boolean create);
+	
+	/*
+	 * Session mode without a token_store: the session holding the tokens, or null
+	 * if the transport has no sessions or the client has none and create is false
+	 */
+	public SesssionInterface getSession(boolean create);
+}
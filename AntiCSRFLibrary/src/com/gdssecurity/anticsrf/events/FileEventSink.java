@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/*
+ * Appends one line per event to a file and flushes once per batch
+ */
+public class FileEventSink implements SecurityEventSink
+{
+	private final String filename;
+	private final BufferedWriter writer;
+	
+	public FileEventSink(String filename) throws IOException
+	{
+		this.filename = filename;
+		this.writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(filename, true), Charset.forName("UTF-8")));
+	}
+	
+	public String getFilename()
+	{
+		return filename;
+	}
+	
+	@Override
+	public void write(List<SecurityEvent> events) throws IOException
+	{
+		for(SecurityEvent event : events)
+		{
+			writer.write(event.formatWithTimestamp());
+			writer.newLine();
+		}
+		
+		writer.flush();
+	}
+	
+	@Override
+	public void close()
+	{
+		try
+		{
+			writer.close();
+		}
+		catch(IOException ex)
+		{
+			// Nothing left to write to
+		}
+	}
+}
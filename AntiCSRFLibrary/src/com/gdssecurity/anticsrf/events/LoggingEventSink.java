@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.util.List;
+
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+
+/*
+ * Writes events as warnings through the library's logging backend, under the
+ * logger name com.gdssecurity.anticsrf.events. This is the default sink and
+ * produces the same warnings the library used to log from the request thread.
+ */
+public class LoggingEventSink implements SecurityEventSink
+{
+	private static final CSRFLogger EVENT_LOG = CSRFLoggerFactory.getLogger("com.gdssecurity.anticsrf.events");
+	
+	@Override
+	public void write(List<SecurityEvent> events)
+	{
+		for(SecurityEvent event : events)
+		{
+			EVENT_LOG.warning(event.format());
+		}
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Keeps the most recent events in memory, for tests and for applications that
+ * expose recent CSRF failures themselves. Older events are discarded once
+ * capacity is reached.
+ */
+public class MemoryEventSink implements SecurityEventSink
+{
+	private final ArrayDeque<SecurityEvent> events;
+	private final int capacity;
+	
+	public MemoryEventSink(int capacity)
+	{
+		this.events = new ArrayDeque<SecurityEvent>(capacity);
+		this.capacity = capacity;
+	}
+	
+	@Override
+	public void write(List<SecurityEvent> batch)
+	{
+		synchronized(events)
+		{
+			for(SecurityEvent event : batch)
+			{
+				if(events.size() == capacity)
+				{
+					events.removeFirst();
+				}
+				
+				events.addLast(event);
+			}
+		}
+	}
+	
+	/*
+	 * Copy of the retained events, oldest first
+	 */
+	public List<SecurityEvent> getEvents()
+	{
+		synchronized(events)
+		{
+			return new ArrayList<SecurityEvent>(events);
+		}
+	}
+	
+	public void clear()
+	{
+		synchronized(events)
+		{
+			events.clear();
+		}
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import com.gdssecurity.anticsrf.utils.StringUtil;
+
+/*
+ * A single security relevant occurrence, such as a rejected CSRF token. Events
+ * are created on the request thread with nothing but field assignments, all
+ * formatting happens on the SecurityEventPipeline's writer thread. Fields that do
+ * not apply to an event are null.
+ */
+public class SecurityEvent
+{
+	public static enum Type {
+		TOKEN_MISSING("Request is missing the CSRF token"),
+		TOKEN_MALFORMED("CSRF token is not in a valid format"),
+		INVALID_SIGNATURE("CSRF token did not contain a valid HMAC signature"),
+		TOKEN_EXPIRED("CSRF token is expired"),
+		TOKEN_MISMATCH("CSRF token does not match the expected token"),
+		NO_STORED_TOKEN("No token is stored for the session or URL"),
+		TOKEN_REPLAYED("One time use token was already used by a parallel request"),
+		COOKIE_MISSING("Request is missing a valid CSRF token cookie"),
+		VERIFICATION_ERROR("Error while verifying the CSRF token"),
+		REQUEST_REJECTED("Request rejected because of an invalid CSRF token"),
+		REQUEST_MONITORED("Invalid CSRF token, request allowed by monitor mode");
+		
+		private final String description;
+		
+		private Type(String description)
+		{
+			this.description = description;
+		}
+		
+		public String getDescription()
+		{
+			return description;
+		}
+	}
+	
+	/*
+	 * Longest value written for a single field, submitted values are attacker
+	 * controlled and may be of any size
+	 */
+	static final int MAX_FIELD_LENGTH = 256;
+	
+	private final long timestamp;
+	private final Type type;
+	private final String url;
+	private final String remoteAddr;
+	private final String userSeed;
+	private final String submittedToken;
+	private final String detail;
+	
+	public SecurityEvent(Type type, String url, String remoteAddr, String userSeed, 
+			String submittedToken, String detail)
+	{
+		this.timestamp = System.currentTimeMillis();
+		this.type = type;
+		this.url = url;
+		this.remoteAddr = remoteAddr;
+		this.userSeed = userSeed;
+		this.submittedToken = submittedToken;
+		this.detail = detail;
+	}
+	
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	public Type getType()
+	{
+		return type;
+	}
+	
+	public String getUrl()
+	{
+		return url;
+	}
+	
+	public String getRemoteAddr()
+	{
+		return remoteAddr;
+	}
+	
+	public String getUserSeed()
+	{
+		return userSeed;
+	}
+	
+	public String getSubmittedToken()
+	{
+		return submittedToken;
+	}
+	
+	public String getDetail()
+	{
+		return detail;
+	}
+	
+	/*
+	 * Single line key=value form without the timestamp, as written by the JUL sink
+	 */
+	public String format()
+	{
+		StringBuilder str = new StringBuilder(128);
+		str.append(type.getDescription()).append(". type=").append(type.name());
+		appendField(str, "url", url);
+		appendField(str, "remoteAddr", remoteAddr);
+		appendField(str, "userSeed", userSeed);
+		appendField(str, "submittedToken", submittedToken);
+		appendField(str, "detail", detail);
+		return str.toString();
+	}
+	
+	/*
+	 * format() prefixed with an ISO-8601 UTC timestamp, as written to files
+	 */
+	public String formatWithTimestamp()
+	{
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return dateFormat.format(new Date(timestamp)) + " " + format();
+	}
+	
+	private static void appendField(StringBuilder str, String name, String value)
+	{
+		if(value == null)
+		{
+			return;
+		}
+		
+		String sanitized = StringUtil.stripNewlines(value);
+		if(sanitized.length() > MAX_FIELD_LENGTH)
+		{
+			sanitized = sanitized.substring(0, MAX_FIELD_LENGTH) + "...";
+		}
+		
+		str.append(", ").append(name).append('=').append(sanitized);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return formatWithTimestamp();
+	}
+}
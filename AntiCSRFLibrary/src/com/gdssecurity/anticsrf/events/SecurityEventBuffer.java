@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Bounded lock-free ring buffer with any number of producers and a single
+ * consumer. A producer claims a slot with one compare-and-set on the tail and
+ * then publishes the event into it; when the buffer is full offer() fails at
+ * once instead of waiting. The consumer takes published events in order and
+ * clears their slots before moving the head past them.
+ */
+class SecurityEventBuffer
+{
+	private final AtomicReferenceArray<SecurityEvent> slots;
+	private final int capacity;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	
+	/* Only written by the consumer */
+	private volatile long head;
+	
+	/*
+	 * capacity is rounded up to the next power of two
+	 */
+	SecurityEventBuffer(int capacity)
+	{
+		int size = 1;
+		while(size < capacity)
+		{
+			size <<= 1;
+		}
+		
+		this.slots = new AtomicReferenceArray<SecurityEvent>(size);
+		this.capacity = size;
+		this.mask = size - 1;
+	}
+	
+	int getCapacity()
+	{
+		return capacity;
+	}
+	
+	boolean offer(SecurityEvent event)
+	{
+		while(true)
+		{
+			long claimed = tail.get();
+			
+			if(claimed - head >= capacity)
+			{
+				return false;
+			}
+			
+			if(tail.compareAndSet(claimed, claimed + 1))
+			{
+				slots.lazySet((int) (claimed & mask), event);
+				return true;
+			}
+		}
+	}
+	
+	/*
+	 * Moves up to max published events into batch, returns the number moved.
+	 * Must only be called from the consumer thread.
+	 */
+	int drainTo(List<SecurityEvent> batch, int max)
+	{
+		long next = head;
+		int count = 0;
+		
+		while(count < max)
+		{
+			int index = (int) (next & mask);
+			SecurityEvent event = slots.get(index);
+			
+			// Empty, or claimed by a producer that has not published yet
+			if(event == null)
+			{
+				break;
+			}
+			
+			slots.lazySet(index, null);
+			batch.add(event);
+			next++;
+			count++;
+		}
+		
+		head = next;
+		return count;
+	}
+	
+	int size()
+	{
+		return (int) Math.max(0, tail.get() - head);
+	}
+}
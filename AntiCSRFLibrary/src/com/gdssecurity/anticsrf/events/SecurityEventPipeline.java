@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+
+/*
+ * Moves security events from request threads to a sink. Request threads only
+ * place the event in a SecurityEventBuffer and never wait: if the buffer is full
+ * the event is dropped and counted. A single daemon thread drains the buffer in
+ * batches and hands each batch to the sink, so slow log or file I/O only ever
+ * delays the writer thread.
+ */
+public class SecurityEventPipeline
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(SecurityEventPipeline.class);
+	
+	static final int BATCH_SIZE = 256;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+	private static final long STOP_TIMEOUT_MILLIS = 2000;
+	
+	private final SecurityEventBuffer buffer;
+	private final SecurityEventSink sink;
+	private final Thread writer;
+	private volatile boolean running = true;
+	
+	private final LongAdder published = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder sinkFailures = new LongAdder();
+	
+	public SecurityEventPipeline(SecurityEventSink sink, int bufferSize)
+	{
+		this.buffer = new SecurityEventBuffer(bufferSize);
+		this.sink = sink;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "AntiCSRF-SecurityEvents");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/*
+	 * Queues the event for the writer thread. Returns false, without blocking, if
+	 * the buffer is full or the pipeline has been stopped.
+	 */
+	public boolean publish(SecurityEvent event)
+	{
+		if(running && buffer.offer(event))
+		{
+			published.increment();
+			return true;
+		}
+		
+		dropped.increment();
+		return false;
+	}
+	
+	/*
+	 * Stops the writer thread after it has written the events already queued and
+	 * closes the sink
+	 */
+	public void stop()
+	{
+		running = false;
+		LockSupport.unpark(writer);
+		
+		try
+		{
+			writer.join(STOP_TIMEOUT_MILLIS);
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void drainLoop()
+	{
+		List<SecurityEvent> batch = new ArrayList<SecurityEvent>(BATCH_SIZE);
+		
+		while(running)
+		{
+			if(drainBatch(batch) == 0)
+			{
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+		}
+		
+		// Publishers may still be finishing an offer that started before stop()
+		LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+		while(drainBatch(batch) > 0)
+		{
+		}
+		
+		sink.close();
+	}
+	
+	private int drainBatch(List<SecurityEvent> batch)
+	{
+		int count = buffer.drainTo(batch, BATCH_SIZE);
+		if(count == 0)
+		{
+			return 0;
+		}
+		
+		try
+		{
+			sink.write(batch);
+			written.add(count);
+		}
+		catch(Throwable ex)
+		{
+			// Never let a failing sink kill the writer thread, the batch is lost
+			sinkFailures.increment();
+			LOG.severe("Failed to write {} security events. exception={}", count, ex);
+		}
+		finally
+		{
+			batch.clear();
+		}
+		
+		return count;
+	}
+	
+	public SecurityEventSink getSink()
+	{
+		return sink;
+	}
+	
+	public int getBufferSize()
+	{
+		return buffer.getCapacity();
+	}
+	
+	public int getQueuedCount()
+	{
+		return buffer.size();
+	}
+	
+	public long getPublishedCount()
+	{
+		return published.sum();
+	}
+	
+	/*
+	 * Events lost because the buffer was full
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.sum();
+	}
+	
+	public long getWrittenCount()
+	{
+		return written.sum();
+	}
+	
+	public long getSinkFailureCount()
+	{
+		return sinkFailures.sum();
+	}
+	
+	public void resetCounters()
+	{
+		published.reset();
+		dropped.reset();
+		written.reset();
+		sinkFailures.reset();
+	}
+}
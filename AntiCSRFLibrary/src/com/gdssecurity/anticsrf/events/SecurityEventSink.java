@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Destination for security events. Sinks are only ever called from the single
+ * writer thread of a SecurityEventPipeline, so they need no synchronization of
+ * their own and may block on I/O.
+ */
+public interface SecurityEventSink
+{
+	public void write(List<SecurityEvent> events) throws IOException;
+	
+	public void close();
+}
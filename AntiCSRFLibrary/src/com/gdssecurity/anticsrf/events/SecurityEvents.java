@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.events;
+
+import java.io.IOException;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.metrics.CSRFMetrics;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Entry point for publishing security events. The protections and the filter
+ * call publish() on their failure paths instead of logging from the request
+ * thread. The active pipeline is configured from anticsrf.xml by ConfigUtil and
+ * is only replaced when the event settings change on a reload.
+ * 
+ * Every rejection is also counted by reason in the active CSRFMetrics, whether
+ * or not an event sink is configured.
+ */
+public class SecurityEvents
+{
+	private static volatile SecurityEventPipeline pipeline;
+	private static String pipelineSettings;
+	
+	private SecurityEvents()
+	{
+	}
+	
+	public static void publish(SecurityEvent.Type type, String url, String userSeed, String submittedToken)
+	{
+		publish(type, url, null, userSeed, submittedToken, null);
+	}
+	
+	public static void publish(SecurityEvent.Type type, String url, String remoteAddr, String userSeed, 
+			String submittedToken, String detail)
+	{
+		CSRFMetrics metrics = CSRFMetrics.get();
+		if(metrics.isEnabled())
+		{
+			CSRFMetrics.Reason reason = toReason(type);
+			if(reason != null)
+			{
+				metrics.rejected(reason);
+			}
+		}
+		
+		SecurityEventPipeline current = pipeline;
+		
+		if(current != null)
+		{
+			current.publish(new SecurityEvent(type, url, remoteAddr, userSeed, submittedToken, detail));
+		}
+	}
+	
+	/*
+	 * The rejection reason an event stands for, or null for the filter's own
+	 * per-request outcome events
+	 */
+	private static CSRFMetrics.Reason toReason(SecurityEvent.Type type)
+	{
+		switch(type)
+		{
+			case TOKEN_MISSING:
+				return CSRFMetrics.Reason.MISSING;
+			case TOKEN_MALFORMED:
+				return CSRFMetrics.Reason.MALFORMED;
+			case INVALID_SIGNATURE:
+				return CSRFMetrics.Reason.BAD_MAC;
+			case TOKEN_EXPIRED:
+				return CSRFMetrics.Reason.EXPIRED;
+			case TOKEN_MISMATCH:
+				return CSRFMetrics.Reason.MISMATCH;
+			case NO_STORED_TOKEN:
+				return CSRFMetrics.Reason.NO_STORED_TOKEN;
+			case TOKEN_REPLAYED:
+				return CSRFMetrics.Reason.REPLAYED;
+			case COOKIE_MISSING:
+				return CSRFMetrics.Reason.COOKIE_MISSING;
+			case VERIFICATION_ERROR:
+				return CSRFMetrics.Reason.ERROR;
+			default:
+				return null;
+		}
+	}
+	
+	/*
+	 * Starts a pipeline for the given settings, or keeps the running one if the
+	 * settings did not change. A pipeline that is replaced writes out its queued
+	 * events before it stops.
+	 */
+	public static synchronized void configure(Constants.EVENT_SINKS sinkType, String filename, int bufferSize) 
+			throws CSRFConfigException
+	{
+		String settings = sinkType + "|" + filename + "|" + bufferSize;
+		if(settings.equals(pipelineSettings))
+		{
+			return;
+		}
+		
+		SecurityEventPipeline replacement = null;
+		if(sinkType != Constants.EVENT_SINKS.none)
+		{
+			replacement = new SecurityEventPipeline(createSink(sinkType, filename, bufferSize), bufferSize);
+		}
+		
+		SecurityEventPipeline previous = pipeline;
+		pipeline = replacement;
+		pipelineSettings = settings;
+		
+		if(previous != null)
+		{
+			previous.stop();
+		}
+	}
+	
+	private static SecurityEventSink createSink(Constants.EVENT_SINKS sinkType, String filename, int bufferSize) 
+			throws CSRFConfigException
+	{
+		switch(sinkType)
+		{
+			case file:
+				try
+				{
+					return new FileEventSink(filename);
+				}
+				catch(IOException ex)
+				{
+					throw new CSRFConfigException("Unable to open the security event file. file=" 
+							+ filename + ", exception=" + ex.getMessage());
+				}
+			case memory:
+				return new MemoryEventSink(bufferSize);
+			default:
+				return new LoggingEventSink();
+		}
+	}
+	
+	/*
+	 * Stops the active pipeline, called when the filter is destroyed
+	 */
+	public static synchronized void shutdown()
+	{
+		SecurityEventPipeline previous = pipeline;
+		pipeline = null;
+		pipelineSettings = null;
+		
+		if(previous != null)
+		{
+			previous.stop();
+		}
+	}
+	
+	/*
+	 * The active pipeline, or null if events are disabled
+	 */
+	public static SecurityEventPipeline getPipeline()
+	{
+		return pipeline;
+	}
+}
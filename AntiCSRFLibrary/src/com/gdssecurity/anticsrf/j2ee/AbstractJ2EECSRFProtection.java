@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.gdssecurity.anticsrf.engine.CSRFEngine;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenGenerationException;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+
+/*
+ * Binds the CSRFEngine to an HttpServletRequest for the J2EE protections, the
+ * CSRFFilter and the tags. Verification, token generation and their metrics and
+ * security events all happen in the engine, over a ServletCSRFRequest; this class
+ * only keeps the issued token in the configured request attribute. The subclasses
+ * add what is specific to their mode.
+ */
+public abstract class AbstractJ2EECSRFProtection implements J2EECSRFProtection
+{
+	protected HttpServletRequest req;
+	protected ServletCSRFRequest csrfRequest;
+	protected final ConfigSnapshot config;
+	private final CSRFEngine engine;
+	
+	protected AbstractJ2EECSRFProtection(ConfigSnapshot config)
+	{
+		this.config = config;
+		this.engine = new CSRFEngine(config);
+	}
+	
+	@Override
+	public void setRequestObject(HttpServletRequest req)
+	{
+		this.req = req;
+		this.csrfRequest = new ServletCSRFRequest(req, config);
+	}
+	
+	public CSRFEngine getEngine()
+	{
+		return engine;
+	}
+	
+	public ServletCSRFRequest getCSRFRequest()
+	{
+		return csrfRequest;
+	}
+	
+	@Override
+	public boolean verifyCSRFToken() throws CSRFTokenVerificationException
+	{
+		return engine.verifyCSRFToken(csrfRequest);
+	}
+	
+	/*
+	 * Sets the request's sitewide token as the token request attribute: the
+	 * session's stored token in session mode, created first if there is none,
+	 * a new signed token in hmac mode and the cookie's token in doublesubmit mode
+	 */
+	public String loadCSRFToken() throws CSRFTokenGenerationException
+	{
+		return setTokenAttribute(engine.getCSRFToken(csrfRequest));
+	}
+	
+	@Override
+	public String generateCSRFToken() throws CSRFTokenGenerationException
+	{
+		return setTokenAttribute(engine.generateCSRFToken(csrfRequest));
+	}
+	
+	@Override
+	public String generateUrlSpecificCSRFToken(String url) throws CSRFTokenGenerationException
+	{
+		return engine.generateUrlSpecificCSRFToken(csrfRequest, url);
+	}
+	
+	@Override
+	public String getCSRFToken() throws CSRFTokenGenerationException
+	{
+		Object csrfToken = req.getAttribute(config.getTokenRequestAttribute());
+		if(csrfToken != null)
+		{
+			return csrfToken.toString();
+		}
+		
+		// The filter may have deferred creating the token until now
+		LazyCSRFToken lazyToken = LazyCSRFToken.fromRequest(req);
+		if(lazyToken != null)
+		{
+			return lazyToken.get();
+		}
+		
+		return loadCSRFToken();
+	}
+	
+	@Override
+	public String getCSRFTokenParameterName()
+	{
+		return config.getTokenParameterName();
+	}
+	
+	protected String setTokenAttribute(String csrfToken)
+	{
+		req.setAttribute(config.getTokenRequestAttribute(), csrfToken);
+		return csrfToken;
+	}
+}
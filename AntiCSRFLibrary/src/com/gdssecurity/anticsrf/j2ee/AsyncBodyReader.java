@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Reads a request body of known length with non-blocking I/O. The request is
+ * put in async mode and the container calls onDataAvailable() whenever bytes
+ * have arrived, so no thread waits on a slow client in between. Once the whole
+ * body is in memory it is stored under Constants.ASYNC_BODY_ATTR and the request
+ * is dispatched again, where the AsyncCSRFFilter verifies it from the buffer.
+ * 
+ * A client that does not finish sending its body within the async timeout gets
+ * a 408, one that sends more or less than its Content-Length a 400.
+ */
+public class AsyncBodyReader implements ReadListener, AsyncListener
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(AsyncBodyReader.class);
+	
+	private final AsyncContext context;
+	private final ServletInputStream in;
+	private final byte[] body;
+	private int filled = 0;
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+	
+	private AsyncBodyReader(AsyncContext context, ServletInputStream in, int contentLength)
+	{
+		this.context = context;
+		this.in = in;
+		this.body = new byte[contentLength];
+	}
+	
+	/*
+	 * Starts reading the body of req, contentLength must be the request's
+	 * positive Content-Length. The current dispatch should return right after.
+	 */
+	public static void start(HttpServletRequest req, int contentLength, long timeoutMillis) throws IOException
+	{
+		AsyncContext context = req.startAsync();
+		context.setTimeout(timeoutMillis);
+		
+		AsyncBodyReader reader = new AsyncBodyReader(context, req.getInputStream(), contentLength);
+		context.addListener(reader);
+		reader.in.setReadListener(reader);
+	}
+	
+	@Override
+	public void onDataAvailable() throws IOException
+	{
+		// Only read while isReady(), a read that would block is not allowed here
+		while(!finished.get() && in.isReady())
+		{
+			if(filled == body.length)
+			{
+				if(in.read() >= 0)
+				{
+					fail(HttpServletResponse.SC_BAD_REQUEST, "request body is longer than its Content-Length");
+				}
+				
+				return;
+			}
+			
+			int count = in.read(body, filled, body.length - filled);
+			if(count < 0)
+			{
+				return;
+			}
+			
+			filled += count;
+		}
+	}
+	
+	@Override
+	public void onAllDataRead() throws IOException
+	{
+		if(filled < body.length)
+		{
+			fail(HttpServletResponse.SC_BAD_REQUEST, "request body is shorter than its Content-Length");
+			return;
+		}
+		
+		if(finished.compareAndSet(false, true))
+		{
+			context.getRequest().setAttribute(Constants.ASYNC_BODY_ATTR, body);
+			context.dispatch();
+		}
+	}
+	
+	@Override
+	public void onError(Throwable t)
+	{
+		fail(HttpServletResponse.SC_BAD_REQUEST, "error while reading the request body, exception=" 
+				+ (t != null ? t.getMessage() : null));
+	}
+	
+	@Override
+	public void onTimeout(AsyncEvent event) throws IOException
+	{
+		fail(HttpServletResponse.SC_REQUEST_TIMEOUT, "client did not send its request body in time, received=" 
+				+ filled + " of " + body.length + " bytes");
+	}
+	
+	@Override
+	public void onError(AsyncEvent event) throws IOException
+	{
+		onError(event.getThrowable());
+	}
+	
+	@Override
+	public void onComplete(AsyncEvent event)
+	{
+	}
+	
+	@Override
+	public void onStartAsync(AsyncEvent event)
+	{
+	}
+	
+	private void fail(int status, String reason)
+	{
+		if(!finished.compareAndSet(false, true))
+		{
+			return;
+		}
+		
+		LOG.fine("Rejecting request before CSRF verification, {}", reason);
+		
+		try
+		{
+			((HttpServletResponse) context.getResponse()).sendError(status);
+		}
+		catch(IOException ex)
+		{
+			LOG.fine("Unable to send the error response, exception={}", ex.getMessage());
+		}
+		catch(IllegalStateException ex)
+		{
+			// The response was already committed
+		}
+		finally
+		{
+			context.complete();
+		}
+	}
+}
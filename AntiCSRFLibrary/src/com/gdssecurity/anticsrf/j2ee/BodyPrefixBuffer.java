@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * Reads the start of a request body into memory on demand, never holding more
+ * than limit bytes. Token sources scan the buffered prefix and the bytes they
+ * consumed are later replayed to the application by ReplayingRequestWrapper
+ * directly out of array(), without copying.
+ */
+class BodyPrefixBuffer
+{
+	private static final int INITIAL_SIZE = 4096;
+	
+	private final InputStream in;
+	private final int limit;
+	private byte[] buf;
+	private int filled = 0;
+	private boolean eof = false;
+	
+	BodyPrefixBuffer(InputStream in, int limit)
+	{
+		this.in = in;
+		this.limit = limit;
+		this.buf = new byte[Math.min(INITIAL_SIZE, limit)];
+	}
+	
+	/*
+	 * Charset the token sources decode a body with: the request's character
+	 * encoding, or UTF-8 when it is missing or not supported
+	 */
+	static Charset getCharset(HttpServletRequest req)
+	{
+		String encoding = req.getCharacterEncoding();
+		
+		try
+		{
+			return (encoding != null ? Charset.forName(encoding) : Charset.forName("UTF-8"));
+		}
+		catch(IllegalArgumentException ex)
+		{
+			return Charset.forName("UTF-8");
+		}
+	}
+	
+	byte[] array()
+	{
+		return buf;
+	}
+	
+	int length()
+	{
+		return filled;
+	}
+	
+	byte get(int index)
+	{
+		return buf[index];
+	}
+	
+	/*
+	 * True when reading stopped because the limit was reached rather than at
+	 * the end of the body
+	 */
+	boolean isLimitReached()
+	{
+		return !eof && filled >= limit;
+	}
+	
+	/*
+	 * Makes sure at least length bytes are buffered, returns false if the body
+	 * (or the limit) ends first
+	 */
+	boolean fill(int length) throws IOException
+	{
+		while(filled < length)
+		{
+			if(!fillMore())
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/*
+	 * Index of the first occurrence of pattern at or after from, reading more of
+	 * the body as needed. Returns -1 if the pattern does not occur within the limit.
+	 */
+	int indexOf(byte[] pattern, int from) throws IOException
+	{
+		int searchFrom = from;
+		
+		while(true)
+		{
+			int last = filled - pattern.length;
+			
+			outer:
+			for(int i = searchFrom; i <= last; i++)
+			{
+				for(int j = 0; j < pattern.length; j++)
+				{
+					if(buf[i + j] != pattern[j])
+					{
+						continue outer;
+					}
+				}
+				
+				return i;
+			}
+			
+			searchFrom = Math.max(from, last + 1);
+			
+			if(!fillMore())
+			{
+				return -1;
+			}
+		}
+	}
+	
+	/*
+	 * Sequential view over the body that pulls data through this buffer. Reports
+	 * end of stream at the end of the body or once the limit is reached.
+	 */
+	InputStream openStream()
+	{
+		return new InputStream() {
+			private int pos = 0;
+			
+			@Override
+			public int read() throws IOException
+			{
+				if(pos >= filled && !fillMore())
+				{
+					return -1;
+				}
+				
+				return buf[pos++] & 0xFF;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				if(len == 0)
+				{
+					return 0;
+				}
+				
+				if(pos >= filled && !fillMore())
+				{
+					return -1;
+				}
+				
+				int count = Math.min(len, filled - pos);
+				System.arraycopy(buf, pos, b, off, count);
+				pos += count;
+				return count;
+			}
+		};
+	}
+	
+	private boolean fillMore() throws IOException
+	{
+		if(eof || filled >= limit)
+		{
+			return false;
+		}
+		
+		if(filled == buf.length)
+		{
+			byte[] grown = new byte[(int) Math.min((long) limit, buf.length * 2L)];
+			System.arraycopy(buf, 0, grown, 0, filled);
+			buf = grown;
+		}
+		
+		int count = in.read(buf, filled, buf.length - filled);
+		if(count < 0)
+		{
+			eof = true;
+			return false;
+		}
+		
+		filled += count;
+		return true;
+	}
+}
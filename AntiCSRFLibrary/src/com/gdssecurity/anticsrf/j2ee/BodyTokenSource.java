@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * Falls back to the container's parameter parsing, which reads the whole
+ * request body for form posts. This is how the token was always read and is
+ * kept as the last source in the default chain.
+ */
+public class BodyTokenSource implements TokenSource
+{
+	@Override
+	public String getName()
+	{
+		return "body";
+	}
+	
+	@Override
+	public String getToken(TokenLookup lookup, String parameterName)
+	{
+		return lookup.getRequest().getParameter(parameterName);
+	}
+	
+	/*
+	 * Only URL encoded forms, BufferedBodyRequestWrapper parses those itself. The
+	 * container's multipart parsing cannot be pointed at a buffered body.
+	 */
+	@Override
+	public boolean readsBody(HttpServletRequest req)
+	{
+		return isFormUrlEncoded(req.getContentType());
+	}
+	
+	static boolean isFormUrlEncoded(String contentType)
+	{
+		return contentType != null && contentType.regionMatches(true, 0, "application/x-www-form-urlencoded", 0, 33)
+				&& (contentType.length() == 33 || contentType.charAt(33) == ';' || contentType.charAt(33) == ' ');
+	}
+}
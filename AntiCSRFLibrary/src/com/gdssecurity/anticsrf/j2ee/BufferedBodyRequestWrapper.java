@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * Request wrapper for a request whose complete body was read into memory by
+ * AsyncBodyReader. The body is replayed from memory by getInputStream() and
+ * getReader(), and for URL encoded forms the body parameters are parsed here and
+ * merged after the query string parameters, since the container can no longer
+ * read the form from the consumed stream.
+ */
+public class BufferedBodyRequestWrapper extends ReplayingRequestWrapper
+{
+	private final byte[] body;
+	private Map<String,String[]> parameters;
+	
+	public BufferedBodyRequestWrapper(HttpServletRequest request, byte[] body)
+	{
+		super(request, body, body.length);
+		this.body = body;
+	}
+	
+	@Override
+	public String getParameter(String name)
+	{
+		String[] values = getParameterMap().get(name);
+		return (values != null && values.length > 0 ? values[0] : null);
+	}
+	
+	@Override
+	public String[] getParameterValues(String name)
+	{
+		String[] values = getParameterMap().get(name);
+		return (values != null ? values.clone() : null);
+	}
+	
+	@Override
+	public Enumeration<String> getParameterNames()
+	{
+		return Collections.enumeration(getParameterMap().keySet());
+	}
+	
+	@Override
+	public Map<String,String[]> getParameterMap()
+	{
+		if(parameters == null)
+		{
+			parameters = (BodyTokenSource.isFormUrlEncoded(getContentType()) 
+					? Collections.unmodifiableMap(parseForm()) 
+					: super.getParameterMap());
+		}
+		
+		return parameters;
+	}
+	
+	private Map<String,String[]> parseForm()
+	{
+		Map<String,String[]> merged = new LinkedHashMap<String,String[]>(super.getParameterMap());
+		String encoding = getFormEncoding();
+		String form = new String(body, Charset.forName(encoding));
+		
+		int pos = 0;
+		while(pos < form.length())
+		{
+			int end = form.indexOf('&', pos);
+			if(end < 0)
+			{
+				end = form.length();
+			}
+			
+			if(end > pos)
+			{
+				int eq = form.indexOf('=', pos);
+				if(eq < 0 || eq > end)
+				{
+					eq = end;
+				}
+				
+				try
+				{
+					String name = URLDecoder.decode(form.substring(pos, eq), encoding);
+					String value = (eq < end ? URLDecoder.decode(form.substring(eq + 1, end), encoding) : "");
+					add(merged, name, value);
+				}
+				catch(IllegalArgumentException ex)
+				{
+					// Malformed % escape, the container skips such fields as well
+				}
+				catch(UnsupportedEncodingException ex)
+				{
+					// Not reached, getFormEncoding() only returns supported encodings
+				}
+			}
+			
+			pos = end + 1;
+		}
+		
+		return merged;
+	}
+	
+	/*
+	 * The request's character encoding if it is usable, otherwise the servlet
+	 * default of ISO-8859-1
+	 */
+	private String getFormEncoding()
+	{
+		String encoding = getCharacterEncoding();
+		
+		try
+		{
+			return (encoding != null && Charset.isSupported(encoding) ? encoding : "ISO-8859-1");
+		}
+		catch(IllegalArgumentException ex)
+		{
+			return "ISO-8859-1";
+		}
+	}
+	
+	private static void add(Map<String,String[]> parameters, String name, String value)
+	{
+		String[] values = parameters.get(name);
+		if(values == null)
+		{
+			parameters.put(name, new String[] { value });
+			return;
+		}
+		
+		String[] grown = new String[values.length + 1];
+		System.arraycopy(values, 0, grown, 0, values.length);
+		grown[values.length] = value;
+		parameters.put(name, grown);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * Reads the token from a request header, X-CSRF-Token unless configured otherwise
+ */
+public class HeaderTokenSource implements TokenSource
+{
+	private final String headerName;
+	
+	public HeaderTokenSource(String headerName)
+	{
+		this.headerName = headerName;
+	}
+	
+	@Override
+	public String getName()
+	{
+		return "header";
+	}
+	
+	@Override
+	public String getToken(TokenLookup lookup, String parameterName)
+	{
+		return lookup.getRequest().getHeader(headerName);
+	}
+	
+	@Override
+	public boolean readsBody(HttpServletRequest req)
+	{
+		return false;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenGenerationException;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+
+/*
+ * J2EE binding for the double submit cookie mode. The token is read from the
+ * configured cookie and compared with the token found by the token source chain.
+ * A request without a valid cookie is given a new one by issueCookie(), which
+ * the CSRFFilter calls before the response can be committed, and the rest of the
+ * request then hands out that cookie's token.
+ */
+public class J2EEDoubleSubmitCSRFProtection extends AbstractJ2EECSRFProtection
+{
+	// Token of the cookie issued to this request, which the request itself did not carry
+	private String issuedToken;
+	
+	public J2EEDoubleSubmitCSRFProtection()
+	{
+		this(ConfigUtil.getSnapshot());
+	}
+	
+	public J2EEDoubleSubmitCSRFProtection(ConfigSnapshot config)
+	{
+		super(config);
+	}
+	
+	@Override
+	public void setRequestObject(HttpServletRequest req)
+	{
+		super.setRequestObject(req);
+		this.issuedToken = null;
+	}
+	
+	/*
+	 * Adds the token cookie to the response if the request did not carry a valid one
+	 */
+	public void issueCookie(HttpServletResponse res) throws CSRFTokenGenerationException
+	{
+		String csrfToken = getEngine().getNewCookieToken(csrfRequest);
+		if(csrfToken == null)
+		{
+			return;
+		}
+		
+		Cookie cookie = new Cookie(config.getDoubleSubmitCookieName(), csrfToken);
+		cookie.setPath(config.getDoubleSubmitCookiePath());
+		cookie.setSecure(config.isDoubleSubmitCookieSecure());
+		
+		// Scripts need to read the cookie to copy it into the token header
+		cookie.setHttpOnly(false);
+		res.addCookie(cookie);
+		
+		this.issuedToken = csrfToken;
+	}
+	
+	@Override
+	public String loadCSRFToken() throws CSRFTokenGenerationException
+	{
+		return (issuedToken != null ? setTokenAttribute(issuedToken) : super.loadCSRFToken());
+	}
+	
+	@Override
+	public String generateCSRFToken() throws CSRFTokenGenerationException
+	{
+		return (issuedToken != null ? setTokenAttribute(issuedToken) : super.generateCSRFToken());
+	}
+	
+	@Override
+	public String generateUrlSpecificCSRFToken(String url) throws CSRFTokenGenerationException
+	{
+		return (issuedToken != null ? issuedToken : super.generateUrlSpecificCSRFToken(url));
+	}
+	
+	/*
+	 * Tokens are not tied to a user in this mode, the seed is ignored
+	 */
+	public void setUserSeed(String userSeed)
+	{
+	}
+}
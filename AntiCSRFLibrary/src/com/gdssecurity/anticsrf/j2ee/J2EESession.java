@@ -39,6 +39,24 @@ public class J2EESession implements SesssionInterface {
 	public void setAttribute(String key, Object obj) {
 		session.setAttribute(key, obj);
 	}
+	
+	HttpSession getHttpSession() {
+		return session;
+	}
+	
+	/*
+	 * Wrappers around the same HttpSession are equal, so per-session state such as
+	 * the UrlTokenTable creation lock is keyed by the session and not the wrapper
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return (obj instanceof J2EESession && ((J2EESession) obj).session == session);
+	}
+	
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(session);
+	}
 
 	
 	
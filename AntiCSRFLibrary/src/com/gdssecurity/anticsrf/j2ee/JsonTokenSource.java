@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+
+/*
+ * Reads the token from a top-level field of an application/json body using
+ * Gson's streaming JsonReader. Other fields are skipped without being
+ * materialised and reading stops as soon as the token field has been found, so
+ * only the prefix of the body up to that field (and never more than
+ * body_scan_limit bytes) is read. No document tree is built.
+ * 
+ * The bytes read are replayed to the application from the scan buffer through a
+ * ReplayingRequestWrapper.
+ */
+public class JsonTokenSource implements TokenSource
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(JsonTokenSource.class);
+	
+	private final String fieldName;
+	private final int scanLimit;
+	
+	/*
+	 * fieldName may be null, in which case the token parameter name is used
+	 */
+	public JsonTokenSource(String fieldName, int scanLimit)
+	{
+		this.fieldName = fieldName;
+		this.scanLimit = scanLimit;
+	}
+	
+	@Override
+	public String getName()
+	{
+		return "json";
+	}
+	
+	@Override
+	public String getToken(TokenLookup lookup, String parameterName) throws IOException
+	{
+		HttpServletRequest req = lookup.getRequest();
+		
+		if(!isJson(req.getContentType()))
+		{
+			return null;
+		}
+		
+		BodyPrefixBuffer body = new BodyPrefixBuffer(req.getInputStream(), scanLimit);
+		try
+		{
+			JsonReader reader = new JsonReader(new InputStreamReader(body.openStream(), BodyPrefixBuffer.getCharset(req)));
+			return readField(reader, (fieldName != null ? fieldName : parameterName));
+		}
+		catch(IOException ex)
+		{
+			// Malformed JSON, or the field was not found before the scan limit
+			LOG.fine("CSRF token not found in JSON body, reason={}", ex.getMessage());
+			return null;
+		}
+		catch(IllegalStateException ex)
+		{
+			// The body is not a JSON object
+			LOG.fine("CSRF token not found in JSON body, reason={}", ex.getMessage());
+			return null;
+		}
+		finally
+		{
+			if(body.length() > 0)
+			{
+				lookup.setRequest(new ReplayingRequestWrapper(req, body.array(), body.length()));
+			}
+		}
+	}
+	
+	@Override
+	public boolean readsBody(HttpServletRequest req)
+	{
+		return isJson(req.getContentType());
+	}
+	
+	private static String readField(JsonReader reader, String name) throws IOException
+	{
+		reader.beginObject();
+		
+		while(reader.hasNext())
+		{
+			if(reader.nextName().equals(name) && reader.peek() == JsonToken.STRING)
+			{
+				return reader.nextString();
+			}
+			
+			reader.skipValue();
+		}
+		
+		return null;
+	}
+	
+	private static boolean isJson(String contentType)
+	{
+		if(contentType == null)
+		{
+			return false;
+		}
+		
+		int end = contentType.indexOf(';');
+		String mediaType = (end < 0 ? contentType : contentType.substring(0, end)).trim();
+		
+		return mediaType.equalsIgnoreCase("application/json") 
+				|| (mediaType.length() > 5 && mediaType.regionMatches(true, mediaType.length() - 5, "+json", 0, 5));
+	}
+}
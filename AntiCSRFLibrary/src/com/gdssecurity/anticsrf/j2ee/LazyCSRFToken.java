@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenGenerationException;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Request scoped supplier for the sitewide CSRF token. The CSRFFilter stores one
+ * of these under Constants.TOKEN_SUPPLIER_ATTR instead of creating the token up
+ * front, and the token is only signed (hmac mode) or created and written to the
+ * session (session mode) the first time getCSRFToken() or one of the tags asks
+ * for it. Once resolved the token is also set as the configured request
+ * attribute, exactly as the eager filter does.
+ * 
+ * The static counters record how many requests were given a supplier and how
+ * many of those actually needed the token.
+ */
+public class LazyCSRFToken
+{
+	private static final LongAdder DEFERRED = new LongAdder();
+	private static final LongAdder RESOLVED = new LongAdder();
+	
+	private final J2EECSRFProtection protection;
+	private String token;
+	
+	/*
+	 * protection must already be bound to the request with setRequestObject()
+	 */
+	public LazyCSRFToken(J2EECSRFProtection protection)
+	{
+		this.protection = protection;
+		DEFERRED.increment();
+	}
+	
+	public static LazyCSRFToken fromRequest(HttpServletRequest req)
+	{
+		Object supplier = req.getAttribute(Constants.TOKEN_SUPPLIER_ATTR);
+		return (supplier instanceof LazyCSRFToken ? (LazyCSRFToken) supplier : null);
+	}
+	
+	public boolean isResolved()
+	{
+		return token != null;
+	}
+	
+	public String get() throws CSRFTokenGenerationException
+	{
+		if(token == null)
+		{
+			token = resolve();
+			RESOLVED.increment();
+		}
+		
+		return token;
+	}
+	
+	private String resolve() throws CSRFTokenGenerationException
+	{
+		if(protection instanceof AbstractJ2EECSRFProtection)
+		{
+			// Session tokens live as long as the session, only create one if none is stored yet
+			return ((AbstractJ2EECSRFProtection) protection).loadCSRFToken();
+		}
+		
+		return protection.generateCSRFToken();
+	}
+	
+	/*
+	 * Number of requests the filter handled with a deferred token
+	 */
+	public static long getDeferredCount()
+	{
+		return DEFERRED.sum();
+	}
+	
+	/*
+	 * Number of deferred tokens that were eventually requested
+	 */
+	public static long getResolvedCount()
+	{
+		return RESOLVED.sum();
+	}
+	
+	/*
+	 * Number of deferred tokens that were never requested, i.e. token lookups,
+	 * signatures or session writes the filter did not have to perform
+	 */
+	public static long getAvoidedCount()
+	{
+		return Math.max(0, DEFERRED.sum() - RESOLVED.sum());
+	}
+	
+	public static void resetCounters()
+	{
+		DEFERRED.reset();
+		RESOLVED.reset();
+	}
+}
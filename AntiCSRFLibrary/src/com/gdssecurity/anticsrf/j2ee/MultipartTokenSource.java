@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+
+/*
+ * Finds the token field in a multipart/form-data body without letting the
+ * container parse (and spool to disk) the whole upload. The body is read part
+ * by part only until the token field has been seen, and never beyond the
+ * configured body_scan_limit, so a rejected upload costs at most that many bytes
+ * of I/O. The form field should therefore be placed before any file fields.
+ * 
+ * The consumed bytes are replayed to the application through a
+ * ReplayingRequestWrapper. Applications that parse uploads from getInputStream()
+ * (commons-fileupload and similar) see the complete body. The container's own
+ * getParts()/getParameter() parsing does not go through the wrapper, which is why
+ * this source is not part of the default chain.
+ */
+public class MultipartTokenSource implements TokenSource
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(MultipartTokenSource.class);
+	
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+	
+	private final int scanLimit;
+	
+	public MultipartTokenSource(int scanLimit)
+	{
+		this.scanLimit = scanLimit;
+	}
+	
+	@Override
+	public String getName()
+	{
+		return "multipart";
+	}
+	
+	@Override
+	public String getToken(TokenLookup lookup, String parameterName) throws IOException
+	{
+		HttpServletRequest req = lookup.getRequest();
+		String contentType = req.getContentType();
+		
+		if(contentType == null || !contentType.regionMatches(true, 0, "multipart/form-data", 0, 19))
+		{
+			return null;
+		}
+		
+		String boundary = getBoundary(contentType);
+		if(boundary == null)
+		{
+			return null;
+		}
+		
+		BodyPrefixBuffer body = new BodyPrefixBuffer(req.getInputStream(), scanLimit);
+		try
+		{
+			String token = scan(body, boundary, parameterName, BodyPrefixBuffer.getCharset(req));
+			
+			if(token == null && body.isLimitReached())
+			{
+				LOG.warning("CSRF token field not found within the first {} bytes of a multipart request", scanLimit);
+			}
+			
+			return token;
+		}
+		finally
+		{
+			if(body.length() > 0)
+			{
+				lookup.setRequest(new ReplayingRequestWrapper(req, body.array(), body.length()));
+			}
+		}
+	}
+	
+	@Override
+	public boolean readsBody(HttpServletRequest req)
+	{
+		String contentType = req.getContentType();
+		return contentType != null && contentType.regionMatches(true, 0, "multipart/form-data", 0, 19) 
+				&& getBoundary(contentType) != null;
+	}
+	
+	private static String scan(BodyPrefixBuffer body, String boundary, String parameterName, Charset charset) 
+			throws IOException
+	{
+		byte[] delimiter = ("--" + boundary).getBytes(ISO_8859_1);
+		byte[] partEnd = ("\r\n--" + boundary).getBytes(ISO_8859_1);
+		
+		int pos = body.indexOf(delimiter, 0);
+		
+		while(pos >= 0)
+		{
+			pos += delimiter.length;
+			
+			// "--" after the delimiter closes the body
+			if(!body.fill(pos + 2) || (body.get(pos) == '-' && body.get(pos + 1) == '-'))
+			{
+				return null;
+			}
+			
+			int lineEnd = body.indexOf(CRLF, pos);
+			if(lineEnd < 0)
+			{
+				return null;
+			}
+			
+			// Headers end with an empty line, the search starts at the delimiter's CRLF
+			// so a part without any headers is handled as well
+			int headersEnd = body.indexOf(HEADER_END, lineEnd);
+			if(headersEnd < 0)
+			{
+				return null;
+			}
+			
+			int contentStart = headersEnd + HEADER_END.length;
+			int contentEnd = body.indexOf(partEnd, contentStart);
+			if(contentEnd < 0)
+			{
+				return null;
+			}
+			
+			String headers = new String(body.array(), lineEnd, headersEnd - lineEnd, ISO_8859_1);
+			if(isFormField(headers, parameterName))
+			{
+				return new String(body.array(), contentStart, contentEnd - contentStart, charset);
+			}
+			
+			pos = contentEnd + CRLF.length;
+		}
+		
+		return null;
+	}
+	
+	/*
+	 * True if the part headers describe a non-file form field called name
+	 */
+	private static boolean isFormField(String headers, String name)
+	{
+		for(String line : headers.split("\r\n"))
+		{
+			int colon = line.indexOf(':');
+			if(colon < 0 || !line.substring(0, colon).trim().equalsIgnoreCase("content-disposition"))
+			{
+				continue;
+			}
+			
+			String fieldName = null;
+			boolean isFile = false;
+			
+			for(String param : line.substring(colon + 1).split(";"))
+			{
+				int eq = param.indexOf('=');
+				if(eq < 0)
+				{
+					continue;
+				}
+				
+				String key = param.substring(0, eq).trim().toLowerCase(Locale.ENGLISH);
+				String value = unquote(param.substring(eq + 1).trim());
+				
+				if(key.equals("name"))
+				{
+					fieldName = value;
+				}
+				else if(key.equals("filename"))
+				{
+					isFile = true;
+				}
+			}
+			
+			return !isFile && name.equals(fieldName);
+		}
+		
+		return false;
+	}
+	
+	static String getBoundary(String contentType)
+	{
+		for(String param : contentType.split(";"))
+		{
+			int eq = param.indexOf('=');
+			if(eq > 0 && param.substring(0, eq).trim().equalsIgnoreCase("boundary"))
+			{
+				String boundary = unquote(param.substring(eq + 1).trim());
+				return (boundary.length() > 0 && boundary.length() <= 70 ? boundary : null);
+			}
+		}
+		
+		return null;
+	}
+	
+	private static String unquote(String value)
+	{
+		if(value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+		{
+			return value.substring(1, value.length() - 1);
+		}
+		
+		return value;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * Reads the token straight out of the raw query string. Unlike getParameter()
+ * this never causes the container to read and parse the request body.
+ */
+public class QueryStringTokenSource implements TokenSource
+{
+	@Override
+	public String getName()
+	{
+		return "query";
+	}
+	
+	@Override
+	public String getToken(TokenLookup lookup, String parameterName) throws UnsupportedEncodingException
+	{
+		String query = lookup.getRequest().getQueryString();
+		if(query == null)
+		{
+			return null;
+		}
+		
+		int nameLength = parameterName.length();
+		int pos = 0;
+		
+		while(pos < query.length())
+		{
+			int end = query.indexOf('&', pos);
+			if(end < 0)
+			{
+				end = query.length();
+			}
+			
+			if(end - pos > nameLength && query.charAt(pos + nameLength) == '=' 
+					&& query.regionMatches(pos, parameterName, 0, nameLength))
+			{
+				String value = query.substring(pos + nameLength + 1, end);
+				
+				if(value.indexOf('%') >= 0 || value.indexOf('+') >= 0)
+				{
+					try
+					{
+						value = URLDecoder.decode(value, "UTF-8");
+					}
+					catch(IllegalArgumentException ex)
+					{
+						// Malformed % escape, the container skips such parameters as well
+						return null;
+					}
+				}
+				
+				return value;
+			}
+			
+			pos = end + 1;
+		}
+		
+		return null;
+	}
+	
+	@Override
+	public boolean readsBody(HttpServletRequest req)
+	{
+		return false;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/*
+ * Request wrapper handed downstream after a token source has read part of the
+ * request body. getInputStream() first returns the bytes the source consumed,
+ * straight out of the source's buffer, and then continues reading from the
+ * original stream, so the remainder of the body is never copied or buffered.
+ */
+public class ReplayingRequestWrapper extends HttpServletRequestWrapper
+{
+	private final byte[] prefix;
+	private final int prefixLength;
+	private ReplayingInputStream inputStream;
+	private BufferedReader reader;
+	
+	public ReplayingRequestWrapper(HttpServletRequest request, byte[] prefix, int prefixLength)
+	{
+		super(request);
+		this.prefix = prefix;
+		this.prefixLength = prefixLength;
+	}
+	
+	@Override
+	public ServletInputStream getInputStream() throws IOException
+	{
+		if(reader != null)
+		{
+			throw new IllegalStateException("getReader() has already been called for this request");
+		}
+		
+		return stream();
+	}
+	
+	@Override
+	public BufferedReader getReader() throws IOException
+	{
+		if(reader == null)
+		{
+			if(inputStream != null)
+			{
+				throw new IllegalStateException("getInputStream() has already been called for this request");
+			}
+			
+			String encoding = getCharacterEncoding();
+			reader = new BufferedReader(new InputStreamReader(stream(), (encoding != null ? encoding : "ISO-8859-1")));
+		}
+		
+		return reader;
+	}
+	
+	private ReplayingInputStream stream() throws IOException
+	{
+		if(inputStream == null)
+		{
+			inputStream = new ReplayingInputStream(prefix, prefixLength, super.getInputStream());
+		}
+		
+		return inputStream;
+	}
+	
+	/*
+	 * Serves the consumed prefix from memory and then delegates to the container's stream
+	 */
+	static class ReplayingInputStream extends ServletInputStream
+	{
+		private final byte[] prefix;
+		private final int prefixLength;
+		private final ServletInputStream delegate;
+		private int pos = 0;
+		
+		ReplayingInputStream(byte[] prefix, int prefixLength, ServletInputStream delegate)
+		{
+			this.prefix = prefix;
+			this.prefixLength = prefixLength;
+			this.delegate = delegate;
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			if(pos < prefixLength)
+			{
+				return prefix[pos++] & 0xFF;
+			}
+			
+			return delegate.read();
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if(len == 0)
+			{
+				return 0;
+			}
+			
+			if(pos < prefixLength)
+			{
+				int count = Math.min(len, prefixLength - pos);
+				System.arraycopy(prefix, pos, b, off, count);
+				pos += count;
+				return count;
+			}
+			
+			return delegate.read(b, off, len);
+		}
+		
+		@Override
+		public int available() throws IOException
+		{
+			return (pos < prefixLength ? prefixLength - pos : delegate.available());
+		}
+		
+		@Override
+		public boolean isFinished()
+		{
+			return pos >= prefixLength && delegate.isFinished();
+		}
+		
+		@Override
+		public boolean isReady()
+		{
+			return pos < prefixLength || delegate.isReady();
+		}
+		
+		@Override
+		public void setReadListener(ReadListener readListener)
+		{
+			delegate.setReadListener(readListener);
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			delegate.close();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Session wrapper that keeps the number of setAttribute calls, and therefore the
+ * attributes a replicating container (e.g. Tomcat's DeltaManager) ships across
+ * the cluster, to at most one per attribute and request.
+ * 
+ * A new value is written through immediately so parallel requests of the same
+ * session see it. Setting an attribute to the object it already holds, which is
+ * how the token store reports that the URL specific token table changed in
+ * place, is only recorded and written once by flush() at the end of the filter
+ * chain. Setting an equal value, or re-setting an attribute that was already
+ * written during the request, performs no write at all.
+ * 
+ * One instance is shared by the filter and the tags of a request, see
+ * forRequest(). Instances are not thread safe, a request must not use its
+ * wrapper from several threads.
+ */
+public class ReplicationAwareSession extends J2EESession
+{
+	private static final LongAdder WRITES = new LongAdder();
+	private static final LongAdder AVOIDED = new LongAdder();
+	
+	private final Set<String> written = new HashSet<String>();
+	private final Set<String> dirty = new HashSet<String>();
+	
+	public ReplicationAwareSession(HttpSession session)
+	{
+		super(session);
+	}
+	
+	/*
+	 * The wrapper for the request's session, creating the session and the wrapper
+	 * on first use
+	 */
+	public static ReplicationAwareSession forRequest(HttpServletRequest req)
+	{
+		return forRequest(req, true);
+	}
+	
+	/*
+	 * As forRequest(req), but returns null instead of creating a session if create
+	 * is false and the request has none
+	 */
+	public static ReplicationAwareSession forRequest(HttpServletRequest req, boolean create)
+	{
+		HttpSession session = req.getSession(create);
+		
+		if(session == null)
+		{
+			return null;
+		}
+		
+		Object existing = req.getAttribute(Constants.SESSION_WRITER_ATTR);
+		
+		if(existing instanceof ReplicationAwareSession 
+				&& ((ReplicationAwareSession) existing).getHttpSession() == session)
+		{
+			return (ReplicationAwareSession) existing;
+		}
+		
+		if(existing instanceof ReplicationAwareSession)
+		{
+			// The session was replaced during the request, don't lose the old one's changes
+			((ReplicationAwareSession) existing).flush();
+		}
+		
+		ReplicationAwareSession writer = new ReplicationAwareSession(session);
+		req.setAttribute(Constants.SESSION_WRITER_ATTR, writer);
+		return writer;
+	}
+	
+	/*
+	 * Flushes the request's wrapper, if the request used one
+	 */
+	public static int flush(HttpServletRequest req)
+	{
+		Object existing = req.getAttribute(Constants.SESSION_WRITER_ATTR);
+		return (existing instanceof ReplicationAwareSession ? ((ReplicationAwareSession) existing).flush() : 0);
+	}
+	
+	@Override
+	public void setAttribute(String key, Object obj)
+	{
+		Object current = super.getAttribute(key);
+		
+		if(current == obj && obj != null)
+		{
+			// Changed in place, the container only learns about it through a set
+			if(written.contains(key) || !dirty.add(key))
+			{
+				AVOIDED.increment();
+			}
+			return;
+		}
+		
+		if(obj == null ? current == null : obj.equals(current))
+		{
+			AVOIDED.increment();
+			return;
+		}
+		
+		super.setAttribute(key, obj);
+		WRITES.increment();
+		written.add(key);
+		dirty.remove(key);
+	}
+	
+	/*
+	 * Writes every attribute that was changed in place back to the session, once.
+	 * Returns the number of setAttribute calls made.
+	 */
+	public int flush()
+	{
+		int count = 0;
+		
+		try
+		{
+			for(String key : dirty)
+			{
+				// Re-read, a parallel request may have replaced or removed the value since
+				Object value = super.getAttribute(key);
+				if(value != null)
+				{
+					super.setAttribute(key, value);
+					WRITES.increment();
+					count++;
+				}
+			}
+		}
+		catch(IllegalStateException ex)
+		{
+			// The session was invalidated during the request, there is nothing left to replicate
+		}
+		
+		written.addAll(dirty);
+		dirty.clear();
+		return count;
+	}
+	
+	/*
+	 * Number of session attribute writes performed through these wrappers
+	 */
+	public static long getWriteCount()
+	{
+		return WRITES.sum();
+	}
+	
+	/*
+	 * Number of attribute writes that were merged into an earlier or a final write
+	 */
+	public static long getAvoidedWriteCount()
+	{
+		return AVOIDED.sum();
+	}
+	
+	public static void resetCounters()
+	{
+		WRITES.reset();
+		AVOIDED.reset();
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import com.gdssecurity.anticsrf.engine.CSRFRequest;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.protections.SesssionInterface;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+
+/*
+ * CSRFRequest over an HttpServletRequest, used by the CSRFFilter and the J2EE
+ * protections and by code that calls the CSRFEngine directly. The token is found
+ * through the configured token sources, the user seed is the configured request
+ * attribute, and session tokens are written through the request's
+ * ReplicationAwareSession; outside the filter call ReplicationAwareSession.flush()
+ * once the request is done.
+ */
+public class ServletCSRFRequest implements CSRFRequest
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(ServletCSRFRequest.class);
+	
+	private final HttpServletRequest req;
+	private final ConfigSnapshot config;
+	
+	public ServletCSRFRequest(HttpServletRequest req, ConfigSnapshot config)
+	{
+		this.req = req;
+		this.config = config;
+	}
+	
+	public HttpServletRequest getRequest()
+	{
+		return req;
+	}
+	
+	public String getMethod()
+	{
+		return req.getMethod();
+	}
+	
+	public String getPath()
+	{
+		return req.getRequestURI();
+	}
+	
+	public String getHeader(String name)
+	{
+		return req.getHeader(name);
+	}
+	
+	public String getCookie(String name)
+	{
+		return getCookie(req, name);
+	}
+	
+	/*
+	 * See CSRFRequest.getCookie()
+	 */
+	static String getCookie(HttpServletRequest req, String name)
+	{
+		Cookie[] cookies = req.getCookies();
+		if(cookies == null)
+		{
+			return null;
+		}
+		
+		String value = null;
+		for(Cookie cookie : cookies)
+		{
+			if(!name.equals(cookie.getName()))
+			{
+				continue;
+			}
+			
+			if(value != null)
+			{
+				// Another host or a plain HTTP response set a cookie of the same name
+				LOG.warning("Request carries the {} cookie more than once, ignoring it", name);
+				return "";
+			}
+			
+			value = cookie.getValue();
+		}
+		
+		return value;
+	}
+	
+	public String getRemoteAddress()
+	{
+		return req.getRemoteAddr();
+	}
+	
+	/*
+	 * The configured token sources decide where the token is looked for and
+	 * under which parameter and header names, see TokenSourceChain.lookupAndRecord()
+	 */
+	public String getSubmittedToken(String parameterName, String headerName) 
+			throws CSRFTokenVerificationException
+	{
+		return TokenSourceChain.lookupAndRecord(req, config, getPath());
+	}
+	
+	public String getUserSeed()
+	{
+		return (String) req.getAttribute(config.getSeedAttributeName());
+	}
+	
+	public String getSessionId(boolean create)
+	{
+		HttpSession session = req.getSession(create);
+		return (session != null ? session.getId() : null);
+	}
+	
+	public SesssionInterface getSession(boolean create)
+	{
+		return ReplicationAwareSession.forRequest(req, create);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * Result of looking up the submitted token for one request: the token, the name
+ * of the source that served it and the request the rest of the chain should see,
+ * which is a replaying wrapper if a source had to read the body. 
+ * 
+ * Stored under Constants.TOKEN_LOOKUP_ATTR once the token has been verified.
+ */
+public class TokenLookup
+{
+	private HttpServletRequest request;
+	private String token;
+	private String sourceName;
+	
+	public TokenLookup(HttpServletRequest request)
+	{
+		this.request = request;
+	}
+	
+	public HttpServletRequest getRequest()
+	{
+		return request;
+	}
+	
+	public void setRequest(HttpServletRequest request)
+	{
+		this.request = request;
+	}
+	
+	public String getToken()
+	{
+		return token;
+	}
+	
+	/*
+	 * Name of the source that served the token, null if no source carried one
+	 */
+	public String getSourceName()
+	{
+		return sourceName;
+	}
+	
+	void setResult(String token, String sourceName)
+	{
+		this.token = token;
+		this.sourceName = sourceName;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+
+/*
+ * One place a submitted CSRF token can be read from. Sources are tried in the
+ * configured order by TokenSourceChain until one of them returns a token.
+ * 
+ * A source that has to consume the request body to find the token replaces the
+ * request on the TokenLookup with a wrapper that hands the consumed bytes back
+ * to the application.
+ */
+public interface TokenSource
+{
+	public String getName();
+	
+	/*
+	 * Returns the submitted token or null if this source does not carry one
+	 */
+	public String getToken(TokenLookup lookup, String parameterName) throws IOException;
+	
+	/*
+	 * True if this source would read the body of the request and can equally
+	 * read it from an in-memory copy handed over in a request wrapper
+	 */
+	public boolean readsBody(HttpServletRequest req);
+}
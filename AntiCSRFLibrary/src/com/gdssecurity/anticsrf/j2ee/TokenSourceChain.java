@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.gdssecurity.anticsrf.events.SecurityEvent;
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Ordered list of token sources built from the <token_sources> configuration.
+ * The default order is header, query string and finally the body, so the
+ * container only has to parse a form body when the token was not found in a
+ * cheaper place. Sources that stream the body (multipart, json) have to be enabled
+ * explicitly. Counts how many tokens each source served.
+ */
+public class TokenSourceChain
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(TokenSourceChain.class);
+	
+	private final TokenSource[] sources;
+	private final LongAdder[] served;
+	private final LongAdder missing = new LongAdder();
+	
+	public TokenSourceChain(List<String> sourceNames, String headerName, String jsonFieldName, 
+			int bodyScanLimit) throws CSRFConfigException
+	{
+		if(sourceNames == null || sourceNames.isEmpty())
+		{
+			sourceNames = Arrays.asList(Constants.TOKEN_SOURCES.header.toString(), 
+					Constants.TOKEN_SOURCES.query.toString(), Constants.TOKEN_SOURCES.body.toString());
+		}
+		
+		this.sources = new TokenSource[sourceNames.size()];
+		this.served = new LongAdder[sources.length];
+		
+		for(int i = 0; i < sources.length; i++)
+		{
+			sources[i] = createSource(sourceNames.get(i).trim(), headerName, jsonFieldName, bodyScanLimit);
+			served[i] = new LongAdder();
+		}
+	}
+	
+	private static TokenSource createSource(String name, String headerName, String jsonFieldName, 
+			int bodyScanLimit) throws CSRFConfigException
+	{
+		Constants.TOKEN_SOURCES source;
+		try
+		{
+			source = Constants.TOKEN_SOURCES.valueOf(name);
+		}
+		catch(IllegalArgumentException ex)
+		{
+			throw new CSRFConfigException("Invalid token source entered. EnteredValue=" + name);
+		}
+		
+		switch(source)
+		{
+			case header:
+				return new HeaderTokenSource(headerName);
+			case query:
+				return new QueryStringTokenSource();
+			case multipart:
+				return new MultipartTokenSource(bodyScanLimit);
+			case json:
+				return new JsonTokenSource(jsonFieldName, bodyScanLimit);
+			default:
+				return new BodyTokenSource();
+		}
+	}
+	
+	public TokenLookup lookup(HttpServletRequest req, String parameterName) throws IOException
+	{
+		TokenLookup lookup = new TokenLookup(req);
+		
+		for(int i = 0; i < sources.length; i++)
+		{
+			String token = sources[i].getToken(lookup, parameterName);
+			
+			if(token != null && !token.equals(""))
+			{
+				lookup.setResult(token, sources[i].getName());
+				served[i].increment();
+				LOG.fine("CSRF token served by source={}", sources[i].getName());
+				return lookup;
+			}
+		}
+		
+		missing.increment();
+		return lookup;
+	}
+	
+	/*
+	 * Finds the submitted token through the configured token sources and keeps
+	 * the lookup on the request under Constants.TOKEN_LOOKUP_ATTR for the filter.
+	 * A request whose token cannot be read fails verification.
+	 */
+	public static String lookupAndRecord(HttpServletRequest req, ConfigSnapshot config, String url) 
+			throws CSRFTokenVerificationException
+	{
+		TokenLookup lookup;
+		try
+		{
+			lookup = config.getTokenSourceChain().lookup(req, config.getTokenParameterName());
+		}
+		catch( IOException ex )
+		{
+			String err = "Unable to read the CSRF token from the request";
+			SecurityEvents.publish(SecurityEvent.Type.VERIFICATION_ERROR, url, req.getRemoteAddr(), null, 
+					null, err + ", exceptionmessage=" + ex.getMessage());
+			throw new CSRFTokenVerificationException(err);
+		}
+		
+		req.setAttribute(Constants.TOKEN_LOOKUP_ATTR, lookup);
+		return lookup.getToken();
+	}
+	
+	/*
+	 * Whether finding the token of this request means reading its body with one
+	 * of the sources that can work from a buffered copy. Sources ahead of the
+	 * first such source are asked for the token first, so a request carrying it
+	 * in the header never needs its body read. Stops at the body source when it
+	 * cannot use a buffered copy, as the container's parsing takes over there.
+	 */
+	public boolean needsBody(HttpServletRequest req, String parameterName) throws IOException
+	{
+		for(TokenSource source : sources)
+		{
+			if(source.readsBody(req))
+			{
+				return true;
+			}
+			
+			if(source instanceof BodyTokenSource)
+			{
+				return false;
+			}
+			
+			String token = source.getToken(new TokenLookup(req), parameterName);
+			if(token != null && !token.equals(""))
+			{
+				return false;
+			}
+		}
+		
+		return false;
+	}
+	
+	public List<String> getSourceNames()
+	{
+		List<String> names = new ArrayList<String>();
+		for(TokenSource source : sources)
+		{
+			names.add(source.getName());
+		}
+		
+		return names;
+	}
+	
+	/*
+	 * Number of tokens served by the named source since startup (or the last reload)
+	 */
+	public long getServedCount(String sourceName)
+	{
+		long count = 0;
+		for(int i = 0; i < sources.length; i++)
+		{
+			if(sources[i].getName().equals(sourceName))
+			{
+				count += served[i].sum();
+			}
+		}
+		
+		return count;
+	}
+	
+	/*
+	 * Number of lookups where no source carried a token
+	 */
+	public long getMissingCount()
+	{
+		return missing.sum();
+	}
+}
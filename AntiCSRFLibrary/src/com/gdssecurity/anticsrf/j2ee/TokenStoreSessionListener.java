@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.j2ee;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+import com.gdssecurity.anticsrf.store.TokenStore;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+
+/*
+ * Removes a session's tokens from the configured external token store when the
+ * container destroys the session. Register it in web.xml next to the CSRFFilter
+ * when <token_store> is set. Without it, tokens of ended sessions are only
+ * removed once the store's idle timeout passes.
+ */
+public class TokenStoreSessionListener implements HttpSessionListener
+{
+	@Override
+	public void sessionCreated(HttpSessionEvent se)
+	{
+	}
+	
+	@Override
+	public void sessionDestroyed(HttpSessionEvent se)
+	{
+		ConfigSnapshot config = ConfigUtil.getSnapshot();
+		TokenStore store = (config != null ? config.getTokenStore() : null);
+		
+		if(store != null)
+		{
+			store.expireSession(se.getSession().getId());
+		}
+	}
+}
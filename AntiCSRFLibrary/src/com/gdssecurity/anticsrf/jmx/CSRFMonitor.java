@@ -0,0 +1,470 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.gdssecurity.anticsrf.CSRFFilter;
+import com.gdssecurity.anticsrf.events.SecurityEventPipeline;
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.j2ee.LazyCSRFToken;
+import com.gdssecurity.anticsrf.j2ee.ReplicationAwareSession;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.metrics.CSRFMetrics;
+import com.gdssecurity.anticsrf.metrics.LatencyHistogram;
+import com.gdssecurity.anticsrf.metrics.LongAdderCSRFMetrics;
+import com.gdssecurity.anticsrf.store.UrlTokenTable;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+import com.gdssecurity.anticsrf.utils.Constants;
+import com.gdssecurity.anticsrf.utils.TokenReissueCache;
+
+/*
+ * MBean the CSRFFilter registers on the platform MBean server at init, under
+ * com.gdssecurity.anticsrf:type=CSRFFilter,name="<context path>/<filter name>".
+ * Every attribute is read from the live configuration snapshot and counters, so
+ * nothing is copied on the request path.
+ * 
+ * The per second rates are computed from the counter deltas between two reads
+ * of the rate attributes. Reads less than a second after the previous sample
+ * return the previous rates, so each monitoring poll sees the rate since its
+ * last poll.
+ */
+public class CSRFMonitor implements CSRFMonitorMXBean
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(CSRFMonitor.class);
+	
+	public static final String DOMAIN = "com.gdssecurity.anticsrf";
+	
+	private static final long MIN_SAMPLE_NANOS = 1000000000L;
+	
+	private final CSRFFilter filter;
+	
+	private long sampleTime = System.nanoTime();
+	private long sampleIssued;
+	private long sampleVerified;
+	private long sampleRejected;
+	private double issuedRate;
+	private double verifiedRate;
+	private double rejectedRate;
+	
+	public CSRFMonitor(CSRFFilter filter)
+	{
+		this.filter = filter;
+	}
+	
+	/*
+	 * Registers a monitor for the filter. Returns the name it was registered
+	 * under, or null if registration failed, which is logged but never stops the
+	 * filter from starting.
+	 */
+	public static ObjectName register(CSRFFilter filter, String contextPath, String filterName)
+	{
+		try
+		{
+			ObjectName name = new ObjectName(DOMAIN + ":type=CSRFFilter,name=" 
+					+ ObjectName.quote(contextPath + "/" + filterName));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			
+			// A redeployed application registers under the same name
+			if(server.isRegistered(name))
+			{
+				server.unregisterMBean(name);
+			}
+			
+			server.registerMBean(new CSRFMonitor(filter), name);
+			LOG.info("Registered AntiCSRF MBean. name={}", name);
+			return name;
+		}
+		catch(JMException ex)
+		{
+			LOG.warning("Unable to register the AntiCSRF MBean, exception={}", ex.getMessage());
+		}
+		catch(SecurityException ex)
+		{
+			LOG.warning("Not permitted to register the AntiCSRF MBean, exception={}", ex.getMessage());
+		}
+		
+		return null;
+	}
+	
+	public static void unregister(ObjectName name)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(name))
+			{
+				server.unregisterMBean(name);
+			}
+		}
+		catch(JMException ex)
+		{
+			LOG.warning("Unable to unregister the AntiCSRF MBean, exception={}", ex.getMessage());
+		}
+	}
+	
+	private static ConfigSnapshot config()
+	{
+		return ConfigUtil.getSnapshot();
+	}
+	
+	/*
+	 * The active metrics, or null while metrics are disabled
+	 */
+	private static LongAdderCSRFMetrics metrics()
+	{
+		CSRFMetrics metrics = CSRFMetrics.get();
+		return (metrics instanceof LongAdderCSRFMetrics ? (LongAdderCSRFMetrics) metrics : null);
+	}
+	
+	private static double ratio(long part, long total)
+	{
+		return (total > 0 ? (double) part / total : 0);
+	}
+	
+	@Override
+	public String getMode()
+	{
+		return config().getMode().toString();
+	}
+	
+	@Override
+	public boolean isMonitorMode()
+	{
+		return config().isMonitorMode();
+	}
+	
+	@Override
+	public boolean isLazyTokenGeneration()
+	{
+		return config().isLazyTokenGeneration();
+	}
+	
+	@Override
+	public boolean isMetricsEnabled()
+	{
+		return CSRFMetrics.get().isEnabled();
+	}
+	
+	@Override
+	public long getSitewideTimeoutSeconds()
+	{
+		return config().getSitewideTimeout();
+	}
+	
+	@Override
+	public long getUrlSpecificTtlSeconds()
+	{
+		return config().getUrlSpecificTtl();
+	}
+	
+	@Override
+	public int getUrlRuleCount()
+	{
+		return config().getUrlPolicyIndex().getRuleCount();
+	}
+	
+	@Override
+	public int getExemptUrlCount()
+	{
+		return config().getExemptUrls().size();
+	}
+	
+	@Override
+	public int getUrlSpecificUrlCount()
+	{
+		return config().getUrlSpecificConfig().size();
+	}
+	
+	@Override
+	public int getOneTimeUseUrlCount()
+	{
+		return config().getOneTimeUseConfig().size();
+	}
+	
+	@Override
+	public Map<String,String> getConfiguration()
+	{
+		return new TreeMap<String,String>(config().getProperties());
+	}
+	
+	@Override
+	public long getTokensIssued()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		long total = 0;
+		if(metrics != null)
+		{
+			for(Constants.MODES mode : Constants.MODES.values())
+			{
+				total += metrics.getIssuedCount(mode) + metrics.getUrlSpecificIssuedCount(mode);
+			}
+		}
+		
+		return total;
+	}
+	
+	@Override
+	public long getVerified()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		long total = 0;
+		if(metrics != null)
+		{
+			for(Constants.MODES mode : Constants.MODES.values())
+			{
+				total += metrics.getVerifiedCount(mode);
+			}
+		}
+		
+		return total;
+	}
+	
+	@Override
+	public long getRejected()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		long total = 0;
+		if(metrics != null)
+		{
+			for(Constants.MODES mode : Constants.MODES.values())
+			{
+				total += metrics.getRejectedCount(mode);
+			}
+		}
+		
+		return total;
+	}
+	
+	@Override
+	public long getExempt()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		long total = 0;
+		if(metrics != null)
+		{
+			for(Constants.MODES mode : Constants.MODES.values())
+			{
+				total += metrics.getExemptCount(mode);
+			}
+		}
+		
+		return total;
+	}
+	
+	@Override
+	public Map<String,Long> getRejectionsByReason()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		Map<String,Long> reasons = new LinkedHashMap<String,Long>();
+		for(CSRFMetrics.Reason reason : CSRFMetrics.Reason.values())
+		{
+			reasons.put(reason.toString().toLowerCase(), (metrics != null ? metrics.getRejectedCount(reason) : 0L));
+		}
+		
+		return reasons;
+	}
+	
+	@Override
+	public Map<String,Long> getCounters()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		return (metrics != null ? metrics.getCounters() : new LinkedHashMap<String,Long>());
+	}
+	
+	/*
+	 * Rolls the rate sample forward once at least MIN_SAMPLE_NANOS have passed
+	 */
+	private synchronized void sample()
+	{
+		long now = System.nanoTime();
+		long elapsed = now - sampleTime;
+		if(elapsed < MIN_SAMPLE_NANOS)
+		{
+			return;
+		}
+		
+		long issued = getTokensIssued();
+		long verified = getVerified();
+		long rejected = getRejected();
+		
+		double seconds = elapsed / 1e9;
+		issuedRate = Math.max(0, issued - sampleIssued) / seconds;
+		verifiedRate = Math.max(0, verified - sampleVerified) / seconds;
+		rejectedRate = Math.max(0, rejected - sampleRejected) / seconds;
+		
+		sampleTime = now;
+		sampleIssued = issued;
+		sampleVerified = verified;
+		sampleRejected = rejected;
+	}
+	
+	@Override
+	public synchronized double getTokensIssuedPerSecond()
+	{
+		sample();
+		return issuedRate;
+	}
+	
+	@Override
+	public synchronized double getVerificationsPerSecond()
+	{
+		sample();
+		return verifiedRate + rejectedRate;
+	}
+	
+	@Override
+	public synchronized double getRejectionsPerSecond()
+	{
+		sample();
+		return rejectedRate;
+	}
+	
+	/*
+	 * Share of the verifications in the last sample interval that were rejected
+	 */
+	@Override
+	public synchronized double getRejectionRatio()
+	{
+		sample();
+		double total = verifiedRate + rejectedRate;
+		return (total > 0 ? rejectedRate / total : 0);
+	}
+	
+	private static LatencyHistogram verifyLatency()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		return (metrics != null ? metrics.getLatency(config().getMode(), CSRFMetrics.Operation.VERIFY) : null);
+	}
+	
+	@Override
+	public double getVerifyLatencyMeanMicros()
+	{
+		LatencyHistogram latency = verifyLatency();
+		return (latency != null ? latency.getMeanNanos() / 1000.0 : 0);
+	}
+	
+	@Override
+	public double getVerifyLatencyP50Micros()
+	{
+		LatencyHistogram latency = verifyLatency();
+		return (latency != null ? latency.getPercentileNanos(50) / 1000.0 : 0);
+	}
+	
+	@Override
+	public double getVerifyLatencyP99Micros()
+	{
+		LatencyHistogram latency = verifyLatency();
+		return (latency != null ? latency.getPercentileNanos(99) / 1000.0 : 0);
+	}
+	
+	@Override
+	public double getVerifyLatencyMaxMicros()
+	{
+		LatencyHistogram latency = verifyLatency();
+		return (latency != null ? latency.getMaxNanos() / 1000.0 : 0);
+	}
+	
+	/*
+	 * Share of sitewide HMAC tokens handed out again instead of signed, 0 when the
+	 * reissue cache is not in use
+	 */
+	@Override
+	public double getReissueCacheHitRatio()
+	{
+		TokenReissueCache cache = config().getTokenReissueCache();
+		if(cache == null)
+		{
+			return 0;
+		}
+		
+		long hits = cache.getHitCount();
+		return ratio(hits, hits + cache.getMissCount());
+	}
+	
+	/*
+	 * Share of deferred tokens that never had to be created
+	 */
+	@Override
+	public double getLazyTokenAvoidedRatio()
+	{
+		return ratio(LazyCSRFToken.getAvoidedCount(), LazyCSRFToken.getDeferredCount());
+	}
+	
+	/*
+	 * Share of session attribute writes skipped because nothing changed
+	 */
+	@Override
+	public double getSessionWriteAvoidedRatio()
+	{
+		long avoided = ReplicationAwareSession.getAvoidedWriteCount();
+		return ratio(avoided, avoided + ReplicationAwareSession.getWriteCount());
+	}
+	
+	@Override
+	public boolean reloadConfiguration()
+	{
+		LOG.info("AntiCSRF configuration reload requested through JMX");
+		return filter.reloadConfiguration();
+	}
+	
+	@Override
+	public synchronized void resetCounters()
+	{
+		LongAdderCSRFMetrics metrics = metrics();
+		if(metrics != null)
+		{
+			metrics.reset();
+		}
+		
+		LazyCSRFToken.resetCounters();
+		ReplicationAwareSession.resetCounters();
+		UrlTokenTable.resetCounters();
+		
+		TokenReissueCache cache = config().getTokenReissueCache();
+		if(cache != null)
+		{
+			cache.resetCounters();
+		}
+		
+		SecurityEventPipeline pipeline = SecurityEvents.getPipeline();
+		if(pipeline != null)
+		{
+			pipeline.resetCounters();
+		}
+		
+		sampleTime = System.nanoTime();
+		sampleIssued = 0;
+		sampleVerified = 0;
+		sampleRejected = 0;
+		issuedRate = 0;
+		verifiedRate = 0;
+		rejectedRate = 0;
+		
+		LOG.info("AntiCSRF counters reset through JMX");
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.jmx;
+
+import java.util.Map;
+
+/*
+ * Management interface of CSRFMonitor. Configuration attributes always reflect
+ * the active snapshot. The counters, rates and latencies come from CSRFMetrics
+ * and stay at zero unless metrics are enabled in anticsrf.xml.
+ */
+public interface CSRFMonitorMXBean
+{
+	/* Active configuration */
+	
+	public String getMode();
+	public boolean isMonitorMode();
+	public boolean isLazyTokenGeneration();
+	public boolean isMetricsEnabled();
+	public long getSitewideTimeoutSeconds();
+	public long getUrlSpecificTtlSeconds();
+	public int getUrlRuleCount();
+	public int getExemptUrlCount();
+	public int getUrlSpecificUrlCount();
+	public int getOneTimeUseUrlCount();
+	public Map<String,String> getConfiguration();
+	
+	/* Totals since start or the last resetCounters() */
+	
+	public long getTokensIssued();
+	public long getVerified();
+	public long getRejected();
+	public long getExempt();
+	public Map<String,Long> getRejectionsByReason();
+	public Map<String,Long> getCounters();
+	
+	/* Rates over the interval between two reads, at least a second apart */
+	
+	public double getTokensIssuedPerSecond();
+	public double getVerificationsPerSecond();
+	public double getRejectionsPerSecond();
+	public double getRejectionRatio();
+	
+	/* Verification latency of the active mode */
+	
+	public double getVerifyLatencyMeanMicros();
+	public double getVerifyLatencyP50Micros();
+	public double getVerifyLatencyP99Micros();
+	public double getVerifyLatencyMaxMicros();
+	
+	/* Cache effectiveness */
+	
+	public double getReissueCacheHitRatio();
+	public double getLazyTokenAvoidedRatio();
+	public double getSessionWriteAvoidedRatio();
+	
+	/* Operations */
+	
+	public boolean reloadConfiguration();
+	public void resetCounters();
+}
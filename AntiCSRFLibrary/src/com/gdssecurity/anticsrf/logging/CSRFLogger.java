@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.logging;
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import com.gdssecurity.anticsrf.utils.StringUtil;
+
+/*
+ * Logging facade used throughout the library. Every method checks the level
+ * before doing any work, so a disabled message costs a level check and nothing
+ * else: no string is concatenated, no argument is formatted and nothing is
+ * allocated.
+ * 
+ * Messages take up to two arguments through {} placeholders, as in SLF4J, or a
+ * Supplier for anything more involved. Arguments are converted with
+ * String.valueOf() and have CR and LF removed, so request data can be passed in
+ * directly without risking forged log lines.
+ * 
+ * Instances are obtained from CSRFLoggerFactory, which picks the backend.
+ */
+public abstract class CSRFLogger
+{
+	private static final String PLACEHOLDER = "{}";
+	
+	public abstract boolean isLoggable(Level level);
+	
+	/*
+	 * Writes an already formatted message, only called when the level is enabled
+	 */
+	protected abstract void write(Level level, String message);
+	
+	public boolean isFineEnabled()
+	{
+		return isLoggable(Level.FINE);
+	}
+	
+	public boolean isInfoEnabled()
+	{
+		return isLoggable(Level.INFO);
+	}
+	
+	public void fine(String message)
+	{
+		log(Level.FINE, message);
+	}
+	
+	public void fine(String format, Object arg)
+	{
+		log(Level.FINE, format, arg);
+	}
+	
+	public void fine(String format, Object arg1, Object arg2)
+	{
+		log(Level.FINE, format, arg1, arg2);
+	}
+	
+	public void fine(Supplier<String> message)
+	{
+		log(Level.FINE, message);
+	}
+	
+	public void info(String message)
+	{
+		log(Level.INFO, message);
+	}
+	
+	public void info(String format, Object arg)
+	{
+		log(Level.INFO, format, arg);
+	}
+	
+	public void info(String format, Object arg1, Object arg2)
+	{
+		log(Level.INFO, format, arg1, arg2);
+	}
+	
+	public void info(Supplier<String> message)
+	{
+		log(Level.INFO, message);
+	}
+	
+	public void warning(String message)
+	{
+		log(Level.WARNING, message);
+	}
+	
+	public void warning(String format, Object arg)
+	{
+		log(Level.WARNING, format, arg);
+	}
+	
+	public void warning(String format, Object arg1, Object arg2)
+	{
+		log(Level.WARNING, format, arg1, arg2);
+	}
+	
+	public void severe(String message)
+	{
+		log(Level.SEVERE, message);
+	}
+	
+	public void severe(String format, Object arg)
+	{
+		log(Level.SEVERE, format, arg);
+	}
+	
+	public void severe(String format, Object arg1, Object arg2)
+	{
+		log(Level.SEVERE, format, arg1, arg2);
+	}
+	
+	public void log(Level level, String message)
+	{
+		if(isLoggable(level))
+		{
+			write(level, message);
+		}
+	}
+	
+	public void log(Level level, String format, Object arg)
+	{
+		if(isLoggable(level))
+		{
+			StringBuilder str = new StringBuilder(format.length() + 32);
+			int next = appendUntilPlaceholder(str, format, 0);
+			next = appendArgument(str, format, next, arg);
+			write(level, finish(str, format, next));
+		}
+	}
+	
+	public void log(Level level, String format, Object arg1, Object arg2)
+	{
+		if(isLoggable(level))
+		{
+			StringBuilder str = new StringBuilder(format.length() + 64);
+			int next = appendUntilPlaceholder(str, format, 0);
+			next = appendArgument(str, format, next, arg1);
+			next = appendUntilPlaceholder(str, format, next);
+			next = appendArgument(str, format, next, arg2);
+			write(level, finish(str, format, next));
+		}
+	}
+	
+	public void log(Level level, Supplier<String> message)
+	{
+		if(isLoggable(level))
+		{
+			write(level, message.get());
+		}
+	}
+	
+	/*
+	 * Appends format from start up to the next placeholder and returns the
+	 * placeholder's index, or the length of format if there is none
+	 */
+	private static int appendUntilPlaceholder(StringBuilder str, String format, int start)
+	{
+		if(start >= format.length())
+		{
+			return format.length();
+		}
+		
+		int index = format.indexOf(PLACEHOLDER, start);
+		int end = (index < 0 ? format.length() : index);
+		str.append(format, start, end);
+		return end;
+	}
+	
+	/*
+	 * Replaces the placeholder at index with arg. Returns the index after it, or
+	 * the length of format when there was no placeholder left to fill.
+	 */
+	private static int appendArgument(StringBuilder str, String format, int index, Object arg)
+	{
+		if(index >= format.length())
+		{
+			return format.length();
+		}
+		
+		StringUtil.appendStripped(str, String.valueOf(arg));
+		return index + PLACEHOLDER.length();
+	}
+	
+	private static String finish(StringBuilder str, String format, int next)
+	{
+		if(next < format.length())
+		{
+			str.append(format, next, format.length());
+		}
+		
+		return str.toString();
+	}
+}
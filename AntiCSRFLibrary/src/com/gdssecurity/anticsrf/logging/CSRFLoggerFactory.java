@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.logging;
+
+import java.util.logging.Logger;
+
+/*
+ * Creates the library's loggers. The backend is chosen once, from the system
+ * property com.gdssecurity.anticsrf.logging: "jul" (the default) logs through
+ * java.util.logging, "slf4j" through SLF4J. SLF4J is only loaded when selected,
+ * so slf4j-api does not have to be deployed otherwise. If it was selected but is
+ * missing the library falls back to java.util.logging.
+ * 
+ * The choice has to be made before the library's classes are loaded, loggers
+ * are created once per class.
+ */
+public class CSRFLoggerFactory
+{
+	public static final String BACKEND_PROPERTY = "com.gdssecurity.anticsrf.logging";
+	public static final String BACKEND_JUL = "jul";
+	public static final String BACKEND_SLF4J = "slf4j";
+	
+	private static final boolean USE_SLF4J = selectSlf4j();
+	
+	private CSRFLoggerFactory()
+	{
+	}
+	
+	public static CSRFLogger getLogger(Class<?> clazz)
+	{
+		return getLogger(clazz.getName());
+	}
+	
+	public static CSRFLogger getLogger(String name)
+	{
+		return (USE_SLF4J ? new Slf4jCSRFLogger(name) : new JulCSRFLogger(name));
+	}
+	
+	public static String getBackend()
+	{
+		return (USE_SLF4J ? BACKEND_SLF4J : BACKEND_JUL);
+	}
+	
+	private static boolean selectSlf4j()
+	{
+		String backend = System.getProperty(BACKEND_PROPERTY, BACKEND_JUL).trim();
+		
+		if(!backend.equals(BACKEND_SLF4J))
+		{
+			if(!backend.equals(BACKEND_JUL))
+			{
+				Logger.getLogger(CSRFLoggerFactory.class.getName()).warning("Unknown logging backend requested, " 
+						+ "using java.util.logging. " + BACKEND_PROPERTY + "=" + backend);
+			}
+			return false;
+		}
+		
+		try
+		{
+			Class.forName("org.slf4j.LoggerFactory", false, CSRFLoggerFactory.class.getClassLoader());
+			return true;
+		}
+		catch(ClassNotFoundException ex)
+		{
+			Logger.getLogger(CSRFLoggerFactory.class.getName()).warning("SLF4J logging was requested but " 
+					+ "slf4j-api is not on the classpath, using java.util.logging");
+			return false;
+		}
+	}
+}
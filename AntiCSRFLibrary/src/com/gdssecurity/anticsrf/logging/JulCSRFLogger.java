@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.logging;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * java.util.logging backend, the default
+ */
+public class JulCSRFLogger extends CSRFLogger
+{
+	private final Logger logger;
+	
+	public JulCSRFLogger(String name)
+	{
+		this.logger = Logger.getLogger(name);
+	}
+	
+	@Override
+	public boolean isLoggable(Level level)
+	{
+		return logger.isLoggable(level);
+	}
+	
+	@Override
+	protected void write(Level level, String message)
+	{
+		logger.log(level, message);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.logging;
+
+import java.util.logging.Level;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * SLF4J backend. JUL levels map to SLF4J as FINEST/FINER to trace, FINE/CONFIG
+ * to debug, INFO to info, WARNING to warn and SEVERE to error.
+ */
+public class Slf4jCSRFLogger extends CSRFLogger
+{
+	private final Logger logger;
+	
+	public Slf4jCSRFLogger(String name)
+	{
+		this.logger = LoggerFactory.getLogger(name);
+	}
+	
+	@Override
+	public boolean isLoggable(Level level)
+	{
+		int value = level.intValue();
+		
+		if(value >= Level.SEVERE.intValue())
+		{
+			return logger.isErrorEnabled();
+		}
+		else if(value >= Level.WARNING.intValue())
+		{
+			return logger.isWarnEnabled();
+		}
+		else if(value >= Level.INFO.intValue())
+		{
+			return logger.isInfoEnabled();
+		}
+		else if(value >= Level.FINE.intValue())
+		{
+			return logger.isDebugEnabled();
+		}
+		
+		return logger.isTraceEnabled();
+	}
+	
+	@Override
+	protected void write(Level level, String message)
+	{
+		int value = level.intValue();
+		
+		if(value >= Level.SEVERE.intValue())
+		{
+			logger.error(message);
+		}
+		else if(value >= Level.WARNING.intValue())
+		{
+			logger.warn(message);
+		}
+		else if(value >= Level.INFO.intValue())
+		{
+			logger.info(message);
+		}
+		else if(value >= Level.FINE.intValue())
+		{
+			logger.debug(message);
+		}
+		else
+		{
+			logger.trace(message);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.metrics;
+
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Instrumentation around token generation and verification. The J2EE
+ * protections report every token they issue and every verification they
+ * complete, with its latency, and SecurityEvents reports the reason behind each
+ * rejection.
+ * 
+ * Metrics are off unless <metrics enabled="yes"/> is configured. While they are
+ * off get() returns the NoopCSRFMetrics instance: startTimer() does not even
+ * read the clock and every other call is an empty method the JIT inlines away.
+ */
+public abstract class CSRFMetrics
+{
+	public static enum Operation {
+		ISSUE, ISSUE_URL_SPECIFIC, VERIFY
+	}
+	
+	public static enum Reason {
+		MISSING, MALFORMED, BAD_MAC, EXPIRED, MISMATCH, NO_STORED_TOKEN, REPLAYED, COOKIE_MISSING, ERROR
+	}
+	
+	private static volatile CSRFMetrics active = NoopCSRFMetrics.INSTANCE;
+	
+	public static CSRFMetrics get()
+	{
+		return active;
+	}
+	
+	/*
+	 * Switches metrics on or off. The running LongAdderCSRFMetrics is kept across
+	 * reloads that leave metrics enabled so the counters are not reset.
+	 */
+	public static synchronized void configure(boolean enabled)
+	{
+		if(enabled == active.isEnabled())
+		{
+			return;
+		}
+		
+		active = (enabled ? new LongAdderCSRFMetrics() : NoopCSRFMetrics.INSTANCE);
+	}
+	
+	public abstract boolean isEnabled();
+	
+	/*
+	 * Start time to hand back to the completion methods below
+	 */
+	public abstract long startTimer();
+	
+	public abstract void tokenIssued(Constants.MODES mode, long startTime);
+	
+	public abstract void urlSpecificTokenIssued(Constants.MODES mode, long startTime);
+	
+	/*
+	 * A verification that did not pass, including one that threw, is counted as
+	 * rejected
+	 */
+	public abstract void verificationCompleted(Constants.MODES mode, long startTime, boolean valid);
+	
+	/*
+	 * Verification skipped because the URL is exempt
+	 */
+	public abstract void verificationExempt(Constants.MODES mode);
+	
+	public abstract void rejected(Reason reason);
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/*
+ * Lock-free latency histogram with power of two buckets. Bucket i counts the
+ * samples of up to 2^i - 1 nanoseconds that did not fit in bucket i-1, so
+ * recording a sample is one leading zero count and two LongAdder updates, and
+ * percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram
+{
+	/* The last bucket also takes everything above 2^38ns, roughly 4.5 minutes */
+	static final int BUCKETS = 40;
+	
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+	
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(MAX, 0);
+	
+	public LatencyHistogram()
+	{
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			buckets[i] = new LongAdder();
+		}
+	}
+	
+	public void record(long nanos)
+	{
+		if(nanos < 0)
+		{
+			// System.nanoTime() is monotonic, but don't trust a caller's arithmetic
+			nanos = 0;
+		}
+		
+		buckets[Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1)].increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+	
+	public long getCount()
+	{
+		long count = 0;
+		for(LongAdder bucket : buckets)
+		{
+			count += bucket.sum();
+		}
+		
+		return count;
+	}
+	
+	public long getTotalNanos()
+	{
+		return totalNanos.sum();
+	}
+	
+	public long getMaxNanos()
+	{
+		return maxNanos.get();
+	}
+	
+	public long getMeanNanos()
+	{
+		long count = getCount();
+		return (count > 0 ? totalNanos.sum() / count : 0);
+	}
+	
+	/*
+	 * Upper bound of the bucket holding the given percentile (0 to 100), capped at
+	 * the largest sample seen. Returns 0 when nothing was recorded.
+	 */
+	public long getPercentileNanos(double percentile)
+	{
+		long[] counts = getBucketCounts();
+		long count = 0;
+		for(long bucketCount : counts)
+		{
+			count += bucketCount;
+		}
+		
+		if(count == 0)
+		{
+			return 0;
+		}
+		
+		long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100.0);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if(seen >= rank && seen > 0)
+			{
+				return Math.min((1L << i) - 1, getMaxNanos());
+			}
+		}
+		
+		return getMaxNanos();
+	}
+	
+	/*
+	 * Per bucket sample counts, read one bucket at a time so the copy is not an
+	 * atomic view while samples are being recorded
+	 */
+	public long[] getBucketCounts()
+	{
+		long[] counts = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = buckets[i].sum();
+		}
+		
+		return counts;
+	}
+	
+	public void reset()
+	{
+		for(LongAdder bucket : buckets)
+		{
+			bucket.reset();
+		}
+		
+		totalNanos.reset();
+		maxNanos.reset();
+	}
+}
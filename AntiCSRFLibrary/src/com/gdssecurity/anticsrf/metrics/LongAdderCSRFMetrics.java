@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.gdssecurity.anticsrf.events.SecurityEventPipeline;
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.j2ee.LazyCSRFToken;
+import com.gdssecurity.anticsrf.j2ee.ReplicationAwareSession;
+import com.gdssecurity.anticsrf.store.UrlTokenTable;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * LongAdder backed metrics. Every counter and histogram is created up front and
+ * indexed by enum ordinal, so recording never allocates or takes a lock and
+ * threads on different cores rarely contend on the same cell.
+ */
+public class LongAdderCSRFMetrics extends CSRFMetrics
+{
+	private static final int MODE_COUNT = Constants.MODES.values().length;
+	private static final int OPERATION_COUNT = Operation.values().length;
+	
+	private final LongAdder[] issued = newAdders(MODE_COUNT);
+	private final LongAdder[] urlSpecificIssued = newAdders(MODE_COUNT);
+	private final LongAdder[] verified = newAdders(MODE_COUNT);
+	private final LongAdder[] rejected = newAdders(MODE_COUNT);
+	private final LongAdder[] exempt = newAdders(MODE_COUNT);
+	private final LongAdder[] rejectedByReason = newAdders(Reason.values().length);
+	private final LatencyHistogram[] latency = new LatencyHistogram[MODE_COUNT * OPERATION_COUNT];
+	
+	public LongAdderCSRFMetrics()
+	{
+		for(int i = 0; i < latency.length; i++)
+		{
+			latency[i] = new LatencyHistogram();
+		}
+	}
+	
+	private static LongAdder[] newAdders(int count)
+	{
+		LongAdder[] adders = new LongAdder[count];
+		for(int i = 0; i < count; i++)
+		{
+			adders[i] = new LongAdder();
+		}
+		
+		return adders;
+	}
+	
+	@Override
+	public boolean isEnabled()
+	{
+		return true;
+	}
+	
+	@Override
+	public long startTimer()
+	{
+		return System.nanoTime();
+	}
+	
+	@Override
+	public void tokenIssued(Constants.MODES mode, long startTime)
+	{
+		issued[mode.ordinal()].increment();
+		getLatency(mode, Operation.ISSUE).record(System.nanoTime() - startTime);
+	}
+	
+	@Override
+	public void urlSpecificTokenIssued(Constants.MODES mode, long startTime)
+	{
+		urlSpecificIssued[mode.ordinal()].increment();
+		getLatency(mode, Operation.ISSUE_URL_SPECIFIC).record(System.nanoTime() - startTime);
+	}
+	
+	@Override
+	public void verificationCompleted(Constants.MODES mode, long startTime, boolean valid)
+	{
+		(valid ? verified : rejected)[mode.ordinal()].increment();
+		getLatency(mode, Operation.VERIFY).record(System.nanoTime() - startTime);
+	}
+	
+	@Override
+	public void verificationExempt(Constants.MODES mode)
+	{
+		exempt[mode.ordinal()].increment();
+	}
+	
+	@Override
+	public void rejected(Reason reason)
+	{
+		rejectedByReason[reason.ordinal()].increment();
+	}
+	
+	public long getIssuedCount(Constants.MODES mode)
+	{
+		return issued[mode.ordinal()].sum();
+	}
+	
+	public long getUrlSpecificIssuedCount(Constants.MODES mode)
+	{
+		return urlSpecificIssued[mode.ordinal()].sum();
+	}
+	
+	public long getVerifiedCount(Constants.MODES mode)
+	{
+		return verified[mode.ordinal()].sum();
+	}
+	
+	public long getRejectedCount(Constants.MODES mode)
+	{
+		return rejected[mode.ordinal()].sum();
+	}
+	
+	public long getExemptCount(Constants.MODES mode)
+	{
+		return exempt[mode.ordinal()].sum();
+	}
+	
+	/*
+	 * Rejections by reason across all modes. A rejection caused by an error while
+	 * reading the request is counted under ERROR.
+	 */
+	public long getRejectedCount(Reason reason)
+	{
+		return rejectedByReason[reason.ordinal()].sum();
+	}
+	
+	public LatencyHistogram getLatency(Constants.MODES mode, Operation operation)
+	{
+		return latency[mode.ordinal() * OPERATION_COUNT + operation.ordinal()];
+	}
+	
+	/*
+	 * Every counter by name, including the ones the library already keeps
+	 * elsewhere (deferred tokens, session writes, URL token eviction and the
+	 * security event pipeline), so there is one place to read them all.
+	 */
+	public Map<String,Long> getCounters()
+	{
+		Map<String,Long> counters = new LinkedHashMap<String,Long>();
+		
+		for(Constants.MODES mode : Constants.MODES.values())
+		{
+			counters.put(mode + ".issued", getIssuedCount(mode));
+			counters.put(mode + ".urlspecific_issued", getUrlSpecificIssuedCount(mode));
+			counters.put(mode + ".verified", getVerifiedCount(mode));
+			counters.put(mode + ".rejected", getRejectedCount(mode));
+			counters.put(mode + ".exempt", getExemptCount(mode));
+		}
+		
+		for(Reason reason : Reason.values())
+		{
+			counters.put("rejected." + reason.toString().toLowerCase(), getRejectedCount(reason));
+		}
+		
+		counters.put("lazy.deferred", LazyCSRFToken.getDeferredCount());
+		counters.put("lazy.resolved", LazyCSRFToken.getResolvedCount());
+		counters.put("session.attribute_writes", ReplicationAwareSession.getWriteCount());
+		counters.put("session.attribute_writes_avoided", ReplicationAwareSession.getAvoidedWriteCount());
+		counters.put("urlspecific.evicted", UrlTokenTable.getEvictedCount());
+		counters.put("urlspecific.expired", UrlTokenTable.getExpiredCount());
+		
+		SecurityEventPipeline pipeline = SecurityEvents.getPipeline();
+		if(pipeline != null)
+		{
+			counters.put("events.published", pipeline.getPublishedCount());
+			counters.put("events.dropped", pipeline.getDroppedCount());
+			counters.put("events.written", pipeline.getWrittenCount());
+			counters.put("events.sink_failures", pipeline.getSinkFailureCount());
+		}
+		
+		return counters;
+	}
+	
+	/*
+	 * Resets the counters and histograms held here. The counters kept by other
+	 * classes have their own resetCounters().
+	 */
+	public void reset()
+	{
+		LongAdder[][] groups = { issued, urlSpecificIssued, verified, rejected, exempt, rejectedByReason };
+		for(LongAdder[] group : groups)
+		{
+			for(LongAdder adder : group)
+			{
+				adder.reset();
+			}
+		}
+		
+		for(LatencyHistogram histogram : latency)
+		{
+			histogram.reset();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.metrics;
+
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Metrics implementation used while metrics are disabled
+ */
+public final class NoopCSRFMetrics extends CSRFMetrics
+{
+	public static final NoopCSRFMetrics INSTANCE = new NoopCSRFMetrics();
+	
+	private NoopCSRFMetrics()
+	{
+	}
+	
+	@Override
+	public boolean isEnabled()
+	{
+		return false;
+	}
+	
+	@Override
+	public long startTimer()
+	{
+		return 0;
+	}
+	
+	@Override
+	public void tokenIssued(Constants.MODES mode, long startTime)
+	{
+	}
+	
+	@Override
+	public void urlSpecificTokenIssued(Constants.MODES mode, long startTime)
+	{
+	}
+	
+	@Override
+	public void verificationCompleted(Constants.MODES mode, long startTime, boolean valid)
+	{
+	}
+	
+	@Override
+	public void verificationExempt(Constants.MODES mode)
+	{
+	}
+	
+	@Override
+	public void rejected(Reason reason)
+	{
+	}
+}
@@ -18,20 +18,36 @@
 package com.gdssecurity.anticsrf.protections;
 
 import com.gdssecurity.anticsrf.j2ee.J2EECSRFProtection;
+import com.gdssecurity.anticsrf.j2ee.J2EEDoubleSubmitCSRFProtection;
 import com.gdssecurity.anticsrf.j2ee.J2EEHmacCSRFProtection;
 import com.gdssecurity.anticsrf.j2ee.J2EESessionCSRFProtection;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
 import com.gdssecurity.anticsrf.utils.ConfigUtil;
 
 public class CSRFProtectionFactory 
 {
 	public static J2EECSRFProtection getCSRFProtection()
 	{
-		if(ConfigUtil.isHmacMode())
+		return getCSRFProtection(ConfigUtil.getSnapshot());
+	}
+	
+	/*
+	 * Returns a protection bound to the supplied configuration snapshot, so a caller
+	 * that already read the active configuration uses the same one throughout a request.
+	 */
+	public static J2EECSRFProtection getCSRFProtection(ConfigSnapshot config)
+	{
+		if(config != null && config.isHmacMode())
+		{
+			return new J2EEHmacCSRFProtection(config);
+		}
+		
+		if(config != null && config.isDoubleSubmitMode())
 		{
-			return new J2EEHmacCSRFProtection();
+			return new J2EEDoubleSubmitCSRFProtection(config);
 		}
 		
 		// Session based Protection mode is the default
-		return new J2EESessionCSRFProtection();
+		return new J2EESessionCSRFProtection(config);
 	}
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.protections;
+
+import java.nio.charset.Charset;
+
+import com.gdssecurity.anticsrf.events.SecurityEvent;
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenGenerationException;
+import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
+import com.gdssecurity.anticsrf.utils.ConfigUtil;
+import com.gdssecurity.anticsrf.utils.SecureCompare;
+import com.gdssecurity.anticsrf.utils.TokenEntropyEngine;
+import com.gdssecurity.anticsrf.utils.TokenSigner;
+import com.gdssecurity.anticsrf.utils.WebSafeBase64;
+
+/*
+ * Double submit cookie protection. The token is a random value held only in a
+ * cookie on the client, and a request is accepted when the submitted token is
+ * equal to the cookie sent with it. A cross-site attacker can make the browser
+ * send the cookie but cannot read it, so cannot submit the matching value.
+ * 
+ * The token carries an HMAC of its random part, made with the configured
+ * signer, and a cookie without a valid signature is ignored and replaced, so a
+ * forged or guessed value is never accepted. The signature does not bind the
+ * token to a user or session though. An attacker who can set cookies for the
+ * site (a sibling subdomain, or a network attacker on plain HTTP) can fetch a
+ * validly signed token of their own and toss it into the victim's cookie jar,
+ * then submit that same value. A request that carries the cookie more than once
+ * is rejected, which stops a tossed cookie from shadowing the victim's own one,
+ * but a victim without a token cookie yet is still exposed. Only a __Host-
+ * cookie name, which other hosts and plain HTTP cannot set, closes this, and a
+ * warning is logged when the configured name lacks the prefix.
+ * 
+ * Nothing is kept on the server, so any node sharing the keyfile can verify any
+ * request without a session, session affinity or replication. For the same
+ * reason there are no url specific or one time use tokens in this mode.
+ */
+public class DoubleSubmitCSRFProtection implements CSRFProtection
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(DoubleSubmitCSRFProtection.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public static final int TOKEN_BYTES = 32;
+	public static final int MAC_LENGTH = 16;
+	
+	// Keeps these MACs apart from anything else signed with the same key
+	private static final byte[] SIGNATURE_LABEL = "anticsrf-doublesubmit:".getBytes(UTF8);
+	
+	// Random part, key id and truncated MAC
+	private static final int SIGNED_BYTES = TOKEN_BYTES + TokenSigner.KEY_ID_LENGTH + MAC_LENGTH;
+	
+	// Unpadded web safe base64 of SIGNED_BYTES bytes
+	private static final int TOKEN_LENGTH = (SIGNED_BYTES * 4 + 2) / 3;
+	
+	private final String cookieToken;
+	private final boolean cookieRejected;
+	private final ConfigSnapshot config;
+	private String issuedToken;
+	
+	public DoubleSubmitCSRFProtection(String cookieToken)
+	{
+		this(cookieToken, ConfigUtil.getSnapshot());
+	}
+	
+	/*
+	 * cookieToken is the value of the token cookie sent with the request, or null
+	 */
+	public DoubleSubmitCSRFProtection(String cookieToken, ConfigSnapshot config)
+	{
+		this.config = config;
+		this.cookieToken = (isSigned(cookieToken) ? cookieToken : null);
+		this.cookieRejected = (cookieToken != null && this.cookieToken == null);
+	}
+	
+	@Override
+	public boolean verifyCSRFToken(String url, String tokenFromUser) throws CSRFTokenVerificationException
+	{
+		if( config.getUrlPolicy(url).isExempt() )
+		{
+			return true;
+		}
+		
+		if( cookieToken == null )
+		{
+			SecurityEvents.publish(cookieRejected ? SecurityEvent.Type.INVALID_SIGNATURE 
+					: SecurityEvent.Type.COOKIE_MISSING, url, null, null, 
+					tokenFromUser, config.getDoubleSubmitCookieName());
+			return false;
+		}
+		
+		if( tokenFromUser == null )
+		{
+			SecurityEvents.publish(SecurityEvent.Type.TOKEN_MISSING, url, null, null);
+			return false;
+		}
+		
+		if( SecureCompare.isEqual(cookieToken.getBytes(UTF8), tokenFromUser.getBytes(UTF8)) )
+		{
+			return true;
+		}
+		
+		SecurityEvents.publish(SecurityEvent.Type.TOKEN_MISMATCH, url, null, tokenFromUser);
+		return false;
+	}
+	
+	/*
+	 * Returns the token from the request's cookie, or a new token if the request
+	 * did not carry one. The new token has to be sent back as the cookie, see
+	 * getIssuedToken().
+	 */
+	@Override
+	public String generateCSRFToken() throws CSRFTokenGenerationException
+	{
+		if(cookieToken != null)
+		{
+			return cookieToken;
+		}
+		
+		if(issuedToken == null)
+		{
+			issuedToken = generateSignedToken();
+			LOG.fine("Issuing new double submit CSRF token cookie");
+		}
+		
+		return issuedToken;
+	}
+	
+	/*
+	 * The token created for this request because no valid cookie was sent, or null
+	 */
+	public String getIssuedToken()
+	{
+		return issuedToken;
+	}
+	
+	public boolean hasCookieToken()
+	{
+		return cookieToken != null;
+	}
+	
+	@Override
+	public String getCSRFTokenParameterName()
+	{
+		return config.getTokenParameterName();
+	}
+	
+	/*
+	 * There is no server side state to bind a token to a url, so the sitewide
+	 * token is used for every url.
+	 */
+	@Override
+	public String generateUrlSpecificCSRFToken(String url) throws CSRFTokenGenerationException
+	{
+		return generateCSRFToken();
+	}
+	
+	private String generateSignedToken() throws CSRFTokenGenerationException
+	{
+		TokenEntropyEngine entropyEngine = config.getTokenEntropyEngine();
+		TokenSigner signer = config.getDoubleSubmitSigner();
+		
+		if(entropyEngine == null || signer == null)
+		{
+			String err = "Failed to generate CSRFToken, the SecureRandom engine or signer has not been configured";
+			LOG.severe(err);
+			throw new CSRFTokenGenerationException(err);
+		}
+		
+		byte[] token = new byte[SIGNED_BYTES];
+		byte[] randomBytes = new byte[TOKEN_BYTES];
+		entropyEngine.nextBytes(randomBytes);
+		System.arraycopy(randomBytes, 0, token, 0, TOKEN_BYTES);
+		
+		byte[] signedData = signedData(randomBytes);
+		try
+		{
+			signer.signTruncated(signedData, 0, signedData.length, token, TOKEN_BYTES, MAC_LENGTH);
+		}
+		catch(CSRFSignerException ex)
+		{
+			String err = "Failed to sign the double submit CSRF token, exceptionmessage=" + ex.getMessage();
+			LOG.severe(err);
+			throw new CSRFTokenGenerationException(err);
+		}
+		
+		return WebSafeBase64.encode(token);
+	}
+	
+	/*
+	 * Only cookies carrying a valid signature from the configured signer are
+	 * accepted, anything else is replaced with a new token
+	 */
+	private boolean isSigned(String token)
+	{
+		TokenSigner signer = config.getDoubleSubmitSigner();
+		if(signer == null || !isWellFormed(token))
+		{
+			return false;
+		}
+		
+		byte[] decoded = WebSafeBase64.decode(token);
+		if(decoded == null || decoded.length != SIGNED_BYTES)
+		{
+			return false;
+		}
+		
+		byte[] randomBytes = new byte[TOKEN_BYTES];
+		System.arraycopy(decoded, 0, randomBytes, 0, TOKEN_BYTES);
+		byte[] signedData = signedData(randomBytes);
+		
+		try
+		{
+			return signer.verifyTruncated(signedData, 0, signedData.length, decoded, TOKEN_BYTES, MAC_LENGTH);
+		}
+		catch(CSRFSignerException ex)
+		{
+			LOG.warning("Unable to verify the double submit cookie signature, exceptionmessage={}", ex.getMessage());
+			return false;
+		}
+	}
+	
+	private static byte[] signedData(byte[] randomBytes)
+	{
+		byte[] data = new byte[SIGNATURE_LABEL.length + randomBytes.length];
+		System.arraycopy(SIGNATURE_LABEL, 0, data, 0, SIGNATURE_LABEL.length);
+		System.arraycopy(randomBytes, 0, data, SIGNATURE_LABEL.length, randomBytes.length);
+		return data;
+	}
+	
+	private static boolean isWellFormed(String token)
+	{
+		if(token == null || token.length() != TOKEN_LENGTH)
+		{
+			return false;
+		}
+		
+		for(int i = 0; i < TOKEN_LENGTH; i++)
+		{
+			char c = token.charAt(i);
+			if(!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_'))
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
@@ -17,75 +17,112 @@
 
 package com.gdssecurity.anticsrf.protections;
 
+import java.nio.charset.Charset;
 import java.sql.Timestamp;
 import java.util.Date;
-import java.util.logging.Logger;
-
-import org.keyczar.Signer;
-import org.keyczar.exceptions.KeyczarException;
 
+import com.gdssecurity.anticsrf.events.SecurityEvent;
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
 import com.gdssecurity.anticsrf.exceptions.CSRFTokenGenerationException;
 import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.utils.CompactTokenCodec;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
 import com.gdssecurity.anticsrf.utils.ConfigUtil;
-import com.gdssecurity.anticsrf.utils.Constants;
-import com.gdssecurity.anticsrf.utils.StringUtil;
-import com.gdssecurity.anticsrf.utils.KeyczarWrapper;
+import com.gdssecurity.anticsrf.utils.TokenReissueCache;
+import com.gdssecurity.anticsrf.utils.TokenSigner;
+import com.gdssecurity.anticsrf.utils.UrlPolicy;
+import com.gdssecurity.anticsrf.utils.UrlPolicyIndex;
+import com.gdssecurity.anticsrf.utils.WebSafeBase64;
 
 public class HMACCSRFProtection implements CSRFProtection {
 
-	private static final Logger LOG = Logger.getLogger(HMACCSRFProtection.class.getName());
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(HMACCSRFProtection.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	
 	private String userSeed;
+	private final ConfigSnapshot config;
 	
 	public HMACCSRFProtection(String userSeed) 
+	{
+		this(userSeed, ConfigUtil.getSnapshot());
+	}
+	
+	public HMACCSRFProtection(String userSeed, ConfigSnapshot config) 
 	{
 		this.userSeed = userSeed;
+		this.config = config;
 	}
 	
 	@Override
 	public boolean verifyCSRFToken(String url, String tokenFromUser) throws CSRFTokenVerificationException {
-		return verifyCSRFToken(url, tokenFromUser, ConfigUtil.hasUrlSpecificConfig(url));
+		// Resolve exempt and url specific settings in a single lookup
+		UrlPolicy policy = config.getUrlPolicy(url);
+		
+		if( policy.isExempt() )
+		{
+			return true;
+		}
+		
+		return verifyCSRFToken(url, tokenFromUser, policy.isUrlSpecific(), 
+				Long.valueOf( policy.isUrlSpecific() ? policy.getTimeout() : config.getSitewideTimeout() ));
 	}
 
 	@Override
 	public String generateCSRFToken() throws CSRFTokenGenerationException {
-		String csrfToken = handleCSRFTokenGeneration(this.userSeed);
+		long currentTime = System.currentTimeMillis();
 		
-		LOG.fine("Setting csrfToken: attrname=" + 
-				ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR) +
-				", csrftoken=" + csrfToken);
+		// Hand out the user's current token again while it has enough lifetime left
+		TokenReissueCache reissueCache = config.getTokenReissueCache();
+		if(reissueCache != null)
+		{
+			String cachedToken = reissueCache.get(this.userSeed, currentTime);
+			if(cachedToken != null)
+			{
+				return cachedToken;
+			}
+		}
+		
+		String csrfToken = handleCSRFTokenGeneration(this.userSeed, currentTime);
+		
+		if(reissueCache != null)
+		{
+			reissueCache.put(this.userSeed, csrfToken, currentTime);
+		}
+		
+		LOG.fine("Setting csrfToken: attrname={}, csrftoken={}", config.getTokenRequestAttribute(), csrfToken);
 		return csrfToken;
 	}
 
 	@Override
 	public String getCSRFTokenParameterName() {
-		return ConfigUtil.getProp(Constants.CONF_TOKEN_PARAM);
+		return config.getTokenParameterName();
 	}
 
 	@Override
 	public String generateUrlSpecificCSRFToken(String url)
 			throws CSRFTokenGenerationException {
-		return this.generateCSRFToken(userSeed+":"+url);
+		return this.generateCSRFToken(userSeed+":"+UrlPolicyIndex.getTokenKey(url));
 	}
 	
 	private String generateCSRFToken(String userSeed) throws CSRFTokenGenerationException {
 		String csrfToken = handleCSRFTokenGeneration(userSeed);
 		
-		LOG.info("Setting csrfToken: attrname=" + 
-				ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR) +
-				", csrftoken=" + csrfToken);
+		LOG.fine("Setting csrfToken: attrname={}, csrftoken={}", config.getTokenRequestAttribute(), csrfToken);
 		return csrfToken;
 	}
 	
 	private boolean verifyCSRFToken(String url, String token, boolean isUrlSpecific, Long timeout) throws CSRFTokenVerificationException
 	{
 		// Get  CSRF User Seed from request attribute and set the default timeout
-		StringBuffer userSeed = new StringBuffer(this.userSeed);
+		StringBuilder userSeed = new StringBuilder(this.userSeed);
 		
 		if(isUrlSpecific)
 		{
 			// Add the current url to the seed and pass in it's configured timeout
-			userSeed.append( ":" + url );
+			userSeed.append( ":" + UrlPolicyIndex.getTokenKey(url) );
 			LOG.fine("Using URL Specific timeout values");
 		}
 		
@@ -94,78 +131,90 @@ public class HMACCSRFProtection implements CSRFProtection {
 	
 	private boolean handleCSRFTokenVerification(String url, String submittedCSRFToken, String userSeed, Long configuredTimeout ) throws CSRFTokenVerificationException
 	{
-		if( ConfigUtil.isURLExempt( url ) )
-		{
-			return true;
-		}
-		
 		try 
 		{
 			if( submittedCSRFToken == null)
 			{
-				String err = "HttpServletRequest is missing CSRFToken Parameter." +
-							"userSeed=" + StringUtil.stripNewlines(userSeed);
-				LOG.warning(err);
+				SecurityEvents.publish(SecurityEvent.Type.TOKEN_MISSING, url, userSeed, null);
 				return false;
 			}
 			
-			String[] csrfTokenContents = submittedCSRFToken.split(":");
+			int delimiter = submittedCSRFToken.indexOf(':');
+			
+			// Compact tokens never contain the legacy delimiter
+			if( delimiter < 0 )
+			{
+				return handleCompactTokenVerification(url, submittedCSRFToken, userSeed, configuredTimeout.longValue());
+			}
 	
-			if( csrfTokenContents.length != 2 ) 
+			if( delimiter != submittedCSRFToken.lastIndexOf(':') 
+					|| delimiter == submittedCSRFToken.length() - 1 ) 
 			{
-				LOG.warning("CSRF Token contains invalid amount of delimiters. "+
-						"userSeed=" + StringUtil.stripNewlines(userSeed) +
-						", submittedToken= " + StringUtil.stripNewlines(submittedCSRFToken));
+				SecurityEvents.publish(SecurityEvent.Type.TOKEN_MALFORMED, url, userSeed, submittedCSRFToken);
 				return false;
 			}
 			
-			String submittedHmac = csrfTokenContents[0];
-			String submittedTimestamp = csrfTokenContents[1];
+			String submittedTimestamp = submittedCSRFToken.substring(delimiter + 1);
+			byte[] submittedHmac = WebSafeBase64.decode(submittedCSRFToken, 0, delimiter);
 			
-			// Get Keyczar Signer object
-			KeyczarWrapper keyczarWrapper = ConfigUtil.getKeyczarWrapper();
-			Signer csrfSigner = keyczarWrapper.getCSRFSigner();
+			TokenSigner csrfSigner = config.getKeyczarWrapper().getTokenSigner();
+			byte[] signedData = signatureInput(userSeed, submittedTimestamp);
 			
-			if( !csrfSigner.verify(userSeed + ":" + submittedTimestamp, submittedHmac) )
+			if( submittedHmac == null || !csrfSigner.verify(signedData, 0, signedData.length, submittedHmac) )
 			{
-				LOG.warning("Submitted CSRF Token did not contain a valid HMAC signature. "+
-						"userSeed=" + StringUtil.stripNewlines(userSeed) +
-						", submittedToken=" + StringUtil.stripNewlines(submittedCSRFToken));
+				SecurityEvents.publish(SecurityEvent.Type.INVALID_SIGNATURE, url, userSeed, submittedCSRFToken);
 				return false;
 			}
 			
 			if( timestampIsExpired( Long.valueOf(submittedTimestamp), configuredTimeout) )
 			{
-				LOG.warning("Submitted CSRF Token is expired. "+
-						"userSeed=" + StringUtil.stripNewlines(userSeed) +
-						", submittedToken= " + StringUtil.stripNewlines(submittedCSRFToken));
+				SecurityEvents.publish(SecurityEvent.Type.TOKEN_EXPIRED, url, userSeed, submittedCSRFToken);
 				return false;
 			}
 			
 			// We passed all the checks.
 			return true;
 		} 
-		catch( KeyczarException ex ) 
+		catch( CSRFSignerException ex ) 
 		{
-			String err = "Encountered error performing HMAC signature validation with the Keyczar library";
+			String err = "Encountered error performing HMAC signature validation";
 					
-			// Logging a warning here since this exception is caught and handled by the filter. This should
+			// Reported as a security event since this exception is caught and handled by the filter. This
 			// should be considered a security warning. 
-			LOG.warning(err+ ", userSeed=" + StringUtil.stripNewlines(userSeed) +
-					", submittedToken=" + StringUtil.stripNewlines(submittedCSRFToken) +
-					", exception=" + ex.getMessage() );
+			SecurityEvents.publish(SecurityEvent.Type.VERIFICATION_ERROR, url, null, userSeed, 
+					submittedCSRFToken, ex.getMessage());
 			throw new CSRFTokenVerificationException(err);
 		}
 		catch( NumberFormatException ex )
 		{
 			String err = "Timestamp submitted within CSRFToken is not in a valid format";
 
-			LOG.warning(err + ", Submitted CSRFToken="+
-					submittedCSRFToken + ", userSeed=" + userSeed);
+			SecurityEvents.publish(SecurityEvent.Type.TOKEN_MALFORMED, url, userSeed, submittedCSRFToken);
 			throw new CSRFTokenVerificationException(err);
 		}
 	}
 	
+	private boolean handleCompactTokenVerification(String url, String submittedCSRFToken, String userSeed, long configuredTimeout) throws CSRFSignerException
+	{
+		CompactTokenCodec.Result result = config.getCompactTokenCodec().verify(submittedCSRFToken, userSeed, 
+				System.currentTimeMillis(), configuredTimeout);
+		
+		switch(result)
+		{
+			case VALID:
+				return true;
+			case MALFORMED:
+				SecurityEvents.publish(SecurityEvent.Type.TOKEN_MALFORMED, url, userSeed, submittedCSRFToken);
+				return false;
+			case INVALID_SIGNATURE:
+				SecurityEvents.publish(SecurityEvent.Type.INVALID_SIGNATURE, url, userSeed, submittedCSRFToken);
+				return false;
+			default:
+				SecurityEvents.publish(SecurityEvent.Type.TOKEN_EXPIRED, url, userSeed, submittedCSRFToken);
+				return false;
+		}
+	}
+	
 	private boolean timestampIsExpired( Long submittedTimestamp, Long configuredTimeout )
 	{
 		try 
@@ -186,42 +235,63 @@ public class HMACCSRFProtection implements CSRFProtection {
 		catch (Exception e) 
 		{
 			//log severe?
-			LOG.severe("Unexpected error occurred during CSRFToken timestamp verification, " +
-					"exceptionmessage=" + e.getMessage());
+			LOG.severe("Unexpected error occurred during CSRFToken timestamp verification, exceptionmessage={}", 
+					e.getMessage());
 			return true;
 		}
 		
 		return false;
 	}
 	
-	private boolean verifyCSRFToken(String url, String tokenFromUser, boolean isUrlSpecific) throws CSRFTokenVerificationException
+	private String handleCSRFTokenGeneration(String unhashedToken) throws CSRFTokenGenerationException
 	{
-		Long timeout = (isUrlSpecific 
-				? ConfigUtil.getUrlSpecificConfig(url) 
-				: Long.valueOf( ConfigUtil.getProp(Constants.CONF_HMAC_SITEWIDE_TIMEOUT) ));
-		
-		return verifyCSRFToken(url, tokenFromUser, isUrlSpecific, timeout);
+		return handleCSRFTokenGeneration(unhashedToken, System.currentTimeMillis());
 	}
 	
-	private String handleCSRFTokenGeneration(String unhashedToken) throws CSRFTokenGenerationException
+	private String handleCSRFTokenGeneration(String unhashedToken, long currentTime) throws CSRFTokenGenerationException
 	{
 		try
 		{			
-			Date currentTime = new Date();
-			String currentTimeString = String.valueOf( currentTime.getTime() );
-			KeyczarWrapper keyczarWrapper = ConfigUtil.getKeyczarWrapper();
-			Signer csrfSigner = keyczarWrapper.getCSRFSigner();
-			String csrfHmac = csrfSigner.sign(unhashedToken + ":" + currentTimeString);
+			if( config.isCompactTokenFormat() )
+			{
+				return config.getCompactTokenCodec().encode(unhashedToken, currentTime);
+			}
 			
-			return csrfHmac + ":" + currentTimeString;
+			String currentTimeString = String.valueOf( currentTime );
+			TokenSigner csrfSigner = config.getKeyczarWrapper().getTokenSigner();
+			byte[] signedData = signatureInput(unhashedToken, currentTimeString);
+			byte[] csrfHmac = csrfSigner.sign(signedData, 0, signedData.length);
+			
+			return WebSafeBase64.encode(csrfHmac) + ":" + currentTimeString;
 		}
-		catch( KeyczarException ex ) 
+		catch( CSRFSignerException ex ) 
 		{
-			String err = "Encountered error creating HMAC signature with the Keyczar library"
+			String err = "Encountered error creating HMAC signature"
 					+ ", exceptionmessage=" + ex.getMessage();
 			LOG.info(err);
 			throw new CSRFTokenGenerationException(err);
 		}
 	}
+	
+	/*
+	 * UTF-8 bytes of seed + ":" + timestamp, written straight into one array. The 
+	 * timestamp is always ASCII digits.
+	 */
+	private static byte[] signatureInput(String seed, String timestamp)
+	{
+		byte[] seedBytes = seed.getBytes(UTF8);
+		byte[] data = new byte[seedBytes.length + 1 + timestamp.length()];
+		
+		System.arraycopy(seedBytes, 0, data, 0, seedBytes.length);
+		int pos = seedBytes.length;
+		data[pos++] = ':';
+		
+		for(int i = 0; i < timestamp.length(); i++)
+		{
+			data[pos++] = (byte) timestamp.charAt(i);
+		}
+		
+		return data;
+	}
 
 }
@@ -17,203 +17,253 @@
 
 package com.gdssecurity.anticsrf.protections;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SecureRandom;
-import java.util.HashMap;
-import java.util.logging.Logger;
-
+import com.gdssecurity.anticsrf.events.SecurityEvent;
+import com.gdssecurity.anticsrf.events.SecurityEvents;
 import com.gdssecurity.anticsrf.exceptions.CSRFTokenGenerationException;
 import com.gdssecurity.anticsrf.exceptions.CSRFTokenVerificationException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.store.SessionAttributeTokenStore;
+import com.gdssecurity.anticsrf.store.TokenStore;
 import com.gdssecurity.anticsrf.utils.Base64;
+import com.gdssecurity.anticsrf.utils.ConfigSnapshot;
 import com.gdssecurity.anticsrf.utils.ConfigUtil;
-import com.gdssecurity.anticsrf.utils.Constants;
-import com.gdssecurity.anticsrf.utils.StringUtil;
 import com.gdssecurity.anticsrf.utils.SecureCompare;
+import com.gdssecurity.anticsrf.utils.TokenEntropyEngine;
+import com.gdssecurity.anticsrf.utils.UrlPolicy;
+import com.gdssecurity.anticsrf.utils.UrlPolicyIndex;
 
 public class SessionProtection implements CSRFProtection {
 	
-	private static final Logger LOG = Logger.getLogger(SessionProtection.class.getName());
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(SessionProtection.class);
 	
 	SesssionInterface session;
+	private final TokenStore store;
+	private final String sessionId;
+	private final ConfigSnapshot config;
 	
 	public SessionProtection(SesssionInterface session)
+	{
+		this(session, ConfigUtil.getSnapshot());
+	}
+	
+	/*
+	 * Keeps the tokens in the session's attributes
+	 */
+	public SessionProtection(SesssionInterface session, ConfigSnapshot config)
 	{
 		this.session = session;
+		this.store = new SessionAttributeTokenStore(session, config.getTokenRequestAttribute(), 
+				config.getUrlSpecificTokenAttribute(), config.getUrlSpecificCapacity());
+		this.sessionId = null;
+		this.config = config;
+	}
+	
+	/*
+	 * Keeps the tokens of the session identified by sessionId in an external store
+	 */
+	public SessionProtection(TokenStore store, String sessionId, ConfigSnapshot config)
+	{
+		this.session = null;
+		this.store = store;
+		this.sessionId = sessionId;
+		this.config = config;
 	}
 
 	@Override
 	public boolean verifyCSRFToken(String url, String tokenFromUser)
 			throws CSRFTokenVerificationException {
-		if( ConfigUtil.hasOneTimeUseConfig(url) )
+		// Resolve exempt, one-time-use and url specific settings in a single lookup
+		UrlPolicy policy = config.getUrlPolicy(url);
+		
+		if( policy.isOneTimeUse() )
 		{
-			return verifyOneTimeUseCSRFToken(url, tokenFromUser);
+			return verifyOneTimeUseCSRFToken(url, tokenFromUser, policy);
 		}
 		
-		return verifyCSRFToken(url, tokenFromUser, ConfigUtil.hasUrlSpecificConfig(url));
+		return verifyCSRFToken(url, tokenFromUser, policy.isUrlSpecific(), policy);
 	}
 
 	@Override
 	public String generateCSRFToken() throws CSRFTokenGenerationException {
 		String encodedCSRFToken = generateRandomToken();	
-		LOG.fine("Setting CSRFToken into Session: StoredToken="+encodedCSRFToken);
+		LOG.fine("Setting CSRFToken into Session: StoredToken={}", encodedCSRFToken);
 		
-		session.setAttribute(
-				ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR), encodedCSRFToken);
+		store.put(sessionId, TokenStore.SITEWIDE_KEY, encodedCSRFToken, 0);
 		
 		return encodedCSRFToken;
 	}
+	
+	/*
+	 * The sitewide token stored for the session, or null if it has none yet
+	 */
+	public String getStoredCSRFToken()
+	{
+		return store.get(sessionId, TokenStore.SITEWIDE_KEY);
+	}
+	
+	/*
+	 * The stored sitewide token, creating one if the session has none. Parallel
+	 * first requests of a session all end up with the same token.
+	 */
+	public String getOrCreateCSRFToken() throws CSRFTokenGenerationException
+	{
+		String storedCSRFToken = getStoredCSRFToken();
+		
+		if(storedCSRFToken != null)
+		{
+			return storedCSRFToken;
+		}
+		
+		return store.putIfAbsent(sessionId, TokenStore.SITEWIDE_KEY, generateRandomToken(), 0);
+	}
 
 	@Override
 	public String getCSRFTokenParameterName() {
-		return ConfigUtil.getProp(Constants.CONF_TOKEN_PARAM);
+		return config.getTokenParameterName();
 	}
 
 	@Override
 	public String generateUrlSpecificCSRFToken(String url) throws CSRFTokenGenerationException {
-		@SuppressWarnings("unchecked")
-		HashMap<String,String> urlSpecificTokens = 
-			(HashMap<String,String>) session.getAttribute(
-				ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR)+"urlspecific");
-		
-		// If URLSpecificToken Map is not in session, lets create one and add
-		if(urlSpecificTokens == null)
+		url = UrlPolicyIndex.getTokenKey(url);
+		String existingToken = store.get(sessionId, url);
+		if(existingToken != null)
 		{
-			urlSpecificTokens = new HashMap<String,String>();
-			session.setAttribute(
-				ConfigUtil.getProp(
-					Constants.CONF_TOKEN_REQATTR)+"urlspecific", urlSpecificTokens);
+			LOG.fine("URL Specific Mapping already exists. using existing value");
+			return existingToken;
 		}
 		
-		// Only set a new token if one does not already exist
-		if(!urlSpecificTokens.containsKey(url))
+		// Only set a new token if one does not already exist. A parallel request may
+		// have stored one in the meantime, in which case everyone uses that one.
+		String encodedCSRFToken = generateRandomToken();
+		String storedToken = store.putIfAbsent(sessionId, url, encodedCSRFToken, config.getUrlSpecificTtl() * 1000);
+		
+		if(storedToken == encodedCSRFToken)
 		{
-			String encodedCSRFToken = generateRandomToken();
-			LOG.fine("Setting a new url specific token. url=" + StringUtil.stripNewlines(url)
-					+", newToken=" + encodedCSRFToken);
-			urlSpecificTokens.put(url, encodedCSRFToken);
-		}
-		else
-		{
-			LOG.fine("URL Specific Mapping already exists. using existing value");
+			LOG.fine("Setting a new url specific token. url={}, newToken={}", url, encodedCSRFToken);
 		}
 		
-		return urlSpecificTokens.get(url);
+		return storedToken;
+	}
+	
+	/*
+	 * Number of URL specific and one-time-use tokens currently held by the session
+	 */
+	public int getUrlSpecificTokenCount()
+	{
+		int count = store.size(sessionId);
+		return (getStoredCSRFToken() != null ? count - 1 : count);
 	}
 	
 	// One-time use tokens will be UrlSpecific Tokens which are removed
 	// from session upon validation.
 	public boolean verifyOneTimeUseCSRFToken(String url, String tokenFromUser) throws CSRFTokenVerificationException
 	{
-		boolean isValidToken = verifyCSRFToken(url, tokenFromUser, true);
+		return verifyOneTimeUseCSRFToken(url, tokenFromUser, config.getUrlPolicy(url));
+	}
+	
+	/*
+	 * The token is compared first and then removed with a single compare-and-remove
+	 * on the store. When the same token is submitted by parallel requests only the
+	 * one whose remove succeeds is accepted, without locking the session.
+	 */
+	private boolean verifyOneTimeUseCSRFToken(String url, String tokenFromUser, UrlPolicy policy) throws CSRFTokenVerificationException
+	{
+		if( policy.isExempt() )
+		{
+			return true;
+		}
+		
+		String tokenKey = UrlPolicyIndex.getTokenKey(url);
+		String storedCSRFToken = store.get(sessionId, tokenKey);
+		if(storedCSRFToken == null)
+		{
+			SecurityEvents.publish(SecurityEvent.Type.NO_STORED_TOKEN, url, null, tokenFromUser);
+			return false;
+		}
 		
-		@SuppressWarnings("unchecked")
-		HashMap<String,String> urlSpecificTokens = 
-			(HashMap<String,String>) session.getAttribute(
-				ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR)+"urlspecific");
+		boolean isValidToken = handleCSRFTokenVerification(url, tokenFromUser, storedCSRFToken);
 		
-		if(urlSpecificTokens != null)
+		// Burn the token either way, unless a parallel request already replaced it
+		boolean isConsumed = store.consume(sessionId, tokenKey, storedCSRFToken);
+		
+		if(isValidToken && !isConsumed)
 		{
-			urlSpecificTokens.remove(url);
+			SecurityEvents.publish(SecurityEvent.Type.TOKEN_REPLAYED, url, null, tokenFromUser);
+			return false;
 		}
 		
 		return isValidToken;
 	}
 	
-	private boolean verifyCSRFToken(String url, String tokenFromUser, boolean isUrlSpecific) throws CSRFTokenVerificationException
+	private boolean verifyCSRFToken(String url, String tokenFromUser, boolean isUrlSpecific, UrlPolicy policy) throws CSRFTokenVerificationException
 	{
-		if( ConfigUtil.isURLExempt(url) )
+		if( policy.isExempt() )
 		{
 			return true;
 		}
 
-		String storedCSRFToken = (String) session.getAttribute(
-				ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR) );
+		String storedCSRFToken;
 		
 		if(isUrlSpecific)
 		{
 			LOG.fine("About to perform urlspecific CSRF Token verification");
 			
-			@SuppressWarnings("unchecked")
-			HashMap<String,String> urlSpecificTokens = 
-					(HashMap<String,String>) session.getAttribute(
-						ConfigUtil.getProp(Constants.CONF_TOKEN_REQATTR)+"urlspecific");		
-			try
+			storedCSRFToken = store.get(sessionId, UrlPolicyIndex.getTokenKey(url));
+			LOG.fine("Reading URL Specific Token prior to verification: tokenread={}", storedCSRFToken);
+			if(storedCSRFToken == null)
 			{
-				storedCSRFToken = urlSpecificTokens.get(url);
-				LOG.fine("Reading URL Specific Token prior to verification: tokenread="+StringUtil.stripNewlines(storedCSRFToken));
-				if(storedCSRFToken == null)
-				{
-					return false;
-				}
-			}
-			catch(NullPointerException ex)
-			{
-				String err = "No URL Specific Token found. URL="+StringUtil.stripNewlines(url);
-				LOG.warning(err);
+				SecurityEvents.publish(SecurityEvent.Type.NO_STORED_TOKEN, url, null, tokenFromUser);
 				return false;
 			}
-			
+		}
+		else
+		{
+			storedCSRFToken = getStoredCSRFToken();
 		}
 		
-		return handleCSRFTokenVerification(tokenFromUser, storedCSRFToken);
+		return handleCSRFTokenVerification(url, tokenFromUser, storedCSRFToken);
 	}
 	
-	private boolean handleCSRFTokenVerification(String tokenFromUser, String storedCSRFToken) throws CSRFTokenVerificationException
+	private boolean handleCSRFTokenVerification(String url, String tokenFromUser, String storedCSRFToken) throws CSRFTokenVerificationException
 	{	
-		LOG.fine("About to compare: submittedToken="+StringUtil.stripNewlines(tokenFromUser) +
-				", storedToken="+storedCSRFToken);
+		LOG.fine("About to compare: submittedToken={}, storedToken={}", tokenFromUser, storedCSRFToken);
 		
-		if( tokenFromUser != null && storedCSRFToken != null )
+		if( tokenFromUser == null )
 		{
-			// SecureCompare validates the entire string and is therefore not susceptible to timing attacks
-			if(SecureCompare.isEqual(tokenFromUser.getBytes(), storedCSRFToken.getBytes()))
-			{
-				return true;
-			}
-			
-			LOG.warning("Failed to validate user's csrfToken: submittedToken=" + 
-					StringUtil.stripNewlines(tokenFromUser) + ", expectedToken="+storedCSRFToken);
+			SecurityEvents.publish(SecurityEvent.Type.TOKEN_MISSING, url, null, null);
+			return false;
+		}
+		
+		if( storedCSRFToken == null )
+		{
+			SecurityEvents.publish(SecurityEvent.Type.NO_STORED_TOKEN, url, null, tokenFromUser);
+			return false;
+		}
+		
+		// SecureCompare validates the entire string and is therefore not susceptible to timing attacks
+		if(SecureCompare.isEqual(tokenFromUser.getBytes(), storedCSRFToken.getBytes()))
+		{
+			return true;
 		}
 		
+		SecurityEvents.publish(SecurityEvent.Type.TOKEN_MISMATCH, url, null, tokenFromUser);
 		return false;
 	}
 	
 	private String generateRandomToken() throws CSRFTokenGenerationException
 	{
-		SecureRandom sr;
+		TokenEntropyEngine entropyEngine = config.getTokenEntropyEngine();
 		
-		try 
+		if(entropyEngine == null)
 		{
-			sr = SecureRandom.getInstance("SHA1PRNG", "SUN");
-		}
-		catch (NoSuchAlgorithmException e)
-		{
-			String err = "Failed to generate CSRFToken using SecureRandom"
-					+ ", exceptionMessage=" + e.getMessage();
+			String err = "Failed to generate CSRFToken, the SecureRandom engine has not been configured";
 			LOG.severe(err);
-			throw new CSRFTokenGenerationException(err + ", exceptionMessage="
-					+ e.getMessage());
-		
-		}
-		catch (NoSuchProviderException e)
-		{
-			// Let's try and get the preferred one if SUN doesn't exist.
-			try 
-			{
-				sr = SecureRandom.getInstance("SHA1PRNG");
-			} 
-			catch (NoSuchAlgorithmException e1) {
-				String err = "Failed to generate CSRFToken using SecureRandom"
-						+ ", exceptionMessage=" + e1.getMessage();
-				LOG.severe(err);
-				throw new CSRFTokenGenerationException(err + ", exceptionMessage="
-						+ e1.getMessage());
-			}
+			throw new CSRFTokenGenerationException(err);
 		}
 		
 		byte[] randomBytes = new byte[32];
-		sr.nextBytes(randomBytes);			
+		entropyEngine.nextBytes(randomBytes);
 		return Base64.encode(randomBytes);
 	}
 
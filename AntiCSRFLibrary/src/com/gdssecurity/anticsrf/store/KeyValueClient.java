@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+/*
+ * The few operations KeyValueTokenStore needs from a remote key-value store. Each
+ * key holds a hash of string fields, which maps directly onto Redis hashes
+ * (HGET, HSET, HSETNX, HLEN, PEXPIRE, DEL, and a short script for the
+ * compare-and-delete) and similar structures in other stores. Every operation
+ * must be atomic on the server.
+ */
+public interface KeyValueClient
+{
+	public String hashGet(String key, String field);
+	
+	public void hashPut(String key, String field, String value);
+	
+	/*
+	 * Sets the field only if it does not exist. Returns true if it was set.
+	 */
+	public boolean hashPutIfAbsent(String key, String field, String value);
+	
+	/*
+	 * Deletes the field if its current value equals expectedValue, or whatever its
+	 * value if expectedValue is null. Returns true if the field was deleted.
+	 */
+	public boolean hashRemove(String key, String field, String expectedValue);
+	
+	public int hashSize(String key);
+	
+	/*
+	 * Sets the key, with all its fields, to expire ttlMillis from now
+	 */
+	public void expire(String key, long ttlMillis);
+	
+	public void delete(String key);
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * TokenStore on top of a remote key-value store, so that every node of a cluster
+ * sees the same tokens without session affinity or session replication. Each
+ * session is one hash under keyPrefix + sessionId with one field per token. The
+ * whole hash expires sessionIdleMillis after the session was last used, and a
+ * per-token TTL is kept in the field value as "expiresAt:token" and checked on
+ * read.
+ * 
+ * Reads refresh the session's expiry too, so a user who only ever submits the
+ * sitewide token is not logged out. To avoid an extra round trip on every
+ * request, a read only refreshes it when this node has not done so for the
+ * session in the last quarter of the idle timeout. The node remembers its recent
+ * refreshes in a small fixed size table, a session pushed out of it is simply
+ * refreshed again.
+ * 
+ * Updates use only single atomic operations on the server: put-if-absent on the
+ * field and compare-and-delete on the exact stored value, so two nodes racing on
+ * a token can never both consume it. There is no per-session capacity, the
+ * store's own memory limits and the session TTL bound the data held.
+ */
+public class KeyValueTokenStore implements TokenStore
+{
+	private final KeyValueClient client;
+	private final String keyPrefix;
+	private volatile long sessionIdleMillis;
+	
+	private static final int TOUCH_SLOTS = 4096;
+	private static final int TOUCH_FRACTION = 4;
+	private final AtomicReferenceArray<Touch> recentTouches = new AtomicReferenceArray<Touch>(TOUCH_SLOTS);
+	
+	public KeyValueTokenStore(KeyValueClient client, String keyPrefix, long sessionIdleMillis)
+	{
+		this.client = client;
+		this.keyPrefix = keyPrefix;
+		this.sessionIdleMillis = sessionIdleMillis;
+	}
+	
+	/*
+	 * Changes the session idle timeout of a running store. Sessions get the new
+	 * timeout the next time their expiry is refreshed.
+	 */
+	public void setSessionIdleMillis(long sessionIdleMillis)
+	{
+		this.sessionIdleMillis = sessionIdleMillis;
+	}
+	
+	@Override
+	public String get(String sessionId, String key)
+	{
+		String hashKey = keyPrefix + sessionId;
+		String value = client.hashGet(hashKey, key);
+		
+		if(value == null)
+		{
+			return null;
+		}
+		
+		long now = System.currentTimeMillis();
+		if(isExpired(value, now))
+		{
+			client.hashRemove(hashKey, key, value);
+			return null;
+		}
+		
+		touchIfStale(hashKey, now);
+		return tokenOf(value);
+	}
+	
+	@Override
+	public void put(String sessionId, String key, String token, long ttlMillis)
+	{
+		String hashKey = keyPrefix + sessionId;
+		client.hashPut(hashKey, key, encode(token, ttlMillis, System.currentTimeMillis()));
+		touch(hashKey);
+	}
+	
+	@Override
+	public String putIfAbsent(String sessionId, String key, String token, long ttlMillis)
+	{
+		String hashKey = keyPrefix + sessionId;
+		String value = encode(token, ttlMillis, System.currentTimeMillis());
+		
+		while(true)
+		{
+			if(client.hashPutIfAbsent(hashKey, key, value))
+			{
+				touch(hashKey);
+				return token;
+			}
+			
+			String existing = client.hashGet(hashKey, key);
+			
+			if(existing == null)
+			{
+				// Removed in the meantime, try again
+				continue;
+			}
+			
+			if(!isExpired(existing, System.currentTimeMillis()))
+			{
+				return tokenOf(existing);
+			}
+			
+			// Clear the expired token, unless another request already replaced it
+			client.hashRemove(hashKey, key, existing);
+		}
+	}
+	
+	@Override
+	public boolean consume(String sessionId, String key, String token)
+	{
+		String hashKey = keyPrefix + sessionId;
+		String value = client.hashGet(hashKey, key);
+		
+		if(value == null || isExpired(value, System.currentTimeMillis()) || !token.equals(tokenOf(value)))
+		{
+			return false;
+		}
+		
+		// Deletes the exact value read above, so only one caller can succeed
+		if(!client.hashRemove(hashKey, key, value))
+		{
+			return false;
+		}
+		
+		touchIfStale(hashKey, System.currentTimeMillis());
+		return true;
+	}
+	
+	@Override
+	public void expire(String sessionId, String key)
+	{
+		client.hashRemove(keyPrefix + sessionId, key, null);
+	}
+	
+	@Override
+	public void expireSession(String sessionId)
+	{
+		client.delete(keyPrefix + sessionId);
+	}
+	
+	@Override
+	public int size(String sessionId)
+	{
+		return client.hashSize(keyPrefix + sessionId);
+	}
+	
+	private void touch(String hashKey)
+	{
+		long idleMillis = sessionIdleMillis;
+		
+		if(idleMillis > 0)
+		{
+			client.expire(hashKey, idleMillis);
+			recentTouches.set(slotOf(hashKey), new Touch(hashKey, System.currentTimeMillis()));
+		}
+	}
+	
+	private void touchIfStale(String hashKey, long now)
+	{
+		long idleMillis = sessionIdleMillis;
+		
+		if(idleMillis <= 0)
+		{
+			return;
+		}
+		
+		Touch last = recentTouches.get(slotOf(hashKey));
+		if(last != null && now - last.time < idleMillis / TOUCH_FRACTION && last.hashKey.equals(hashKey))
+		{
+			return;
+		}
+		
+		touch(hashKey);
+	}
+	
+	private static int slotOf(String hashKey)
+	{
+		int h = hashKey.hashCode();
+		return (h ^ (h >>> 16)) & (TOUCH_SLOTS - 1);
+	}
+	
+	private static String encode(String token, long ttlMillis, long now)
+	{
+		return (ttlMillis > 0 ? now + ttlMillis : 0) + ":" + token;
+	}
+	
+	private static boolean isExpired(String value, long now)
+	{
+		int delimiter = value.indexOf(':');
+		
+		try
+		{
+			long expiresAt = Long.parseLong(value.substring(0, delimiter));
+			return expiresAt != 0 && now >= expiresAt;
+		}
+		catch(RuntimeException ex)
+		{
+			// Not written by this class, treat it as gone
+			return true;
+		}
+	}
+	
+	private static String tokenOf(String value)
+	{
+		return value.substring(value.indexOf(':') + 1);
+	}
+	
+	private static class Touch
+	{
+		final String hashKey;
+		final long time;
+		
+		Touch(String hashKey, long time)
+		{
+			this.hashKey = hashKey;
+			this.time = time;
+		}
+	}
+}
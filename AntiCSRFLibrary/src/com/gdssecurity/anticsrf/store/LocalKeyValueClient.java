@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * In-process stand-in for a remote key-value store, for tests, benchmarks and
+ * single node development. It implements the KeyValueClient operations with the
+ * same atomicity a server provides, including key expiry, and can add a fixed
+ * delay to every call to approximate a network round trip.
+ * 
+ * Like a server, it does not rely on reads to drop expired keys: writes sweep out
+ * every expired key at most once per SWEEP_INTERVAL_MILLIS, so sessions that are
+ * never read again do not accumulate when it backs the local_kv token store.
+ */
+public class LocalKeyValueClient implements KeyValueClient
+{
+	private final ConcurrentHashMap<String,Hash> data = new ConcurrentHashMap<String,Hash>();
+	private final long latencyNanos;
+	
+	private static final long SWEEP_INTERVAL_MILLIS = 30 * 1000;
+	private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+	
+	public LocalKeyValueClient()
+	{
+		this(0);
+	}
+	
+	public LocalKeyValueClient(long latencyNanos)
+	{
+		this.latencyNanos = latencyNanos;
+	}
+	
+	@Override
+	public String hashGet(String key, String field)
+	{
+		roundTrip();
+		Hash hash = liveHash(key);
+		return (hash != null ? hash.fields.get(field) : null);
+	}
+	
+	@Override
+	public void hashPut(String key, String field, String value)
+	{
+		roundTrip();
+		hashFor(key).fields.put(field, value);
+	}
+	
+	@Override
+	public boolean hashPutIfAbsent(String key, String field, String value)
+	{
+		roundTrip();
+		return hashFor(key).fields.putIfAbsent(field, value) == null;
+	}
+	
+	@Override
+	public boolean hashRemove(String key, String field, String expectedValue)
+	{
+		roundTrip();
+		Hash hash = liveHash(key);
+		
+		if(hash == null)
+		{
+			return false;
+		}
+		
+		return (expectedValue == null 
+				? hash.fields.remove(field) != null 
+				: hash.fields.remove(field, expectedValue));
+	}
+	
+	@Override
+	public int hashSize(String key)
+	{
+		roundTrip();
+		Hash hash = liveHash(key);
+		return (hash != null ? hash.fields.size() : 0);
+	}
+	
+	@Override
+	public void expire(String key, long ttlMillis)
+	{
+		roundTrip();
+		Hash hash = liveHash(key);
+		
+		if(hash != null)
+		{
+			hash.expiresAt = System.currentTimeMillis() + ttlMillis;
+		}
+	}
+	
+	@Override
+	public void delete(String key)
+	{
+		roundTrip();
+		data.remove(key);
+	}
+	
+	/*
+	 * Number of keys held, including expired keys that have not been read since
+	 */
+	public int getKeyCount()
+	{
+		return data.size();
+	}
+	
+	private Hash liveHash(String key)
+	{
+		Hash hash = data.get(key);
+		
+		if(hash != null && hash.isExpired(System.currentTimeMillis()))
+		{
+			data.remove(key, hash);
+			return null;
+		}
+		
+		return hash;
+	}
+	
+	private Hash hashFor(String key)
+	{
+		sweepIfDue(System.currentTimeMillis());
+		
+		while(true)
+		{
+			Hash hash = liveHash(key);
+			if(hash != null)
+			{
+				return hash;
+			}
+			
+			Hash created = new Hash();
+			if(data.putIfAbsent(key, created) == null)
+			{
+				return created;
+			}
+		}
+	}
+	
+	/*
+	 * Only the caller that advances lastSweep walks the keys, the others go on
+	 */
+	private void sweepIfDue(long now)
+	{
+		long last = lastSweep.get();
+		
+		if(now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now))
+		{
+			return;
+		}
+		
+		Iterator<Map.Entry<String,Hash>> it = data.entrySet().iterator();
+		while(it.hasNext())
+		{
+			Map.Entry<String,Hash> entry = it.next();
+			
+			if(entry.getValue().isExpired(now))
+			{
+				data.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	private void roundTrip()
+	{
+		if(latencyNanos > 0)
+		{
+			LockSupport.parkNanos(latencyNanos);
+		}
+	}
+	
+	private static class Hash
+	{
+		final ConcurrentHashMap<String,String> fields = new ConcurrentHashMap<String,String>();
+		volatile long expiresAt;
+		
+		boolean isExpired(long now)
+		{
+			return expiresAt != 0 && now >= expiresAt;
+		}
+	}
+}
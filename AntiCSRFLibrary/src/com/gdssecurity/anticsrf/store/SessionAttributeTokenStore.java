@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.gdssecurity.anticsrf.protections.SesssionInterface;
+
+/*
+ * TokenStore view of a single servlet session, used when no external store is
+ * configured. The session identifier passed to each method is ignored. The
+ * sitewide token is kept in the token request attribute and all other tokens in
+ * the session's UrlTokenTable, exactly as session mode has always stored them.
+ * 
+ * The table is changed in place. After every change it is set on the session
+ * again so a replicating container notices, a ReplicationAwareSession turns
+ * these into a single write at the end of the request.
+ */
+public class SessionAttributeTokenStore implements TokenStore
+{
+	private final SesssionInterface session;
+	private final String tokenAttribute;
+	private final String urlSpecificAttribute;
+	private final int capacity;
+	
+	public SessionAttributeTokenStore(SesssionInterface session, String tokenAttribute, 
+			String urlSpecificAttribute, int capacity)
+	{
+		this.session = session;
+		this.tokenAttribute = tokenAttribute;
+		this.urlSpecificAttribute = urlSpecificAttribute;
+		this.capacity = capacity;
+	}
+	
+	@Override
+	public String get(String sessionId, String key)
+	{
+		if(SITEWIDE_KEY.equals(key))
+		{
+			return getSitewideToken();
+		}
+		
+		UrlTokenTable table = UrlTokenTable.fromSession(session, urlSpecificAttribute);
+		return (table != null ? table.get(key, System.currentTimeMillis()) : null);
+	}
+	
+	@Override
+	public void put(String sessionId, String key, String token, long ttlMillis)
+	{
+		if(SITEWIDE_KEY.equals(key))
+		{
+			session.setAttribute(tokenAttribute, token);
+			return;
+		}
+		
+		UrlTokenTable table = UrlTokenTable.getOrCreate(session, urlSpecificAttribute);
+		table.remove(key);
+		table.putIfAbsent(key, token, System.currentTimeMillis(), ttlMillis, capacity);
+		changed(table);
+	}
+	
+	@Override
+	public String putIfAbsent(String sessionId, String key, String token, long ttlMillis)
+	{
+		if(SITEWIDE_KEY.equals(key))
+		{
+			return putSitewideTokenIfAbsent(token);
+		}
+		
+		UrlTokenTable table = UrlTokenTable.getOrCreate(session, urlSpecificAttribute);
+		String stored = table.putIfAbsent(key, token, System.currentTimeMillis(), ttlMillis, capacity);
+		
+		if(stored == token)
+		{
+			changed(table);
+		}
+		
+		return stored;
+	}
+	
+	@Override
+	public boolean consume(String sessionId, String key, String token)
+	{
+		if(SITEWIDE_KEY.equals(key))
+		{
+			// The sitewide token lives as long as the session
+			return false;
+		}
+		
+		UrlTokenTable table = UrlTokenTable.fromSession(session, urlSpecificAttribute);
+		if(table == null || !table.consume(key, token))
+		{
+			return false;
+		}
+		
+		changed(table);
+		return true;
+	}
+	
+	@Override
+	public void expire(String sessionId, String key)
+	{
+		if(SITEWIDE_KEY.equals(key))
+		{
+			session.setAttribute(tokenAttribute, null);
+			return;
+		}
+		
+		UrlTokenTable table = UrlTokenTable.fromSession(session, urlSpecificAttribute);
+		if(table != null && table.remove(key) != null)
+		{
+			changed(table);
+		}
+	}
+	
+	@Override
+	public void expireSession(String sessionId)
+	{
+		session.setAttribute(tokenAttribute, null);
+		session.setAttribute(urlSpecificAttribute, null);
+	}
+	
+	@Override
+	public int size(String sessionId)
+	{
+		UrlTokenTable table = UrlTokenTable.fromSession(session, urlSpecificAttribute);
+		return (getSitewideToken() != null ? 1 : 0) + (table != null ? table.size() : 0);
+	}
+	
+	private void changed(UrlTokenTable table)
+	{
+		session.setAttribute(urlSpecificAttribute, table);
+	}
+	
+	private String getSitewideToken()
+	{
+		Object token = session.getAttribute(tokenAttribute);
+		return (token != null && !token.toString().equals("") ? token.toString() : null);
+	}
+	
+	/*
+	 * HttpSession has no put-if-absent, so the first token of a session is stored
+	 * under the session's lock stripe
+	 */
+	private String putSitewideTokenIfAbsent(String token)
+	{
+		String existing = getSitewideToken();
+		if(existing != null)
+		{
+			return existing;
+		}
+		
+		ReentrantLock lock = UrlTokenTable.sessionLock(session);
+		lock.lock();
+		try
+		{
+			existing = getSitewideToken();
+			if(existing != null)
+			{
+				return existing;
+			}
+			
+			session.setAttribute(tokenAttribute, token);
+			return token;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
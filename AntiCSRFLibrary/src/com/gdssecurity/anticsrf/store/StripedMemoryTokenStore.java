@@ -0,0 +1,361 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * In-memory TokenStore for a single node. Sessions are spread by the hash of
+ * their identifier over a fixed set of stripes (a power of two, at least twice
+ * the number of cores). Each stripe and each session keep their data in a
+ * ConcurrentHashMap, so get, consume, expire and size never lock: consume is a
+ * remove of the exact entry that was read, so only one caller can succeed. The
+ * stripe lock is taken only by writes, to create sessions, sweep idle ones and
+ * evict tokens over capacity.
+ * 
+ * Each session keeps its sitewide token plus at most capacity other tokens,
+ * evicting the least recently used one, and tokens past their TTL are dropped
+ * when read. A session that has not been used for sessionIdleMillis is removed
+ * by a periodic sweep of its stripe, so sessions that end without
+ * expireSession() being called do not accumulate.
+ */
+public class StripedMemoryTokenStore implements TokenStore
+{
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	private volatile int capacity;
+	private volatile long sessionIdleMillis;
+	
+	/*
+	 * sessionIdleMillis of 0 keeps sessions until expireSession() is called
+	 */
+	public StripedMemoryTokenStore(int capacity, long sessionIdleMillis)
+	{
+		setLimits(capacity, sessionIdleMillis);
+		
+		int stripeCount = 1;
+		while(stripeCount < Runtime.getRuntime().availableProcessors() * 2)
+		{
+			stripeCount <<= 1;
+		}
+		
+		this.stripes = new Stripe[stripeCount];
+		this.stripeMask = stripeCount - 1;
+		
+		for(int i = 0; i < stripeCount; i++)
+		{
+			stripes[i] = new Stripe();
+		}
+	}
+	
+	@Override
+	public String get(String sessionId, String key)
+	{
+		SessionTokens tokens = stripeFor(sessionId).sessions.get(sessionId);
+		
+		if(tokens == null)
+		{
+			return null;
+		}
+		
+		long now = System.currentTimeMillis();
+		tokens.lastUsed = now;
+		
+		Entry entry = tokens.getLive(key, now);
+		return (entry != null ? entry.token : null);
+	}
+	
+	@Override
+	public void put(String sessionId, String key, String token, long ttlMillis)
+	{
+		long now = System.currentTimeMillis();
+		Stripe stripe = stripeFor(sessionId);
+		
+		stripe.lock.lock();
+		try
+		{
+			SessionTokens tokens = sessionTokens(stripe, sessionId, now);
+			tokens.entries.put(key, new Entry(token, expiry(now, ttlMillis)));
+			tokens.evictOverCapacity();
+		}
+		finally
+		{
+			stripe.lock.unlock();
+		}
+	}
+	
+	@Override
+	public String putIfAbsent(String sessionId, String key, String token, long ttlMillis)
+	{
+		long now = System.currentTimeMillis();
+		Stripe stripe = stripeFor(sessionId);
+		Entry created = new Entry(token, expiry(now, ttlMillis));
+		
+		stripe.lock.lock();
+		try
+		{
+			SessionTokens tokens = sessionTokens(stripe, sessionId, now);
+			
+			// Consume and expire do not take the lock, so the existing entry can go at any time
+			while(true)
+			{
+				Entry existing = tokens.getLive(key, now);
+				
+				if(existing != null)
+				{
+					return existing.token;
+				}
+				
+				if(tokens.entries.putIfAbsent(key, created) == null)
+				{
+					tokens.evictOverCapacity();
+					return token;
+				}
+			}
+		}
+		finally
+		{
+			stripe.lock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean consume(String sessionId, String key, String token)
+	{
+		SessionTokens tokens = stripeFor(sessionId).sessions.get(sessionId);
+		
+		if(tokens == null)
+		{
+			return false;
+		}
+		
+		long now = System.currentTimeMillis();
+		tokens.lastUsed = now;
+		
+		Entry entry = tokens.getLive(key, now);
+		if(entry == null || !token.equals(entry.token))
+		{
+			return false;
+		}
+		
+		// Removes the exact entry read above, so only one caller can succeed
+		return tokens.entries.remove(key, entry);
+	}
+	
+	@Override
+	public void expire(String sessionId, String key)
+	{
+		SessionTokens tokens = stripeFor(sessionId).sessions.get(sessionId);
+		
+		if(tokens != null)
+		{
+			tokens.entries.remove(key);
+		}
+	}
+	
+	@Override
+	public void expireSession(String sessionId)
+	{
+		Stripe stripe = stripeFor(sessionId);
+		
+		stripe.lock.lock();
+		try
+		{
+			stripe.sessions.remove(sessionId);
+		}
+		finally
+		{
+			stripe.lock.unlock();
+		}
+	}
+	
+	@Override
+	public int size(String sessionId)
+	{
+		SessionTokens tokens = stripeFor(sessionId).sessions.get(sessionId);
+		return (tokens != null ? tokens.entries.size() : 0);
+	}
+	
+	/*
+	 * Changes the limits of a running store. Existing sessions pick up the new
+	 * capacity on their next write.
+	 */
+	public void setLimits(int capacity, long sessionIdleMillis)
+	{
+		this.capacity = capacity;
+		this.sessionIdleMillis = sessionIdleMillis;
+	}
+	
+	/*
+	 * Number of sessions currently held, across all stripes
+	 */
+	public int getSessionCount()
+	{
+		int count = 0;
+		
+		for(Stripe stripe : stripes)
+		{
+			count += stripe.sessions.size();
+		}
+		
+		return count;
+	}
+	
+	private Stripe stripeFor(String sessionId)
+	{
+		int h = sessionId.hashCode();
+		return stripes[(h ^ (h >>> 16)) & stripeMask];
+	}
+	
+	/*
+	 * Called with the stripe lock held
+	 */
+	private SessionTokens sessionTokens(Stripe stripe, String sessionId, long now)
+	{
+		sweepIdleSessions(stripe, now);
+		
+		SessionTokens tokens = stripe.sessions.get(sessionId);
+		if(tokens == null)
+		{
+			tokens = new SessionTokens();
+			stripe.sessions.put(sessionId, tokens);
+		}
+		
+		tokens.capacity = capacity;
+		tokens.lastUsed = now;
+		return tokens;
+	}
+	
+	/*
+	 * Called with the stripe lock held. Runs at most four times per idle period.
+	 */
+	private void sweepIdleSessions(Stripe stripe, long now)
+	{
+		long idleMillis = sessionIdleMillis;
+		
+		if(idleMillis <= 0 || now - stripe.lastSweep < idleMillis / 4)
+		{
+			return;
+		}
+		
+		stripe.lastSweep = now;
+		
+		Iterator<SessionTokens> it = stripe.sessions.values().iterator();
+		while(it.hasNext())
+		{
+			if(now - it.next().lastUsed >= idleMillis)
+			{
+				it.remove();
+			}
+		}
+	}
+	
+	private static long expiry(long now, long ttlMillis)
+	{
+		return (ttlMillis > 0 ? now + ttlMillis : 0);
+	}
+	
+	private static class Stripe
+	{
+		final ReentrantLock lock = new ReentrantLock();
+		final ConcurrentHashMap<String,SessionTokens> sessions = new ConcurrentHashMap<String,SessionTokens>();
+		long lastSweep = System.currentTimeMillis();
+	}
+	
+	private static class SessionTokens
+	{
+		final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+		int capacity;
+		volatile long lastUsed;
+		
+		/*
+		 * Returns the entry under key unless it is missing or past its TTL, and marks
+		 * it as used
+		 */
+		Entry getLive(String key, long now)
+		{
+			Entry entry = entries.get(key);
+			
+			if(entry == null)
+			{
+				return null;
+			}
+			
+			if(entry.expiresAt != 0 && now >= entry.expiresAt)
+			{
+				entries.remove(key, entry);
+				return null;
+			}
+			
+			entry.lastAccess = System.nanoTime();
+			return entry;
+		}
+		
+		/*
+		 * Called with the stripe lock held. capacity bounds the URL tokens, the
+		 * sitewide token is never evicted. Scans for the least recently used token,
+		 * which only happens once a session is full.
+		 */
+		void evictOverCapacity()
+		{
+			while(entries.size() > capacity + (entries.containsKey(SITEWIDE_KEY) ? 1 : 0))
+			{
+				String eldestKey = null;
+				Entry eldest = null;
+				
+				for(Map.Entry<String,Entry> candidate : entries.entrySet())
+				{
+					if(!SITEWIDE_KEY.equals(candidate.getKey()) 
+							&& (eldest == null || candidate.getValue().lastAccess - eldest.lastAccess < 0))
+					{
+						eldestKey = candidate.getKey();
+						eldest = candidate.getValue();
+					}
+				}
+				
+				if(eldest == null)
+				{
+					return;
+				}
+				
+				entries.remove(eldestKey, eldest);
+			}
+		}
+	}
+	
+	private static class Entry
+	{
+		final String token;
+		final long expiresAt;
+		
+		/*
+		 * System.nanoTime() of the last use, which orders entries created or read
+		 * within the same millisecond
+		 */
+		volatile long lastAccess = System.nanoTime();
+		
+		Entry(String token, long expiresAt)
+		{
+			this.token = token;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+/*
+ * Storage for session mode tokens. Every token belongs to a session identifier and
+ * is stored under a key: the URL for URL specific and one-time-use tokens, or
+ * SITEWIDE_KEY for the sitewide token. Keeping tokens in a TokenStore instead of
+ * the HttpSession lets CSRF state live outside the servlet container, so nodes do
+ * not need sticky sessions or session replication to verify each other's tokens.
+ * 
+ * Implementations must be thread safe and every method must be atomic with respect
+ * to the others, since parallel requests for one session can reach the store at
+ * the same time (and, for a shared store, from several nodes).
+ * 
+ * The store is selected with <token_store> under <session_settings>, either by one
+ * of the built-in names or by the class name of an implementation with a public
+ * no-argument constructor.
+ */
+public interface TokenStore
+{
+	/*
+	 * Key of the sitewide token
+	 */
+	public static final String SITEWIDE_KEY = "";
+	
+	/*
+	 * Returns the live token stored under key, or null
+	 */
+	public String get(String sessionId, String key);
+	
+	/*
+	 * Stores token under key, replacing any existing token. ttlMillis of 0 means the
+	 * token does not expire.
+	 */
+	public void put(String sessionId, String key, String token, long ttlMillis);
+	
+	/*
+	 * Stores token under key unless a live token is already stored there. Returns
+	 * the token stored under key afterwards, either token or the existing one.
+	 */
+	public String putIfAbsent(String sessionId, String key, String token, long ttlMillis);
+	
+	/*
+	 * Removes the token under key if it is still token, atomically. Returns true if
+	 * this call removed it, false if it was missing, different or already consumed.
+	 */
+	public boolean consume(String sessionId, String key, String token);
+	
+	/*
+	 * Removes the token under key, whatever its value
+	 */
+	public void expire(String sessionId, String key);
+	
+	/*
+	 * Removes every token of the session, e.g. when the session is invalidated
+	 */
+	public void expireSession(String sessionId);
+	
+	/*
+	 * Number of tokens held for the session
+	 */
+	public int size(String sessionId);
+}
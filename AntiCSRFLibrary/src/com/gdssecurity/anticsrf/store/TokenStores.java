@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.utils.Constants;
+
+/*
+ * Creates the TokenStore named by the <token_store> setting. Stores are kept for
+ * the life of the application, one per store type, and handed out again when the
+ * configuration is reloaded, so a reload does not drop every stored token. A
+ * reload that changes the capacity or the session idle timeout applies the new
+ * limits to the existing built-in store. Custom stores manage their own limits.
+ */
+public class TokenStores
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(TokenStores.class);
+	
+	private static final String LOCAL_KV_PREFIX = "anticsrf:";
+	
+	private static final ConcurrentHashMap<String,TokenStore> STORES = new ConcurrentHashMap<String,TokenStore>();
+	
+	/*
+	 * Checks that name is a built-in store or names a TokenStore class with a
+	 * no-argument constructor, without creating or changing any store
+	 */
+	public static void checkStore(String name) throws CSRFConfigException
+	{
+		for(Constants.TOKEN_STORES builtIn : Constants.TOKEN_STORES.values())
+		{
+			if(builtIn.toString().equals(name))
+			{
+				return;
+			}
+		}
+		
+		try
+		{
+			customStoreClass(name).getDeclaredConstructor();
+		}
+		catch(NoSuchMethodException ex)
+		{
+			throw new CSRFConfigException("Configured token store has no no-argument constructor. EnteredValue=" 
+					+ name);
+		}
+	}
+	
+	/*
+	 * Returns the store for name, or null for the session store, which is created
+	 * per request around the HttpSession
+	 */
+	public static TokenStore getStore(String name, int capacity, long sessionIdleSeconds) throws CSRFConfigException
+	{
+		if(Constants.TOKEN_STORES.session.toString().equals(name))
+		{
+			return null;
+		}
+		
+		long sessionIdleMillis = sessionIdleSeconds * 1000;
+		TokenStore store = STORES.get(name);
+		
+		if(store == null)
+		{
+			TokenStore created = createStore(name, capacity, sessionIdleMillis);
+			store = STORES.putIfAbsent(name, created);
+			
+			if(store == null)
+			{
+				LOG.info("Created CSRF token store. store={}", name);
+				return created;
+			}
+		}
+		
+		applyLimits(store, capacity, sessionIdleMillis);
+		return store;
+	}
+	
+	private static void applyLimits(TokenStore store, int capacity, long sessionIdleMillis)
+	{
+		if(store instanceof StripedMemoryTokenStore)
+		{
+			((StripedMemoryTokenStore) store).setLimits(capacity, sessionIdleMillis);
+		}
+		else if(store instanceof KeyValueTokenStore)
+		{
+			((KeyValueTokenStore) store).setSessionIdleMillis(sessionIdleMillis);
+		}
+	}
+	
+	private static TokenStore createStore(String name, int capacity, long sessionIdleMillis) throws CSRFConfigException
+	{
+		if(Constants.TOKEN_STORES.memory.toString().equals(name))
+		{
+			return new StripedMemoryTokenStore(capacity, sessionIdleMillis);
+		}
+		
+		if(Constants.TOKEN_STORES.local_kv.toString().equals(name))
+		{
+			return new KeyValueTokenStore(new LocalKeyValueClient(), LOCAL_KV_PREFIX, sessionIdleMillis);
+		}
+		
+		// Anything else is the class name of a custom store
+		try
+		{
+			return customStoreClass(name).getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException ex)
+		{
+			throw new CSRFConfigException("Unable to create the configured token store. EnteredValue=" + name 
+					+ ", exceptionMessage=" + ex.getMessage());
+		}
+	}
+	
+	private static Class<? extends TokenStore> customStoreClass(String name) throws CSRFConfigException
+	{
+		Class<?> storeClass;
+		try
+		{
+			storeClass = Class.forName(name);
+		}
+		catch(ClassNotFoundException ex)
+		{
+			throw new CSRFConfigException("Invalid token store entered. EnteredValue=" + name);
+		}
+		
+		if(!TokenStore.class.isAssignableFrom(storeClass))
+		{
+			throw new CSRFConfigException("Configured token store does not implement " 
+					+ TokenStore.class.getName() + ". EnteredValue=" + name);
+		}
+		
+		return storeClass.asSubclass(TokenStore.class);
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.store;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.gdssecurity.anticsrf.protections.SesssionInterface;
+
+/*
+ * Per-session table of URL specific tokens, stored in the session in place of the
+ * plain HashMap used previously. Parallel requests in one session (several tabs,
+ * concurrent AJAX calls) share the table without locking: reads never block and a
+ * token is only added if the URL has none yet, so two requests asking for the same
+ * URL at the same time both end up with the one token that was stored.
+ * 
+ * The table is bounded. Entries older than the TTL are dropped when they are next
+ * read or when the table is over capacity, and once the table holds more than
+ * capacity tokens the least recently used ones are evicted. The limits are passed
+ * in by the caller on every call so a configuration reload applies to existing
+ * sessions too.
+ * 
+ * The table itself is created once per session under a striped lock, see
+ * getOrCreate().
+ */
+public class UrlTokenTable implements Serializable
+{
+	private static final long serialVersionUID = 2L;
+	
+	private static final LongAdder EVICTED = new LongAdder();
+	private static final LongAdder EXPIRED = new LongAdder();
+	
+	private static final int LOCK_STRIPES = 64;
+	private static final ReentrantLock[] SESSION_LOCKS = new ReentrantLock[LOCK_STRIPES];
+	static
+	{
+		for(int i = 0; i < LOCK_STRIPES; i++)
+		{
+			SESSION_LOCKS[i] = new ReentrantLock();
+		}
+	}
+	
+	private final ConcurrentHashMap<String,Entry> tokens = new ConcurrentHashMap<String,Entry>();
+	
+	// Only one thread trims the table at a time, the others carry on
+	private final AtomicBoolean trimming = new AtomicBoolean();
+	
+	/*
+	 * Returns the session's table, creating and storing it if the session has none.
+	 * HttpSession has no put-if-absent, so creation is serialized on a lock stripe
+	 * chosen by the session's hash code and the attribute is re-read under the lock.
+	 * A table written by an older version as a plain Map is migrated.
+	 */
+	public static UrlTokenTable getOrCreate(SesssionInterface session, String attributeName)
+	{
+		UrlTokenTable table = fromSession(session, attributeName);
+		if(table != null)
+		{
+			return table;
+		}
+		
+		ReentrantLock lock = sessionLock(session);
+		lock.lock();
+		try
+		{
+			table = fromSession(session, attributeName);
+			if(table == null)
+			{
+				table = new UrlTokenTable();
+				copyLegacyMap(session.getAttribute(attributeName), table);
+				session.setAttribute(attributeName, table);
+			}
+			
+			return table;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/*
+	 * Lock stripe for the session, for the rare writes that need put-if-absent
+	 * semantics on a session attribute
+	 */
+	static ReentrantLock sessionLock(SesssionInterface session)
+	{
+		return SESSION_LOCKS[(session.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+	}
+	
+	/*
+	 * Returns the session's table or null, without creating one
+	 */
+	public static UrlTokenTable fromSession(SesssionInterface session, String attributeName)
+	{
+		Object table = session.getAttribute(attributeName);
+		return (table instanceof UrlTokenTable ? (UrlTokenTable) table : null);
+	}
+	
+	/*
+	 * Returns the token stored for url, or null if there is none or it has expired
+	 */
+	public String get(String url, long nowMillis)
+	{
+		Entry entry = tokens.get(url);
+		
+		if(entry == null)
+		{
+			return null;
+		}
+		
+		if(entry.isExpired(nowMillis))
+		{
+			if(tokens.remove(url, entry))
+			{
+				EXPIRED.increment();
+			}
+			return null;
+		}
+		
+		entry.lastUsed = nowMillis;
+		return entry.token;
+	}
+	
+	/*
+	 * Stores token for url unless the url already has a live token. Returns the
+	 * token that is stored for url afterwards, which is either token or the
+	 * existing one. ttlMillis of 0 means the token does not expire.
+	 */
+	public String putIfAbsent(String url, String token, long nowMillis, long ttlMillis, int capacity)
+	{
+		Entry fresh = new Entry(token, (ttlMillis > 0 ? nowMillis + ttlMillis : 0), nowMillis);
+		
+		while(true)
+		{
+			Entry existing = tokens.putIfAbsent(url, fresh);
+			
+			if(existing == null)
+			{
+				break;
+			}
+			
+			if(!existing.isExpired(nowMillis))
+			{
+				existing.lastUsed = nowMillis;
+				return existing.token;
+			}
+			
+			// Replace the expired token, unless another request got there first
+			if(tokens.replace(url, existing, fresh))
+			{
+				EXPIRED.increment();
+				break;
+			}
+		}
+		
+		if(tokens.size() > capacity)
+		{
+			trim(url, nowMillis, capacity);
+		}
+		
+		return token;
+	}
+	
+	public String remove(String url)
+	{
+		Entry entry = tokens.remove(url);
+		return (entry != null ? entry.token : null);
+	}
+	
+	/*
+	 * Removes the token for url only if it is still token, in one atomic step.
+	 * Returns false if it was already removed or replaced.
+	 */
+	public boolean consume(String url, String token)
+	{
+		Entry entry = tokens.get(url);
+		return (entry != null && entry.token.equals(token) && tokens.remove(url, entry));
+	}
+	
+	/*
+	 * Number of tokens held, including expired tokens that have not been dropped yet
+	 */
+	public int size()
+	{
+		return tokens.size();
+	}
+	
+	/*
+	 * Number of tokens evicted to keep tables within capacity, across all sessions
+	 */
+	public static long getEvictedCount()
+	{
+		return EVICTED.sum();
+	}
+	
+	/*
+	 * Number of tokens dropped after their TTL, across all sessions
+	 */
+	public static long getExpiredCount()
+	{
+		return EXPIRED.sum();
+	}
+	
+	public static void resetCounters()
+	{
+		EVICTED.reset();
+		EXPIRED.reset();
+	}
+	
+	/*
+	 * Drops expired tokens, then evicts the least recently used tokens other than
+	 * keepUrl (the token just added) until the table is within capacity
+	 */
+	private void trim(String keepUrl, long nowMillis, int capacity)
+	{
+		if(!trimming.compareAndSet(false, true))
+		{
+			return;
+		}
+		
+		try
+		{
+			for(Map.Entry<String,Entry> mapping : tokens.entrySet())
+			{
+				if(mapping.getValue().isExpired(nowMillis) && tokens.remove(mapping.getKey(), mapping.getValue()))
+				{
+					EXPIRED.increment();
+				}
+			}
+			
+			while(tokens.size() > capacity)
+			{
+				String victimUrl = null;
+				Entry victim = null;
+				
+				for(Map.Entry<String,Entry> mapping : tokens.entrySet())
+				{
+					Entry entry = mapping.getValue();
+					if(!mapping.getKey().equals(keepUrl) && (victim == null || entry.lastUsed < victim.lastUsed))
+					{
+						victimUrl = mapping.getKey();
+						victim = entry;
+					}
+				}
+				
+				if(victim == null)
+				{
+					break;
+				}
+				
+				if(tokens.remove(victimUrl, victim))
+				{
+					EVICTED.increment();
+				}
+			}
+		}
+		finally
+		{
+			trimming.set(false);
+		}
+	}
+	
+	private static void copyLegacyMap(Object legacy, UrlTokenTable table)
+	{
+		if(!(legacy instanceof Map))
+		{
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		for(Map.Entry<?,?> entry : ((Map<?,?>) legacy).entrySet())
+		{
+			if(entry.getKey() instanceof String && entry.getValue() instanceof String)
+			{
+				table.tokens.putIfAbsent((String) entry.getKey(), new Entry((String) entry.getValue(), 0, now));
+			}
+		}
+	}
+	
+	private static class Entry implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		final String token;
+		final long expiresAt;
+		volatile long lastUsed;
+		
+		Entry(String token, long expiresAt, long lastUsed)
+		{
+			this.token = token;
+			this.expiresAt = expiresAt;
+			this.lastUsed = lastUsed;
+		}
+		
+		boolean isExpired(long nowMillis)
+		{
+			return expiresAt != 0 && nowMillis >= expiresAt;
+		}
+	}
+}
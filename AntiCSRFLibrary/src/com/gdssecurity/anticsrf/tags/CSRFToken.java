@@ -17,12 +17,12 @@
 
 package com.gdssecurity.anticsrf.tags;
 
-import java.util.logging.Logger;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.tagext.BodyTagSupport;
 
 import com.gdssecurity.anticsrf.j2ee.J2EECSRFProtection;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
 import com.gdssecurity.anticsrf.protections.CSRFProtection;
 import com.gdssecurity.anticsrf.protections.CSRFProtectionFactory;
 
@@ -32,7 +32,7 @@ public class CSRFToken extends BodyTagSupport {
 
 	private static final long serialVersionUID = -8218630240154573675L;
 
-	private static final Logger LOG = Logger.getLogger(CSRFTokenFormTag.class.getName());
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(CSRFTokenFormTag.class);
 
 	public int doStartTag()
 	{
@@ -48,7 +48,7 @@ public class CSRFToken extends BodyTagSupport {
 		catch (Exception e)
 		{
 			e.printStackTrace();
-			LOG.severe("Failed to write CSRF Token through taglib: exceptionmessage=" + e.getMessage());
+			LOG.severe("Failed to write CSRF Token through taglib: exceptionmessage={}", e.getMessage());
 		}
 		return SKIP_BODY;
 	}
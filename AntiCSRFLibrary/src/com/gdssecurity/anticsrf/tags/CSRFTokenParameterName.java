@@ -17,10 +17,10 @@
 
 package com.gdssecurity.anticsrf.tags;
 
-import java.util.logging.Logger;
-
 import javax.servlet.jsp.tagext.BodyTagSupport;
 
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
 import com.gdssecurity.anticsrf.utils.ConfigUtil;
 import com.gdssecurity.anticsrf.utils.Constants;
 
@@ -29,7 +29,7 @@ import org.owasp.encoder.*;
 public class CSRFTokenParameterName extends BodyTagSupport {
 
 	private static final long serialVersionUID = 6452788175106246620L;
-	private static final Logger LOG = Logger.getLogger(CSRFTokenParameterName.class.getName());
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(CSRFTokenParameterName.class);
 
 	public int doStartTag()
 	{
@@ -41,7 +41,7 @@ public class CSRFTokenParameterName extends BodyTagSupport {
 		catch (Exception e)
 		{
 			e.printStackTrace();
-			LOG.severe("Failed to write CSRF Token Parameter name taglib: exceptionmessage=" + e.getMessage());
+			LOG.severe("Failed to write CSRF Token Parameter name taglib: exceptionmessage={}", e.getMessage());
 		}
 		return SKIP_BODY;
 	}
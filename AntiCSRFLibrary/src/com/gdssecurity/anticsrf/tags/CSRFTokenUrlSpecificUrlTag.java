@@ -17,12 +17,12 @@
 
 package com.gdssecurity.anticsrf.tags;
 
-import java.util.logging.Logger;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.tagext.BodyTagSupport;
 
 import com.gdssecurity.anticsrf.j2ee.J2EECSRFProtection;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
 import com.gdssecurity.anticsrf.protections.CSRFProtection;
 import com.gdssecurity.anticsrf.protections.CSRFProtectionFactory;
 import com.gdssecurity.anticsrf.utils.ConfigUtil;
@@ -33,7 +33,7 @@ import org.owasp.encoder.*;
 public class CSRFTokenUrlSpecificUrlTag extends BodyTagSupport
 {
 	private static final long serialVersionUID = 1L;
-	private static final Logger LOG = Logger.getLogger(CSRFTokenUrlSpecificUrlTag.class.getName());
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(CSRFTokenUrlSpecificUrlTag.class);
 	
 	protected String url = null;
 	
@@ -64,7 +64,7 @@ public class CSRFTokenUrlSpecificUrlTag extends BodyTagSupport
 		}
 		catch (Exception e)
 		{
-			LOG.severe("Failed to write CSRF Token through taglib: exceptionmessage=" + e.getMessage());
+			LOG.severe("Failed to write CSRF Token through taglib: exceptionmessage={}", e.getMessage());
 		}
 		
 		return SKIP_BODY;
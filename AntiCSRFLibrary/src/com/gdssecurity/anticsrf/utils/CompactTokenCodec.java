@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import java.nio.charset.Charset;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
+
+/*
+ * Encoder and parser for compact HMAC-mode tokens. A compact token is a fixed
+ * length, unpadded web safe Base64 string over the following bytes:
+ * 
+ *   version (1) | timestamp in seconds, big endian (4) | key id (4) | MAC (macLength)
+ * 
+ * The MAC covers the version, the timestamp and the UTF-8 bytes of the seed. With
+ * the default 15 byte MAC a token is 24 bytes, or 32 characters, compared to the
+ * 48 characters of the legacy "signature:millis" format.
+ * 
+ * Compact tokens never contain ':' which is how they are told apart from legacy
+ * tokens during verification.
+ */
+public class CompactTokenCodec
+{
+	public static enum Result {
+		VALID, MALFORMED, INVALID_SIGNATURE, EXPIRED
+	}
+	
+	public static final byte VERSION = 1;
+	public static final int MIN_MAC_LENGTH = 10;
+	public static final int DEFAULT_MAC_LENGTH = 15;
+	
+	private static final int TIMESTAMP_LENGTH = 4;
+	private static final int PREFIX_LENGTH = 1 + TIMESTAMP_LENGTH;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final TokenSigner signer;
+	private final int macLength;
+	private final int byteLength;
+	private final int tokenLength;
+	
+	public CompactTokenCodec(TokenSigner signer, int macLength) throws CSRFConfigException
+	{
+		if(macLength < MIN_MAC_LENGTH || macLength > signer.getMacLength())
+		{
+			throw new CSRFConfigException("Invalid compact token MAC length submitted, expected a value between " 
+					+ MIN_MAC_LENGTH + " and " + signer.getMacLength() + ". SubmittedLength=" + macLength);
+		}
+		
+		this.signer = signer;
+		this.macLength = macLength;
+		this.byteLength = PREFIX_LENGTH + TokenSigner.KEY_ID_LENGTH + macLength;
+		this.tokenLength = (byteLength * 4 + 2) / 3;
+	}
+	
+	public int getMacLength()
+	{
+		return macLength;
+	}
+	
+	/*
+	 * Length in characters of every token produced by this codec
+	 */
+	public int getTokenLength()
+	{
+		return tokenLength;
+	}
+	
+	public String encode(String seed, long currentTimeMillis) throws CSRFSignerException
+	{
+		byte[] token = new byte[byteLength];
+		writePrefix(token, currentTimeMillis / 1000);
+		
+		byte[] data = signatureInput(token, seed);
+		signer.signTruncated(data, 0, data.length, token, PREFIX_LENGTH, macLength);
+		
+		return WebSafeBase64.encode(token);
+	}
+	
+	public Result verify(String token, String seed, long currentTimeMillis, long timeoutSeconds) throws CSRFSignerException
+	{
+		if(token == null || token.length() != tokenLength)
+		{
+			return Result.MALFORMED;
+		}
+		
+		byte[] decoded = new byte[(tokenLength * 3) / 4];
+		if(WebSafeBase64.decode(token, 0, tokenLength, decoded, 0) != byteLength || decoded[0] != VERSION)
+		{
+			return Result.MALFORMED;
+		}
+		
+		byte[] data = signatureInput(decoded, seed);
+		if(!signer.verifyTruncated(data, 0, data.length, decoded, PREFIX_LENGTH, macLength))
+		{
+			return Result.INVALID_SIGNATURE;
+		}
+		
+		long issuedSeconds = readTimestamp(decoded);
+		if((currentTimeMillis / 1000) - issuedSeconds > timeoutSeconds)
+		{
+			return Result.EXPIRED;
+		}
+		
+		return Result.VALID;
+	}
+	
+	private static void writePrefix(byte[] token, long seconds)
+	{
+		token[0] = VERSION;
+		token[1] = (byte) (seconds >>> 24);
+		token[2] = (byte) (seconds >>> 16);
+		token[3] = (byte) (seconds >>> 8);
+		token[4] = (byte) seconds;
+	}
+	
+	private static long readTimestamp(byte[] token)
+	{
+		return ((token[1] & 0xFFL) << 24) | ((token[2] & 0xFFL) << 16) 
+				| ((token[3] & 0xFFL) << 8) | (token[4] & 0xFFL);
+	}
+	
+	/*
+	 * Version and timestamp as they appear in the token, followed by the seed
+	 */
+	private static byte[] signatureInput(byte[] token, String seed)
+	{
+		byte[] seedBytes = seed.getBytes(UTF8);
+		byte[] data = new byte[PREFIX_LENGTH + seedBytes.length];
+		
+		System.arraycopy(token, 0, data, 0, PREFIX_LENGTH);
+		System.arraycopy(seedBytes, 0, data, PREFIX_LENGTH, seedBytes.length);
+		
+		return data;
+	}
+}
@@ -18,7 +18,17 @@
 package com.gdssecurity.anticsrf.utils;
 
 import java.util.List;
+import java.util.Map;
 
+/*
+ * Programmatic description of an AntiCSRF configuration, created through
+ * ConfigBuilder. Every setting is optional, a null value means the default (or the
+ * value read from anticsrf.xml when passed as overrides) is used. ConfigUtil
+ * validates and compiles it into the ConfigSnapshot used at request time.
+ * 
+ * urlSpecificURLs maps a URL to its timeout in seconds. In HMAC mode a null timeout
+ * falls back to the sitewide timeout, in session mode timeouts are ignored.
+ */
 public class Config
 {
 
@@ -30,29 +40,72 @@ public class Config
 	private Boolean monitorMode;
 	private String errorMode;
 	private String errorValue;
+	private String loggingConfigFile;
+	private String seedAttributeName;
+	private Long sitewideTimeout;
+	private Map<String,Long> urlSpecificURLs;
+	private List<String> oneTimeUseURLs;
+	private String prngAlgorithm;
+	private Long prngReseedInterval;
+	private String hmacTokenFormat;
+	private Integer hmacMacLength;
+	private Double hmacReissueFraction;
+	private Integer hmacReissueCacheSize;
+	private String tokenGeneration;
+	private List<String> tokenSources;
+	private String tokenHeaderName;
+	private Integer bodyScanLimit;
+	private String tokenJsonField;
+	private String doubleSubmitCookieName;
+	private String doubleSubmitCookiePath;
+	private Boolean doubleSubmitCookieSecure;
+	private Integer urlSpecificCapacity;
+	private Long urlSpecificTtl;
+	private String tokenStore;
+	private Long tokenStoreIdleTimeout;
+	private String eventSink;
+	private String eventFile;
+	private Integer eventBufferSize;
+	private Boolean metricsEnabled;
 	
 	
-	Config() { };
-	
-	
-	Config(
-			String protectionMode,
-			String hmacKeyFile,
-			List<String> exemptURLs,
-			String tokenRequestAttribute,
-			String tokenParameterName,
-			Boolean monitorMode,
-			String errorMode,
-			String errorValue)
-	{
-		this.protectionMode = protectionMode;
-		this.hmacKeyFile = hmacKeyFile;
-		this.exemptURLs = exemptURLs;
-		this.tokenRequestAttribute = tokenRequestAttribute;
-		this.tokenParameterName = tokenParameterName;
-		this.monitorMode = monitorMode;
-		this.errorMode = errorMode;
-		this.errorValue = errorValue;
+	Config(ConfigBuilder builder)
+	{
+		this.protectionMode = builder.getProtectionMode();
+		this.hmacKeyFile = builder.getHMACKeyFile();
+		this.exemptURLs = builder.getExemptURLs();
+		this.tokenRequestAttribute = builder.getTokenRequestAttribute();
+		this.tokenParameterName = builder.getTokenParameterName();
+		this.monitorMode = builder.getMonitorMode();
+		this.errorMode = builder.getErrorMode();
+		this.errorValue = builder.getErrorValue();
+		this.loggingConfigFile = builder.getLoggingConfigFile();
+		this.seedAttributeName = builder.getSeedAttributeName();
+		this.sitewideTimeout = builder.getSitewideTimeout();
+		this.urlSpecificURLs = builder.getUrlSpecificURLs();
+		this.oneTimeUseURLs = builder.getOneTimeUseURLs();
+		this.prngAlgorithm = builder.getPrngAlgorithm();
+		this.prngReseedInterval = builder.getPrngReseedInterval();
+		this.hmacTokenFormat = builder.getHmacTokenFormat();
+		this.hmacMacLength = builder.getHmacMacLength();
+		this.hmacReissueFraction = builder.getHmacReissueFraction();
+		this.hmacReissueCacheSize = builder.getHmacReissueCacheSize();
+		this.tokenGeneration = builder.getTokenGeneration();
+		this.tokenSources = builder.getTokenSources();
+		this.tokenHeaderName = builder.getTokenHeaderName();
+		this.bodyScanLimit = builder.getBodyScanLimit();
+		this.tokenJsonField = builder.getTokenJsonField();
+		this.doubleSubmitCookieName = builder.getDoubleSubmitCookieName();
+		this.doubleSubmitCookiePath = builder.getDoubleSubmitCookiePath();
+		this.doubleSubmitCookieSecure = builder.getDoubleSubmitCookieSecure();
+		this.urlSpecificCapacity = builder.getUrlSpecificCapacity();
+		this.urlSpecificTtl = builder.getUrlSpecificTtl();
+		this.tokenStore = builder.getTokenStore();
+		this.tokenStoreIdleTimeout = builder.getTokenStoreIdleTimeout();
+		this.eventSink = builder.getEventSink();
+		this.eventFile = builder.getEventFile();
+		this.eventBufferSize = builder.getEventBufferSize();
+		this.metricsEnabled = builder.getMetricsEnabled();
 	}
 
 
@@ -103,4 +156,166 @@ public class Config
 		return errorValue;
 	}
 
+
+	public String getLoggingConfigFile() 
+	{
+		return loggingConfigFile;
+	}
+
+
+	public String getSeedAttributeName() 
+	{
+		return seedAttributeName;
+	}
+
+
+	public Long getSitewideTimeout() 
+	{
+		return sitewideTimeout;
+	}
+
+
+	public Map<String,Long> getUrlSpecificURLs() 
+	{
+		return urlSpecificURLs;
+	}
+
+
+	public List<String> getOneTimeUseURLs() 
+	{
+		return oneTimeUseURLs;
+	}
+
+
+	public String getPrngAlgorithm() 
+	{
+		return prngAlgorithm;
+	}
+
+
+	public Long getPrngReseedInterval() 
+	{
+		return prngReseedInterval;
+	}
+
+
+	public String getHmacTokenFormat() 
+	{
+		return hmacTokenFormat;
+	}
+
+
+	public Integer getHmacMacLength() 
+	{
+		return hmacMacLength;
+	}
+
+
+	public Double getHmacReissueFraction() 
+	{
+		return hmacReissueFraction;
+	}
+
+
+	public Integer getHmacReissueCacheSize() 
+	{
+		return hmacReissueCacheSize;
+	}
+
+
+	public String getTokenGeneration() 
+	{
+		return tokenGeneration;
+	}
+
+
+	public List<String> getTokenSources() 
+	{
+		return tokenSources;
+	}
+
+
+	public String getTokenHeaderName() 
+	{
+		return tokenHeaderName;
+	}
+
+
+	public Integer getBodyScanLimit() 
+	{
+		return bodyScanLimit;
+	}
+
+
+	public String getTokenJsonField() 
+	{
+		return tokenJsonField;
+	}
+
+
+	public String getDoubleSubmitCookieName() 
+	{
+		return doubleSubmitCookieName;
+	}
+
+
+	public String getDoubleSubmitCookiePath() 
+	{
+		return doubleSubmitCookiePath;
+	}
+
+
+	public Boolean getDoubleSubmitCookieSecure() 
+	{
+		return doubleSubmitCookieSecure;
+	}
+
+
+	public Integer getUrlSpecificCapacity() 
+	{
+		return urlSpecificCapacity;
+	}
+
+
+	public Long getUrlSpecificTtl() 
+	{
+		return urlSpecificTtl;
+	}
+
+
+	public String getTokenStore() 
+	{
+		return tokenStore;
+	}
+
+
+	public Long getTokenStoreIdleTimeout() 
+	{
+		return tokenStoreIdleTimeout;
+	}
+
+
+	public String getEventSink() 
+	{
+		return eventSink;
+	}
+
+
+	public String getEventFile() 
+	{
+		return eventFile;
+	}
+
+
+	public Integer getEventBufferSize() 
+	{
+		return eventBufferSize;
+	}
+
+
+	public Boolean getMetricsEnabled() 
+	{
+		return metricsEnabled;
+	}
+
 }
@@ -18,6 +18,7 @@
 package com.gdssecurity.anticsrf.utils;
 
 import java.util.List;
+import java.util.Map;
 
 public class ConfigBuilder
 {
@@ -30,6 +31,33 @@ public class ConfigBuilder
 	private Boolean monitorMode;
 	private String errorMode;
 	private String errorValue;
+	private String loggingConfigFile;
+	private String seedAttributeName;
+	private Long sitewideTimeout;
+	private Map<String,Long> urlSpecificURLs;
+	private List<String> oneTimeUseURLs;
+	private String prngAlgorithm;
+	private Long prngReseedInterval;
+	private String hmacTokenFormat;
+	private Integer hmacMacLength;
+	private Double hmacReissueFraction;
+	private Integer hmacReissueCacheSize;
+	private String tokenGeneration;
+	private List<String> tokenSources;
+	private String tokenHeaderName;
+	private Integer bodyScanLimit;
+	private String tokenJsonField;
+	private String doubleSubmitCookieName;
+	private String doubleSubmitCookiePath;
+	private Boolean doubleSubmitCookieSecure;
+	private Integer urlSpecificCapacity;
+	private Long urlSpecificTtl;
+	private String tokenStore;
+	private Long tokenStoreIdleTimeout;
+	private String eventSink;
+	private String eventFile;
+	private Integer eventBufferSize;
+	private Boolean metricsEnabled;
 	
 	
 	public ConfigBuilder() { }
@@ -137,19 +165,553 @@ public class ConfigBuilder
 		this.errorValue = errorValue;
 		return this;
 	}
+
+
+	public String getLoggingConfigFile() 
+	{
+		return loggingConfigFile;
+	}
+
+
+	public ConfigBuilder setLoggingConfigFile(String loggingConfigFile) 
+	{
+		this.loggingConfigFile = loggingConfigFile;
+		return this;
+	}
+
+
+	public String getSeedAttributeName() 
+	{
+		return seedAttributeName;
+	}
+
+
+	public ConfigBuilder setSeedAttributeName(String seedAttributeName) 
+	{
+		this.seedAttributeName = seedAttributeName;
+		return this;
+	}
+
+
+	public Long getSitewideTimeout() 
+	{
+		return sitewideTimeout;
+	}
+
+
+	public ConfigBuilder setSitewideTimeout(Long sitewideTimeout) 
+	{
+		this.sitewideTimeout = sitewideTimeout;
+		return this;
+	}
+
+
+	public Map<String,Long> getUrlSpecificURLs() 
+	{
+		return urlSpecificURLs;
+	}
+
+
+	public ConfigBuilder setUrlSpecificURLs(Map<String,Long> urlSpecificURLs) 
+	{
+		this.urlSpecificURLs = urlSpecificURLs;
+		return this;
+	}
+
+
+	public List<String> getOneTimeUseURLs() 
+	{
+		return oneTimeUseURLs;
+	}
+
+
+	public ConfigBuilder setOneTimeUseURLs(List<String> oneTimeUseURLs) 
+	{
+		this.oneTimeUseURLs = oneTimeUseURLs;
+		return this;
+	}
+
+
+	public String getPrngAlgorithm() 
+	{
+		return prngAlgorithm;
+	}
+
+
+	public ConfigBuilder setPrngAlgorithm(String prngAlgorithm) 
+	{
+		this.prngAlgorithm = prngAlgorithm;
+		return this;
+	}
+
+
+	public Long getPrngReseedInterval() 
+	{
+		return prngReseedInterval;
+	}
+
+
+	public ConfigBuilder setPrngReseedInterval(Long prngReseedInterval) 
+	{
+		this.prngReseedInterval = prngReseedInterval;
+		return this;
+	}
+
+
+	public String getHmacTokenFormat() 
+	{
+		return hmacTokenFormat;
+	}
+
+
+	public ConfigBuilder setHmacTokenFormat(String hmacTokenFormat) 
+	{
+		this.hmacTokenFormat = hmacTokenFormat;
+		return this;
+	}
+
+
+	public Integer getHmacMacLength() 
+	{
+		return hmacMacLength;
+	}
+
+
+	public ConfigBuilder setHmacMacLength(Integer hmacMacLength) 
+	{
+		this.hmacMacLength = hmacMacLength;
+		return this;
+	}
+
+
+	public Double getHmacReissueFraction() 
+	{
+		return hmacReissueFraction;
+	}
+
+
+	public ConfigBuilder setHmacReissueFraction(Double hmacReissueFraction) 
+	{
+		this.hmacReissueFraction = hmacReissueFraction;
+		return this;
+	}
+
+
+	public Integer getHmacReissueCacheSize() 
+	{
+		return hmacReissueCacheSize;
+	}
+
+
+	public ConfigBuilder setHmacReissueCacheSize(Integer hmacReissueCacheSize) 
+	{
+		this.hmacReissueCacheSize = hmacReissueCacheSize;
+		return this;
+	}
+
+
+	public String getTokenGeneration() 
+	{
+		return tokenGeneration;
+	}
+
+
+	public ConfigBuilder setTokenGeneration(String tokenGeneration) 
+	{
+		this.tokenGeneration = tokenGeneration;
+		return this;
+	}
+
+
+	public List<String> getTokenSources() 
+	{
+		return tokenSources;
+	}
+
+
+	public ConfigBuilder setTokenSources(List<String> tokenSources) 
+	{
+		this.tokenSources = tokenSources;
+		return this;
+	}
+
+
+	public String getTokenHeaderName() 
+	{
+		return tokenHeaderName;
+	}
+
+
+	public ConfigBuilder setTokenHeaderName(String tokenHeaderName) 
+	{
+		this.tokenHeaderName = tokenHeaderName;
+		return this;
+	}
+
+
+	public Integer getBodyScanLimit() 
+	{
+		return bodyScanLimit;
+	}
+
+
+	public ConfigBuilder setBodyScanLimit(Integer bodyScanLimit) 
+	{
+		this.bodyScanLimit = bodyScanLimit;
+		return this;
+	}
+
+
+	public String getTokenJsonField() 
+	{
+		return tokenJsonField;
+	}
+
+
+	public ConfigBuilder setTokenJsonField(String tokenJsonField) 
+	{
+		this.tokenJsonField = tokenJsonField;
+		return this;
+	}
+
+
+	public String getDoubleSubmitCookieName() 
+	{
+		return doubleSubmitCookieName;
+	}
+
+
+	public ConfigBuilder setDoubleSubmitCookieName(String doubleSubmitCookieName) 
+	{
+		this.doubleSubmitCookieName = doubleSubmitCookieName;
+		return this;
+	}
+
+
+	public String getDoubleSubmitCookiePath() 
+	{
+		return doubleSubmitCookiePath;
+	}
+
+
+	public ConfigBuilder setDoubleSubmitCookiePath(String doubleSubmitCookiePath) 
+	{
+		this.doubleSubmitCookiePath = doubleSubmitCookiePath;
+		return this;
+	}
+
+
+	public Boolean getDoubleSubmitCookieSecure() 
+	{
+		return doubleSubmitCookieSecure;
+	}
+
+
+	public ConfigBuilder setDoubleSubmitCookieSecure(Boolean doubleSubmitCookieSecure) 
+	{
+		this.doubleSubmitCookieSecure = doubleSubmitCookieSecure;
+		return this;
+	}
+
+
+	public Integer getUrlSpecificCapacity() 
+	{
+		return urlSpecificCapacity;
+	}
+
+
+	public ConfigBuilder setUrlSpecificCapacity(Integer urlSpecificCapacity) 
+	{
+		this.urlSpecificCapacity = urlSpecificCapacity;
+		return this;
+	}
+
+
+	public Long getUrlSpecificTtl() 
+	{
+		return urlSpecificTtl;
+	}
+
+
+	public ConfigBuilder setUrlSpecificTtl(Long urlSpecificTtl) 
+	{
+		this.urlSpecificTtl = urlSpecificTtl;
+		return this;
+	}
+
+
+	public String getTokenStore() 
+	{
+		return tokenStore;
+	}
+
+
+	public ConfigBuilder setTokenStore(String tokenStore) 
+	{
+		this.tokenStore = tokenStore;
+		return this;
+	}
+
+
+	public Long getTokenStoreIdleTimeout() 
+	{
+		return tokenStoreIdleTimeout;
+	}
+
+
+	public ConfigBuilder setTokenStoreIdleTimeout(Long tokenStoreIdleTimeout) 
+	{
+		this.tokenStoreIdleTimeout = tokenStoreIdleTimeout;
+		return this;
+	}
+
+
+	public String getEventSink() 
+	{
+		return eventSink;
+	}
+
+
+	public ConfigBuilder setEventSink(String eventSink) 
+	{
+		this.eventSink = eventSink;
+		return this;
+	}
+
+
+	public String getEventFile() 
+	{
+		return eventFile;
+	}
+
+
+	public ConfigBuilder setEventFile(String eventFile) 
+	{
+		this.eventFile = eventFile;
+		return this;
+	}
+
+
+	public Integer getEventBufferSize() 
+	{
+		return eventBufferSize;
+	}
+
+
+	public ConfigBuilder setEventBufferSize(Integer eventBufferSize) 
+	{
+		this.eventBufferSize = eventBufferSize;
+		return this;
+	}
+
+
+	public Boolean getMetricsEnabled() 
+	{
+		return metricsEnabled;
+	}
+
+
+	public ConfigBuilder setMetricsEnabled(Boolean metricsEnabled) 
+	{
+		this.metricsEnabled = metricsEnabled;
+		return this;
+	}
+
+	
+	/*
+	 * Copies every setting that is set on the supplied configuration over the
+	 * values of this builder. Used to apply programmatic overrides on top of the
+	 * values read from the XML configuration file.
+	 */
+	public ConfigBuilder merge(Config overrides)
+	{
+		if(overrides == null)
+		{
+			return this;
+		}
+		
+		if(overrides.getProtectionMode() != null)
+		{
+			this.protectionMode = overrides.getProtectionMode();
+		}
+		
+		if(overrides.getHMACKeyFile() != null)
+		{
+			this.hmacKeyFile = overrides.getHMACKeyFile();
+		}
+		
+		if(overrides.getExemptURLs() != null)
+		{
+			this.exemptURLs = overrides.getExemptURLs();
+		}
+		
+		if(overrides.getTokenRequestAttribute() != null)
+		{
+			this.tokenRequestAttribute = overrides.getTokenRequestAttribute();
+		}
+		
+		if(overrides.getTokenParameterName() != null)
+		{
+			this.tokenParameterName = overrides.getTokenParameterName();
+		}
+		
+		if(overrides.getMonitorMode() != null)
+		{
+			this.monitorMode = overrides.getMonitorMode();
+		}
+		
+		if(overrides.getErrorMode() != null)
+		{
+			this.errorMode = overrides.getErrorMode();
+		}
+		
+		if(overrides.getErrorValue() != null)
+		{
+			this.errorValue = overrides.getErrorValue();
+		}
+		
+		if(overrides.getLoggingConfigFile() != null)
+		{
+			this.loggingConfigFile = overrides.getLoggingConfigFile();
+		}
+		
+		if(overrides.getSeedAttributeName() != null)
+		{
+			this.seedAttributeName = overrides.getSeedAttributeName();
+		}
+		
+		if(overrides.getSitewideTimeout() != null)
+		{
+			this.sitewideTimeout = overrides.getSitewideTimeout();
+		}
+		
+		if(overrides.getUrlSpecificURLs() != null)
+		{
+			this.urlSpecificURLs = overrides.getUrlSpecificURLs();
+		}
+		
+		if(overrides.getOneTimeUseURLs() != null)
+		{
+			this.oneTimeUseURLs = overrides.getOneTimeUseURLs();
+		}
+		
+		if(overrides.getPrngAlgorithm() != null)
+		{
+			this.prngAlgorithm = overrides.getPrngAlgorithm();
+		}
+		
+		if(overrides.getPrngReseedInterval() != null)
+		{
+			this.prngReseedInterval = overrides.getPrngReseedInterval();
+		}
+		
+		if(overrides.getHmacTokenFormat() != null)
+		{
+			this.hmacTokenFormat = overrides.getHmacTokenFormat();
+		}
+		
+		if(overrides.getHmacMacLength() != null)
+		{
+			this.hmacMacLength = overrides.getHmacMacLength();
+		}
+		
+		if(overrides.getHmacReissueFraction() != null)
+		{
+			this.hmacReissueFraction = overrides.getHmacReissueFraction();
+		}
+		
+		if(overrides.getHmacReissueCacheSize() != null)
+		{
+			this.hmacReissueCacheSize = overrides.getHmacReissueCacheSize();
+		}
+		
+		if(overrides.getTokenGeneration() != null)
+		{
+			this.tokenGeneration = overrides.getTokenGeneration();
+		}
+		
+		if(overrides.getTokenSources() != null)
+		{
+			this.tokenSources = overrides.getTokenSources();
+		}
+		
+		if(overrides.getTokenHeaderName() != null)
+		{
+			this.tokenHeaderName = overrides.getTokenHeaderName();
+		}
+		
+		if(overrides.getBodyScanLimit() != null)
+		{
+			this.bodyScanLimit = overrides.getBodyScanLimit();
+		}
+		
+		if(overrides.getTokenJsonField() != null)
+		{
+			this.tokenJsonField = overrides.getTokenJsonField();
+		}
+		
+		if(overrides.getDoubleSubmitCookieName() != null)
+		{
+			this.doubleSubmitCookieName = overrides.getDoubleSubmitCookieName();
+		}
+		
+		if(overrides.getDoubleSubmitCookiePath() != null)
+		{
+			this.doubleSubmitCookiePath = overrides.getDoubleSubmitCookiePath();
+		}
+		
+		if(overrides.getDoubleSubmitCookieSecure() != null)
+		{
+			this.doubleSubmitCookieSecure = overrides.getDoubleSubmitCookieSecure();
+		}
+		
+		if(overrides.getUrlSpecificCapacity() != null)
+		{
+			this.urlSpecificCapacity = overrides.getUrlSpecificCapacity();
+		}
+		
+		if(overrides.getUrlSpecificTtl() != null)
+		{
+			this.urlSpecificTtl = overrides.getUrlSpecificTtl();
+		}
+		
+		if(overrides.getTokenStore() != null)
+		{
+			this.tokenStore = overrides.getTokenStore();
+		}
+		
+		if(overrides.getTokenStoreIdleTimeout() != null)
+		{
+			this.tokenStoreIdleTimeout = overrides.getTokenStoreIdleTimeout();
+		}
+		
+		if(overrides.getEventSink() != null)
+		{
+			this.eventSink = overrides.getEventSink();
+		}
+		
+		if(overrides.getEventFile() != null)
+		{
+			this.eventFile = overrides.getEventFile();
+		}
+		
+		if(overrides.getEventBufferSize() != null)
+		{
+			this.eventBufferSize = overrides.getEventBufferSize();
+		}
+		
+		if(overrides.getMetricsEnabled() != null)
+		{
+			this.metricsEnabled = overrides.getMetricsEnabled();
+		}
+		
+		return this;
+	}
 	
 	
 	public Config getConfig()
 	{
-		return new Config(
-			protectionMode,
-			hmacKeyFile,
-			exemptURLs,
-			tokenRequestAttribute,
-			tokenParameterName,
-			monitorMode,
-			errorMode,
-			errorValue);
+		return new Config(this);
 	}
 	
 }
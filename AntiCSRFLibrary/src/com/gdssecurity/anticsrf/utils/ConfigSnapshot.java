@@ -0,0 +1,919 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.Cookie;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
+import com.gdssecurity.anticsrf.j2ee.TokenSourceChain;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+import com.gdssecurity.anticsrf.store.TokenStore;
+import com.gdssecurity.anticsrf.store.TokenStores;
+
+/*
+ * Immutable, validated view of the AntiCSRF configuration. A snapshot is compiled
+ * once from a Config (which ConfigUtil builds from anticsrf.xml and/or programmatic
+ * overrides) and published by ConfigUtil through a single volatile reference, so
+ * the request path reads plain final fields instead of going through the
+ * synchronized Properties table and string comparisons on every call.
+ * 
+ * Code handling a request should read the snapshot once and use that instance for
+ * the whole request.
+ */
+public class ConfigSnapshot
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(ConfigSnapshot.class);
+	
+	private static final String HOST_COOKIE_PREFIX = "__Host-";
+	private static final String SECURE_COOKIE_PREFIX = "__Secure-";
+	private static final int STARTUP_KEY_BYTES = 32;
+	
+	private final Constants.MODES mode;
+	private final String tokenRequestAttribute;
+	private final String urlSpecificTokenAttribute;
+	private final String tokenParameterName;
+	private final boolean monitorMode;
+	private final boolean metricsEnabled;
+	private final boolean lazyTokenGeneration;
+	private final String tokenHeaderName;
+	private final int bodyScanLimit;
+	private final String tokenJsonField;
+	private final TokenSourceChain tokenSourceChain;
+	private final Constants.ERROR_MODES errorMode;
+	private final String errorValue;
+	private final int errorStatusCode;
+	private final String loggingConfigFile;
+	private final Constants.EVENT_SINKS eventSink;
+	private final String eventFile;
+	private final int eventBufferSize;
+	
+	// HMAC mode settings
+	private final String hmacKeyFile;
+	private final String seedAttributeName;
+	private final long sitewideTimeout;
+	private final KeyczarWrapper keyczarWrapper;
+	private final Constants.HMAC_TOKEN_FORMATS hmacTokenFormat;
+	private final CompactTokenCodec compactTokenCodec;
+	private final double reissueFraction;
+	private final TokenReissueCache tokenReissueCache;
+	
+	// Session and double submit mode settings
+	private final String prngAlgorithm;
+	private final long prngReseedInterval;
+	private final TokenEntropyEngine tokenEntropyEngine;
+	
+	// Session mode settings
+	private final int urlSpecificCapacity;
+	private final long urlSpecificTtl;
+	private final String tokenStoreName;
+	private final long tokenStoreIdleTimeout;
+	
+	// Stores are shared by the process, so the store is only resolved once the snapshot is used
+	private volatile TokenStore tokenStore;
+	private volatile boolean tokenStoreResolved;
+	
+	// Double submit mode settings
+	private final String doubleSubmitCookieName;
+	private final String doubleSubmitCookiePath;
+	private final boolean doubleSubmitCookieSecure;
+	private final TokenSigner doubleSubmitSigner;
+	
+	private final Set<String> exemptUrls;
+	private final Map<String,Long> urlSpecificConfig;
+	private final Set<String> oneTimeUseConfig;
+	private final UrlPolicyIndex urlPolicyIndex;
+	
+	private final Map<String,String> properties;
+	
+	ConfigSnapshot(Config config) throws CSRFConfigException, CSRFSignerException
+	{
+		// Session based protection is the default mode
+		String modeName = valueOrDefault(config.getProtectionMode(), Constants.MODES.session.toString());
+		try
+		{
+			this.mode = Constants.MODES.valueOf(modeName);
+		}
+		catch(IllegalArgumentException ex)
+		{
+			throw new CSRFConfigException("Invalid protection mode entered. EnteredValue=" + modeName);
+		}
+		
+		this.tokenRequestAttribute = valueOrDefault(config.getTokenRequestAttribute(), Constants.CONF_DEFAULT_TOKEN_REQATTR);
+		this.urlSpecificTokenAttribute = tokenRequestAttribute + Constants.CONF_URLSPECIFIC;
+		this.tokenParameterName = valueOrDefault(config.getTokenParameterName(), Constants.CONF_DEFAULT_TOKEN_PARAM);
+		this.monitorMode = (config.getMonitorMode() != null && config.getMonitorMode().booleanValue());
+		this.metricsEnabled = (config.getMetricsEnabled() != null && config.getMetricsEnabled().booleanValue());
+		
+		String tokenGenerationName = valueOrDefault(config.getTokenGeneration(), Constants.CONF_DEFAULT_TOKEN_GENERATION);
+		try
+		{
+			this.lazyTokenGeneration = 
+					(Constants.TOKEN_GENERATION_MODES.valueOf(tokenGenerationName) == Constants.TOKEN_GENERATION_MODES.lazy);
+		}
+		catch(IllegalArgumentException ex)
+		{
+			throw new CSRFConfigException("Invalid token generation mode entered. EnteredValue=" + tokenGenerationName);
+		}
+		
+		this.tokenHeaderName = valueOrDefault(config.getTokenHeaderName(), Constants.CONF_DEFAULT_TOKEN_HEADER);
+		this.bodyScanLimit = (config.getBodyScanLimit() != null 
+				? config.getBodyScanLimit().intValue()
+				: Integer.parseInt(Constants.CONF_DEFAULT_BODY_SCAN_LIMIT));
+		
+		if(bodyScanLimit <= 0)
+		{
+			throw new CSRFConfigException("Invalid body scan limit submitted. SubmittedLimit=" + bodyScanLimit);
+		}
+		
+		this.tokenJsonField = valueOrDefault(config.getTokenJsonField(), tokenParameterName);
+		this.tokenSourceChain = new TokenSourceChain(config.getTokenSources(), tokenHeaderName, 
+				tokenJsonField, bodyScanLimit);
+		this.loggingConfigFile = valueOrDefault(config.getLoggingConfigFile(), "");
+		
+		// Security events
+		String eventSinkName = valueOrDefault(config.getEventSink(), Constants.CONF_DEFAULT_EVENT_SINK);
+		try
+		{
+			this.eventSink = Constants.EVENT_SINKS.valueOf(eventSinkName);
+		}
+		catch(IllegalArgumentException ex)
+		{
+			throw new CSRFConfigException("Invalid event sink entered. EnteredValue=" + eventSinkName);
+		}
+		
+		this.eventFile = valueOrDefault(config.getEventFile(), "");
+		if(eventSink == Constants.EVENT_SINKS.file && eventFile.equals(""))
+		{
+			throw new CSRFConfigException("The file event sink requires the " + Constants.CONF_EVENT_FILE + " setting");
+		}
+		
+		this.eventBufferSize = (config.getEventBufferSize() != null 
+				? config.getEventBufferSize().intValue()
+				: Integer.parseInt(Constants.CONF_DEFAULT_EVENT_BUFFER_SIZE));
+		
+		if(eventBufferSize <= 0 || eventBufferSize > (1 << 20))
+		{
+			throw new CSRFConfigException("Invalid event buffer size submitted. SubmittedSize=" + eventBufferSize);
+		}
+		
+		// Error handling
+		String errorModeName = valueOrDefault(config.getErrorMode(), "");
+		String errorValue = "";
+		int errorStatusCode = 0;
+		Constants.ERROR_MODES errorMode = null;
+		
+		if(!errorModeName.equals(""))
+		{
+			try
+			{
+				errorMode = Constants.ERROR_MODES.valueOf(errorModeName);
+			}
+			catch(IllegalArgumentException ex)
+			{
+				LOG.warning("Unknown error mode configured, falling back to the default 403 response. " +
+						"EnteredValue={}", errorModeName);
+			}
+		}
+		
+		if(errorMode == Constants.ERROR_MODES.redirect || errorMode == Constants.ERROR_MODES.forward)
+		{
+			errorValue = ConfigUtil.getValidatedUrl(valueOrDefault(config.getErrorValue(), ""));
+		}
+		else if(errorMode == Constants.ERROR_MODES.status_code)
+		{
+			errorValue = valueOrDefault(config.getErrorValue(), "");
+			if(!ConfigUtil.validateTimeout(errorValue))
+			{
+				throw new CSRFConfigException("Invalid StatusCode passed within configuration error attribute. Submitted StatusCode="+errorValue);
+			}
+			errorStatusCode = Integer.parseInt(errorValue);
+		}
+		
+		this.errorMode = errorMode;
+		this.errorValue = errorValue;
+		this.errorStatusCode = errorStatusCode;
+		
+		// Exempt URLs
+		Set<String> exemptUrls = new HashSet<String>();
+		if(config.getExemptURLs() != null)
+		{
+			for(String url : config.getExemptURLs())
+			{
+				exemptUrls.add(ConfigUtil.getValidatedUrl(url));
+			}
+		}
+		this.exemptUrls = Collections.unmodifiableSet(exemptUrls);
+		
+		Map<String,Long> urlSpecificConfig = new HashMap<String,Long>();
+		Set<String> oneTimeUseConfig = new HashSet<String>();
+		
+		if(mode == Constants.MODES.hmac)
+		{
+			this.hmacKeyFile = config.getHMACKeyFile();
+			if(hmacKeyFile == null || hmacKeyFile.equals(""))
+			{
+				String err = "HMAC-mode CSRF Protection requires Keyczar HMAC File to " +
+						"be define within the configuration file";
+				LOG.severe(err);
+				throw new CSRFConfigException(err);
+			}
+			
+			this.seedAttributeName = valueOrDefault(config.getSeedAttributeName(), Constants.CONF_DEFAULT_USERSEED_ATTR);
+			this.sitewideTimeout = (config.getSitewideTimeout() != null 
+					? config.getSitewideTimeout().longValue()
+					: Long.parseLong(Constants.CONF_DEFAULT_TOKENTIMEOUT));
+			
+			if(sitewideTimeout <= 0)
+			{
+				throw new CSRFConfigException("Invalid Sitewide timeout value submitted. SubmittedTimeout="
+						+sitewideTimeout);
+			}
+			
+			if(config.getUrlSpecificURLs() != null)
+			{
+				for(Map.Entry<String,Long> entry : config.getUrlSpecificURLs().entrySet())
+				{
+					String url = ConfigUtil.getValidatedUrl(entry.getKey());
+					
+					// If no timeout was set, we use the sitewide value
+					Long timeout = (entry.getValue() != null ? entry.getValue() : Long.valueOf(sitewideTimeout));
+					if(timeout.longValue() <= 0)
+					{
+						throw new CSRFConfigException("Invalid URL Specific timeout value specified. URL="
+								+ url + ", EnteredTimeout="+timeout);
+					}
+					
+					urlSpecificConfig.put(url, timeout);
+				}
+			}
+			
+			this.keyczarWrapper = new KeyczarWrapper(hmacKeyFile);
+			
+			String tokenFormatName = valueOrDefault(config.getHmacTokenFormat(), Constants.CONF_DEFAULT_HMAC_TOKEN_FORMAT);
+			try
+			{
+				this.hmacTokenFormat = Constants.HMAC_TOKEN_FORMATS.valueOf(tokenFormatName);
+			}
+			catch(IllegalArgumentException ex)
+			{
+				throw new CSRFConfigException("Invalid HMAC token format submitted. SubmittedFormat="
+						+ tokenFormatName);
+			}
+			
+			// Compact tokens are always accepted, even when new tokens use the legacy format
+			this.compactTokenCodec = new CompactTokenCodec(keyczarWrapper.getTokenSigner(), 
+					(config.getHmacMacLength() != null 
+						? config.getHmacMacLength().intValue() 
+						: CompactTokenCodec.DEFAULT_MAC_LENGTH));
+			
+			this.reissueFraction = (config.getHmacReissueFraction() != null
+					? config.getHmacReissueFraction().doubleValue()
+					: Double.parseDouble(Constants.CONF_DEFAULT_HMAC_REISSUE_FRACTION));
+			int reissueCacheSize = (config.getHmacReissueCacheSize() != null
+					? config.getHmacReissueCacheSize().intValue()
+					: Integer.parseInt(Constants.CONF_DEFAULT_HMAC_REISSUE_CACHE_SIZE));
+			
+			if(!(reissueFraction > 0 && reissueFraction <= 1))
+			{
+				throw new CSRFConfigException("Invalid token reissue fraction submitted, expected a value " +
+						"greater than 0 and at most 1. SubmittedFraction=" + reissueFraction);
+			}
+			
+			if(reissueCacheSize < 0 || reissueCacheSize > (1 << 24))
+			{
+				throw new CSRFConfigException("Invalid token reissue cache size submitted. SubmittedSize=" 
+						+ reissueCacheSize);
+			}
+			
+			// A fraction of 1 or an empty cache means a new token is signed on every request
+			this.tokenReissueCache = (reissueFraction < 1 && reissueCacheSize > 0
+					? new TokenReissueCache(reissueCacheSize, sitewideTimeout, reissueFraction)
+					: null);
+			
+			this.prngAlgorithm = null;
+			this.prngReseedInterval = 0;
+			this.tokenEntropyEngine = null;
+			
+			this.doubleSubmitCookieName = null;
+			this.doubleSubmitCookiePath = null;
+			this.doubleSubmitCookieSecure = false;
+			this.doubleSubmitSigner = null;
+			this.urlSpecificCapacity = 0;
+			this.urlSpecificTtl = 0;
+			this.tokenStoreName = null;
+			this.tokenStoreIdleTimeout = 0;
+		}
+		else
+		{
+			if(mode == Constants.MODES.doublesubmit)
+			{
+				// The cookie is the only copy of the token, so there is nothing to bind to a url or consume
+				if((config.getOneTimeUseURLs() != null && !config.getOneTimeUseURLs().isEmpty())
+						|| (config.getUrlSpecificURLs() != null && !config.getUrlSpecificURLs().isEmpty()))
+				{
+					LOG.warning("URL Specific and OneTimeUse URLs are not supported in doublesubmit mode and are ignored");
+				}
+				
+				this.doubleSubmitCookieName = valueOrDefault(config.getDoubleSubmitCookieName(), 
+						Constants.CONF_DEFAULT_DOUBLESUBMIT_COOKIE_NAME);
+				this.doubleSubmitCookiePath = valueOrDefault(config.getDoubleSubmitCookiePath(), 
+						Constants.CONF_DEFAULT_DOUBLESUBMIT_COOKIE_PATH);
+				this.doubleSubmitCookieSecure = (config.getDoubleSubmitCookieSecure() == null 
+						|| config.getDoubleSubmitCookieSecure().booleanValue());
+				
+				try
+				{
+					new Cookie(doubleSubmitCookieName, "");
+				}
+				catch(IllegalArgumentException ex)
+				{
+					throw new CSRFConfigException("Invalid double submit cookie name submitted. SubmittedName=" 
+							+ doubleSubmitCookieName);
+				}
+				
+				// Browsers drop prefixed cookies that do not meet the prefix's requirements
+				if((doubleSubmitCookieName.startsWith(HOST_COOKIE_PREFIX) 
+						|| doubleSubmitCookieName.startsWith(SECURE_COOKIE_PREFIX)) && !doubleSubmitCookieSecure)
+				{
+					throw new CSRFConfigException("A " + doubleSubmitCookieName.substring(0, 
+							doubleSubmitCookieName.indexOf('-') + 1) + " double submit cookie requires " 
+							+ Constants.CONF_DOUBLESUBMIT_COOKIE_SECURE + " to be yes");
+				}
+				
+				if(!doubleSubmitCookieName.startsWith(HOST_COOKIE_PREFIX))
+				{
+					LOG.warning("The double submit cookie name has no __Host- prefix, so a sibling subdomain or " 
+							+ "a plain HTTP response can set a token cookie of its choosing. cookieName={}", 
+							doubleSubmitCookieName);
+				}
+				
+				if(doubleSubmitCookieName.startsWith(HOST_COOKIE_PREFIX) && !doubleSubmitCookiePath.equals("/"))
+				{
+					throw new CSRFConfigException("A __Host- double submit cookie requires " 
+							+ Constants.CONF_DOUBLESUBMIT_COOKIE_PATH + " to be /. SubmittedPath=" 
+							+ doubleSubmitCookiePath);
+				}
+				
+				this.hmacKeyFile = valueOrDefault(config.getHMACKeyFile(), null);
+				if(hmacKeyFile != null)
+				{
+					this.keyczarWrapper = new KeyczarWrapper(hmacKeyFile);
+					this.doubleSubmitSigner = keyczarWrapper.getTokenSigner();
+				}
+				else
+				{
+					LOG.warning("No keyfile configured for doublesubmit mode, cookies are signed with a key " +
+							"generated at startup. Configure a keyfile shared by all nodes for a cluster, " +
+							"and so that cookies stay valid across restarts");
+					this.keyczarWrapper = null;
+					this.doubleSubmitSigner = newStartupSigner();
+				}
+				
+				this.urlSpecificCapacity = 0;
+				this.urlSpecificTtl = 0;
+				this.tokenStoreName = null;
+				this.tokenStoreIdleTimeout = 0;
+			}
+			else
+			{
+				if(config.getOneTimeUseURLs() != null)
+				{
+					for(String url : config.getOneTimeUseURLs())
+					{
+						oneTimeUseConfig.add(ConfigUtil.getValidatedUrl(url));
+					}
+				}
+				
+				if(config.getUrlSpecificURLs() != null)
+				{
+					for(String url : config.getUrlSpecificURLs().keySet())
+					{
+						url = ConfigUtil.getValidatedUrl(url);
+						if(oneTimeUseConfig.contains(url))
+						{
+							LOG.info("Not setting URL as URL Specific because has already been set as a OneTimeUse URL. url={}", url);
+							continue;
+						}
+						
+						urlSpecificConfig.put(url, Long.valueOf(0));
+					}
+				}
+				
+				this.doubleSubmitCookieName = null;
+				this.doubleSubmitCookiePath = null;
+				this.doubleSubmitCookieSecure = false;
+				this.doubleSubmitSigner = null;
+				this.hmacKeyFile = null;
+				this.keyczarWrapper = null;
+				
+				this.urlSpecificCapacity = (config.getUrlSpecificCapacity() != null
+						? config.getUrlSpecificCapacity().intValue()
+						: Integer.parseInt(Constants.CONF_DEFAULT_URLSPECIFIC_CAPACITY));
+				this.urlSpecificTtl = (config.getUrlSpecificTtl() != null
+						? config.getUrlSpecificTtl().longValue()
+						: Long.parseLong(Constants.CONF_DEFAULT_URLSPECIFIC_TTL));
+				
+				if(urlSpecificCapacity <= 0)
+				{
+					throw new CSRFConfigException("Invalid URL Specific token capacity submitted. SubmittedCapacity="
+							+ urlSpecificCapacity);
+				}
+				
+				// 0 keeps tokens for the life of the session
+				if(urlSpecificTtl < 0 || urlSpecificTtl > Long.MAX_VALUE / 1000)
+				{
+					throw new CSRFConfigException("Invalid URL Specific token TTL submitted. SubmittedTTL="
+							+ urlSpecificTtl);
+				}
+				
+				this.tokenStoreName = valueOrDefault(config.getTokenStore(), Constants.CONF_DEFAULT_TOKEN_STORE);
+				this.tokenStoreIdleTimeout = (config.getTokenStoreIdleTimeout() != null
+						? config.getTokenStoreIdleTimeout().longValue()
+						: Long.parseLong(Constants.CONF_DEFAULT_TOKEN_STORE_IDLE));
+				
+				// 0 keeps a session's tokens until the session is destroyed
+				if(tokenStoreIdleTimeout < 0 || tokenStoreIdleTimeout > Long.MAX_VALUE / 1000)
+				{
+					throw new CSRFConfigException("Invalid token store idle timeout submitted. SubmittedTimeout="
+							+ tokenStoreIdleTimeout);
+				}
+				
+				TokenStores.checkStore(tokenStoreName);
+			}
+			
+			this.prngAlgorithm = valueOrDefault(config.getPrngAlgorithm(), Constants.CONF_DEFAULT_PRNG_ALGORITHM);
+			this.prngReseedInterval = (config.getPrngReseedInterval() != null
+					? config.getPrngReseedInterval().longValue()
+					: Long.parseLong(Constants.CONF_DEFAULT_PRNG_RESEED));
+			
+			if(prngReseedInterval <= 0)
+			{
+				throw new CSRFConfigException("Invalid PRNG reseed interval submitted. SubmittedInterval="
+						+prngReseedInterval);
+			}
+			
+			this.tokenEntropyEngine = new TokenEntropyEngine(prngAlgorithm, prngReseedInterval);
+			
+			this.seedAttributeName = null;
+			this.sitewideTimeout = 0;
+			this.hmacTokenFormat = null;
+			this.compactTokenCodec = null;
+			this.reissueFraction = 1;
+			this.tokenReissueCache = null;
+		}
+		
+		this.urlSpecificConfig = Collections.unmodifiableMap(urlSpecificConfig);
+		this.oneTimeUseConfig = Collections.unmodifiableSet(oneTimeUseConfig);
+		
+		UrlPolicyIndex.Builder indexBuilder = new UrlPolicyIndex.Builder();
+		for(String url : exemptUrls)
+		{
+			indexBuilder.addExempt(url);
+		}
+		for(Map.Entry<String,Long> entry : urlSpecificConfig.entrySet())
+		{
+			indexBuilder.addUrlSpecific(entry.getKey(), entry.getValue().longValue());
+		}
+		for(String url : oneTimeUseConfig)
+		{
+			indexBuilder.addOneTimeUse(url);
+		}
+		this.urlPolicyIndex = indexBuilder.build();
+		this.properties = Collections.unmodifiableMap(buildProperties());
+	}
+	
+	/*
+	 * String view of the settings keyed by the configuration element names, backing
+	 * the legacy ConfigUtil.getProp() lookups.
+	 */
+	private Map<String,String> buildProperties()
+	{
+		Map<String,String> props = new HashMap<String,String>();
+		props.put(Constants.CONF_MODE, mode.toString());
+		props.put(Constants.CONF_TOKEN_REQATTR, tokenRequestAttribute);
+		props.put(Constants.CONF_TOKEN_PARAM, tokenParameterName);
+		props.put(Constants.CONF_MONITORMODE, (monitorMode ? "yes" : "no"));
+		props.put(Constants.CONF_METRICS, (metricsEnabled ? "yes" : "no"));
+		props.put(Constants.CONF_TOKEN_GENERATION, (lazyTokenGeneration 
+				? Constants.TOKEN_GENERATION_MODES.lazy.toString() 
+				: Constants.TOKEN_GENERATION_MODES.eager.toString()));
+		props.put(Constants.CONF_TOKEN_SOURCES, tokenSourceChain.getSourceNames().toString());
+		props.put(Constants.CONF_TOKEN_HEADER, tokenHeaderName);
+		props.put(Constants.CONF_BODY_SCAN_LIMIT, String.valueOf(bodyScanLimit));
+		props.put(Constants.CONF_TOKEN_JSON_FIELD, tokenJsonField);
+		props.put(Constants.CONF_EVENT_SINK, eventSink.toString());
+		props.put(Constants.CONF_EVENT_FILE, eventFile);
+		props.put(Constants.CONF_EVENT_BUFFER_SIZE, String.valueOf(eventBufferSize));
+		props.put(Constants.CONF_ERROR, (errorMode != null ? errorMode.toString() : ""));
+		props.put(Constants.CONF_ERRORVAL, errorValue);
+		
+		if(!loggingConfigFile.equals(""))
+		{
+			props.put(Constants.JAVA_LOGGING_CONF, loggingConfigFile);
+		}
+		
+		if(mode == Constants.MODES.hmac)
+		{
+			props.put(Constants.CONF_HMAC_KEYFILE, hmacKeyFile);
+			props.put(Constants.CONF_HMAC_USERSEED_ATTR, seedAttributeName);
+			props.put(Constants.CONF_HMAC_SITEWIDE_TIMEOUT, String.valueOf(sitewideTimeout));
+			props.put(Constants.CONF_HMAC_TOKEN_FORMAT, hmacTokenFormat.toString());
+			props.put(Constants.CONF_HMAC_MAC_LENGTH, String.valueOf(compactTokenCodec.getMacLength()));
+			props.put(Constants.CONF_HMAC_REISSUE_FRACTION, String.valueOf(reissueFraction));
+			props.put(Constants.CONF_HMAC_REISSUE_CACHE_SIZE, 
+					String.valueOf(tokenReissueCache != null ? tokenReissueCache.getCapacity() : 0));
+		}
+		else
+		{
+			props.put(Constants.CONF_SESSION_PRNG_ALGORITHM, prngAlgorithm);
+			props.put(Constants.CONF_SESSION_PRNG_RESEED, String.valueOf(prngReseedInterval));
+		}
+		
+		if(mode == Constants.MODES.session)
+		{
+			props.put(Constants.CONF_SESSION_URLSPECIFIC_CAPACITY, String.valueOf(urlSpecificCapacity));
+			props.put(Constants.CONF_SESSION_URLSPECIFIC_TTL, String.valueOf(urlSpecificTtl));
+			props.put(Constants.CONF_SESSION_TOKEN_STORE, tokenStoreName);
+			props.put(Constants.CONF_SESSION_TOKEN_STORE_IDLE, String.valueOf(tokenStoreIdleTimeout));
+		}
+		
+		if(mode == Constants.MODES.doublesubmit)
+		{
+			props.put(Constants.CONF_DOUBLESUBMIT_COOKIE_NAME, doubleSubmitCookieName);
+			props.put(Constants.CONF_DOUBLESUBMIT_COOKIE_PATH, doubleSubmitCookiePath);
+			props.put(Constants.CONF_DOUBLESUBMIT_COOKIE_SECURE, (doubleSubmitCookieSecure ? "yes" : "no"));
+			props.put(Constants.CONF_HMAC_KEYFILE, (hmacKeyFile != null ? hmacKeyFile : ""));
+		}
+		
+		return props;
+	}
+	
+	/*
+	 * Signer for doublesubmit cookies when no keyfile is configured, with a random
+	 * key that only this instance knows
+	 */
+	private static TokenSigner newStartupSigner() throws CSRFSignerException
+	{
+		byte[] key = new byte[STARTUP_KEY_BYTES];
+		new SecureRandom().nextBytes(key);
+		return new JcaMacSigner(key, Collections.singletonList(key));
+	}
+	
+	private static String valueOrDefault(String value, String defaultValue)
+	{
+		return (value == null || value.equals("") ? defaultValue : value);
+	}
+	
+	public Constants.MODES getMode()
+	{
+		return mode;
+	}
+	
+	public boolean isHmacMode()
+	{
+		return mode == Constants.MODES.hmac;
+	}
+	
+	public boolean isSessionMode()
+	{
+		return mode == Constants.MODES.session;
+	}
+	
+	public boolean isDoubleSubmitMode()
+	{
+		return mode == Constants.MODES.doublesubmit;
+	}
+	
+	public String getTokenRequestAttribute()
+	{
+		return tokenRequestAttribute;
+	}
+	
+	/*
+	 * Session attribute holding the map of URL specific tokens
+	 */
+	public String getUrlSpecificTokenAttribute()
+	{
+		return urlSpecificTokenAttribute;
+	}
+	
+	public String getTokenParameterName()
+	{
+		return tokenParameterName;
+	}
+	
+	public boolean isMonitorMode()
+	{
+		return monitorMode;
+	}
+	
+	/*
+	 * Whether token generation and verification are counted and timed, see
+	 * CSRFMetrics
+	 */
+	public boolean isMetricsEnabled()
+	{
+		return metricsEnabled;
+	}
+	
+	/*
+	 * When true the filter defers creating the sitewide token until something
+	 * asks for it, see LazyCSRFToken.
+	 */
+	public boolean isLazyTokenGeneration()
+	{
+		return lazyTokenGeneration;
+	}
+	
+	public String getTokenHeaderName()
+	{
+		return tokenHeaderName;
+	}
+	
+	/*
+	 * Maximum number of body bytes a streaming token source reads looking for the token
+	 */
+	public int getBodyScanLimit()
+	{
+		return bodyScanLimit;
+	}
+	
+	public String getTokenJsonField()
+	{
+		return tokenJsonField;
+	}
+	
+	public TokenSourceChain getTokenSourceChain()
+	{
+		return tokenSourceChain;
+	}
+	
+	/*
+	 * Returns null when no (or an unknown) error mode is configured, in which case
+	 * a plain 403 is sent.
+	 */
+	public Constants.ERROR_MODES getErrorMode()
+	{
+		return errorMode;
+	}
+	
+	public String getErrorValue()
+	{
+		return errorValue;
+	}
+	
+	public int getErrorStatusCode()
+	{
+		return errorStatusCode;
+	}
+	
+	public String getLoggingConfigFile()
+	{
+		return loggingConfigFile;
+	}
+	
+	public Constants.EVENT_SINKS getEventSink()
+	{
+		return eventSink;
+	}
+	
+	public String getEventFile()
+	{
+		return eventFile;
+	}
+	
+	public int getEventBufferSize()
+	{
+		return eventBufferSize;
+	}
+	
+	public String getHMACKeyFile()
+	{
+		return hmacKeyFile;
+	}
+	
+	public String getSeedAttributeName()
+	{
+		return seedAttributeName;
+	}
+	
+	public long getSitewideTimeout()
+	{
+		return sitewideTimeout;
+	}
+	
+	public KeyczarWrapper getKeyczarWrapper()
+	{
+		return keyczarWrapper;
+	}
+	
+	public Constants.HMAC_TOKEN_FORMATS getHmacTokenFormat()
+	{
+		return hmacTokenFormat;
+	}
+	
+	public boolean isCompactTokenFormat()
+	{
+		return hmacTokenFormat == Constants.HMAC_TOKEN_FORMATS.compact;
+	}
+	
+	public CompactTokenCodec getCompactTokenCodec()
+	{
+		return compactTokenCodec;
+	}
+	
+	/*
+	 * Cache of recently issued sitewide tokens, null when every request should be
+	 * issued a freshly signed token.
+	 */
+	public TokenReissueCache getTokenReissueCache()
+	{
+		return tokenReissueCache;
+	}
+	
+	public String getPrngAlgorithm()
+	{
+		return prngAlgorithm;
+	}
+	
+	public long getPrngReseedInterval()
+	{
+		return prngReseedInterval;
+	}
+	
+	public TokenEntropyEngine getTokenEntropyEngine()
+	{
+		return tokenEntropyEngine;
+	}
+	
+	/*
+	 * Maximum number of URL specific tokens kept per session
+	 */
+	public int getUrlSpecificCapacity()
+	{
+		return urlSpecificCapacity;
+	}
+	
+	/*
+	 * Lifetime of URL specific tokens in seconds, 0 if they do not expire
+	 */
+	public long getUrlSpecificTtl()
+	{
+		return urlSpecificTtl;
+	}
+	
+	/*
+	 * The external store for session mode tokens, or null if they are kept in the
+	 * HttpSession
+	 */
+	public TokenStore getTokenStore()
+	{
+		if(!tokenStoreResolved)
+		{
+			try
+			{
+				resolveTokenStore();
+			}
+			catch(CSRFConfigException ex)
+			{
+				// The store name was checked when compiling, only a failing store constructor gets here
+				throw new IllegalStateException(ex.getMessage(), ex);
+			}
+		}
+		
+		return tokenStore;
+	}
+	
+	/*
+	 * Creates the configured store, or applies this snapshot's limits to the one
+	 * already shared by the process. Called when the snapshot is installed, and on
+	 * first use for a snapshot that is only compiled, e.g. for a CSRFEngine.
+	 */
+	synchronized void resolveTokenStore() throws CSRFConfigException
+	{
+		if(tokenStoreResolved)
+		{
+			return;
+		}
+		
+		if(tokenStoreName != null)
+		{
+			tokenStore = TokenStores.getStore(tokenStoreName, urlSpecificCapacity, tokenStoreIdleTimeout);
+		}
+		
+		tokenStoreResolved = true;
+	}
+	
+	public String getDoubleSubmitCookieName()
+	{
+		return doubleSubmitCookieName;
+	}
+	
+	public String getDoubleSubmitCookiePath()
+	{
+		return doubleSubmitCookiePath;
+	}
+	
+	public boolean isDoubleSubmitCookieSecure()
+	{
+		return doubleSubmitCookieSecure;
+	}
+	
+	/*
+	 * Signs and verifies doublesubmit cookies: the keyfile's signer, or one with
+	 * a key generated at startup when no keyfile is configured
+	 */
+	public TokenSigner getDoubleSubmitSigner()
+	{
+		return doubleSubmitSigner;
+	}
+	
+	public Set<String> getExemptUrls()
+	{
+		return exemptUrls;
+	}
+	
+	public Map<String,Long> getUrlSpecificConfig()
+	{
+		return urlSpecificConfig;
+	}
+	
+	public Set<String> getOneTimeUseConfig()
+	{
+		return oneTimeUseConfig;
+	}
+	
+	/*
+	 * Resolves the exempt, URL specific and one-time-use settings of a request URI
+	 * in one lookup. Prefer this over the individual checks below when more than
+	 * one of them is needed.
+	 */
+	public UrlPolicy getUrlPolicy(String url)
+	{
+		return urlPolicyIndex.resolve(url);
+	}
+	
+	public UrlPolicyIndex getUrlPolicyIndex()
+	{
+		return urlPolicyIndex;
+	}
+	
+	public boolean isURLExempt(String url)
+	{
+		return urlPolicyIndex.resolve(url).isExempt();
+	}
+	
+	public boolean hasUrlSpecificConfig(String url)
+	{
+		return urlPolicyIndex.resolve(url).isUrlSpecific();
+	}
+	
+	/*
+	 * Timeout in seconds for a URL specific token, or null when the URL is not
+	 * configured as URL specific.
+	 */
+	public Long getUrlSpecificTimeout(String url)
+	{
+		UrlPolicy policy = urlPolicyIndex.resolve(url);
+		return (policy.isUrlSpecific() ? Long.valueOf(policy.getTimeout()) : null);
+	}
+	
+	public boolean hasOneTimeUseConfig(String url)
+	{
+		return urlPolicyIndex.resolve(url).isOneTimeUse();
+	}
+	
+	public String getProperty(String configProperty)
+	{
+		return properties.get(configProperty);
+	}
+	
+	public Map<String,String> getProperties()
+	{
+		return properties;
+	}
+}
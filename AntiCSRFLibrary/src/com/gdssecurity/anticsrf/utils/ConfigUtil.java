@@ -24,10 +24,12 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.LogManager;
-import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,23 +43,42 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import com.gdssecurity.anticsrf.events.SecurityEvents;
+import com.gdssecurity.anticsrf.metrics.CSRFMetrics;
 import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
 import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
-import com.gdssecurity.anticsrf.utils.StringUtil;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
 
 public class ConfigUtil 
 {
-	private static final Logger LOG = Logger.getLogger(ConfigUtil.class.getName());
-	private static Properties csrfConfig = new Properties();
-	private static HashMap<String,Integer> exemptUrls = new HashMap<String,Integer>();
-	private static HashMap<String,Long> urlSpecificConfig = new HashMap<String,Long>();
-	private static HashMap<String,Integer> oneTimeUseConfig = new HashMap<String,Integer>();
-	private static KeyczarWrapper keyczarWrapper;
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(ConfigUtil.class);
+	
+	// Compiled configuration used by the request path. Replaced as a whole on every
+	// load so readers never observe a partially loaded configuration.
+	private static volatile ConfigSnapshot snapshot;
 
 	
+	public static ConfigSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+	
+	/*
+	 * Returns a copy of the active configuration values keyed by configuration element name.
+	 * Request handling code should use getSnapshot() instead.
+	 */
 	public static Properties getConfig()
 	{
-		return csrfConfig;
+		Properties props = new Properties();
+		ConfigSnapshot config = snapshot;
+		
+		if(config != null)
+		{
+			props.putAll(config.getProperties());
+		}
+		
+		return props;
 	}
 	
 	public static void loadConfig(String configFilename) throws CSRFConfigException
@@ -84,31 +105,93 @@ public class ConfigUtil
 	}
 	
 	/*
-	 * New public loadConfig overload that accepts a configuration object to 
-	 * allow programmatic configuration. Currently, only the protection mode 
-	 * and the keyfile config values are overridden from the config object.
+	 * Programmatic configuration. Every setting of the supplied configuration object
+	 * is used as is, settings left unset fall back to their defaults.
 	 */
 	public static void loadConfig(Config config) throws CSRFConfigException
+	{
+		installConfig(new ConfigBuilder().merge(config).getConfig());
+	}
+	
+	public static void loadConfig(InputStream is) throws CSRFConfigException
+	{
+		loadConfig(is, null);
+	}
+	
+	/*
+	 * Loads the XML configuration and applies any setting set on the overrides
+	 * object on top of the values read from the file.
+	 */
+	public static void loadConfig(InputStream is, Config overrides) throws CSRFConfigException
+	{
+		LOG.info("Loading XML Config File");
+		ConfigBuilder builder = readXmlConfig(is, overrides);
+		builder.merge(overrides);
+		installConfig(builder.getConfig());
+	}
+	
+	/*
+	 * Validates the configuration and compiles it into an immutable snapshot without
+	 * making it active.
+	 */
+	public static ConfigSnapshot compileConfig(Config config) throws CSRFConfigException
 	{
 		try
 		{
-			String emptyConfigString = "<anticsrf></anticsrf>";
-			loadConfig(new ByteArrayInputStream(emptyConfigString.getBytes("UTF-8")), config);
+			return new ConfigSnapshot(config);
 		}
-		catch (Exception ex)
+		catch(CSRFSignerException ex)
 		{
-			throw new CSRFConfigException(ex);
+			String err = "Error loading Keyczar Keyfile: exception="+ex.getMessage();
+			LOG.severe(err);
+			throw new CSRFConfigException(err);
 		}
 	}
 	
-	public static void loadConfig(InputStream is) throws CSRFConfigException
+	/*
+	 * Reads and compiles an XML configuration without making it active, for a
+	 * CSRFEngine embedded with its own configuration
+	 */
+	public static ConfigSnapshot compileConfig(InputStream is) throws CSRFConfigException
 	{
-		loadConfig(is, null);
+		return compileConfig(readXmlConfig(is, null).getConfig());
 	}
 	
-	private static void loadConfig(InputStream is, Config overrides) throws CSRFConfigException
+	/*
+	 * Synchronized only so concurrent reloads are applied one after the other.
+	 * Request handling never takes this lock, it only reads the volatile snapshot.
+	 */
+	private static synchronized void installConfig(Config config) throws CSRFConfigException
+	{
+		ConfigSnapshot compiled = compileConfig(config);
+		
+		try
+		{
+			loadLoggingConfiguration(compiled.getLoggingConfigFile());
+		}
+		catch (IOException ex)
+		{
+			String err = "Failed to properly read Java Logging Configuration file"+
+					", exception="+ex.getMessage();
+			LOG.severe(err);
+			throw new CSRFConfigException(err);
+		}
+		
+		// Done before the swap so a security event file that cannot be opened keeps the old configuration
+		compiled.resolveTokenStore();
+		SecurityEvents.configure(compiled.getEventSink(), compiled.getEventFile(), compiled.getEventBufferSize());
+		CSRFMetrics.configure(compiled.isMetricsEnabled());
+		
+		snapshot = compiled;
+		printConfiguration(compiled);
+	}
+	
+	/*
+	 * Reads anticsrf.xml into a ConfigBuilder. Only the format of the values is
+	 * checked here, the settings themselves are validated when compiled.
+	 */
+	private static ConfigBuilder readXmlConfig(InputStream is, Config overrides) throws CSRFConfigException
 	{
-		LOG.info("Loading XML Config File");
 		try
 		{
 			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
@@ -118,6 +201,8 @@ public class ConfigUtil
 			Document doc = dBuilder.parse(is);
 			doc.getDocumentElement().normalize();
 			
+			ConfigBuilder builder = new ConfigBuilder();
+			
 			NodeList nl = doc.getElementsByTagName(Constants.CONF_MODE);
 			Node node = nl.item(0);
 					
@@ -133,34 +218,105 @@ public class ConfigUtil
 				mode = node.getFirstChild().getNodeValue();
 			}
 			
-			Constants.MODES.valueOf(mode); // Make sure it is an existent mode
-			csrfConfig.setProperty(Constants.CONF_MODE, mode);
+			builder.setProtectionMode(mode);
 			
 			Element docElement = (Element)doc.getDocumentElement();
 			
-			loadLoggingConfiguration(docElement);
+			String loggingConfigPath = readElementTextValue(docElement, Constants.JAVA_LOGGING_CONF);
+			if(!loggingConfigPath.equals(""))
+			{
+				builder.setLoggingConfigFile(loggingConfigPath);
+			}
 			
-			if(isHmacMode())
+			if(mode.equals(Constants.MODES.hmac.toString()))
 			{
-				handleHMACConfigLoading(doc, overrides);
+				readHMACSettings(doc, builder);
 			}
-			else if(isSessionMode())
+			else if(mode.equals(Constants.MODES.session.toString()))
 			{
-				handleSessionConfigLoading(doc);
+				readSessionSettings(doc, builder);
+			}
+			else if(mode.equals(Constants.MODES.doublesubmit.toString()))
+			{
+				readDoubleSubmitSettings(doc, builder);
 			}
 			
-			readXmlUrlListing(docElement, Constants.CONF_EXEMPTURLS);
+			builder.setExemptURLs(readXmlUrlListing(docElement, Constants.CONF_EXEMPTURLS));
 
 			String tokenRequestAttribute = readElementTextValue(docElement, Constants.CONF_TOKEN_REQATTR);
-			if(tokenRequestAttribute.equals("")) 
+			if(!tokenRequestAttribute.equals("")) 
 			{
-				tokenRequestAttribute = Constants.CONF_DEFAULT_TOKEN_REQATTR;
+				builder.setTokenRequestAttribute(tokenRequestAttribute);
 			}
 			
 			String tokenRequestParameter = readElementTextValue(docElement, Constants.CONF_TOKEN_PARAM);
-			if(tokenRequestParameter.equals(""))
+			if(!tokenRequestParameter.equals(""))
 			{
-				tokenRequestParameter = Constants.CONF_DEFAULT_TOKEN_PARAM;
+				builder.setTokenParameterName(tokenRequestParameter);
+			}
+			
+			List<String> tokenSources = readXmlListing(docElement, Constants.CONF_TOKEN_SOURCES, Constants.CONF_TOKEN_SOURCE);
+			if(!tokenSources.isEmpty())
+			{
+				builder.setTokenSources(tokenSources);
+			}
+			
+			String tokenHeaderName = readElementTextValue(docElement, Constants.CONF_TOKEN_HEADER);
+			if(!tokenHeaderName.equals(""))
+			{
+				builder.setTokenHeaderName(tokenHeaderName);
+			}
+			
+			String tokenJsonField = readElementTextValue(docElement, Constants.CONF_TOKEN_JSON_FIELD);
+			if(!tokenJsonField.equals(""))
+			{
+				builder.setTokenJsonField(tokenJsonField);
+			}
+			
+			String bodyScanLimit = readElementTextValue(docElement, Constants.CONF_BODY_SCAN_LIMIT);
+			if(!bodyScanLimit.equals(""))
+			{
+				try
+				{
+					builder.setBodyScanLimit(Integer.valueOf(bodyScanLimit));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid body scan limit submitted. SubmittedLimit="
+							+bodyScanLimit);
+				}
+			}
+			
+			String eventSink = readElementTextValue(docElement, Constants.CONF_EVENT_SINK);
+			if(!eventSink.equals(""))
+			{
+				builder.setEventSink(eventSink.trim());
+			}
+			
+			String eventFile = readElementTextValue(docElement, Constants.CONF_EVENT_FILE);
+			if(!eventFile.equals(""))
+			{
+				builder.setEventFile(eventFile.trim());
+			}
+			
+			String eventBufferSize = readElementTextValue(docElement, Constants.CONF_EVENT_BUFFER_SIZE);
+			if(!eventBufferSize.equals(""))
+			{
+				try
+				{
+					builder.setEventBufferSize(Integer.valueOf(eventBufferSize));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid event buffer size submitted. SubmittedSize="
+							+eventBufferSize);
+				}
+			}
+			
+			String tokenGeneration = readElementTextValue(docElement, Constants.CONF_TOKEN_GENERATION);
+			if(!tokenGeneration.equals(""))
+			{
+				builder.setTokenGeneration(tokenGeneration);
 			}
 			
 			String monitorMode = readElementAttributeTextValue(docElement, Constants.CONF_MONITORMODE, "enabled");
@@ -175,42 +331,29 @@ public class ConfigUtil
 				throw new CSRFConfigException("Invalid monitormode attribute entered. " +
 						"We are expecting either 'yes' or 'no'. EnteredValue="+monitorMode);
 			}
-					
-			String errorValue = "";
-			String errorMode = readElementAttributeTextValue(docElement, Constants.CONF_ERROR, "mode");
-			if(errorMode == null)
-			{
-				errorMode = "";
-			}
 			
-			if(errorMode.equals("redirect") || errorMode.equals("forward"))
+			builder.setMonitorMode(Boolean.valueOf(monitorMode.equals("yes")));
+			
+			String metrics = readElementAttributeTextValue(docElement, Constants.CONF_METRICS, "enabled");
+			if(!metrics.equals(""))
 			{
-				errorValue = getValidatedUrl(readElementTextValue(docElement, Constants.CONF_ERROR));
+				if(!metrics.equals("yes") && !metrics.equals("no"))
+				{
+					throw new CSRFConfigException("Invalid metrics attribute entered. " +
+							"We are expecting either 'yes' or 'no'. EnteredValue="+metrics);
+				}
 				
+				builder.setMetricsEnabled(Boolean.valueOf(metrics.equals("yes")));
 			}
-			else if(errorMode.equals("status_code"))
+					
+			String errorMode = readElementAttributeTextValue(docElement, Constants.CONF_ERROR, "mode");
+			if(!errorMode.equals(""))
 			{
-				errorValue = readElementTextValue(docElement, Constants.CONF_ERROR);
-				if(!validateTimeout(errorValue))
-				{
-					throw new CSRFConfigException("Invalid StatusCode passed within configuration error attribute. Submitted StatusCode="+errorValue);
-				}
+				builder.setErrorMode(errorMode);
+				builder.setErrorValue(readElementTextValue(docElement, Constants.CONF_ERROR));
 			}
-						
-			csrfConfig.setProperty(Constants.CONF_ERROR, errorMode);
-			csrfConfig.setProperty(Constants.CONF_ERRORVAL, errorValue);
-			csrfConfig.setProperty(Constants.CONF_TOKEN_PARAM, tokenRequestParameter );
-			csrfConfig.setProperty(Constants.CONF_TOKEN_REQATTR, tokenRequestAttribute);
-			csrfConfig.setProperty(Constants.CONF_MONITORMODE, monitorMode);
-
-			printConfiguration();
 			
-		}
-		catch(CSRFSignerException ex)
-		{
-			String err = "Error loading Keyczar Keyfile: exception="+ex.getMessage();
-			LOG.severe(err);
-			throw new CSRFConfigException(err);
+			return builder;
 		}
 		catch (ParserConfigurationException ex) 
 		{
@@ -233,99 +376,239 @@ public class ConfigUtil
 		}
 	}
 	
-	private static void loadLoggingConfiguration(Element element) throws SecurityException, IOException
+	private static void loadLoggingConfiguration(String loggingConfigPath) throws SecurityException, IOException
 	{
-		String loggingConfigPath = readElementTextValue(element, Constants.JAVA_LOGGING_CONF);
-
 		if(!loggingConfigPath.equals(""))
 		{
 			LOG.info("Custom Java logging configuration file specified");
 			File loggingConfigFile = new File(loggingConfigPath);
 			if(loggingConfigFile.exists())
 		    {
-				FileInputStream loggingConfigFS = new FileInputStream(loggingConfigFile);                                
-				LogManager.getLogManager().readConfiguration(loggingConfigFS);
+				FileInputStream loggingConfigFS = new FileInputStream(loggingConfigFile);
+				try
+				{
+					LogManager.getLogManager().readConfiguration(loggingConfigFS);
+				}
+				finally
+				{
+					loggingConfigFS.close();
+				}
 		    }
 			else
 			{
 				LOG.info("Error loading Java Logging Configuration file. " +
-						"Could not find the following the specified filename: "+ loggingConfigFile);
+						"Could not find the following the specified filename: {}", loggingConfigFile);
 			}
-			
-			csrfConfig.setProperty(Constants.JAVA_LOGGING_CONF, loggingConfigPath);
 		}
 	}
 	
-	public static void handleHMACConfigLoading(Document doc, Config overrides) throws CSRFConfigException, CSRFSignerException
+	private static void readHMACSettings(Document doc, ConfigBuilder builder) throws CSRFConfigException
 	{
 		NodeList nl = doc.getElementsByTagName(Constants.CONF_HMACSETTINGS);
 		Node node = nl.item(0);
 		
-		// Set some default values
-		csrfConfig.setProperty(Constants.CONF_HMAC_USERSEED_ATTR, Constants.CONF_DEFAULT_USERSEED_ATTR);
-		csrfConfig.setProperty(Constants.CONF_HMAC_SITEWIDE_TIMEOUT, Constants.CONF_DEFAULT_TOKENTIMEOUT);
-		
 		if(node != null && node.getNodeType() == Node.ELEMENT_NODE)
 		{
 			String hmacKeyfile = readElementTextValue((Element)node, Constants.CONF_HMAC_KEYFILE);
-			setHMACKeyFile(hmacKeyfile);
+			builder.setHMACKeyFile(hmacKeyfile);
 			
 			String seedAttributeName = readElementTextValue((Element)node, Constants.CONF_HMAC_USERSEED_ATTR);
 			if(!seedAttributeName.equals(""))
 			{
-				csrfConfig.setProperty(Constants.CONF_HMAC_USERSEED_ATTR, seedAttributeName);
+				builder.setSeedAttributeName(seedAttributeName);
 			}
 			
 			String sitewideTimeout = readElementTextValue((Element)node, Constants.CONF_HMAC_SITEWIDE_TIMEOUT);
-			if(!validateTimeout(sitewideTimeout))
+			if(!sitewideTimeout.equals(""))
 			{
-				throw new CSRFConfigException("Invalid Sitewide timeout value submitted. SubmittedTimeout="
-						+sitewideTimeout);
+				if(!validateTimeout(sitewideTimeout))
+				{
+					throw new CSRFConfigException("Invalid Sitewide timeout value submitted. SubmittedTimeout="
+							+sitewideTimeout);
+				}
+				
+				builder.setSitewideTimeout(Long.valueOf(sitewideTimeout));
 			}
 			
-			if(!sitewideTimeout.equals(""))
+			String tokenFormat = readElementTextValue((Element)node, Constants.CONF_HMAC_TOKEN_FORMAT);
+			if(!tokenFormat.equals(""))
 			{
-				csrfConfig.setProperty(Constants.CONF_HMAC_SITEWIDE_TIMEOUT, sitewideTimeout);
+				builder.setHmacTokenFormat(tokenFormat);
 			}
 			
-			readXmlUrlListing((Element) node, Constants.CONF_URLSPECIFIC);
+			String macLength = readElementTextValue((Element)node, Constants.CONF_HMAC_MAC_LENGTH);
+			if(!macLength.equals(""))
+			{
+				try
+				{
+					builder.setHmacMacLength(Integer.valueOf(macLength));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid MAC length submitted. SubmittedLength="
+							+macLength);
+				}
+			}
+			
+			String reissueFraction = readElementTextValue((Element)node, Constants.CONF_HMAC_REISSUE_FRACTION);
+			if(!reissueFraction.equals(""))
+			{
+				try
+				{
+					builder.setHmacReissueFraction(Double.valueOf(reissueFraction));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid token reissue fraction submitted. SubmittedFraction="
+							+reissueFraction);
+				}
+			}
+			
+			String reissueCacheSize = readElementTextValue((Element)node, Constants.CONF_HMAC_REISSUE_CACHE_SIZE);
+			if(!reissueCacheSize.equals(""))
+			{
+				try
+				{
+					builder.setHmacReissueCacheSize(Integer.valueOf(reissueCacheSize));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid token reissue cache size submitted. SubmittedSize="
+							+reissueCacheSize);
+				}
+			}
+			
+			builder.setUrlSpecificURLs(readXmlUrlTimeoutListing((Element) node, Constants.CONF_URLSPECIFIC));
 		}
+	}
+
+	private static void readSessionSettings(Document doc, ConfigBuilder builder) throws CSRFConfigException
+	{
+		NodeList nl = doc.getElementsByTagName(Constants.CONF_SESSIONSETTINGS);
+		Node node = nl.item(0);
 		
-		// Apply overrides		
-		if (overrides != null)
+		if(node != null && node.getNodeType() == Node.ELEMENT_NODE)
 		{
-			String hmacKeyFile = overrides.getHMACKeyFile();
+			builder.setOneTimeUseURLs(readXmlUrlListing((Element) node, Constants.CONF_SESSION_ONETIMEUSE));
+			
+			Map<String,Long> urlSpecific = new LinkedHashMap<String,Long>();
+			for(String url : readXmlUrlListing((Element) node, Constants.CONF_URLSPECIFIC))
+			{
+				urlSpecific.put(url, null);
+			}
+			builder.setUrlSpecificURLs(urlSpecific);
 			
-			if (hmacKeyFile != null && hmacKeyFile != "")
+			String capacity = readElementTextValue((Element)node, Constants.CONF_SESSION_URLSPECIFIC_CAPACITY);
+			if(!capacity.equals(""))
 			{
-				setHMACKeyFile(hmacKeyFile);
+				try
+				{
+					builder.setUrlSpecificCapacity(Integer.valueOf(capacity));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid URL Specific token capacity submitted. SubmittedCapacity="
+							+capacity);
+				}
+			}
+			
+			String ttl = readElementTextValue((Element)node, Constants.CONF_SESSION_URLSPECIFIC_TTL);
+			if(!ttl.equals(""))
+			{
+				try
+				{
+					builder.setUrlSpecificTtl(Long.valueOf(ttl));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid URL Specific token TTL submitted. SubmittedTTL="
+							+ttl);
+				}
+			}
+			
+			String tokenStore = readElementTextValue((Element)node, Constants.CONF_SESSION_TOKEN_STORE);
+			if(!tokenStore.equals(""))
+			{
+				builder.setTokenStore(tokenStore.trim());
+			}
+			
+			String idleTimeout = readElementTextValue((Element)node, Constants.CONF_SESSION_TOKEN_STORE_IDLE);
+			if(!idleTimeout.equals(""))
+			{
+				try
+				{
+					builder.setTokenStoreIdleTimeout(Long.valueOf(idleTimeout));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new CSRFConfigException("Invalid token store idle timeout submitted. SubmittedTimeout="
+							+idleTimeout);
+				}
 			}
+			
+			readPrngSettings((Element) node, builder);
 		}
 	}
 	
-	private static void setHMACKeyFile(String hmacKeyFile) throws CSRFConfigException, CSRFSignerException
+	private static void readDoubleSubmitSettings(Document doc, ConfigBuilder builder) throws CSRFConfigException
 	{
-		if(hmacKeyFile == null || hmacKeyFile == "")
+		NodeList nl = doc.getElementsByTagName(Constants.CONF_DOUBLESUBMITSETTINGS);
+		Node node = nl.item(0);
+		
+		if(node != null && node.getNodeType() == Node.ELEMENT_NODE)
 		{
-			String err = "HMAC-mode CSRF Protection requires Keyczar HMAC File to " +
-					"be define within the configuration file";
-			LOG.severe(err);
-			throw new CSRFConfigException(err);
+			String cookieName = readElementTextValue((Element)node, Constants.CONF_DOUBLESUBMIT_COOKIE_NAME);
+			if(!cookieName.equals(""))
+			{
+				builder.setDoubleSubmitCookieName(cookieName);
+			}
+			
+			String cookiePath = readElementTextValue((Element)node, Constants.CONF_DOUBLESUBMIT_COOKIE_PATH);
+			if(!cookiePath.equals(""))
+			{
+				builder.setDoubleSubmitCookiePath(cookiePath);
+			}
+			
+			String keyfile = readElementTextValue((Element)node, Constants.CONF_HMAC_KEYFILE);
+			if(!keyfile.equals(""))
+			{
+				builder.setHMACKeyFile(keyfile);
+			}
+			
+			String cookieSecure = readElementTextValue((Element)node, Constants.CONF_DOUBLESUBMIT_COOKIE_SECURE);
+			if(!cookieSecure.equals(""))
+			{
+				if(!cookieSecure.equals("yes") && !cookieSecure.equals("no"))
+				{
+					throw new CSRFConfigException("Invalid " + Constants.CONF_DOUBLESUBMIT_COOKIE_SECURE + " entered. " +
+							"We are expecting either 'yes' or 'no'. EnteredValue="+cookieSecure);
+				}
+				
+				builder.setDoubleSubmitCookieSecure(Boolean.valueOf(cookieSecure.equals("yes")));
+			}
+			
+			readPrngSettings((Element) node, builder);
 		}
-		
-		csrfConfig.setProperty(Constants.CONF_HMAC_KEYFILE, hmacKeyFile);
-		keyczarWrapper = new KeyczarWrapper(hmacKeyFile);
 	}
-
-	private static void handleSessionConfigLoading(Document doc) throws CSRFConfigException
+	
+	private static void readPrngSettings(Element element, ConfigBuilder builder) throws CSRFConfigException
 	{
-		NodeList nl = doc.getElementsByTagName(Constants.CONF_SESSIONSETTINGS);
-		Node node = nl.item(0);
+		String algorithm = readElementTextValue(element, Constants.CONF_SESSION_PRNG_ALGORITHM);
+		if(!algorithm.equals(""))
+		{
+			builder.setPrngAlgorithm(algorithm);
+		}
 		
-		if(node != null && node.getNodeType() == Node.ELEMENT_NODE)
+		String reseedInterval = readElementTextValue(element, Constants.CONF_SESSION_PRNG_RESEED);
+		if(!reseedInterval.equals(""))
 		{
-			readXmlUrlListing((Element) node, Constants.CONF_SESSION_ONETIMEUSE);
-			readXmlUrlListing((Element) node, Constants.CONF_URLSPECIFIC);
+			if(!validateTimeout(reseedInterval))
+			{
+				throw new CSRFConfigException("Invalid PRNG reseed interval submitted. SubmittedInterval="
+						+reseedInterval);
+			}
+			
+			builder.setPrngReseedInterval(Long.valueOf(reseedInterval));
 		}
 	}
 	
@@ -359,62 +642,69 @@ public class ConfigUtil
 		return "";
 	}
 	
-	private static void readXmlUrlListing(Element element, String listName) 
+	private static List<String> readXmlUrlListing(Element element, String listName)
+	{
+		return readXmlListing(element, listName, "url");
+	}
+	
+	private static List<String> readXmlListing(Element element, String listName, String entryName)
+	{
+		List<String> entries = new ArrayList<String>();
+		NodeList nl = element.getElementsByTagName(listName);
+		if(nl.getLength() > 0) {
+			Element listElement = (Element)nl.item(0);
+			
+			NodeList entryNodelist = listElement.getElementsByTagName(entryName);
+			
+			for(int i = 0; i < entryNodelist.getLength(); i++)
+			{
+				entries.add(entryNodelist.item(i).getFirstChild().getNodeValue());
+			}
+		}
+		
+		return entries;
+	}
+	
+	/*
+	 * Reads a url listing whose entries carry an optional timeout attribute. URLs without
+	 * a timeout are mapped to null and use the sitewide timeout.
+	 */
+	private static Map<String,Long> readXmlUrlTimeoutListing(Element element, String listName) 
 	throws CSRFConfigException
 	{
+		Map<String,Long> urls = new LinkedHashMap<String,Long>();
 		NodeList nl = element.getElementsByTagName(listName);
 		if(nl.getLength() > 0) {
-			Element urlSpecificElement = (Element)nl.item(0);
+			Element urlListElement = (Element)nl.item(0);
 			
-			NodeList urlNodelist = urlSpecificElement.getElementsByTagName("url");
+			NodeList urlNodelist = urlListElement.getElementsByTagName("url");
 			
 			for(int i = 0; i < urlNodelist.getLength(); i++)
 			{
 				Node urlNode = urlNodelist.item(i);
-				String timeout = "0";
-				String url = getValidatedUrl(urlNode.getFirstChild().getNodeValue());
+				String url = urlNode.getFirstChild().getNodeValue();
+				Long timeout = null;
 
-				if(isHmacMode())
+				Node timeoutNode = urlNode.getAttributes().getNamedItem("timeout");
+				if(timeoutNode != null && timeoutNode.getFirstChild() != null)
 				{
-					try
+					String timeoutValue = timeoutNode.getFirstChild().getNodeValue();
+					if(!validateTimeout(timeoutValue))
 					{
-						timeout = urlNode.getAttributes().getNamedItem("timeout").getFirstChild().getNodeValue();
-						if(!validateTimeout(timeout))
-						{
-							throw new CSRFConfigException("Invalid URL Specific timeout value specified. URL="
-									+ url + ", EnteredTimeout="+timeout);
-						}
+						throw new CSRFConfigException("Invalid URL Specific timeout value specified. URL="
+								+ url + ", EnteredTimeout="+timeoutValue);
 					}
-					catch(NullPointerException ex)
-					{
-						// If no timeout was set, we use the sitewide value
-						timeout = ConfigUtil.getProp(Constants.CONF_HMAC_SITEWIDE_TIMEOUT); 
-					}		
+					timeout = Long.valueOf(timeoutValue);
 				}
 				
-				if(listName.equals("urlspecific"))
-				{
-					if(isSessionMode() && oneTimeUseConfig.containsKey(url))
-					{
-						LOG.info("Not setting URL as URL Specific because has already been set as a OneTimeUse URL. url="+url);
-						continue;
-					}
-					
-					urlSpecificConfig.put(url, Long.parseLong(timeout));
-				}
-				else if(listName.equals("onetimeuse"))
-				{
-					oneTimeUseConfig.put(url, new Integer(0));
-				}
-				else if(listName.equals("exempt_urls"))
-				{
-					exemptUrls.put(url, new Integer(0));
-				}
+				urls.put(url, timeout);
 			}
 		}
+		
+		return urls;
 	}
 
-	private static boolean validateTimeout(String timeout)
+	static boolean validateTimeout(String timeout)
 	{
 		try
 		{
@@ -426,13 +716,13 @@ public class ConfigUtil
 		}
 		catch(NumberFormatException ex)
 		{
-			LOG.severe("Invalid Timout value submitted. Value should be a positive numeric value. EnteredValue="+timeout.toString());
+			LOG.severe("Invalid Timout value submitted. Value should be a positive numeric value. EnteredValue={}", timeout);
 		}
 		
 		return false;
 	}
 	
-	private static String getValidatedUrl(String url) throws CSRFConfigException
+	static String getValidatedUrl(String url) throws CSRFConfigException
 	{
 		url.replaceAll("\\s", ""); // Strip out the whitespace
 		
@@ -453,49 +743,78 @@ public class ConfigUtil
 		return url;
 	}
 	
-	private static void printConfiguration()
+	private static void printConfiguration(ConfigSnapshot config)
 	{
 		StringBuffer str = new StringBuffer("\n============\nAntiCSRF Configuration\n============\n" );
-		str.append( Constants.CONF_MODE + ": " + csrfConfig.getProperty(Constants.CONF_MODE) + "\n" );
-		str.append( Constants.CONF_TOKEN_REQATTR + ": " + csrfConfig.getProperty(Constants.CONF_TOKEN_REQATTR) + "\n" );
-		str.append( Constants.CONF_TOKEN_PARAM + ": " + csrfConfig.getProperty(Constants.CONF_TOKEN_PARAM) + "\n" );
-		str.append( Constants.CONF_ERROR + ": " + csrfConfig.getProperty(Constants.CONF_ERROR) + "\n" );
-		str.append( Constants.CONF_ERRORVAL + ": " + csrfConfig.getProperty(Constants.CONF_ERRORVAL) + "\n" );
-		str.append( Constants.JAVA_LOGGING_CONF + ": " + csrfConfig.getProperty(Constants.JAVA_LOGGING_CONF) + "\n" );
-		str.append( Constants.CONF_MONITORMODE + ": " + csrfConfig.getProperty(Constants.CONF_MONITORMODE) + "\n" );
+		str.append( Constants.CONF_MODE + ": " + config.getProperty(Constants.CONF_MODE) + "\n" );
+		str.append( Constants.CONF_TOKEN_REQATTR + ": " + config.getProperty(Constants.CONF_TOKEN_REQATTR) + "\n" );
+		str.append( Constants.CONF_TOKEN_PARAM + ": " + config.getProperty(Constants.CONF_TOKEN_PARAM) + "\n" );
+		str.append( Constants.CONF_ERROR + ": " + config.getProperty(Constants.CONF_ERROR) + "\n" );
+		str.append( Constants.CONF_ERRORVAL + ": " + config.getProperty(Constants.CONF_ERRORVAL) + "\n" );
+		str.append( Constants.JAVA_LOGGING_CONF + ": " + config.getProperty(Constants.JAVA_LOGGING_CONF) + "\n" );
+		str.append( Constants.CONF_MONITORMODE + ": " + config.getProperty(Constants.CONF_MONITORMODE) + "\n" );
+		str.append( Constants.CONF_METRICS + ": " + config.getProperty(Constants.CONF_METRICS) + "\n" );
+		str.append( Constants.CONF_TOKEN_GENERATION + ": " + config.getProperty(Constants.CONF_TOKEN_GENERATION) + "\n" );
+		str.append( Constants.CONF_TOKEN_SOURCES + ": " + config.getProperty(Constants.CONF_TOKEN_SOURCES) + "\n" );
+		str.append( Constants.CONF_TOKEN_HEADER + ": " + config.getProperty(Constants.CONF_TOKEN_HEADER) + "\n" );
+		str.append( Constants.CONF_BODY_SCAN_LIMIT + ": " + config.getProperty(Constants.CONF_BODY_SCAN_LIMIT) + "\n" );
+		str.append( Constants.CONF_TOKEN_JSON_FIELD + ": " + config.getProperty(Constants.CONF_TOKEN_JSON_FIELD) + "\n" );
+		str.append( Constants.CONF_EVENT_SINK + ": " + config.getProperty(Constants.CONF_EVENT_SINK) + "\n" );
+		str.append( Constants.CONF_EVENT_FILE + ": " + config.getProperty(Constants.CONF_EVENT_FILE) + "\n" );
+		str.append( Constants.CONF_EVENT_BUFFER_SIZE + ": " + config.getProperty(Constants.CONF_EVENT_BUFFER_SIZE) + "\n" );
 
 		str.append( "\n-Exempt URLs-\n" );
 		
-		for(String url : exemptUrls.keySet())
+		for(String url : config.getExemptUrls())
 		{
 			str.append( "url: " + url + "\n" );
 		}
 				
-		if(isHmacMode())
+		if(config.isHmacMode())
 		{
 			str.append( "\n++HMAC Protection Mode Settings++\n" );
-			str.append( Constants.CONF_HMAC_KEYFILE + ": " + csrfConfig.getProperty(Constants.CONF_HMAC_KEYFILE) + "\n" );
-			str.append( Constants.CONF_HMAC_SITEWIDE_TIMEOUT + ": " + csrfConfig.getProperty(Constants.CONF_HMAC_SITEWIDE_TIMEOUT) + "\n" );
-			str.append( Constants.CONF_HMAC_USERSEED_ATTR + ": " + csrfConfig.getProperty(Constants.CONF_HMAC_USERSEED_ATTR) + "\n" );
+			str.append( Constants.CONF_HMAC_KEYFILE + ": " + config.getProperty(Constants.CONF_HMAC_KEYFILE) + "\n" );
+			str.append( Constants.CONF_HMAC_SITEWIDE_TIMEOUT + ": " + config.getProperty(Constants.CONF_HMAC_SITEWIDE_TIMEOUT) + "\n" );
+			str.append( Constants.CONF_HMAC_USERSEED_ATTR + ": " + config.getProperty(Constants.CONF_HMAC_USERSEED_ATTR) + "\n" );
+			str.append( Constants.CONF_HMAC_TOKEN_FORMAT + ": " + config.getProperty(Constants.CONF_HMAC_TOKEN_FORMAT) + "\n" );
+			str.append( Constants.CONF_HMAC_MAC_LENGTH + ": " + config.getProperty(Constants.CONF_HMAC_MAC_LENGTH) + "\n" );
+			str.append( Constants.CONF_HMAC_REISSUE_FRACTION + ": " + config.getProperty(Constants.CONF_HMAC_REISSUE_FRACTION) + "\n" );
+			str.append( Constants.CONF_HMAC_REISSUE_CACHE_SIZE + ": " + config.getProperty(Constants.CONF_HMAC_REISSUE_CACHE_SIZE) + "\n" );
 
 			str.append( "\n--URL Specific Configuration--\n" );
-			for(String url : urlSpecificConfig.keySet())
+			for(Map.Entry<String,Long> entry : config.getUrlSpecificConfig().entrySet())
 			{
-				str.append( "url: " + url + "   timeout: "+ urlSpecificConfig.get(url) + "\n" );
+				str.append( "url: " + entry.getKey() + "   timeout: "+ entry.getValue() + "\n" );
 			}
 		}
-		else if(isSessionMode())
+		else if(config.isDoubleSubmitMode())
+		{
+			str.append( "\n++Double Submit Cookie Protection Mode Settings++\n" );
+			str.append( Constants.CONF_DOUBLESUBMIT_COOKIE_NAME + ": " + config.getProperty(Constants.CONF_DOUBLESUBMIT_COOKIE_NAME) + "\n" );
+			str.append( Constants.CONF_DOUBLESUBMIT_COOKIE_PATH + ": " + config.getProperty(Constants.CONF_DOUBLESUBMIT_COOKIE_PATH) + "\n" );
+			str.append( Constants.CONF_DOUBLESUBMIT_COOKIE_SECURE + ": " + config.getProperty(Constants.CONF_DOUBLESUBMIT_COOKIE_SECURE) + "\n" );
+			str.append( Constants.CONF_HMAC_KEYFILE + ": " + config.getProperty(Constants.CONF_HMAC_KEYFILE) + "\n" );
+			str.append( Constants.CONF_SESSION_PRNG_ALGORITHM + ": " + config.getProperty(Constants.CONF_SESSION_PRNG_ALGORITHM) + "\n" );
+			str.append( Constants.CONF_SESSION_PRNG_RESEED + ": " + config.getProperty(Constants.CONF_SESSION_PRNG_RESEED) + "\n" );
+		}
+		else if(config.isSessionMode())
 		{
 			str.append( "\n++Session Protection Mode Settings++\n" );
+			str.append( Constants.CONF_SESSION_PRNG_ALGORITHM + ": " + config.getProperty(Constants.CONF_SESSION_PRNG_ALGORITHM) + "\n" );
+			str.append( Constants.CONF_SESSION_PRNG_RESEED + ": " + config.getProperty(Constants.CONF_SESSION_PRNG_RESEED) + "\n" );
+			str.append( Constants.CONF_SESSION_URLSPECIFIC_CAPACITY + ": " + config.getProperty(Constants.CONF_SESSION_URLSPECIFIC_CAPACITY) + "\n" );
+			str.append( Constants.CONF_SESSION_URLSPECIFIC_TTL + ": " + config.getProperty(Constants.CONF_SESSION_URLSPECIFIC_TTL) + "\n" );
+			str.append( Constants.CONF_SESSION_TOKEN_STORE + ": " + config.getProperty(Constants.CONF_SESSION_TOKEN_STORE) + "\n" );
+			str.append( Constants.CONF_SESSION_TOKEN_STORE_IDLE + ": " + config.getProperty(Constants.CONF_SESSION_TOKEN_STORE_IDLE) + "\n" );
 			
 			str.append( "\n--URL Specific Configuration--\n" );
-			for(String url : urlSpecificConfig.keySet())
+			for(String url : config.getUrlSpecificConfig().keySet())
 			{
 				str.append( "url: " + url + "\n" );
 			}
 			
 			str.append( "\n--One Time Use Configuration--\n" );
-			for(String url : oneTimeUseConfig.keySet())
+			for(String url : config.getOneTimeUseConfig())
 			{
 				str.append( "url: " + url + "\n" );
 			}
@@ -506,24 +825,36 @@ public class ConfigUtil
 	
 	public static String getProp(String configProperty)
 	{
-        try {
-            return csrfConfig.getProperty(configProperty);
-        } catch (Exception e) {
-            LOG.warning("Failed to find property: " + configProperty + " exmsg= " + e.getMessage());
-            return Constants.defaultConfigs.get(configProperty);
-        }
+		ConfigSnapshot config = snapshot;
+		
+		if(config == null)
+		{
+			LOG.warning("AntiCSRF configuration has not been loaded, using default for property: {}", configProperty);
+			return Constants.defaultConfigs.get(configProperty);
+		}
+		
+		return config.getProperty(configProperty);
 	}
 	
 	public static KeyczarWrapper getKeyczarWrapper()
 	{
-		return keyczarWrapper;
+		ConfigSnapshot config = snapshot;
+		return (config != null ? config.getKeyczarWrapper() : null);
+	}
+	
+	public static TokenEntropyEngine getTokenEntropyEngine()
+	{
+		ConfigSnapshot config = snapshot;
+		return (config != null ? config.getTokenEntropyEngine() : null);
 	}
 	
 	public static boolean isURLExempt(String url)
 	{		
-		if( exemptUrls.containsKey(url) )
+		ConfigSnapshot config = snapshot;
+		
+		if( config != null && config.isURLExempt(url) )
 		{
-			LOG.fine("Current url is configured to be exempt from CSRF Protection, url="+url);
+			LOG.fine("Current url is configured to be exempt from CSRF Protection, url={}", url);
 			return true;
 		}
 		
@@ -532,27 +863,31 @@ public class ConfigUtil
 	
 	public static boolean hasOneTimeUseConfig(String url)
 	{
-		LOG.fine("About to check if token is configured for OneTimeUser: RequestURI="+StringUtil.stripNewlines(url));
-		return oneTimeUseConfig.containsKey(url);
+		ConfigSnapshot config = snapshot;
+		return (config != null && config.hasOneTimeUseConfig(url));
 	}
 	
 	public static boolean hasUrlSpecificConfig(String url)
 	{
-		return urlSpecificConfig.containsKey(url);
+		ConfigSnapshot config = snapshot;
+		return (config != null && config.hasUrlSpecificConfig(url));
 	}
 	
 	public static Long getUrlSpecificConfig(String url)
 	{
-		return urlSpecificConfig.get(url);
+		ConfigSnapshot config = snapshot;
+		return (config != null ? config.getUrlSpecificTimeout(url) : null);
 	}
 	
 	public static boolean isHmacMode()
 	{
-		return csrfConfig.getProperty(Constants.CONF_MODE).equals(Constants.MODES.hmac.toString());
+		ConfigSnapshot config = snapshot;
+		return (config != null && config.isHmacMode());
 	}
 	
 	public static boolean isSessionMode()
 	{
-		return csrfConfig.getProperty(Constants.CONF_MODE).equals(Constants.MODES.session.toString());
+		ConfigSnapshot config = snapshot;
+		return (config != null && config.isSessionMode());
 	}
 }
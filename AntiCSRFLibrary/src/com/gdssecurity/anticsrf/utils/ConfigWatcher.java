@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+
+/*
+ * Watches the AntiCSRF configuration file and reloads it when it changes. The
+ * file is polled from a single daemon thread, so parsing, validation and the
+ * Keyczar keyset load all happen off the request path. A new configuration only
+ * becomes active once it compiled successfully, ConfigUtil then swaps the whole
+ * snapshot in one volatile write. A broken file is logged and the previous
+ * configuration stays active.
+ */
+public class ConfigWatcher
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(ConfigWatcher.class);
+	
+	private final File configFile;
+	private final long intervalSeconds;
+	private ScheduledExecutorService executor;
+	
+	private long lastModified;
+	private long lastLength;
+	
+	public ConfigWatcher(String configFilename, long intervalSeconds)
+	{
+		this.configFile = new File(configFilename);
+		this.intervalSeconds = intervalSeconds;
+		this.lastModified = configFile.lastModified();
+		this.lastLength = configFile.length();
+	}
+	
+	public String getConfigFilename()
+	{
+		return configFile.getPath();
+	}
+	
+	public long getIntervalSeconds()
+	{
+		return intervalSeconds;
+	}
+	
+	public synchronized void start()
+	{
+		if(executor != null)
+		{
+			return;
+		}
+		
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AntiCSRF-ConfigWatcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkForChanges();
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		
+		LOG.info("Watching AntiCSRF configuration file for changes. file={}, interval={}s", 
+				configFile.getPath(), intervalSeconds);
+	}
+	
+	public synchronized void stop()
+	{
+		if(executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	void checkForChanges()
+	{
+		try
+		{
+			long modified = configFile.lastModified();
+			long length = configFile.length();
+			
+			if(modified == lastModified && length == lastLength)
+			{
+				return;
+			}
+			
+			lastModified = modified;
+			lastLength = length;
+			
+			if(modified == 0L)
+			{
+				LOG.warning("AntiCSRF configuration file is no longer readable, keeping the current configuration. file={}", 
+						configFile.getPath());
+				return;
+			}
+			
+			LOG.info("AntiCSRF configuration file changed, reloading. file={}", configFile.getPath());
+			reloadNow();
+		}
+		catch(RuntimeException ex)
+		{
+			// Never let an unexpected error kill the watcher thread
+			LOG.severe("Unexpected error while checking the AntiCSRF configuration file, exception={}", ex.getMessage());
+		}
+	}
+	
+	/*
+	 * Reloads the configuration file immediately. Returns false if the file could
+	 * not be loaded, in which case the current configuration is left active.
+	 */
+	public boolean reloadNow()
+	{
+		try
+		{
+			ConfigUtil.loadConfig(configFile.getPath());
+			return true;
+		}
+		catch(CSRFConfigException ex)
+		{
+			LOG.severe("Failed to reload AntiCSRF configuration, keeping the current configuration. exception={}", 
+					ex.getMessage());
+			return false;
+		}
+	}
+}
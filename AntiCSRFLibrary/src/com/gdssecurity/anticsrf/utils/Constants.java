@@ -24,10 +24,37 @@ import java.util.Map;
 public class Constants 
 {
 	public static enum MODES {
-		session, hmac
+		session, hmac, doublesubmit
+	}
+	
+	public static enum ERROR_MODES {
+		redirect, forward, status_code
+	}
+	
+	public static enum TOKEN_GENERATION_MODES {
+		lazy, eager
+	}
+	
+	public static enum TOKEN_SOURCES {
+		header, query, multipart, json, body
+	}
+	
+	public static enum TOKEN_STORES {
+		session, memory, local_kv
+	}
+	
+	public static enum EVENT_SINKS {
+		jul, file, memory, none
+	}
+	
+	public static enum HMAC_TOKEN_FORMATS {
+		legacy, compact
 	}
 	
 	public static final String CONF_INITPARAMNAME = "anticsrf_config";
+	public static final String CONF_RELOAD_INITPARAMNAME = "anticsrf_config_reload";
+	public static final String CONF_JMX_INITPARAMNAME = "anticsrf_jmx";
+	public static final String CONF_ASYNC_TIMEOUT_INITPARAMNAME = "anticsrf_async_timeout";
 	public static final String CONFIGNAME = "anticsrf.xml";
 	public static final String JAVA_LOGGING_CONF = "logging_configfile";
 	public static final String WEB_CONTAINER = "WEB-INF";
@@ -37,9 +64,24 @@ public class Constants
 	public static final String CONF_HMAC_USERSEED_ATTR = "seed_attribute_name";
 	public static final String CONF_HMAC_SITEWIDE_TIMEOUT = "sitewide_timeout";
 	public static final String CONF_HMAC_KEYFILE = "keyfile";
+	public static final String CONF_HMAC_TOKEN_FORMAT = "token_format";
+	public static final String CONF_HMAC_MAC_LENGTH = "mac_length";
+	public static final String CONF_HMAC_REISSUE_FRACTION = "reissue_fraction";
+	public static final String CONF_HMAC_REISSUE_CACHE_SIZE = "reissue_cache_size";
 	
 	public static final String CONF_SESSIONSETTINGS = "session_settings";
 	public static final String CONF_SESSION_ONETIMEUSE = "onetimeuse";
+	public static final String CONF_SESSION_PRNG_ALGORITHM = "prng_algorithm";
+	public static final String CONF_SESSION_PRNG_RESEED = "prng_reseed_interval";
+	public static final String CONF_SESSION_URLSPECIFIC_CAPACITY = "urlspecific_capacity";
+	public static final String CONF_SESSION_URLSPECIFIC_TTL = "urlspecific_ttl";
+	public static final String CONF_SESSION_TOKEN_STORE = "token_store";
+	public static final String CONF_SESSION_TOKEN_STORE_IDLE = "token_store_idle_timeout";
+	
+	public static final String CONF_DOUBLESUBMITSETTINGS = "doublesubmit_settings";
+	public static final String CONF_DOUBLESUBMIT_COOKIE_NAME = "cookie_name";
+	public static final String CONF_DOUBLESUBMIT_COOKIE_PATH = "cookie_path";
+	public static final String CONF_DOUBLESUBMIT_COOKIE_SECURE = "cookie_secure";
 		
 	public static final String CONF_MODE = "mode";
 	public static final String CONF_MONITORMODE = "monitormode";
@@ -50,11 +92,43 @@ public class Constants
 	public static final String CONF_TOKEN_PARAM = "token_parametername";
 	public static final String CONF_URLSPECIFIC = "urlspecific";
 	public static final String CONF_ERROR_AJAX = "ajax";
+	public static final String CONF_TOKEN_GENERATION = "token_generation";
+	public static final String CONF_TOKEN_SOURCES = "token_sources";
+	public static final String CONF_TOKEN_SOURCE = "source";
+	public static final String CONF_TOKEN_HEADER = "token_header_name";
+	public static final String CONF_BODY_SCAN_LIMIT = "body_scan_limit";
+	public static final String CONF_TOKEN_JSON_FIELD = "token_json_field";
+	public static final String CONF_EVENT_SINK = "event_sink";
+	public static final String CONF_EVENT_FILE = "event_file";
+	public static final String CONF_EVENT_BUFFER_SIZE = "event_buffer_size";
+	public static final String CONF_METRICS = "metrics";
+	
+	public static final String TOKEN_SUPPLIER_ATTR = "com.gdssecurity.anticsrf.tokensupplier";
+	public static final String TOKEN_LOOKUP_ATTR = "com.gdssecurity.anticsrf.tokenlookup";
+	public static final String SESSION_WRITER_ATTR = "com.gdssecurity.anticsrf.sessionwriter";
+	public static final String ASYNC_BODY_ATTR = "com.gdssecurity.anticsrf.asyncbody";
 
 	public static final String CONF_DEFAULT_TOKEN_REQATTR = "anticsrftoken";
 	public static final String CONF_DEFAULT_USERSEED_ATTR = "userseed";
 	public static final String CONF_DEFAULT_TOKEN_PARAM = "tok";
 	public static final String CONF_DEFAULT_TOKENTIMEOUT = "30";
+	public static final String CONF_DEFAULT_TOKEN_GENERATION = "eager";
+	public static final String CONF_DEFAULT_TOKEN_HEADER = "X-CSRF-Token";
+	public static final String CONF_DEFAULT_BODY_SCAN_LIMIT = "65536";
+	public static final String CONF_DEFAULT_EVENT_SINK = "jul";
+	public static final String CONF_DEFAULT_EVENT_BUFFER_SIZE = "8192";
+	public static final String CONF_DEFAULT_HMAC_TOKEN_FORMAT = "legacy";
+	public static final String CONF_DEFAULT_HMAC_REISSUE_FRACTION = "0.5";
+	public static final String CONF_DEFAULT_HMAC_REISSUE_CACHE_SIZE = "16384";
+	public static final String CONF_DEFAULT_PRNG_ALGORITHM = "SHA1PRNG";
+	public static final String CONF_DEFAULT_PRNG_RESEED = "100000";
+	public static final String CONF_DEFAULT_URLSPECIFIC_CAPACITY = "256";
+	public static final String CONF_DEFAULT_URLSPECIFIC_TTL = "0";
+	public static final String CONF_DEFAULT_TOKEN_STORE = "session";
+	public static final String CONF_DEFAULT_TOKEN_STORE_IDLE = "1800";
+	public static final String CONF_DEFAULT_DOUBLESUBMIT_COOKIE_NAME = "anticsrf_token";
+	public static final String CONF_DEFAULT_DOUBLESUBMIT_COOKIE_PATH = "/";
+	public static final String CONF_DEFAULT_ASYNC_TIMEOUT = "30";
 
     public static final Map<String, String> defaultConfigs;
     static
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/*
+ * TokenSigner built directly on javax.crypto.Mac. Each key keeps a lock-free pool
+ * of initialized Macs so signing a token is a single update/doFinal with no
+ * provider lookup, key setup or intermediate Strings. A pool rather than one Mac
+ * per thread, because with a virtual thread per request a ThreadLocal would set
+ * up a new Mac for every token.
+ * 
+ * Signatures are laid out exactly as Keyczar lays out HMAC_SHA1 signatures (a zero
+ * format byte, the first four bytes of the SHA-1 of the key, then the MAC over the
+ * data followed by the format byte), so tokens issued by either implementation
+ * verify with the other and existing keysets keep working unchanged.
+ */
+public class JcaMacSigner implements TokenSigner
+{
+	private static final String KEYCZAR_TYPE = "HMAC_SHA1";
+	private static final String MAC_ALGORITHM = "HmacSHA1";
+	private static final byte FORMAT_VERSION = 0;
+	private static final int HEADER_SIZE = 1 + KEY_ID_LENGTH;
+	
+	private final MacKey primaryKey;
+	private final MacKey[] keys;
+	private final int macLength;
+	
+	/*
+	 * primaryKey is used for signing. All of keys (which should include the
+	 * primary) are accepted during verification. 
+	 */
+	public JcaMacSigner(byte[] primaryKey, List<byte[]> keys) throws CSRFSignerException
+	{
+		this.primaryKey = new MacKey(primaryKey);
+		this.keys = new MacKey[keys.size()];
+		
+		for(int i = 0; i < this.keys.length; i++)
+		{
+			this.keys[i] = new MacKey(keys.get(i));
+		}
+		
+		this.macLength = this.primaryKey.macLength;
+	}
+	
+	/*
+	 * Loads an unencrypted HMAC_SHA1 Keyczar keyset directory. Any other keyset is
+	 * rejected with a CSRFSignerException so the caller can fall back to Keyczar.
+	 */
+	public static JcaMacSigner fromKeyczarKeyset(String location) throws CSRFSignerException
+	{
+		JsonObject meta = readJson(new File(location, "meta"));
+		
+		if(!KEYCZAR_TYPE.equals(getString(meta, "type")))
+		{
+			throw new CSRFSignerException("Unsupported keyset type for JCA signer, type=" 
+					+ getString(meta, "type"));
+		}
+		
+		if(meta.has("encrypted") && meta.get("encrypted").getAsBoolean())
+		{
+			throw new CSRFSignerException("Encrypted keysets are not supported by the JCA signer");
+		}
+		
+		byte[] primary = null;
+		List<byte[]> keys = new ArrayList<byte[]>();
+		JsonArray versions = meta.getAsJsonArray("versions");
+		
+		if(versions != null)
+		{
+			for(JsonElement element : versions)
+			{
+				JsonObject version = element.getAsJsonObject();
+				int versionNumber = version.get("versionNumber").getAsInt();
+				
+				JsonObject key = readJson(new File(location, String.valueOf(versionNumber)));
+				byte[] keyBytes = WebSafeBase64.decode(getString(key, "hmacKeyString"));
+				if(keyBytes == null || keyBytes.length == 0)
+				{
+					throw new CSRFSignerException("Invalid HMAC key material in keyset version " 
+							+ versionNumber);
+				}
+				
+				keys.add(keyBytes);
+				if("PRIMARY".equals(getString(version, "status")))
+				{
+					primary = keyBytes;
+				}
+			}
+		}
+		
+		if(primary == null)
+		{
+			throw new CSRFSignerException("Keyset does not contain a primary key, location=" + location);
+		}
+		
+		return new JcaMacSigner(primary, keys);
+	}
+	
+	@Override
+	public byte[] sign(byte[] data, int offset, int length) throws CSRFSignerException
+	{
+		byte[] mac = computeMac(primaryKey, data, offset, length);
+		byte[] signature = new byte[HEADER_SIZE + mac.length];
+		
+		signature[0] = FORMAT_VERSION;
+		System.arraycopy(primaryKey.hash, 0, signature, 1, KEY_ID_LENGTH);
+		System.arraycopy(mac, 0, signature, HEADER_SIZE, mac.length);
+		
+		return signature;
+	}
+	
+	@Override
+	public boolean verify(byte[] data, int offset, int length, byte[] signature) throws CSRFSignerException
+	{
+		if(signature == null || signature.length != HEADER_SIZE + macLength || signature[0] != FORMAT_VERSION)
+		{
+			return false;
+		}
+		
+		MacKey key = findKey(signature, 1);
+		if(key == null)
+		{
+			return false;
+		}
+		
+		byte[] expected = computeMac(key, data, offset, length);
+		return regionEquals(expected, signature, HEADER_SIZE, macLength);
+	}
+	
+	@Override
+	public int getMacLength()
+	{
+		return macLength;
+	}
+	
+	@Override
+	public void signTruncated(byte[] data, int offset, int length, 
+			byte[] out, int outOffset, int macLength) throws CSRFSignerException
+	{
+		byte[] mac = computeMac(primaryKey, data, offset, length);
+		
+		System.arraycopy(primaryKey.hash, 0, out, outOffset, KEY_ID_LENGTH);
+		System.arraycopy(mac, 0, out, outOffset + KEY_ID_LENGTH, macLength);
+	}
+	
+	@Override
+	public boolean verifyTruncated(byte[] data, int offset, int length, 
+			byte[] in, int inOffset, int macLength) throws CSRFSignerException
+	{
+		MacKey key = findKey(in, inOffset);
+		if(key == null)
+		{
+			return false;
+		}
+		
+		byte[] expected = computeMac(key, data, offset, length);
+		return regionEquals(expected, in, inOffset + KEY_ID_LENGTH, macLength);
+	}
+	
+	private static byte[] computeMac(MacKey key, byte[] data, int offset, int length) throws CSRFSignerException
+	{
+		Mac mac = key.borrowMac();
+		try
+		{
+			mac.update(data, offset, length);
+			mac.update(FORMAT_VERSION);
+			return mac.doFinal();
+		}
+		finally
+		{
+			// doFinal leaves the Mac reset and ready for the next caller
+			key.releaseMac(mac);
+		}
+	}
+	
+	/*
+	 * Constant time comparison of the first length bytes of expected against
+	 * actual starting at offset.
+	 */
+	private static boolean regionEquals(byte[] expected, byte[] actual, int offset, int length)
+	{
+		if(length > expected.length || offset + length > actual.length)
+		{
+			return false;
+		}
+		
+		int result = 0;
+		for(int i = 0; i < length; i++)
+		{
+			result |= expected[i] ^ actual[offset + i];
+		}
+		
+		return result == 0;
+	}
+	
+	private MacKey findKey(byte[] keyId, int offset)
+	{
+		if(offset + KEY_ID_LENGTH > keyId.length)
+		{
+			return null;
+		}
+		
+		for(int i = 0; i < keys.length; i++)
+		{
+			byte[] hash = keys[i].hash;
+			if(hash[0] == keyId[offset] && hash[1] == keyId[offset+1] 
+					&& hash[2] == keyId[offset+2] && hash[3] == keyId[offset+3])
+			{
+				return keys[i];
+			}
+		}
+		
+		return null;
+	}
+	
+	private static JsonObject readJson(File file) throws CSRFSignerException
+	{
+		Reader reader = null;
+		try
+		{
+			reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+			return new JsonParser().parse(reader).getAsJsonObject();
+		}
+		catch (IOException e)
+		{
+			throw new CSRFSignerException(e);
+		}
+		catch (RuntimeException e)
+		{
+			throw new CSRFSignerException("Unable to parse keyset file " + file.getPath() 
+					+ ", exceptionmessage=" + e.getMessage());
+		}
+		finally
+		{
+			if(reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e)
+				{
+					// Nothing useful to do here
+				}
+			}
+		}
+	}
+	
+	private static String getString(JsonObject object, String name)
+	{
+		JsonElement element = object.get(name);
+		return (element == null || element.isJsonNull() ? null : element.getAsString());
+	}
+	
+	/*
+	 * A single HMAC key, its Keyczar key hash and the idle Mac instances
+	 * initialized with it. The pool grows to the number of tokens signed at the
+	 * same time and a Mac is only created when none is idle.
+	 */
+	private static class MacKey
+	{
+		private final SecretKeySpec keySpec;
+		private final byte[] hash;
+		private final int macLength;
+		private final ConcurrentLinkedQueue<Mac> idleMacs = new ConcurrentLinkedQueue<Mac>();
+		
+		MacKey(byte[] keyBytes) throws CSRFSignerException
+		{
+			this.keySpec = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+			
+			try
+			{
+				byte[] digest = MessageDigest.getInstance("SHA-1").digest(keyBytes);
+				this.hash = new byte[KEY_ID_LENGTH];
+				System.arraycopy(digest, 0, hash, 0, KEY_ID_LENGTH);
+				
+				// Fail now rather than on the first request if the provider cannot do HmacSHA1
+				Mac mac = newMac();
+				this.macLength = mac.getMacLength();
+				idleMacs.offer(mac);
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new CSRFSignerException(e);
+			}
+		}
+		
+		Mac borrowMac() throws CSRFSignerException
+		{
+			Mac mac = idleMacs.poll();
+			if(mac != null)
+			{
+				return mac;
+			}
+			
+			try
+			{
+				return newMac();
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new CSRFSignerException(e);
+			}
+		}
+		
+		void releaseMac(Mac mac)
+		{
+			idleMacs.offer(mac);
+		}
+		
+		private Mac newMac() throws GeneralSecurityException
+		{
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(keySpec);
+			return mac;
+		}
+	}
+}
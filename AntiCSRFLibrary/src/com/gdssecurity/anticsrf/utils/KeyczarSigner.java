@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import org.keyczar.Signer;
+import org.keyczar.exceptions.KeyczarException;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
+
+/*
+ * TokenSigner backed by the Keyczar library. Used for keysets the JCA signer does
+ * not understand (encrypted keysets or key types other than HMAC_SHA1).
+ * 
+ * Keyczar does not expose its MAC directly, so truncated signatures are taken
+ * from a full Keyczar signature (header byte, key hash, MAC) and can only be
+ * verified against the primary key.
+ */
+public class KeyczarSigner implements TokenSigner
+{
+	private static final int HEADER_SIZE = 1 + KEY_ID_LENGTH;
+	
+	private final Signer signer;
+	private final byte[] primaryKeyId;
+	private final int macLength;
+	
+	public KeyczarSigner(Signer signer) throws CSRFSignerException
+	{
+		this.signer = signer;
+		
+		byte[] probe = sign(new byte[0], 0, 0);
+		this.primaryKeyId = new byte[KEY_ID_LENGTH];
+		System.arraycopy(probe, 1, primaryKeyId, 0, KEY_ID_LENGTH);
+		this.macLength = probe.length - HEADER_SIZE;
+	}
+	
+	@Override
+	public byte[] sign(byte[] data, int offset, int length) throws CSRFSignerException
+	{
+		try
+		{
+			return signer.sign(slice(data, offset, length));
+		}
+		catch (KeyczarException e)
+		{
+			throw new CSRFSignerException(e);
+		}
+	}
+	
+	@Override
+	public boolean verify(byte[] data, int offset, int length, byte[] signature) throws CSRFSignerException
+	{
+		try
+		{
+			return signer.verify(slice(data, offset, length), signature);
+		}
+		catch (KeyczarException e)
+		{
+			throw new CSRFSignerException(e);
+		}
+	}
+	
+	@Override
+	public int getMacLength()
+	{
+		return macLength;
+	}
+	
+	@Override
+	public void signTruncated(byte[] data, int offset, int length, 
+			byte[] out, int outOffset, int macLength) throws CSRFSignerException
+	{
+		byte[] signature = sign(data, offset, length);
+		System.arraycopy(signature, 1, out, outOffset, KEY_ID_LENGTH + macLength);
+	}
+	
+	@Override
+	public boolean verifyTruncated(byte[] data, int offset, int length, 
+			byte[] in, int inOffset, int macLength) throws CSRFSignerException
+	{
+		byte[] signature = sign(data, offset, length);
+		
+		int result = 0;
+		for(int i = 0; i < KEY_ID_LENGTH; i++)
+		{
+			result |= primaryKeyId[i] ^ in[inOffset + i];
+		}
+		
+		for(int i = 0; i < macLength; i++)
+		{
+			result |= signature[HEADER_SIZE + i] ^ in[inOffset + KEY_ID_LENGTH + i];
+		}
+		
+		return result == 0;
+	}
+	
+	private static byte[] slice(byte[] data, int offset, int length)
+	{
+		if(offset == 0 && length == data.length)
+		{
+			return data;
+		}
+		
+		byte[] copy = new byte[length];
+		System.arraycopy(data, offset, copy, 0, length);
+		return copy;
+	}
+}
@@ -21,23 +21,58 @@ import org.keyczar.Signer;
 import org.keyczar.exceptions.KeyczarException;
 
 import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
 
+/*
+ * Holds the signer used for HMAC-mode tokens. Plain HMAC_SHA1 keysets are loaded
+ * into a JcaMacSigner, anything else is handled by the Keyczar library through
+ * KeyczarSigner. The Keyczar Signer itself is only created when it is needed.
+ */
 public class KeyczarWrapper {
 
-	private Signer csrfSigner = null;
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(KeyczarWrapper.class);
+	
+	private final String hmacKeyfile;
+	private final TokenSigner tokenSigner;
+	private volatile Signer csrfSigner = null;
 	
 	public KeyczarWrapper(String hmacKeyfile) throws CSRFSignerException
 	{
+		this.hmacKeyfile = hmacKeyfile;
+		
+		TokenSigner signer;
 		try {
-			csrfSigner = new Signer(hmacKeyfile);
-		} catch (KeyczarException e) {
-			throw new CSRFSignerException(e);
+			signer = JcaMacSigner.fromKeyczarKeyset(hmacKeyfile);
+		} catch (CSRFSignerException e) {
+			LOG.info("Keyset can not be loaded by the JCA signer, falling back to Keyczar, which " +
+					"synchronizes internally and can pin virtual threads. reason={}", e.getMessage());
+			signer = new KeyczarSigner(getCSRFSigner());
 		}
+		
+		this.tokenSigner = signer;
 	}
 	
-	public Signer getCSRFSigner()
+	public TokenSigner getTokenSigner()
 	{
-		return this.csrfSigner;
+		return this.tokenSigner;
+	}
+	
+	public Signer getCSRFSigner() throws CSRFSignerException
+	{
+		Signer signer = this.csrfSigner;
+		if(signer == null)
+		{
+			try {
+				signer = new Signer(hmacKeyfile);
+			} catch (KeyczarException e) {
+				throw new CSRFSignerException(e);
+			}
+			
+			this.csrfSigner = signer;
+		}
+		
+		return signer;
 	}
 	
 }
@@ -18,6 +18,10 @@
 package com.gdssecurity.anticsrf.utils;
 
 public class StringUtil {
+    /*
+     * Removes CR and LF so request data can not forge log lines. Returns str
+     * itself, without allocating, when it contains neither.
+     */
     public static String stripNewlines(String str)
     {
         if(str == null)
@@ -25,6 +29,55 @@ public class StringUtil {
             return "";
         }
 
-        return str.replaceAll("(\\r|\\n)", "");
+        int first = indexOfNewline(str, 0);
+        if(first < 0)
+        {
+            return str;
+        }
+
+        StringBuilder stripped = new StringBuilder(str.length() - 1);
+        appendStripped(stripped, str, first);
+        return stripped.toString();
+    }
+
+    /*
+     * Appends str to builder without its CR and LF characters
+     */
+    public static void appendStripped(StringBuilder builder, String str)
+    {
+        if(str == null)
+        {
+            return;
+        }
+
+        appendStripped(builder, str, indexOfNewline(str, 0));
+    }
+
+    private static void appendStripped(StringBuilder builder, String str, int newline)
+    {
+        int start = 0;
+
+        while(newline >= 0)
+        {
+            builder.append(str, start, newline);
+            start = newline + 1;
+            newline = indexOfNewline(str, start);
+        }
+
+        builder.append(str, start, str.length());
+    }
+
+    private static int indexOfNewline(String str, int start)
+    {
+        for(int i = start; i < str.length(); i++)
+        {
+            char c = str.charAt(i);
+            if(c == '\r' || c == '\n')
+            {
+                return i;
+            }
+        }
+
+        return -1;
     }
 }
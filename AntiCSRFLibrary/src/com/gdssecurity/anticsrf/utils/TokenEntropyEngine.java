@@ -0,0 +1,274 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+import com.gdssecurity.anticsrf.logging.CSRFLogger;
+import com.gdssecurity.anticsrf.logging.CSRFLoggerFactory;
+
+/*
+ * Source of randomness for session-mode tokens. Instead of looking up and seeding
+ * a new SecureRandom for every token, a fixed set of stripes (a power of two, at
+ * least twice the number of cores) each own an instance. A thread claims a free
+ * stripe with a compare-and-set, starting from one picked by its thread id, and
+ * releases it once its bytes are drawn. SecureRandom implementations synchronize
+ * internally, but as only the claiming thread ever enters a stripe's instance that
+ * monitor is never contended, so a virtual thread never blocks or parks while
+ * holding it and cannot pin its carrier.
+ * 
+ * A thread that finds every stripe busy after CLAIM_PASSES passes parks for
+ * CLAIM_PARK_NANOS before trying again instead of spinning. Parking holds no
+ * monitor, so a virtual thread unmounts and a platform thread gives up its core
+ * to the stripe holders. Falling back to an instance per thread would not help,
+ * creating one takes the shared seed source's monitor.
+ * 
+ * New instances are seeded explicitly from NativePRNGNonBlocking (/dev/urandom)
+ * when available so that creating or reseeding an instance never waits on the
+ * blocking entropy pool. After reseedInterval tokens a stripe swaps in a freshly
+ * seeded instance. The provider lookup and the read from /dev/urandom happen on a
+ * background reseed thread, request threads keep using the previous instance
+ * until the new one is published.
+ */
+public class TokenEntropyEngine
+{
+	private static final CSRFLogger LOG = CSRFLoggerFactory.getLogger(TokenEntropyEngine.class);
+	
+	private static final int SEED_LENGTH = 32;
+	private static final long RESEED_THREAD_IDLE_SECONDS = 30;
+	private static final int CLAIM_PASSES = 2;
+	private static final long CLAIM_PARK_NANOS = 20 * 1000;
+	
+	/*
+	 * Shared by every engine. The thread exits when there is nothing to reseed so
+	 * an undeployed application does not leave it behind.
+	 */
+	private static final Executor RESEEDER;
+	static
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, RESEED_THREAD_IDLE_SECONDS, 
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(r, "anticsrf-prng-reseed");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		RESEEDER = executor;
+	}
+	
+	private final String algorithm;
+	private final long reseedInterval;
+	private final SecureRandom seedSource;
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	
+	public TokenEntropyEngine(String algorithm, long reseedInterval) throws CSRFConfigException
+	{
+		this.algorithm = algorithm;
+		this.reseedInterval = reseedInterval;
+		this.seedSource = getNonBlockingSeedSource();
+		
+		int stripeCount = 1;
+		while(stripeCount < Runtime.getRuntime().availableProcessors() * 2)
+		{
+			stripeCount <<= 1;
+		}
+		
+		this.stripes = new Stripe[stripeCount];
+		this.stripeMask = stripeCount - 1;
+		
+		try
+		{
+			for(int i = 0; i < stripeCount; i++)
+			{
+				stripes[i] = new Stripe(newInstance());
+			}
+		}
+		catch(NoSuchAlgorithmException ex)
+		{
+			String err = "Configured SecureRandom algorithm is not available. algorithm=" + algorithm
+					+ ", exceptionMessage=" + ex.getMessage();
+			LOG.severe(err);
+			throw new CSRFConfigException(err);
+		}
+	}
+	
+	public String getAlgorithm()
+	{
+		return algorithm;
+	}
+	
+	public long getReseedInterval()
+	{
+		return reseedInterval;
+	}
+	
+	public void nextBytes(byte[] bytes)
+	{
+		Stripe stripe = claimStripe();
+		try
+		{
+			stripe.random.nextBytes(bytes);
+		}
+		finally
+		{
+			stripe.inUse.set(false);
+		}
+		
+		if(reseedInterval > 0 && stripe.uses.incrementAndGet() >= reseedInterval)
+		{
+			reseed(stripe);
+		}
+	}
+	
+	private Stripe claimStripe()
+	{
+		int start = (int) Thread.currentThread().getId();
+		
+		while(true)
+		{
+			for(int pass = 0; pass < CLAIM_PASSES; pass++)
+			{
+				for(int i = 0; i <= stripeMask; i++)
+				{
+					Stripe stripe = stripes[(start + i) & stripeMask];
+					if(!stripe.inUse.get() && stripe.inUse.compareAndSet(false, true))
+					{
+						return stripe;
+					}
+				}
+			}
+			
+			// Every stripe is busy, only possible with more running threads than stripes
+			LockSupport.parkNanos(CLAIM_PARK_NANOS);
+		}
+	}
+	
+	private void reseed(final Stripe stripe)
+	{
+		// Only one thread schedules a stripe's replacement, the others carry on with the current one
+		if(!stripe.reseeding.compareAndSet(false, true))
+		{
+			return;
+		}
+		
+		try
+		{
+			RESEEDER.execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						stripe.random = newInstance();
+						stripe.uses.set(0);
+						LOG.fine("Reseeded SecureRandom stripe, algorithm={}", algorithm);
+					}
+					catch(NoSuchAlgorithmException ex)
+					{
+						// Keep using the existing instance. This can only happen if the provider went away after startup
+						LOG.severe("Failed to reseed SecureRandom stripe, algorithm={}, exceptionMessage={}", 
+								algorithm, ex.getMessage());
+					}
+					finally
+					{
+						stripe.reseeding.set(false);
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException ex)
+		{
+			stripe.reseeding.set(false);
+		}
+	}
+	
+	private SecureRandom newInstance() throws NoSuchAlgorithmException
+	{
+		SecureRandom sr;
+		
+		if(Constants.CONF_DEFAULT_PRNG_ALGORITHM.equals(algorithm))
+		{
+			try 
+			{
+				sr = SecureRandom.getInstance(algorithm, "SUN");
+			}
+			catch (NoSuchProviderException e)
+			{
+				// Let's try and get the preferred one if SUN doesn't exist.
+				sr = SecureRandom.getInstance(algorithm);
+			}
+		}
+		else
+		{
+			sr = SecureRandom.getInstance(algorithm);
+		}
+		
+		if(seedSource != null)
+		{
+			byte[] seed = new byte[SEED_LENGTH];
+			seedSource.nextBytes(seed);
+			sr.setSeed(seed);
+		}
+		
+		return sr;
+	}
+	
+	private static SecureRandom getNonBlockingSeedSource()
+	{
+		try
+		{
+			return SecureRandom.getInstance("NativePRNGNonBlocking");
+		}
+		catch(NoSuchAlgorithmException ex)
+		{
+			LOG.info("NativePRNGNonBlocking is not available on this platform. " +
+					"SecureRandom instances will seed themselves");
+			return null;
+		}
+	}
+	
+	private static class Stripe
+	{
+		volatile SecureRandom random;
+		final AtomicLong uses = new AtomicLong();
+		final AtomicBoolean inUse = new AtomicBoolean();
+		final AtomicBoolean reseeding = new AtomicBoolean();
+		
+		Stripe(SecureRandom random)
+		{
+			this.random = random;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded cache of the most recently issued sitewide HMAC token per user seed.
+ * A cached token is handed out again until its remaining lifetime falls below
+ * reissueFraction of the timeout, at which point the caller signs a new one.
+ * 
+ * The cache is a fixed size, direct mapped table: each seed hashes to exactly one
+ * slot and a colliding seed simply replaces the entry. Memory use is therefore
+ * fixed at construction no matter how many users are active, lookups and updates
+ * are single volatile reads and writes, and the worst case of a collision is an
+ * extra signature.
+ */
+public class TokenReissueCache
+{
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	private final long minRemainingMillis;
+	private final long timeoutMillis;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	/*
+	 * capacity is rounded up to a power of two
+	 */
+	public TokenReissueCache(int capacity, long timeoutSeconds, double reissueFraction)
+	{
+		int size = 1;
+		while(size < capacity)
+		{
+			size <<= 1;
+		}
+		
+		this.slots = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+		this.timeoutMillis = timeoutSeconds * 1000;
+		this.minRemainingMillis = (long) (timeoutMillis * reissueFraction);
+	}
+	
+	public int getCapacity()
+	{
+		return slots.length();
+	}
+	
+	/*
+	 * Returns the cached token for seed if it still has enough lifetime left, or
+	 * null if a new token has to be issued.
+	 */
+	public String get(String seed, long currentTimeMillis)
+	{
+		Entry entry = slots.get(indexFor(seed));
+		
+		if(entry == null || !entry.seed.equals(seed))
+		{
+			misses.increment();
+			return null;
+		}
+		
+		long remaining = entry.issuedMillis + timeoutMillis - currentTimeMillis;
+		if(remaining < minRemainingMillis || remaining > timeoutMillis)
+		{
+			misses.increment();
+			return null;
+		}
+		
+		hits.increment();
+		return entry.token;
+	}
+	
+	public void put(String seed, String token, long issuedMillis)
+	{
+		slots.set(indexFor(seed), new Entry(seed, token, issuedMillis));
+	}
+	
+	public void clear()
+	{
+		for(int i = 0; i < slots.length(); i++)
+		{
+			slots.set(i, null);
+		}
+	}
+	
+	/*
+	 * Lookups answered with a cached token, i.e. signatures saved
+	 */
+	public long getHitCount()
+	{
+		return hits.sum();
+	}
+	
+	public long getMissCount()
+	{
+		return misses.sum();
+	}
+	
+	public void resetCounters()
+	{
+		hits.reset();
+		misses.reset();
+	}
+	
+	private int indexFor(String seed)
+	{
+		int h = seed.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85EBCA6B;
+		h ^= (h >>> 13);
+		return h & mask;
+	}
+	
+	private static final class Entry
+	{
+		final String seed;
+		final String token;
+		final long issuedMillis;
+		
+		Entry(String seed, String token, long issuedMillis)
+		{
+			this.seed = seed;
+			this.token = token;
+			this.issuedMillis = issuedMillis;
+		}
+	}
+}
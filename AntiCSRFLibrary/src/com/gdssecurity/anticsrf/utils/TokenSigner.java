@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFSignerException;
+
+/*
+ * Signs and verifies the raw bytes that make up an HMAC-mode CSRF token. The
+ * signature returned by sign() is the complete binary signature, including any
+ * header the implementation needs to locate the key again, and is what verify()
+ * expects back. Implementations must be safe for concurrent use.
+ * 
+ * The truncated variants are used by the compact token format. They write (and
+ * read back) a KEY_ID_LENGTH byte key identifier followed by the first macLength
+ * bytes of the MAC, so a token can be checked against the key that issued it.
+ */
+public interface TokenSigner
+{
+	public static final int KEY_ID_LENGTH = 4;
+	
+	public byte[] sign(byte[] data, int offset, int length) throws CSRFSignerException;
+	
+	public boolean verify(byte[] data, int offset, int length, byte[] signature) throws CSRFSignerException;
+	
+	/*
+	 * Length in bytes of the untruncated MAC
+	 */
+	public int getMacLength();
+	
+	public void signTruncated(byte[] data, int offset, int length, 
+			byte[] out, int outOffset, int macLength) throws CSRFSignerException;
+	
+	public boolean verifyTruncated(byte[] data, int offset, int length, 
+			byte[] in, int inOffset, int macLength) throws CSRFSignerException;
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+/*
+ * Protection policy that applies to a URL, as resolved by UrlPolicyIndex. A
+ * single configured URL pattern can be listed in several sections of the
+ * configuration (e.g. exempt and urlspecific), in which case its policy carries
+ * all of them and the protections apply their usual precedence.
+ */
+public class UrlPolicy
+{
+	// Policy of URLs that match no configured rule: site-wide protection
+	public static final UrlPolicy NONE = new UrlPolicy(null, false, false, 0L, false);
+	
+	private final String pattern;
+	private final boolean exempt;
+	private final boolean urlSpecific;
+	private final long timeout;
+	private final boolean oneTimeUse;
+	
+	UrlPolicy(String pattern, boolean exempt, boolean urlSpecific, long timeout, boolean oneTimeUse)
+	{
+		this.pattern = pattern;
+		this.exempt = exempt;
+		this.urlSpecific = urlSpecific;
+		this.timeout = timeout;
+		this.oneTimeUse = oneTimeUse;
+	}
+	
+	UrlPolicy withExempt()
+	{
+		return new UrlPolicy(pattern, true, urlSpecific, timeout, oneTimeUse);
+	}
+	
+	UrlPolicy withUrlSpecific(long timeout)
+	{
+		return new UrlPolicy(pattern, exempt, true, timeout, oneTimeUse);
+	}
+	
+	UrlPolicy withOneTimeUse()
+	{
+		return new UrlPolicy(pattern, exempt, urlSpecific, timeout, true);
+	}
+	
+	/*
+	 * The configured pattern this policy was compiled from, null for NONE
+	 */
+	public String getPattern()
+	{
+		return pattern;
+	}
+	
+	public boolean isExempt()
+	{
+		return exempt;
+	}
+	
+	public boolean isUrlSpecific()
+	{
+		return urlSpecific;
+	}
+	
+	/*
+	 * Token timeout in seconds for URL specific tokens in HMAC mode
+	 */
+	public long getTimeout()
+	{
+		return timeout;
+	}
+	
+	public boolean isOneTimeUse()
+	{
+		return oneTimeUse;
+	}
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gdssecurity.anticsrf.exceptions.CSRFConfigException;
+
+/*
+ * Compiled index of the exempt, urlspecific and onetimeuse URL rules. Rules are
+ * stored in a trie keyed by path segment and a request URI is resolved to its
+ * complete UrlPolicy in a single walk over the path, without allocating.
+ * 
+ * Besides literal paths, a rule may use '*' as a whole path segment. As the last
+ * segment it makes a prefix rule: /api/* matches every path below /api/ (but not
+ * /api itself). Anywhere else it matches exactly one segment, so a rule with a '*'
+ * segment between /users/ and /edit matches /users/42/edit.
+ * 
+ * When several rules match, an exact rule wins over a prefix rule and a deeper
+ * prefix rule wins over a shallower one. While walking, literal segments are
+ * tried before wildcard segments. A '*' that is only part of a segment (/img*.png)
+ * is matched literally.
+ * 
+ * Request URIs are normalized the way the container does before it dispatches
+ * them: path parameters (;jsessionid=...) are stripped, escapes are decoded and
+ * empty, '.' and '..' segments are resolved, so /public/../admin is matched as
+ * /admin and /pay/ as /pay. A URI that cannot be normalized safely (a '..' above
+ * the root, an encoded '/' or a backslash, a malformed escape) matches no rule
+ * at all and is protected by the sitewide token.
+ * 
+ * Rule patterns are normalized with the same rules when the index is built, so
+ * /foo/ and /a//b are stored as /foo and /a/b, and a trailing '/*' stays the
+ * prefix marker. A pattern that cannot be normalized is a configuration error.
+ */
+public class UrlPolicyIndex
+{
+	private static final String WILDCARD = "*";
+	
+	private final Node root;
+	private final int ruleCount;
+	
+	private UrlPolicyIndex(Node root, int ruleCount)
+	{
+		this.root = root;
+		this.ruleCount = ruleCount;
+	}
+	
+	public int getRuleCount()
+	{
+		return ruleCount;
+	}
+	
+	/*
+	 * Returns the policy of the most specific rule matching the URI, or
+	 * UrlPolicy.NONE when no rule matches.
+	 */
+	public UrlPolicy resolve(String uri)
+	{
+		String path = normalize(uri);
+		if(path == null)
+		{
+			return UrlPolicy.NONE;
+		}
+		
+		UrlPolicy policy = match(root, path, 1);
+		return (policy != null ? policy : UrlPolicy.NONE);
+	}
+	
+	/*
+	 * The normalized form of a request URI, or null if it cannot be normalized
+	 * safely. A URI that is already normal, the usual case, is returned as is.
+	 */
+	public static String normalize(String uri)
+	{
+		if(uri == null || uri.length() == 0 || uri.charAt(0) != '/')
+		{
+			return null;
+		}
+		
+		if(isNormalized(uri))
+		{
+			return uri;
+		}
+		
+		List<String> segments = new ArrayList<String>();
+		int start = 1;
+		
+		while(start <= uri.length())
+		{
+			int end = uri.indexOf('/', start);
+			if(end < 0)
+			{
+				end = uri.length();
+			}
+			
+			String segment = uri.substring(start, end);
+			int params = segment.indexOf(';');
+			if(params >= 0)
+			{
+				segment = segment.substring(0, params);
+			}
+			
+			segment = decodeSegment(segment);
+			if(segment == null)
+			{
+				return null;
+			}
+			
+			if(segment.equals(".."))
+			{
+				if(segments.isEmpty())
+				{
+					return null;
+				}
+				segments.remove(segments.size() - 1);
+			}
+			else if(segment.length() > 0 && !segment.equals("."))
+			{
+				segments.add(segment);
+			}
+			
+			start = end + 1;
+		}
+		
+		if(segments.isEmpty())
+		{
+			return "/";
+		}
+		
+		StringBuilder path = new StringBuilder(uri.length());
+		for(String segment : segments)
+		{
+			path.append('/').append(segment);
+		}
+		
+		return path.toString();
+	}
+	
+	/*
+	 * The key URL specific tokens of a URI are issued and verified under, its
+	 * normalized path, so /pay;jsessionid=1 and /pay/ use the token of /pay
+	 */
+	public static String getTokenKey(String uri)
+	{
+		String path = normalize(uri);
+		return (path != null ? path : uri);
+	}
+	
+	/*
+	 * True if no segment is empty, a dot segment or holds a path parameter,
+	 * escape or backslash
+	 */
+	private static boolean isNormalized(String uri)
+	{
+		int length = uri.length();
+		if(length == 1)
+		{
+			return true;
+		}
+		
+		int segmentStart = 1;
+		for(int i = 1; i <= length; i++)
+		{
+			char c = (i < length ? uri.charAt(i) : '/');
+			
+			if(c == '/')
+			{
+				int segmentLength = i - segmentStart;
+				if(segmentLength == 0)
+				{
+					return false;
+				}
+				
+				if(uri.charAt(segmentStart) == '.' && (segmentLength == 1 
+						|| (segmentLength == 2 && uri.charAt(segmentStart + 1) == '.')))
+				{
+					return false;
+				}
+				
+				segmentStart = i + 1;
+			}
+			else if(c == ';' || c == '%' || c == '\\')
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/*
+	 * Decodes the %XX escapes of a segment as UTF-8. Returns null for a malformed
+	 * escape, a raw non ASCII character, or if the segment holds or decodes to a
+	 * separator, which containers either reject or treat as a path of their own.
+	 */
+	private static String decodeSegment(String segment)
+	{
+		if(segment.indexOf('%') < 0)
+		{
+			return (segment.indexOf('\\') < 0 ? segment : null);
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(segment.length());
+		for(int i = 0; i < segment.length(); i++)
+		{
+			char c = segment.charAt(i);
+			if(c > 0x7f)
+			{
+				return null;
+			}
+			
+			if(c != '%')
+			{
+				bytes.write(c);
+				continue;
+			}
+			
+			int high = (i + 2 < segment.length() ? Character.digit(segment.charAt(i + 1), 16) : -1);
+			int low = (high >= 0 ? Character.digit(segment.charAt(i + 2), 16) : -1);
+			if(low < 0)
+			{
+				return null;
+			}
+			
+			bytes.write((high << 4) | low);
+			i += 2;
+		}
+		
+		String decoded = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		if(decoded.indexOf('/') >= 0 || decoded.indexOf('\\') >= 0 || decoded.indexOf(';') >= 0 
+				|| decoded.indexOf('\0') >= 0)
+		{
+			return null;
+		}
+		
+		return decoded;
+	}
+	
+	/*
+	 * Matches the segment starting at start (just after a '/') against the children
+	 * of node, then recurses into the rest of the path.
+	 */
+	private static UrlPolicy match(Node node, String uri, int start)
+	{
+		int end = uri.indexOf('/', start);
+		if(end < 0)
+		{
+			end = uri.length();
+		}
+		
+		boolean last = (end == uri.length());
+		UrlPolicy policy = null;
+		
+		Node child = node.getChild(uri, start, end);
+		if(child != null)
+		{
+			policy = (last ? child.policy : match(child, uri, end + 1));
+		}
+		
+		if(policy == null && node.wildcard != null)
+		{
+			policy = (last ? node.wildcard.policy : match(node.wildcard, uri, end + 1));
+		}
+		
+		if(policy == null)
+		{
+			policy = node.prefixPolicy;
+		}
+		
+		return policy;
+	}
+	
+	public static class Builder
+	{
+		private final Map<String,UrlPolicy> rules = new LinkedHashMap<String,UrlPolicy>();
+		private final List<String> invalidPatterns = new ArrayList<String>();
+		
+		public Builder addExempt(String pattern)
+		{
+			String key = normalizePattern(pattern);
+			if(key != null)
+			{
+				rules.put(key, getPolicy(key, pattern).withExempt());
+			}
+			return this;
+		}
+		
+		public Builder addUrlSpecific(String pattern, long timeout)
+		{
+			String key = normalizePattern(pattern);
+			if(key != null)
+			{
+				rules.put(key, getPolicy(key, pattern).withUrlSpecific(timeout));
+			}
+			return this;
+		}
+		
+		public Builder addOneTimeUse(String pattern)
+		{
+			String key = normalizePattern(pattern);
+			if(key != null)
+			{
+				rules.put(key, getPolicy(key, pattern).withOneTimeUse());
+			}
+			return this;
+		}
+		
+		private UrlPolicy getPolicy(String key, String pattern)
+		{
+			UrlPolicy policy = rules.get(key);
+			return (policy != null ? policy : new UrlPolicy(pattern, false, false, 0L, false));
+		}
+		
+		/*
+		 * The pattern normalized like a request URI, keeping a trailing '/*' as the
+		 * prefix marker. Records the pattern as invalid and returns null if it cannot
+		 * be normalized.
+		 */
+		private String normalizePattern(String pattern)
+		{
+			boolean prefix = (pattern != null && pattern.endsWith("/" + WILDCARD));
+			String path = normalize(prefix ? pattern.substring(0, pattern.length() - 1) : pattern);
+			
+			if(path == null)
+			{
+				invalidPatterns.add(pattern);
+				return null;
+			}
+			
+			if(!prefix)
+			{
+				return path;
+			}
+			
+			return (path.equals("/") ? "/" + WILDCARD : path + "/" + WILDCARD);
+		}
+		
+		public UrlPolicyIndex build() throws CSRFConfigException
+		{
+			if(!invalidPatterns.isEmpty())
+			{
+				throw new CSRFConfigException("Invalid URL pattern configured, it cannot be normalized. " 
+						+ "EnteredValue=" + invalidPatterns.get(0));
+			}
+			
+			Node root = new Node(null);
+			
+			for(Map.Entry<String,UrlPolicy> rule : rules.entrySet())
+			{
+				String pattern = rule.getKey();
+				Node node = root;
+				int start = 1;
+				
+				while(true)
+				{
+					int end = pattern.indexOf('/', start);
+					boolean last = (end < 0);
+					String segment = (last ? pattern.substring(start) : pattern.substring(start, end));
+					
+					if(segment.equals(WILDCARD) && last)
+					{
+						node.prefixPolicy = rule.getValue();
+						break;
+					}
+					
+					if(segment.equals(WILDCARD))
+					{
+						if(node.wildcard == null)
+						{
+							node.wildcard = new Node(WILDCARD);
+						}
+						node = node.wildcard;
+					}
+					else
+					{
+						node = node.getOrAddChild(segment);
+					}
+					
+					if(last)
+					{
+						node.policy = rule.getValue();
+						break;
+					}
+					
+					start = end + 1;
+				}
+			}
+			
+			return new UrlPolicyIndex(root, rules.size());
+		}
+	}
+	
+	/*
+	 * Trie node. Literal children are kept in an open addressing table keyed by
+	 * String.hashCode() of the segment so lookups can hash and compare the segment
+	 * directly inside the request URI. Nodes are only modified while building.
+	 */
+	private static class Node
+	{
+		final String segment;
+		final int hash;
+		
+		Node[] children = new Node[0];
+		int childCount = 0;
+		Node wildcard;
+		UrlPolicy policy;
+		UrlPolicy prefixPolicy;
+		
+		Node(String segment)
+		{
+			this.segment = segment;
+			this.hash = (segment != null ? segment.hashCode() : 0);
+		}
+		
+		Node getChild(String uri, int start, int end)
+		{
+			if(childCount == 0)
+			{
+				return null;
+			}
+			
+			int h = 0;
+			for(int i = start; i < end; i++)
+			{
+				h = 31 * h + uri.charAt(i);
+			}
+			
+			int length = end - start;
+			int mask = children.length - 1;
+			
+			for(int i = spread(h) & mask; children[i] != null; i = (i + 1) & mask)
+			{
+				Node child = children[i];
+				if(child.hash == h && child.segment.length() == length
+						&& uri.regionMatches(start, child.segment, 0, length))
+				{
+					return child;
+				}
+			}
+			
+			return null;
+		}
+		
+		Node getOrAddChild(String segment)
+		{
+			Node child = getChild(segment, 0, segment.length());
+			if(child != null)
+			{
+				return child;
+			}
+			
+			// Keep the table at most half full
+			if((childCount + 1) * 2 > children.length)
+			{
+				Node[] old = children;
+				children = new Node[Math.max(4, old.length * 2)];
+				for(Node n : old)
+				{
+					if(n != null)
+					{
+						insert(n);
+					}
+				}
+			}
+			
+			child = new Node(segment);
+			insert(child);
+			childCount++;
+			return child;
+		}
+		
+		private void insert(Node child)
+		{
+			int mask = children.length - 1;
+			int i = spread(child.hash) & mask;
+			while(children[i] != null)
+			{
+				i = (i + 1) & mask;
+			}
+			children[i] = child;
+		}
+		
+		private static int spread(int h)
+		{
+			return h ^ (h >>> 16);
+		}
+	}
+}
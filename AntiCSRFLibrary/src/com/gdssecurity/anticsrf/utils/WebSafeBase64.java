@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2016 Gotham Digital Science LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gdssecurity.anticsrf.utils;
+
+/*
+ * URL and filename safe Base64 (RFC 4648 section 5) without padding, which is the
+ * encoding Keyczar uses for signatures and key material. decode() is strict and
+ * returns null for any input that is not valid unpadded web safe Base64.
+ */
+public class WebSafeBase64
+{
+	private static final char[] ENCODE_TABLE = 
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	
+	private static final byte[] DECODE_TABLE = new byte[128];
+	
+	static
+	{
+		for(int i = 0; i < DECODE_TABLE.length; i++)
+		{
+			DECODE_TABLE[i] = -1;
+		}
+		
+		for(int i = 0; i < ENCODE_TABLE.length; i++)
+		{
+			DECODE_TABLE[ENCODE_TABLE[i]] = (byte) i;
+		}
+	}
+	
+	public static String encode(byte[] data)
+	{
+		return encode(data, 0, data.length);
+	}
+	
+	public static String encode(byte[] data, int offset, int length)
+	{
+		char[] out = new char[(length * 4 + 2) / 3];
+		int end = offset + length;
+		int o = 0;
+		int i = offset;
+		
+		while(end - i >= 3)
+		{
+			int b = ((data[i] & 0xFF) << 16) | ((data[i+1] & 0xFF) << 8) | (data[i+2] & 0xFF);
+			out[o++] = ENCODE_TABLE[(b >>> 18) & 0x3F];
+			out[o++] = ENCODE_TABLE[(b >>> 12) & 0x3F];
+			out[o++] = ENCODE_TABLE[(b >>> 6) & 0x3F];
+			out[o++] = ENCODE_TABLE[b & 0x3F];
+			i += 3;
+		}
+		
+		int remaining = end - i;
+		if(remaining == 1)
+		{
+			int b = (data[i] & 0xFF) << 16;
+			out[o++] = ENCODE_TABLE[(b >>> 18) & 0x3F];
+			out[o++] = ENCODE_TABLE[(b >>> 12) & 0x3F];
+		}
+		else if(remaining == 2)
+		{
+			int b = ((data[i] & 0xFF) << 16) | ((data[i+1] & 0xFF) << 8);
+			out[o++] = ENCODE_TABLE[(b >>> 18) & 0x3F];
+			out[o++] = ENCODE_TABLE[(b >>> 12) & 0x3F];
+			out[o++] = ENCODE_TABLE[(b >>> 6) & 0x3F];
+		}
+		
+		return new String(out);
+	}
+	
+	public static byte[] decode(String data)
+	{
+		return decode(data, 0, data.length());
+	}
+	
+	public static byte[] decode(CharSequence data, int start, int end)
+	{
+		int length = end - start;
+		
+		// A single trailing character can never encode a whole byte
+		if(length % 4 == 1)
+		{
+			return null;
+		}
+		
+		byte[] out = new byte[(length * 3) / 4];
+		return (decode(data, start, end, out, 0) < 0 ? null : out);
+	}
+	
+	/*
+	 * Decodes data[start, end) into out starting at outOffset, which must have room
+	 * for (end - start) * 3 / 4 bytes. Returns the number of bytes written, or -1 if
+	 * the input is not valid unpadded web safe Base64.
+	 */
+	public static int decode(CharSequence data, int start, int end, byte[] out, int outOffset)
+	{
+		if((end - start) % 4 == 1)
+		{
+			return -1;
+		}
+		
+		int o = outOffset;
+		int bits = 0;
+		int bitCount = 0;
+		
+		for(int i = start; i < end; i++)
+		{
+			char c = data.charAt(i);
+			int v = (c < 128 ? DECODE_TABLE[c] : -1);
+			if(v < 0)
+			{
+				return -1;
+			}
+			
+			bits = ((bits << 6) | v) & 0xFFFFFF;
+			bitCount += 6;
+			
+			if(bitCount >= 8)
+			{
+				bitCount -= 8;
+				out[o++] = (byte) (bits >>> bitCount);
+			}
+		}
+		
+		return o - outOffset;
+	}
+}